@@ -0,0 +1,61 @@
+package org.kedar.pra;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>
+ *     The entry point of the benchmark jar, built with {@code mvn -Pbench package}. Takes the usual JMH command line,
+ *     e.g. a regular expression of the benchmarks to run or {@code -p learners=1000}, but unless told otherwise, writes
+ *     the results as JSON to {@code jmh-result.json} and adds the GC profiler, so that every run reports the
+ *     allocation rate per operation next to the time and can be compared with earlier runs.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams() || cmd.shouldListProfilers()
+                || cmd.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+        if (!cmd.getResultFormat().hasValue())
+            options.resultFormat(ResultFormatType.JSON);
+        if (!cmd.getResult().hasValue())
+            options.result("jmh-result.json");
+        if (cmd.getProfilers().isEmpty())
+            options.addProfiler(GCProfiler.class);
+        new Runner(options.build()).run();
+    }
+
+    /**
+     * @return a reproducible population of not yet started learners, drawn like the random inputs of the tests, whose
+     * first submissions start in the first quarter of the ticks
+     */
+    static List<Learner> population(long seed, int learners, int ticks) {
+        Random random = new Random(seed);
+        List<Learner> population = new ArrayList<>(learners);
+        for (int lid = 1; lid <= learners; lid++)
+            population.add(Learner.inactive(lid, new TimeTick(random.nextInt(Math.max(1, ticks / 4))),
+                    60 + random.nextInt(41), random.nextInt(11) - 5));
+        return population;
+    }
+}
@@ -0,0 +1,65 @@
+package org.kedar.pra;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *     A whole simulation of {@code learners} learners over {@code ticks} ticks on every engine: the tick-stepping
+ *     {@linkplain Simulator#mainLoop(int, int, java.util.Set, SubmissionPool, java.util.function.Consumer)}, the
+ *     {@linkplain EventLoop}, the {@linkplain ParallelLoop} and the {@linkplain LearnerStore}. The population is set
+ *     up before every run, outside the measurement.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MainLoopBenchmark {
+
+    @Param({"1000", "10000"})
+    public int learners;
+
+    @Param({"1000", "10000"})
+    public int ticks;
+
+    @Param({"scan", "indexed"})
+    public String pool;
+
+    private List<Learner> population;
+    private SubmissionPool sPool;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        population = Benchmarks.population(42, learners, ticks);
+        sPool = "indexed".equals(pool) ? new IndexedSubmissionPool() : new SubmissionPool();
+    }
+
+    @Benchmark
+    public void tick(Blackhole bh) {
+        Simulator.mainLoop(0, ticks, new LinkedHashSet<>(population), sPool, bh::consume);
+    }
+
+    @Benchmark
+    public void event(Blackhole bh) {
+        EventLoop.run(0, ticks, population, sPool, bh::consume);
+    }
+
+    @Benchmark
+    public void parallel(Blackhole bh) {
+        ParallelLoop.run(0, ticks, population, sPool, Runtime.getRuntime().availableProcessors(), bh::consume);
+    }
+
+    @Benchmark
+    public void columnar(Blackhole bh) {
+        // the store has no pool to choose, and copying the learners into it is part of the run
+        LearnerStore.of(population).run(0, ticks, bh::consume);
+    }
+}
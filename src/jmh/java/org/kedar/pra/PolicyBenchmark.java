@@ -0,0 +1,77 @@
+package org.kedar.pra;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *     The throughput of every {@linkplain ReviewAssignmentPolicy}: {@linkplain SubmissionPool#retrieve(Learner)} by
+ *     the next of a few reviewers, followed by {@linkplain SubmissionPool#resubmit(Submission)} of the retrieved
+ *     submission, which keeps the pool at its size. The pooled submissions have random start ticks, numbers of reviews
+ *     and owners' review biases, so that every policy has an order to keep up, and every reviewer has reviewed
+ *     {@code excluded} of the submissions it would get first otherwise.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolicyBenchmark {
+
+    private static final int REVIEWERS = 8;
+
+    @Param({"insertion-order", "fewest-reviews", "oldest", "closest-bias"})
+    public String policy;
+
+    @Param({"1024", "65536"})
+    public int poolSize;
+
+    @Param({"0", "2"})
+    public int excluded;
+
+    private SubmissionPool sPool;
+    private Learner[] reviewers;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(poolSize);
+        reviewers = new Learner[REVIEWERS];
+        for (int r = 0; r < REVIEWERS; r++)
+            reviewers[r] = Learner.inactive(r, new TimeTick(0), 80, random.nextInt(41) - 20);
+        Learner[] others = new Learner[2]; // who reviewed the pooled submissions so far
+        for (int o = 0; o < others.length; o++)
+            others[o] = Learner.inactive(REVIEWERS + poolSize + o, new TimeTick(0), 80, 0);
+        sPool = new SubmissionPool(ReviewAssignmentPolicies.forName(policy));
+        for (int lid = REVIEWERS; lid < REVIEWERS + poolSize; lid++) {
+            LinkedList<Learner> reviewedBy = new LinkedList<>();
+            for (int o = random.nextInt(others.length + 1); o > 0; o--)
+                reviewedBy.add(others[o - 1]);
+            sPool.submit(new Submission(Learner.inactive(lid, new TimeTick(0), 80, random.nextInt(41) - 20), 1,
+                    new TimeTick(random.nextInt(1 << 20)), SubmissionState.SUBMITTED_TO_REVIEW, reviewedBy, 0));
+        }
+        for (Learner reviewer : reviewers) { // the first ones it would get have been reviewed by it already
+            Submission[] first = new Submission[excluded];
+            for (int i = 0; i < excluded; i++)
+                first[i] = sPool.retrieve(reviewer);
+            for (Submission s : first) {
+                s.reviewers.addFirst(reviewer);
+                sPool.resubmit(s);
+            }
+        }
+    }
+
+    @Benchmark
+    public Submission retrieveAndResubmit() {
+        Learner reviewer = reviewers[next++ & REVIEWERS - 1];
+        Submission submission = sPool.retrieve(reviewer);
+        sPool.resubmit(submission);
+        return submission;
+    }
+}
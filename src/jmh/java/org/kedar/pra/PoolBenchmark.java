@@ -0,0 +1,55 @@
+package org.kedar.pra;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *     {@linkplain SubmissionPool#retrieve(Learner)} followed by {@linkplain SubmissionPool#resubmit(Submission)} of the
+ *     retrieved submission, which keeps the pool at its size. The reviewer has already reviewed the oldest
+ *     {@code excluded} submissions, which stay at the head of the pool and have to be skipped every time.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoolBenchmark {
+
+    @Param({"scan", "indexed"})
+    public String pool;
+
+    @Param({"16", "1024", "65536"})
+    public int poolSize;
+
+    @Param({"0", "2"})
+    public int excluded;
+
+    private SubmissionPool sPool;
+    private Learner me;
+
+    @Setup
+    public void setUp() {
+        sPool = "indexed".equals(pool) ? new IndexedSubmissionPool() : new SubmissionPool();
+        me = Learner.inactive(0, new TimeTick(0), 80, 0);
+        for (int lid = 1; lid <= poolSize; lid++) {
+            LinkedList<Learner> reviewers = new LinkedList<>();
+            if (lid <= excluded)
+                reviewers.add(me);
+            sPool.submit(new Submission(Learner.inactive(lid, new TimeTick(0), 80, 0), 1, new TimeTick(0),
+                    SubmissionState.SUBMITTED_TO_REVIEW, reviewers, 0));
+        }
+    }
+
+    @Benchmark
+    public Submission retrieveAndResubmit() {
+        Submission submission = sPool.retrieve(me);
+        sPool.resubmit(submission);
+        return submission;
+    }
+}
@@ -0,0 +1,56 @@
+package org.kedar.pra;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import static org.kedar.pra.Config.REVIEWS_REQUIRED_PER_SUBMISSION;
+
+/**
+ * <p>
+ *     {@linkplain Submission#currentScore()}, {@linkplain Submission#toOutput()} and the grading checks, on a
+ *     submission with {@code reviews} reviews.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubmissionBenchmark {
+
+    @Param({"1", "3"})
+    public int reviews;
+
+    private Submission submission;
+    private TimeTick at;
+
+    @Setup
+    public void setUp() {
+        if (reviews > REVIEWS_REQUIRED_PER_SUBMISSION)
+            throw new IllegalArgumentException("too many reviews: " + reviews);
+        submission = new Submission(Learner.inactive(0, new TimeTick(0), 80, 0), 1, new TimeTick(0),
+                SubmissionState.SUBMITTED_TO_REVIEW, new LinkedList<>(), 0);
+        for (int lid = 1; lid <= reviews; lid++)
+            submission.provideReview(Learner.inactive(lid, new TimeTick(0), 80, lid - 2), new TimeTick(100 + lid));
+        at = new TimeTick(200);
+    }
+
+    @Benchmark
+    public int currentScore() {
+        return submission.currentScore();
+    }
+
+    @Benchmark
+    public boolean isFailing() {
+        return submission.isFailing(at);
+    }
+
+    @Benchmark
+    public String toOutput() {
+        return submission.toOutput();
+    }
+}
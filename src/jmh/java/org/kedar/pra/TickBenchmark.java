@@ -0,0 +1,54 @@
+package org.kedar.pra;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *     A single tick of {@linkplain Learner#respondTo(TimeTick, SubmissionPool)} over all the learners, the body of
+ *     the tick-stepping main loop. Successive invocations run successive ticks of the same population, so the learners
+ *     go through all their states; once {@code ticks} have run, a fresh population is set up outside the measurement.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TickBenchmark {
+
+    @Param({"1000", "10000"})
+    public int learners;
+
+    @Param({"1000"})
+    public int ticks;
+
+    private List<Learner> population;
+    private SubmissionPool pool;
+    private int at;
+
+    @Setup(Level.Iteration)
+    public void newPopulation() {
+        population = Benchmarks.population(42, learners, ticks);
+        pool = new SubmissionPool();
+        at = 0;
+    }
+
+    @Setup(Level.Invocation)
+    public void wrapAround() {
+        if (at == ticks)
+            newPopulation();
+    }
+
+    @Benchmark
+    public void respondTo(Blackhole bh) {
+        long curr = at++;
+        for (Learner learner : population)
+            bh.consume(learner.respondTo(curr, pool));
+    }
+}
@@ -1,11 +1,46 @@
 package org.kedar.pra;
 
 /**
+ * <p>
+ *     An assignment of a course: its id, the tick, counted from each learner's first submission start tick, at which
+ *     a learner starts on it, and the {@linkplain Config} its grading follows. A single-assignment run is a run of
+ *     {@linkplain #DEFAULT}; {@linkplain Course} runs several over the same learners.
+ * </p>
  * Created by kedar on 10/15/16.
  */
 public final class Assignment {
 
+    public static final Assignment DEFAULT = new Assignment(1, 0, Config.DEFAULT);
+
+    final int aid;
+    final int releaseTick;
+    final Config config;
+
+    private Assignment(int aid, int releaseTick, Config config) {
+        this.aid = aid;
+        this.releaseTick = releaseTick;
+        this.config = config;
+    }
+
+    /**
+     * @param aid         the id of the assignment
+     * @param releaseTick how many ticks after its first submission start tick a learner starts on the assignment
+     * @param config      the grading of the assignment
+     */
+    public static Assignment of(int aid, int releaseTick, Config config) {
+        if (releaseTick < 0)
+            throw new IllegalArgumentException("invalid release tick: " + releaseTick);
+        if (config == null)
+            throw new IllegalArgumentException("null config");
+        return new Assignment(aid, releaseTick, config);
+    }
+
     public static int getId() {
-        return 1; // TODO; for now
+        return DEFAULT.aid;
+    }
+
+    @Override
+    public String toString() {
+        return "assignment " + aid + " at +" + releaseTick + " (" + config + ")";
     }
 }
@@ -0,0 +1,576 @@
+package org.kedar.pra;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * <p>
+ *     The full state of a simulation of {@linkplain Learner}s between two ticks, saved to and restored from a compact
+ *     binary file, so that a long run can be resumed where it was stopped and produce the same remaining output.
+ * </p>
+ * <p>
+ *     Taking a checkpoint only stops the simulation to copy the pool order, see {@linkplain Series}. Another thread
+ *     then encodes the learners and their submissions into memory-mapped regions of the file while the simulation goes
+ *     on. A learner that is about to change before that thread has reached it is first encoded by the thread that
+ *     changes it, so the file holds the state at the tick of the checkpoint all the same. The file is written under a
+ *     temporary name, forced to the disk and then renamed, so a run killed while checkpointing leaves the previous
+ *     checkpoint intact. All numbers are big-endian. A learner is referred to by its position, and a submission by its
+ *     owner's position and its sequence number, so that every learner's record can be written on its own:
+ * </p>
+ * <pre>
+ *     header   magic, version, tick (long), ticks (long), learners, submissions, pooled, the {@linkplain Config}
+ *              all the learners follow: reviews required per submission and per learner, passing points, work
+ *              ticks, review ticks; the assignment they all work on
+ *     learner  lid, first submission start tick (long), true grade, review bias, state (byte), submissions, the
+ *              sequence number of the first one, since older ones may have gone to a {@linkplain SubmissionArchive},
+ *              per submission: aid, tick (long), state (byte), latest review tick (long), reviewers (byte),
+ *                              reviewer positions,
+ *              reviews done (byte), per review: owner position and sequence number, -1 and -1 if it found nothing
+ *     pool     per pooled submission, oldest first: owner position and sequence number
+ * </pre>
+ * Created by kedar on 10/15/16.
+ */
+public final class Checkpoint {
+
+    private static final int MAGIC = 0x50524143; // "PRAC"
+    private static final int VERSION = 4;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 5 * 4 + 4;
+    private static final int REGION_BYTES = 64 << 20;
+    private static final LearnerState[] LEARNER_STATES = LearnerState.values();
+    private static final SubmissionState[] SUBMISSION_STATES = SubmissionState.values();
+
+    /** the first tick still to be run */
+    public final int tick;
+    /** the end of the run, exclusive */
+    public final int ticks;
+    private final Set<Learner> learners;
+
+    private Checkpoint(int tick, int ticks, Set<Learner> learners) {
+        this.tick = tick;
+        this.ticks = ticks;
+        this.learners = learners;
+    }
+
+    /**
+     * @return the restored learners, in the order they were saved
+     */
+    public Set<Learner> learners() {
+        return learners;
+    }
+
+    /**
+     * Saves the state of a simulation that has run up to, but not including, the given tick, and waits until it is
+     * saved.
+     *
+     * @param path     the file to write
+     * @param tick     the first tick still to be run
+     * @param ticks    the end of the run, exclusive
+     * @param learners all the learners, in the order they respond within a tick, following the same parameters and
+     *                 working on the same assignment
+     * @param pool     the pool the learners use
+     * @see Series
+     */
+    public static void write(Path path, int tick, int ticks, Collection<Learner> learners, SubmissionPool pool) {
+        Series series = Series.of(learners);
+        series.start(path, tick, ticks, pool, Runnable::run, REGION_BYTES);
+        series.await();
+    }
+
+    /**
+     * <p>
+     *     The checkpoints of a run, each saved on a thread of its own while the simulation goes on. Numbering the
+     *     learners and checking their parameters takes a pass over them, which is done once, when the series is set
+     *     up; a checkpoint then only waits for the previous one, if need be, and copies the pool order.
+     * </p>
+     * <p>
+     *     Every learner keeps the number of the latest checkpoint it has been saved by, and is saved by whichever
+     *     thread first takes it over: the one writing the file when it gets to the learner, or one of the
+     *     simulation's when the learner, or one of its submissions, is about to change. The latter encodes the
+     *     learner's record on the heap, for the writer to copy when it gets there. The simulation must not
+     *     {@linkplain SubmissionArchive#compact compact} its submissions while a checkpoint is being saved, see
+     *     {@linkplain #await()}.
+     * </p>
+     */
+    public static final class Series {
+        private static final AtomicIntegerFieldUpdater<Learner> SAVED =
+                AtomicIntegerFieldUpdater.newUpdater(Learner.class, "checkpointSaved");
+        /** the checkpoint a learner is being encoded for, instead of the latest one it has been saved by */
+        private static final int SAVING = -1;
+
+        private final Learner[] order;
+        private final Config config;
+        private final int aid;
+        /** the latest checkpoint */
+        private volatile Pending current;
+        private int checkpoints;
+
+        private Series(Learner[] order, Config config, int aid) {
+            this.order = order;
+            this.config = config;
+            this.aid = aid;
+        }
+
+        /**
+         * Numbers the given learners, and has them save themselves for a checkpoint of this series before changing.
+         *
+         * @param learners all the learners, in the order they respond within a tick, following the same parameters
+         *                 and working on the same assignment
+         */
+        public static Series of(Collection<Learner> learners) {
+            Learner first = learners.isEmpty() ? null : learners.iterator().next();
+            Config config = first == null ? Config.DEFAULT : first.config;
+            int aid = first == null ? Assignment.getId() : first.aid;
+            Learner[] order = new Learner[learners.size()];
+            int position = 0;
+            for (Learner learner : learners) {
+                if (!learner.config.equals(config))
+                    throw new IllegalArgumentException("learner " + learner.lid + " follows other parameters: "
+                            + learner.config);
+                if (learner.aid != aid)
+                    throw new IllegalArgumentException("learner " + learner.lid + " works on another assignment: "
+                            + learner.aid);
+                if (learner.checkpoints != null && !learner.checkpoints.isSaved())
+                    throw new IllegalStateException("learner " + learner.lid + " is still being checkpointed");
+                learner.checkpointPosition = position;
+                order[position++] = learner;
+            }
+            Series series = new Series(order, config, aid);
+            for (Learner learner : order) {
+                learner.checkpointSaved = 0;
+                learner.checkpoints = series;
+            }
+            return series;
+        }
+
+        /**
+         * Starts saving the state of a simulation that has run up to, but not including, the given tick, once the
+         * previous checkpoint is saved. The simulation may go on as soon as this returns.
+         *
+         * @param path  the file to write
+         * @param tick  the first tick still to be run
+         * @param ticks the end of the run, exclusive
+         * @param pool  the pool the learners use
+         * @throws UncheckedIOException if the previous checkpoint could not be written
+         */
+        public void start(Path path, int tick, int ticks, SubmissionPool pool) {
+            start(path, tick, ticks, pool, r -> new Thread(r, "checkpoint").start(), REGION_BYTES);
+        }
+
+        /**
+         * Same as {@linkplain #start(Path, int, int, SubmissionPool)}, encoding on the given executor into regions
+         * of about the given size.
+         */
+        void start(Path path, int tick, int ticks, SubmissionPool pool, Executor executor, int regionBytes) {
+            await();
+            long[] pooled = new long[pool.size()];
+            int[] nPooled = new int[1];
+            pool.forEachInOrder(s -> pooled[nPooled[0]++] = (long) position(s.owner, order.length) << 32
+                    | s.sequenceNumber);
+            Pending pending = new Pending(++checkpoints);
+            current = pending;
+            pending.written = CompletableFuture.runAsync(() -> {
+                boolean written = false;
+                try {
+                    write(pending, path, tick, ticks, pooled, regionBytes);
+                    written = true;
+                } finally {
+                    if (!written)
+                        release(pending);
+                }
+            }, executor);
+        }
+
+        /**
+         * Waits until the latest checkpoint is saved.
+         *
+         * @throws UncheckedIOException if it could not be written
+         */
+        public void await() {
+            Pending pending = current;
+            if (pending == null)
+                return;
+            try {
+                pending.written.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw e;
+            }
+        }
+
+        private boolean isSaved() {
+            Pending pending = current;
+            return pending == null || pending.written.isDone();
+        }
+
+        /**
+         * Saves the given learner, which is about to change, for the checkpoint being saved, unless it has been
+         * already.
+         */
+        void save(Learner learner) {
+            Pending pending = current;
+            if (pending == null || learner.checkpointSaved == pending.number)
+                return;
+            if (SAVED.compareAndSet(learner, pending.number - 1, SAVING)) {
+                int i = learner.checkpointPosition;
+                ByteBuffer record = ByteBuffer.allocate(recordBytes(learner));
+                pending.savedSubmissions[i] = putLearner(record, learner, order.length);
+                pending.saved[i] = record.array();
+                learner.checkpointSaved = pending.number;
+            } else {
+                awaitSaved(learner);
+            }
+        }
+
+        private void write(Pending pending, Path path, int tick, int ticks, long[] pooled, int regionBytes) {
+            int n = order.length;
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    Writer out = new Writer(channel, regionBytes);
+                    out.ensure(HEADER_BYTES).position(HEADER_BYTES);
+                    long nSubmissions = 0;
+                    for (int i = 0; i < n; i++) {
+                        Learner learner = order[i];
+                        if (SAVED.compareAndSet(learner, pending.number - 1, SAVING)) {
+                            nSubmissions += putLearner(out.ensure(recordBytes(learner)), learner, n);
+                            learner.checkpointSaved = pending.number;
+                        } else {
+                            awaitSaved(learner);
+                            out.ensure(pending.saved[i].length).put(pending.saved[i]);
+                            nSubmissions += pending.savedSubmissions[i];
+                            pending.saved[i] = null;
+                        }
+                    }
+                    for (long reference : pooled)
+                        out.ensure(8).putInt((int) (reference >>> 32)).putInt((int) reference);
+                    if (nSubmissions > Integer.MAX_VALUE)
+                        throw new IllegalStateException("too many submissions to checkpoint: " + nSubmissions);
+                    out.header.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, tick).putLong(16, ticks)
+                            .putInt(24, n).putInt(28, (int) nSubmissions).putInt(32, pooled.length)
+                            .putInt(36, config.reviewsRequiredPerSubmission)
+                            .putInt(40, config.reviewsRequiredPerLearner).putInt(44, config.passingPoints)
+                            .putInt(48, config.workTicks).putInt(52, config.reviewTicks).putInt(56, aid);
+                    out.force();
+                    channel.truncate(out.size());
+                    channel.force(true);
+                }
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Marks the learners a failed checkpoint did not get to as saved, so that the simulation stops saving them.
+         */
+        private void release(Pending pending) {
+            for (Learner learner : order) {
+                SAVED.compareAndSet(learner, pending.number - 1, pending.number);
+                awaitSaved(learner);
+            }
+        }
+
+        private static void awaitSaved(Learner learner) {
+            while (learner.checkpointSaved == SAVING)
+                Thread.yield();
+        }
+
+        /**
+         * A checkpoint of the series, and the records of the learners the simulation saved ahead of the writer.
+         */
+        private final class Pending {
+            final int number;
+            final byte[][] saved = new byte[order.length][]; // by position
+            final int[] savedSubmissions = new int[order.length];
+            CompletableFuture<Void> written;
+
+            Pending(int number) {
+                this.number = number;
+            }
+        }
+    }
+
+    /**
+     * Encodes the record of the given learner, see {@linkplain #recordBytes(Learner)}.
+     *
+     * @param n the number of learners checkpointed
+     * @return the number of its submissions
+     */
+    private static int putLearner(ByteBuffer buf, Learner learner, int n) {
+        buf.putInt(learner.lid).putLong(learner.firstSubmissionStartTick.getValue())
+                .putInt(learner.trueGrade).putInt(learner.reviewBias)
+                .put((byte) learner.state.ordinal()).putInt(learner.submissions.size());
+        int firstSeq = firstSequenceNumber(learner), seq = firstSeq;
+        buf.putInt(firstSeq);
+        for (Submission s : learner.submissions) {
+            if (s.sequenceNumber != seq++)
+                throw new IllegalStateException("learner " + learner.lid + ": unexpected sequence number "
+                        + s.sequenceNumber);
+            buf.putInt(s.aid).putLong(s.tick).put((byte) s.state.ordinal()).putLong(s.lastReviewTick)
+                    .put((byte) s.reviewers.size());
+            for (Learner reviewer : s.reviewers)
+                buf.putInt(position(reviewer, n));
+        }
+        buf.put((byte) learner.reviewsDone.size());
+        for (Submission s : learner.reviewsDone)
+            putReference(buf, s, n);
+        return seq - firstSeq;
+    }
+
+    /**
+     * @return the size of the record of the given learner
+     * @throws IllegalStateException if it has too many reviews to checkpoint
+     */
+    private static int recordBytes(Learner learner) {
+        int bytes = 4 + 8 + 4 + 4 + 1 + 4 + 4 + 1 + 8 * checkedCount(learner.reviewsDone.size());
+        for (Submission s : learner.submissions)
+            bytes += 4 + 8 + 1 + 8 + 1 + 4 * checkedCount(s.reviewers.size());
+        return bytes;
+    }
+
+    /**
+     * Restores the learners of a checkpoint, and puts the pooled submissions into the given pool, in their order.
+     *
+     * @param path the file written by {@linkplain #write(Path, int, int, Collection, SubmissionPool)}
+     * @param pool an empty pool
+     * @return the checkpoint
+     * @throws IllegalArgumentException if the file is not a checkpoint or the pool is not empty
+     */
+    public static Checkpoint read(Path path, SubmissionPool pool) {
+        return read(path, pool, REGION_BYTES);
+    }
+
+    /**
+     * Same as {@linkplain #read(Path, SubmissionPool)}, mapping windows of about the given size.
+     */
+    static Checkpoint read(Path path, SubmissionPool pool, int windowBytes) {
+        if (pool.size() != 0)
+            throw new IllegalArgumentException("the pool is not empty: " + pool.size());
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES)
+                throw new IllegalArgumentException("not a checkpoint: " + path);
+            Reader buf = new Reader(channel, windowBytes);
+            if (buf.getInt() != MAGIC)
+                throw new IllegalArgumentException("not a checkpoint: " + path);
+            int version = buf.getInt();
+            if (version != VERSION)
+                throw new IllegalArgumentException("unsupported checkpoint version: " + version);
+            int tick = (int) buf.getLong();
+            int ticks = (int) buf.getLong();
+            int nLearners = buf.getInt();
+            buf.getInt(); // the number of submissions
+            int nPooled = buf.getInt();
+            Config config = Config.DEFAULT.withReviewsRequired(buf.getInt(), buf.getInt())
+                    .withPassingPoints(buf.getInt()).withWorkTicks(buf.getInt()).withReviewTicks(buf.getInt());
+            int assignment = buf.getInt();
+            // first pass: the learners, since any submission may have been reviewed by any learner
+            Learner[] learners = new Learner[nLearners];
+            long[] records = new long[nLearners]; // where the submissions of each learner start
+            int[] first = new int[nLearners]; // the sequence number of each learner's first submission
+            for (int i = 0; i < nLearners; i++) {
+                int lid = buf.getInt();
+                TimeTick start = new TimeTick(buf.getLong());
+                int trueGrade = buf.getInt();
+                int reviewBias = buf.getInt();
+                learners[i] = Learner.restore(lid, start, LEARNER_STATES[buf.get()], trueGrade, reviewBias,
+                        config, assignment);
+                records[i] = buf.position();
+                int k = buf.getInt();
+                first[i] = buf.getInt();
+                for (; k > 0; k--) {
+                    buf.position(buf.position() + 4 + 8 + 1 + 8);
+                    int reviewers = buf.get();
+                    buf.position(buf.position() + 4 * reviewers);
+                }
+                int reviews = buf.get();
+                buf.position(buf.position() + 8 * reviews);
+            }
+            long end = buf.position();
+            // second pass: the submissions, then the reviews, which may refer to any learner's submissions
+            for (int i = 0; i < nLearners; i++) {
+                buf.position(records[i]);
+                int k = buf.getInt();
+                buf.getInt(); // the first sequence number
+                for (int seq = first[i], last = first[i] + k; seq < last; seq++) {
+                    int aid = buf.getInt();
+                    long at = buf.getLong();
+                    SubmissionState state = SUBMISSION_STATES[buf.get()];
+                    long lastReviewTick = buf.getLong();
+                    LinkedList<Learner> reviewers = new LinkedList<>();
+                    for (int r = buf.get(); r > 0; r--)
+                        reviewers.addLast(learners[buf.getInt()]);
+                    Submission s = new Submission(learners[i], aid, at, state, reviewers, seq);
+                    s.lastReviewTick = lastReviewTick;
+                    learners[i].submissions.addLast(s);
+                }
+                records[i] = buf.position();
+            }
+            Submission[][] bySequence = new Submission[nLearners][];
+            for (int i = 0; i < nLearners; i++)
+                bySequence[i] = learners[i].submissions.toArray(new Submission[0]);
+            for (int i = 0; i < nLearners; i++) {
+                buf.position(records[i]);
+                for (int r = buf.get(); r > 0; r--)
+                    learners[i].reviewsDone.addLast(getReference(buf, bySequence, first));
+            }
+            buf.position(end);
+            for (int k = 0; k < nPooled; k++)
+                pool.resubmit(getReference(buf, bySequence, first));
+            Set<Learner> restored = new LinkedHashSet<>(nLearners * 2);
+            for (Learner learner : learners)
+                restored.add(learner);
+            return new Checkpoint(tick, ticks, restored);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Maps the file a region at a time; a learner's record never spans two regions. A region is forced to the disk
+     * when the next one is mapped.
+     */
+    private static final class Writer {
+        private final FileChannel channel;
+        private final int regionBytes;
+        private long regionStart;
+        /** the first region, which the header is written to last */
+        final MappedByteBuffer header;
+        private MappedByteBuffer buf;
+
+        Writer(FileChannel channel, int regionBytes) throws IOException {
+            this.channel = channel;
+            this.regionBytes = Math.max(HEADER_BYTES, regionBytes);
+            this.header = this.buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.regionBytes);
+        }
+
+        MappedByteBuffer ensure(long bytes) {
+            if (buf.remaining() < bytes) {
+                regionStart += buf.position();
+                if (buf != header)
+                    buf.force();
+                try {
+                    buf = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(regionBytes, bytes));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return buf;
+        }
+
+        void force() {
+            header.force();
+            buf.force();
+        }
+
+        long size() {
+            return regionStart + buf.position();
+        }
+    }
+
+    /**
+     * Maps the file a window at a time, and maps the next one whenever a number would run past the current one.
+     */
+    private static final class Reader {
+        private final FileChannel channel;
+        private final int windowBytes;
+        private long windowStart;
+        private MappedByteBuffer buf;
+
+        Reader(FileChannel channel, int windowBytes) {
+            this.channel = channel;
+            this.windowBytes = Math.max(8, windowBytes);
+            map(0);
+        }
+
+        long position() {
+            return windowStart + buf.position();
+        }
+
+        void position(long position) {
+            if (position >= windowStart && position - windowStart <= buf.limit())
+                buf.position((int) (position - windowStart));
+            else
+                map(position);
+        }
+
+        byte get() {
+            return ensure(1).get();
+        }
+
+        int getInt() {
+            return ensure(4).getInt();
+        }
+
+        long getLong() {
+            return ensure(8).getLong();
+        }
+
+        private MappedByteBuffer ensure(int bytes) {
+            if (buf.remaining() < bytes)
+                map(position());
+            return buf;
+        }
+
+        private void map(long position) {
+            try {
+                long size = channel.size();
+                if (position > size)
+                    throw new IllegalArgumentException("truncated checkpoint");
+                windowStart = position;
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowBytes, size - position));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static void putReference(ByteBuffer buf, Submission s, int n) {
+        if (s == null)
+            buf.putInt(-1).putInt(-1);
+        else
+            buf.putInt(position(s.owner, n)).putInt(s.sequenceNumber);
+    }
+
+    private static Submission getReference(Reader buf, Submission[][] bySequence, int[] first) {
+        int owner = buf.getInt(), seq = buf.getInt();
+        return owner < 0 ? null : bySequence[owner][seq - first[owner]];
+    }
+
+    /**
+     * @return the sequence number of the learner's oldest submission left, see {@linkplain SubmissionArchive}
+     */
+    static int firstSequenceNumber(Learner learner) {
+        Submission first = learner.submissions.peekFirst();
+        return first == null ? 0 : first.sequenceNumber;
+    }
+
+    private static int checkedCount(int n) {
+        if (n > Byte.MAX_VALUE)
+            throw new IllegalStateException("too many reviews to checkpoint: " + n);
+        return n;
+    }
+
+    private static int position(Learner learner, int n) {
+        int i = learner.checkpointPosition;
+        if (i < 0 || i >= n)
+            throw new IllegalStateException("learner " + learner.lid + " is not one of the checkpointed learners");
+        return i;
+    }
+}
@@ -1,12 +1,139 @@
 package org.kedar.pra;
 
 /**
+ * <p>
+ *     The parameters of the grading policy. The constants are the defaults, which {@linkplain #DEFAULT} holds; a run
+ *     with other parameters creates its learners with another instance, see {@linkplain #parse(String)} and the
+ *     {@code with} methods, which leave this one as it is.
+ * </p>
+ * <p>
+ *     Every {@linkplain Learner} refers to the parameters it follows, and its submissions follow their owner's.
+ * </p>
  * Created by kedar on 10/15/16.
  */
-public class Config {
+public final class Config {
     public static final int REVIEWS_REQUIRED_PER_SUBMISSION = 3;
     public static final int REVIEWS_REQUIRED_PER_LEARNER = 3;
     public static final int PASSING_POINTS = 240;
     public static final int WORK_TICKS = 50;
     public static final int REVIEW_TICKS = 20;
+
+    public static final Config DEFAULT = new Config(REVIEWS_REQUIRED_PER_SUBMISSION, REVIEWS_REQUIRED_PER_LEARNER,
+            PASSING_POINTS, WORK_TICKS, REVIEW_TICKS);
+
+    final int reviewsRequiredPerSubmission;
+    final int reviewsRequiredPerLearner;
+    final int passingPoints;
+    final int workTicks;
+    final int reviewTicks;
+
+    private Config(int reviewsRequiredPerSubmission, int reviewsRequiredPerLearner, int passingPoints, int workTicks,
+                   int reviewTicks) {
+        if (reviewsRequiredPerSubmission < 1 || reviewsRequiredPerSubmission > Byte.MAX_VALUE)
+            throw new IllegalArgumentException("invalid reviews required per submission: "
+                    + reviewsRequiredPerSubmission);
+        if (reviewsRequiredPerLearner < 1 || reviewsRequiredPerLearner > Byte.MAX_VALUE)
+            throw new IllegalArgumentException("invalid reviews required per learner: " + reviewsRequiredPerLearner);
+        if (workTicks < 1)
+            throw new IllegalArgumentException("invalid work ticks: " + workTicks);
+        if (reviewTicks < 0)
+            throw new IllegalArgumentException("invalid review ticks: " + reviewTicks);
+        this.reviewsRequiredPerSubmission = reviewsRequiredPerSubmission;
+        this.reviewsRequiredPerLearner = reviewsRequiredPerLearner;
+        this.passingPoints = passingPoints;
+        this.workTicks = workTicks;
+        this.reviewTicks = reviewTicks;
+    }
+
+    public Config withReviewsRequired(int perSubmission, int perLearner) {
+        return new Config(perSubmission, perLearner, passingPoints, workTicks, reviewTicks);
+    }
+
+    public Config withPassingPoints(int passingPoints) {
+        return new Config(reviewsRequiredPerSubmission, reviewsRequiredPerLearner, passingPoints, workTicks,
+                reviewTicks);
+    }
+
+    public Config withWorkTicks(int workTicks) {
+        return new Config(reviewsRequiredPerSubmission, reviewsRequiredPerLearner, passingPoints, workTicks,
+                reviewTicks);
+    }
+
+    public Config withReviewTicks(int reviewTicks) {
+        return new Config(reviewsRequiredPerSubmission, reviewsRequiredPerLearner, passingPoints, workTicks,
+                reviewTicks);
+    }
+
+    /**
+     * Parses comma-separated {@code name=value} pairs into the defaults, e.g.
+     * {@code passingPoints=250,reviewTicks=30}. The names are those printed by {@linkplain #toString()}.
+     *
+     * @throws IllegalArgumentException for an unknown name or a malformed pair
+     */
+    public static Config parse(String pairs) {
+        Config config = DEFAULT;
+        for (String pair : pairs.split(",")) {
+            if (pair.trim().isEmpty())
+                continue;
+            String[] nameValue = pair.split("=", 2);
+            if (nameValue.length != 2)
+                throw new IllegalArgumentException("expected name=value: " + pair);
+            String name = nameValue[0].trim();
+            int value;
+            try {
+                value = Integer.parseInt(nameValue[1].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: " + pair);
+            }
+            switch (name) {
+                case "reviewsRequiredPerSubmission":
+                    config = config.withReviewsRequired(value, config.reviewsRequiredPerLearner);
+                    break;
+                case "reviewsRequiredPerLearner":
+                    config = config.withReviewsRequired(config.reviewsRequiredPerSubmission, value);
+                    break;
+                case "passingPoints":
+                    config = config.withPassingPoints(value);
+                    break;
+                case "workTicks":
+                    config = config.withWorkTicks(value);
+                    break;
+                case "reviewTicks":
+                    config = config.withReviewTicks(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown parameter: " + name);
+            }
+        }
+        return config;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Config))
+            return false;
+        Config that = (Config) o;
+        return reviewsRequiredPerSubmission == that.reviewsRequiredPerSubmission
+                && reviewsRequiredPerLearner == that.reviewsRequiredPerLearner
+                && passingPoints == that.passingPoints && workTicks == that.workTicks
+                && reviewTicks == that.reviewTicks;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = reviewsRequiredPerSubmission;
+        h = 31 * h + reviewsRequiredPerLearner;
+        h = 31 * h + passingPoints;
+        h = 31 * h + workTicks;
+        return 31 * h + reviewTicks;
+    }
+
+    @Override
+    public String toString() {
+        return "reviewsRequiredPerSubmission=" + reviewsRequiredPerSubmission
+                + ",reviewsRequiredPerLearner=" + reviewsRequiredPerLearner
+                + ",passingPoints=" + passingPoints
+                + ",workTicks=" + workTicks
+                + ",reviewTicks=" + reviewTicks;
+    }
 }
@@ -0,0 +1,227 @@
+package org.kedar.pra;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ *     Runs several {@linkplain Assignment}s over the same learners. Every assignment has its own
+ *     {@linkplain SubmissionPool} and its own grading parameters, and every learner makes progress on every assignment
+ *     on its own: a learner starts on an assignment its release tick after the learner's first submission start tick,
+ *     and its submissions and reviews for one assignment never meet those for another. So one assignment's pool never
+ *     slows down retrieving from another's, and every assignment gives the same submissions as a single-assignment
+ *     run of the tick-stepping loop whose learners start at their release ticks and follow its parameters.
+ * </p>
+ * <p>
+ *     A learner's progress on an assignment is a {@linkplain Learner} of its own, created when the learner starts on
+ *     the assignment and {@linkplain Learner#retire() retired} once it has {@linkplain Learner#isFinished() finished}.
+ *     A tick only visits the learners that are working on some assignment, and ticks at which no one is are skipped,
+ *     so the cost of a run grows with the assignments learners are active on, not with all the assignments.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class Course {
+
+    private final int[] lid;
+    private final int[] firstSubmissionStartTick;
+    private final int[] trueGrade;
+    private final int[] reviewBias;
+    private final int[] byStart; // learner indices by start tick, then in population order
+    private final Track[] tracks;
+    private long tick;
+
+    private Course(int[] lid, int[] firstSubmissionStartTick, int[] trueGrade, int[] reviewBias, int[] byStart,
+                   Track[] tracks) {
+        this.lid = lid;
+        this.firstSubmissionStartTick = firstSubmissionStartTick;
+        this.trueGrade = trueGrade;
+        this.reviewBias = reviewBias;
+        this.byStart = byStart;
+        this.tracks = tracks;
+    }
+
+    /**
+     * @param learners    the parameters of the learners, not yet started, in the order they respond within a tick
+     * @param assignments the assignments, with distinct ids
+     * @param pools       creates the pool of every assignment
+     */
+    public static Course of(Collection<Learner> learners, List<Assignment> assignments,
+                            Supplier<SubmissionPool> pools) {
+        if (assignments.isEmpty())
+            throw new IllegalArgumentException("no assignments");
+        Set<Integer> aids = new HashSet<>();
+        Track[] tracks = new Track[assignments.size()];
+        for (int a = 0; a < tracks.length; a++) {
+            Assignment assignment = assignments.get(a);
+            if (!aids.add(assignment.aid))
+                throw new IllegalArgumentException("duplicate assignment id: " + assignment.aid);
+            tracks[a] = new Track(assignment, pools.get());
+        }
+        int n = learners.size();
+        int[] lid = new int[n], start = new int[n], grade = new int[n], bias = new int[n];
+        int i = 0;
+        for (Learner l : learners) {
+            lid[i] = l.lid;
+            start[i] = (int) l.firstSubmissionStartTick.getValue();
+            grade[i] = l.trueGrade;
+            bias[i++] = l.reviewBias;
+        }
+        // sorting longs of start tick and index avoids boxing the indices
+        long[] keys = new long[n];
+        for (i = 0; i < n; i++)
+            keys[i] = (long) start[i] << 32 | i;
+        Arrays.sort(keys);
+        int[] byStart = new int[n];
+        for (i = 0; i < n; i++)
+            byStart[i] = (int) keys[i];
+        return new Course(lid, start, grade, bias, byStart, tracks);
+    }
+
+    /**
+     * Runs the ticks from where the last run stopped, or from 0, up to the given one, handing each submission that
+     * enters review, for any assignment, to the given consumer; {@linkplain Submission#aid} tells the assignment.
+     * Within a tick, the assignments take turns in the order they were given in.
+     *
+     * @param toExc    the last tick, exclusive
+     * @param consumer the consumer of the submissions, never given a {@code null}
+     */
+    public void run(int toExc, Consumer<Submission> consumer) {
+        while (tick < toExc) {
+            long next = Long.MAX_VALUE;
+            for (Track track : tracks) {
+                track.admit(tick, this);
+                if (track.count > 0)
+                    track.step(tick, consumer);
+                next = Math.min(next, track.count > 0 ? tick + 1 : track.nextStart(this));
+            }
+            tick = Math.max(tick + 1, Math.min(next, toExc));
+        }
+    }
+
+    /** @return the next tick to run */
+    public long tick() {
+        return tick;
+    }
+
+    /** @return the learners working on an assignment, counted once per assignment */
+    public int active() {
+        int active = 0;
+        for (Track track : tracks)
+            active += track.count;
+        return active;
+    }
+
+    /** @return the learners that have finished an assignment, counted once per assignment */
+    public long retired() {
+        long retired = 0;
+        for (Track track : tracks)
+            retired += track.retired;
+        return retired;
+    }
+
+    SubmissionPool pool(int aid) {
+        for (Track track : tracks)
+            if (track.assignment.aid == aid)
+                return track.pool;
+        throw new IllegalArgumentException("no assignment " + aid);
+    }
+
+    /**
+     * The learners' progress on one assignment.
+     */
+    private static final class Track {
+        final Assignment assignment;
+        final SubmissionPool pool;
+        Learner[] active = new Learner[16]; // in population order
+        int[] index = new int[16]; // the population index of every active learner
+        Learner[] nextActive = new Learner[16];
+        int[] nextIndex = new int[16];
+        int[] joining = new int[16];
+        int count;
+        int cursor; // the next learner, in byStart, to start on the assignment
+        long retired;
+
+        Track(Assignment assignment, SubmissionPool pool) {
+            this.assignment = assignment;
+            this.pool = pool;
+        }
+
+        long nextStart(Course course) {
+            return cursor == course.byStart.length ? Long.MAX_VALUE
+                    : (long) course.firstSubmissionStartTick[course.byStart[cursor]] + assignment.releaseTick;
+        }
+
+        /**
+         * Merges the learners that start on the assignment by the given tick into the active ones.
+         */
+        void admit(long at, Course course) {
+            int joined = 0;
+            while (nextStart(course) <= at) {
+                if (joined == joining.length)
+                    joining = Arrays.copyOf(joining, joined * 2);
+                joining[joined++] = course.byStart[cursor++];
+            }
+            if (joined == 0)
+                return;
+            Arrays.sort(joining, 0, joined);
+            ensureNext(count + joined);
+            int i = 0, j = 0, k = 0;
+            while (i < count || j < joined) {
+                if (j == joined || i < count && index[i] < joining[j]) {
+                    nextActive[k] = active[i];
+                    nextIndex[k++] = index[i++];
+                } else {
+                    int l = joining[j++];
+                    nextActive[k] = Learner.on(assignment, course.lid[l],
+                            new TimeTick((long) course.firstSubmissionStartTick[l] + assignment.releaseTick),
+                            course.trueGrade[l], course.reviewBias[l]);
+                    nextIndex[k++] = l;
+                }
+            }
+            swap(k);
+        }
+
+        void step(long at, Consumer<Submission> consumer) {
+            ensureNext(count);
+            int k = 0;
+            for (int i = 0; i < count; i++) {
+                Learner learner = active[i];
+                Submission returned = learner.respondTo(at, pool);
+                if (returned != null)
+                    consumer.accept(returned);
+                if (learner.isFinished()) {
+                    learner.retire();
+                    retired++;
+                } else {
+                    nextActive[k] = learner;
+                    nextIndex[k++] = index[i];
+                }
+            }
+            swap(k);
+        }
+
+        private void ensureNext(int n) {
+            if (nextActive.length < n) {
+                int capacity = Math.max(n, nextActive.length * 2);
+                nextActive = new Learner[capacity];
+                nextIndex = new int[capacity];
+            }
+        }
+
+        private void swap(int n) {
+            Learner[] learners = active;
+            int[] indices = index;
+            active = nextActive;
+            index = nextIndex;
+            nextActive = learners;
+            nextIndex = indices;
+            Arrays.fill(nextActive, 0, count, null); // retired learners are no longer reachable from here
+            count = n;
+        }
+    }
+}
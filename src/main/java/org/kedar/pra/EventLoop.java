@@ -0,0 +1,211 @@
+package org.kedar.pra;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * <p>
+ *     A discrete-event alternative to the tick-stepping main loop of the {@linkplain Simulator}. Rather than asking
+ *     every learner to respond to every tick, a learner is only woken up at the ticks at which it could change state:
+ *     the tick at which its own work or review is done (see {@linkplain Learner#nextWakeTick(long)}), the tick
+ *     after another learner adds a submission it could review to the pool, or the tick after another learner reviews
+ *     its latest submission. Within a tick, learners wake up in the order in which the given collection iterates them,
+ *     which is also the order the tick-stepping loop visits them in, so both loops produce the same submissions.
+ * </p>
+ * <p>
+ *     The cost of a run is proportional to the number of state transitions, not to ticks &times; learners.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class EventLoop {
+
+    private static final long NOT_SCHEDULED = Long.MAX_VALUE;
+
+    private final Learner[] learners;
+    private final Map<Learner, Integer> positions;
+    private final long[] scheduled; // the earliest tick each learner is queued for
+    private final Wakeups events;
+    private final LongConsumer pacer; // null if the loop runs as fast as it can
+    private final LinkedHashSet<Learner> waiters; // learners polling the pool in vain
+    private final SubmissionPool pool;
+    private Learner starved; // the learner the pool last had nothing for
+    private int toExc;
+    private long currentTick;
+    private int currentPosition;
+
+    /**
+     * The pending wake ups, each a tick in the upper and a learner's position in the lower 32 bits, polled smallest
+     * first.
+     */
+    interface Wakeups {
+        void add(long key);
+
+        long poll();
+
+        boolean isEmpty();
+    }
+
+    private EventLoop(Collection<Learner> learners, SubmissionPool pool, Wakeups events, LongConsumer pacer) {
+        int n = learners.size();
+        this.learners = learners.toArray(new Learner[n]);
+        this.positions = new IdentityHashMap<>(n);
+        for (int i = 0; i < n; i++)
+            positions.put(this.learners[i], i);
+        this.scheduled = new long[n];
+        this.events = events;
+        this.pacer = pacer;
+        this.waiters = new LinkedHashSet<>();
+        this.pool = new WatchedPool(pool);
+    }
+
+    /**
+     * Runs the learners through the ticks {@code [fromInc, toExc)}, handing each submission that enters review to the
+     * given consumer. Unlike the tick-stepping loop, the consumer is never given a {@code null}.
+     *
+     * @param fromInc  the first tick, inclusive
+     * @param toExc    the last tick, exclusive
+     * @param learners the learners, in the order they respond within a tick
+     * @param consumer the consumer of the submissions
+     */
+    public static void run(int fromInc, int toExc, Collection<Learner> learners, Consumer<Submission> consumer) {
+        run(fromInc, toExc, learners, new SubmissionPool(), consumer);
+    }
+
+    /**
+     * Same as {@linkplain #run(int, int, Collection, Consumer)}, but with the given, initially empty, pool.
+     */
+    public static void run(int fromInc, int toExc, Collection<Learner> learners, SubmissionPool pool,
+                           Consumer<Submission> consumer) {
+        run(fromInc, toExc, learners, pool, Query.ALL, consumer);
+    }
+
+    /**
+     * Same as {@linkplain #run(int, int, Collection, SubmissionPool, Consumer)}, but only hands the submissions the
+     * given query selects to the consumer.
+     */
+    public static void run(int fromInc, int toExc, Collection<Learner> learners, SubmissionPool pool, Query query,
+                           Consumer<Submission> consumer) {
+        new EventLoop(learners, query.reportingGrades(pool, consumer), new EventQueue(Math.max(1, learners.size())),
+                null).loop(fromInc, toExc, query, consumer);
+    }
+
+    /**
+     * Same as {@linkplain #run(int, int, Collection, SubmissionPool, Query, Consumer)}, with the wake ups in the given
+     * queue, and the given pacer called before the first wake up of every tick that has some, and with {@code toExc}
+     * at the end, e.g. to wait for the tick to come, see {@linkplain RealTimeLoop}.
+     */
+    static void run(int fromInc, int toExc, Collection<Learner> learners, SubmissionPool pool, Query query,
+                    Consumer<Submission> consumer, Wakeups events, LongConsumer pacer) {
+        new EventLoop(learners, query.reportingGrades(pool, consumer), events, pacer).loop(fromInc, toExc, query,
+                consumer);
+    }
+
+    private void loop(int fromInc, int toExc, Query query, Consumer<Submission> consumer) {
+        boolean[] covered = query.covered(learners);
+        this.toExc = toExc;
+        for (int i = 0; i < learners.length; i++) {
+            scheduled[i] = NOT_SCHEDULED;
+            schedule(i, fromInc);
+        }
+        currentTick = -1;
+        while (!events.isEmpty()) {
+            long key = events.poll();
+            long tick = key >>> 32;
+            int i = (int) key;
+            if (scheduled[i] != tick) // superseded by an earlier wake up
+                continue;
+            scheduled[i] = NOT_SCHEDULED;
+            if (pacer != null && tick != currentTick)
+                pacer.accept(tick);
+            currentTick = tick;
+            currentPosition = i;
+            Learner learner = learners[i];
+            Submission reviewable = learner.reviewsDone.peekLast();
+            int reviews = reviewable == null ? 0 : reviewable.reviewers.size();
+            starved = null;
+            final Submission returned = learner.respondTo(tick, pool);
+            if (returned != null && covered[i] && query.reportsEntry(returned))
+                consumer.accept(returned);
+            if (reviewable != null && reviewable.reviewers.size() != reviews)
+                wake(reviewable.owner); // the owner's grade has changed
+            long next = learner.nextWakeTick(tick);
+            if (next != Learner.NEVER)
+                schedule(i, next);
+            if (learner.isAwaitingReviewable()) {
+                waiters.add(learner);
+                if (starved != learner) // it has not seen the pool yet
+                    schedule(i, tick + 1);
+            } else
+                waiters.remove(learner);
+        }
+        if (pacer != null)
+            pacer.accept(toExc);
+    }
+
+    private void added(Submission submission) {
+        Learner recipient = pool.handedOffTo(submission);
+        if (recipient != null) { // the others the pool has parked would get nothing
+            waiters.remove(recipient);
+            wake(recipient);
+            return;
+        }
+        Iterator<Learner> iter = waiters.iterator();
+        while (iter.hasNext()) {
+            Learner waiter = iter.next();
+            if (waiter.lid != submission.owner.lid && !submission.reviewers.contains(waiter)) {
+                iter.remove();
+                wake(waiter);
+            }
+        }
+    }
+
+    /**
+     * Wakes the given learner up at the earliest point the tick-stepping loop would visit it again.
+     */
+    private void wake(Learner learner) {
+        int i = positions.get(learner);
+        schedule(i, i > currentPosition ? currentTick : currentTick + 1);
+    }
+
+    private void schedule(int i, long tick) {
+        if (tick >= toExc || tick >= scheduled[i])
+            return;
+        scheduled[i] = tick;
+        events.add(tick << 32 | i);
+    }
+
+    /**
+     * Lets the loop know which learner the pool had nothing for and which submissions were added to it.
+     */
+    private final class WatchedPool extends ForwardingSubmissionPool {
+
+        WatchedPool(SubmissionPool delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public Submission retrieve(Learner me) {
+            Submission submission = super.retrieve(me);
+            if (submission == null)
+                starved = me;
+            return submission;
+        }
+
+        @Override
+        public void submit(Submission submission) {
+            super.submit(submission);
+            added(submission);
+        }
+
+        @Override
+        public void resubmit(Submission reviewable) {
+            super.resubmit(reviewable);
+            added(reviewable);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.kedar.pra;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ *     A growable binary min-heap of primitive {@code long} keys. The {@linkplain EventLoop} packs the tick and the
+ *     position of a learner into one key, so that the smallest key is always the next learner to wake up.
+ *     Using primitives keeps a queue of millions of pending events free of boxing.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class EventQueue implements EventLoop.Wakeups {
+
+    private long[] heap;
+    private int size;
+
+    public EventQueue(int initialCapacity) {
+        if (initialCapacity < 1)
+            throw new IllegalArgumentException("invalid capacity: " + initialCapacity);
+        this.heap = new long[initialCapacity];
+    }
+
+    @Override
+    public void add(long key) {
+        if (size == heap.length)
+            heap = Arrays.copyOf(heap, size << 1);
+        int i = size++;
+        while (i > 0) { // sift up
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= key)
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = key;
+    }
+
+    public long peek() {
+        if (size == 0)
+            throw new NoSuchElementException("empty queue");
+        return heap[0];
+    }
+
+    @Override
+    public long poll() {
+        long min = peek();
+        long last = heap[--size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) { // sift down
+            int child = (i << 1) + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child])
+                child++;
+            if (last <= heap[child])
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return min;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,58 @@
+package org.kedar.pra;
+
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ *     A pool that holds nothing itself and forwards every call to another pool. The pools that watch what a run does
+ *     with its pool, e.g. for {@linkplain Metrics} or a {@linkplain Journal}, extend it, override the calls they watch
+ *     and call {@code super}, so a call they do not watch is forwarded all the same.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+abstract class ForwardingSubmissionPool extends SubmissionPool {
+
+    final SubmissionPool delegate;
+
+    ForwardingSubmissionPool(SubmissionPool delegate) {
+        super(delegate);
+        if (delegate == null)
+            throw new IllegalArgumentException("null pool");
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Submission retrieve(Learner me) {
+        return delegate.retrieve(me);
+    }
+
+    @Override
+    public void submit(Submission submission) {
+        delegate.submit(submission);
+    }
+
+    @Override
+    public void resubmit(Submission reviewable) {
+        delegate.resubmit(reviewable);
+    }
+
+    @Override
+    void graded(Submission graded) {
+        delegate.graded(graded);
+    }
+
+    @Override
+    void forEachInOrder(Consumer<Submission> consumer) {
+        delegate.forEachInOrder(consumer);
+    }
+
+    @Override
+    Learner handedOffTo(Submission added) {
+        return delegate.handedOffTo(added);
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+}
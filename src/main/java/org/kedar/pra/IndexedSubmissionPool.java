@@ -0,0 +1,229 @@
+package org.kedar.pra;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ *     A {@linkplain SubmissionPool} that hands out the same submissions in the same order, but finds the oldest one a
+ *     learner may review without walking the pool.
+ * </p>
+ * <p>
+ *     Every submission added to the pool gets the next position in a slot array, and a Fenwick tree counts which
+ *     positions are still occupied. Next to that, every learner has the sorted positions of the pooled submissions it
+ *     may not review: its own ones and the ones it has reviewed already. If the first {@code j + 1} of those positions
+ *     are exactly the first {@code j + 1} occupied ones, the answer is the occupied position of rank {@code j + 2}.
+ *     Since that condition only holds for a prefix of the exclusions, {@code j} is found by binary search, and a
+ *     retrieval costs {@code O(log^2 n)} however large the pool is and however many submissions the learner may not
+ *     review. Submitting costs {@code O(log n)}. Positions are renumbered when the slot array fills up.
+ * </p>
+ * <p>
+ *     The plain {@linkplain SubmissionPool} stays the default, since in typical runs a learner may not review only a
+ *     handful of pooled submissions, and a short walk is cheaper than keeping this index up to date.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public class IndexedSubmissionPool extends SubmissionPool {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Submission[] slots;
+    private int[] tree; // Fenwick tree over the occupied slots, 1-based
+    private int next; // the next free position
+    private int size;
+    private final Set<Submission> members;
+    private final Map<Learner, Positions> exclusions;
+
+    public IndexedSubmissionPool() {
+        this.slots = new Submission[INITIAL_CAPACITY];
+        this.tree = new int[INITIAL_CAPACITY + 1];
+        this.members = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.exclusions = new IdentityHashMap<>();
+    }
+
+    @Override
+    public Submission retrieve(Learner me) {
+        int rank = 1; // the rank of the oldest eligible submission among all the pooled ones
+        Positions excluded = exclusions.get(me);
+        if (excluded != null && excluded.size() > 0) {
+            int lo = 0, hi = excluded.size() - 1, prefix = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (countUpTo(excluded.get(mid)) == mid + 1) {
+                    prefix = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            rank = prefix + 2;
+        }
+        if (rank > size)
+            return null;
+        int position = select(rank);
+        Submission submission = slots[position];
+        slots[position] = null;
+        update(position, -1);
+        size--;
+        members.remove(submission);
+        include(submission.owner, position);
+        for (Learner reviewer : submission.reviewers)
+            include(reviewer, position);
+        return submission;
+    }
+
+    @Override
+    public void submit(Submission submission) {
+        if (! submission.isReviewable())
+            throw new IllegalStateException("The given submission is not reviewable, since it has enough reviews" +
+                    " already: " + submission.reviewers.size());
+        boolean added = add(submission);
+        assert added : "Strange, serious bug, the submission: " + submission + " could not be added to the pool because it already exists there!";
+    }
+
+    @Override
+    public void resubmit(Submission reviewable) {
+        add(reviewable);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    void forEachInOrder(Consumer<Submission> consumer) {
+        for (int i = 0; i < next; i++)
+            if (slots[i] != null)
+                consumer.accept(slots[i]);
+    }
+
+    private boolean add(Submission submission) {
+        if (!members.add(submission))
+            return false;
+        if (next == slots.length)
+            renumber();
+        int position = next++;
+        slots[position] = submission;
+        update(position, 1);
+        size++;
+        exclude(submission.owner, position);
+        for (Learner reviewer : submission.reviewers)
+            exclude(reviewer, position);
+        return true;
+    }
+
+    private void exclude(Learner learner, int position) {
+        exclusions.computeIfAbsent(learner, l -> new Positions()).append(position);
+    }
+
+    private void include(Learner learner, int position) {
+        Positions excluded = exclusions.get(learner);
+        if (excluded != null && excluded.remove(position) && excluded.size() == 0)
+            exclusions.remove(learner);
+    }
+
+    /**
+     * Packs the occupied slots to the front of an array with at least as many free slots as occupied ones, and moves
+     * every learner's exclusions along. Positions keep their relative order, so the exclusions stay sorted.
+     */
+    private void renumber() {
+        int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+        Submission[] packed = new Submission[capacity];
+        int[] moved = new int[next];
+        int j = 0;
+        for (int i = 0; i < next; i++) {
+            if (slots[i] != null) {
+                moved[i] = j;
+                packed[j++] = slots[i];
+            }
+        }
+        for (Positions excluded : exclusions.values())
+            for (int k = excluded.from; k < excluded.to; k++)
+                excluded.a[k] = moved[excluded.a[k]];
+        slots = packed;
+        next = j;
+        tree = new int[capacity + 1];
+        for (int i = 1; i <= capacity; i++) { // linear-time build
+            if (i <= j)
+                tree[i]++;
+            int parent = i + (i & -i);
+            if (parent <= capacity)
+                tree[parent] += tree[i];
+        }
+    }
+
+    private void update(int position, int delta) {
+        for (int i = position + 1; i < tree.length; i += i & -i)
+            tree[i] += delta;
+    }
+
+    /** @return the number of occupied positions in {@code [0, position]} */
+    private int countUpTo(int position) {
+        int count = 0;
+        for (int i = position + 1; i > 0; i -= i & -i)
+            count += tree[i];
+        return count;
+    }
+
+    /** @return the occupied position of the given 1-based rank */
+    private int select(int rank) {
+        int position = 0;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            int i = position + step;
+            if (i < tree.length && tree[i] < rank) {
+                position = i;
+                rank -= tree[i];
+            }
+        }
+        return position;
+    }
+
+    /**
+     * A sorted, growable list of positions in {@code a[from, to)}. Retrievals take the oldest submissions, so removals
+     * are mostly near the front and shift whichever side of the removed position is shorter.
+     */
+    private static final class Positions {
+        int[] a = new int[4];
+        int from;
+        int to;
+
+        int size() {
+            return to - from;
+        }
+
+        int get(int i) {
+            return a[from + i];
+        }
+
+        void append(int position) { // positions are handed out in increasing order
+            if (to == a.length) {
+                int n = size();
+                int[] grown = n * 2 <= a.length ? a : new int[a.length << 1];
+                System.arraycopy(a, from, grown, 0, n);
+                a = grown;
+                from = 0;
+                to = n;
+            }
+            a[to++] = position;
+        }
+
+        boolean remove(int position) {
+            int i = Arrays.binarySearch(a, from, to, position);
+            if (i < 0)
+                return false;
+            if (i - from < to - i) {
+                System.arraycopy(a, from, a, from + 1, i - from);
+                from++;
+            } else {
+                System.arraycopy(a, i + 1, a, i, to - i - 1);
+                to--;
+            }
+            return true;
+        }
+    }
+}
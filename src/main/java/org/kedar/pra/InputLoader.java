@@ -0,0 +1,364 @@
+package org.kedar.pra;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ *     Loads the simulation input, in the format read by {@linkplain Simulator#processInput(InputStream)}, without
+ *     creating a String per line. A file is split into chunks that end at line boundaries, every chunk is memory-mapped
+ *     on its own, and the chunks are parsed in parallel, straight from bytes into {@code int} columns. A stream is read
+ *     into a single buffer through a channel, so it can hold at most 2GB, and is chunked the same way.
+ * </p>
+ * <p>
+ *     Like the Scanner-based parsing, exactly as many learner lines are read as the second line says, fields beyond
+ *     the fourth are ignored, and so is anything after the last learner line. Malformed input is reported
+ *     with an {@linkplain IllegalArgumentException} naming the line, counted from 1.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class InputLoader {
+
+    /** Target size of a chunk; a chunk extends to the end of the line it would end in. */
+    static final int CHUNK_BYTES = 32 << 20;
+
+    private InputLoader() {
+    }
+
+    /**
+     * The loaded input, in columns, in input order.
+     */
+    public static final class Input {
+        public final int ticks;
+        public final int size;
+        final int[] lid;
+        final int[] firstSubmissionStartTick;
+        final int[] trueGrade;
+        final int[] reviewBias;
+
+        Input(int ticks, int size, int[] lid, int[] firstSubmissionStartTick, int[] trueGrade, int[] reviewBias) {
+            this.ticks = ticks;
+            this.size = size;
+            this.lid = lid;
+            this.firstSubmissionStartTick = firstSubmissionStartTick;
+            this.trueGrade = trueGrade;
+            this.reviewBias = reviewBias;
+        }
+
+        public Set<Learner> learners() {
+            return learners(Config.DEFAULT);
+        }
+
+        /**
+         * @param config the parameters the learners follow
+         */
+        public Set<Learner> learners(Config config) {
+            Set<Learner> learners = new LinkedHashSet<>(size); // input order, so that runs are repeatable
+            for (int i = 0; i < size; i++)
+                learners.add(Learner.inactive(lid[i], new TimeTick(firstSubmissionStartTick[i]), trueGrade[i],
+                        reviewBias[i], config));
+            return learners;
+        }
+
+        public LearnerStore store() {
+            return store(Config.DEFAULT);
+        }
+
+        public LearnerStore store(Config config) {
+            LearnerStore store = new LearnerStore(Math.max(1, size), config);
+            for (int i = 0; i < size; i++)
+                store.add(lid[i], firstSubmissionStartTick[i], trueGrade[i], reviewBias[i]);
+            return store;
+        }
+    }
+
+    public static Input load(Path path, int threads) {
+        return load(path, threads, CHUNK_BYTES);
+    }
+
+    static Input load(Path path, int threads, int chunkBytes) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, 4096));
+            Header header = Header.parse(head, (int) Math.min(length, 4096));
+            List<long[]> ranges = chunk(channel, header.bodyStart, length, chunkBytes);
+            List<ByteBuffer> chunks = new ArrayList<>(ranges.size());
+            for (long[] range : ranges)
+                chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]));
+            return parse(header, chunks, threads);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Input load(InputStream is, int threads) {
+        return load(is, threads, CHUNK_BYTES);
+    }
+
+    static Input load(InputStream is, int threads, int chunkBytes) {
+        ByteBuffer all;
+        try {
+            all = readFully(Channels.newChannel(is));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int length = all.limit();
+        Header header = Header.parse(all, Math.min(length, 4096));
+        List<ByteBuffer> chunks = new ArrayList<>();
+        for (int from = header.bodyStart; from < length; ) {
+            int to = Math.min(length, from + chunkBytes);
+            while (to < length && all.get(to - 1) != '\n')
+                to++;
+            ByteBuffer chunk = all.duplicate();
+            chunk.position(from);
+            chunk.limit(to);
+            chunks.add(chunk.slice());
+            from = to;
+        }
+        return parse(header, chunks, threads);
+    }
+
+    private static ByteBuffer readFully(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        while (channel.read(buf) >= 0) {
+            if (!buf.hasRemaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(buf.capacity() * 2);
+                buf.flip();
+                grown.put(buf);
+                buf = grown;
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /** Splits {@code [from, length)} of a file into ranges that end right after a newline or at the end. */
+    private static List<long[]> chunk(FileChannel channel, long from, long length, int chunkBytes)
+            throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        while (from < length) {
+            long to = Math.min(length, from + chunkBytes);
+            search:
+            while (to < length) {
+                probe.clear();
+                int read = channel.read(probe, to - 1);
+                for (int k = 0; k < read; k++) {
+                    if (probe.get(k) == '\n') {
+                        to += k;
+                        break search;
+                    }
+                }
+                to = Math.min(length, to + read);
+            }
+            ranges.add(new long[]{from, to});
+            from = to;
+        }
+        return ranges;
+    }
+
+    private static Input parse(Header header, List<ByteBuffer> chunks, int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("invalid number of threads: " + threads);
+        List<Chunk> parsed = new ArrayList<>(chunks.size());
+        if (threads == 1 || chunks.size() < 2) {
+            for (ByteBuffer chunk : chunks)
+                parsed.add(Chunk.parse(chunk, header.size));
+        } else {
+            ForkJoinPool forkJoinPool = new ForkJoinPool(threads);
+            try {
+                List<Future<Chunk>> futures = new ArrayList<>(chunks.size());
+                for (ByteBuffer chunk : chunks)
+                    futures.add(forkJoinPool.submit(() -> Chunk.parse(chunk, header.size)));
+                for (Future<Chunk> future : futures)
+                    parsed.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while loading", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("failed to load", e.getCause());
+            } finally {
+                forkJoinPool.shutdown();
+            }
+        }
+        int n = header.size;
+        int[] lid = new int[n], start = new int[n], grade = new int[n], bias = new int[n];
+        int loaded = 0;
+        for (Chunk chunk : parsed) {
+            int take = Math.min(chunk.size, n - loaded);
+            System.arraycopy(chunk.lid, 0, lid, loaded, take);
+            System.arraycopy(chunk.start, 0, start, loaded, take);
+            System.arraycopy(chunk.grade, 0, grade, loaded, take);
+            System.arraycopy(chunk.bias, 0, bias, loaded, take);
+            loaded += take;
+            if (loaded == n)
+                break;
+            if (chunk.error != null) // the error is on a line that is still needed
+                throw new IllegalArgumentException("line " + (Header.LINES + loaded + 1) + ": " + chunk.error);
+        }
+        if (loaded < n)
+            throw new IllegalArgumentException("line " + (Header.LINES + loaded + 1) + ": expected " + n
+                    + " learners, found " + loaded);
+        return new Input(header.ticks, n, lid, start, grade, bias);
+    }
+
+    /** The first two lines: the number of ticks and the number of learners. */
+    private static final class Header {
+        static final int LINES = 2;
+
+        final int ticks;
+        final int size;
+        final int bodyStart;
+
+        private Header(int ticks, int size, int bodyStart) {
+            this.ticks = ticks;
+            this.size = size;
+            this.bodyStart = bodyStart;
+        }
+
+        static Header parse(ByteBuffer buf, int limit) {
+            Cursor c = new Cursor(buf, 0, limit);
+            int[] values = new int[LINES];
+            for (int line = 0; line < LINES; line++) {
+                if (!c.hasMoreLines())
+                    throw new IllegalArgumentException("line " + (line + 1) + ": missing");
+                values[line] = c.nextInt();
+                if (c.error != null || !c.endOfLine())
+                    throw new IllegalArgumentException("line " + (line + 1) + ": " + (c.error != null ? c.error
+                            : "expected a single number"));
+                c.skipLine();
+            }
+            if (values[1] < 0)
+                throw new IllegalArgumentException("line 2: negative number of learners: " + values[1]);
+            return new Header(values[0], values[1], c.pos);
+        }
+    }
+
+    /** The learners of a chunk, parsed up to the first error or the most learners needed. */
+    private static final class Chunk {
+        int size;
+        int[] lid = new int[16], start = new int[16], grade = new int[16], bias = new int[16];
+        String error; // on the line right after the last parsed one
+
+        static Chunk parse(ByteBuffer buf, int most) {
+            Chunk chunk = new Chunk();
+            Cursor c = new Cursor(buf, 0, buf.limit());
+            while (chunk.size < most && c.hasMoreLines()) {
+                int l = c.nextInt(), s = c.nextInt(), g = c.nextInt(), b = c.nextInt();
+                if (c.error == null && s < 0)
+                    c.error = "negative value not allowed: " + s;
+                if (c.error == null && l < 0)
+                    c.error = "invalid learner ID: " + l;
+                if (c.error != null) {
+                    chunk.error = c.error;
+                    return chunk;
+                }
+                chunk.add(l, s, g, b);
+                c.skipLine();
+            }
+            return chunk;
+        }
+
+        private void add(int l, int s, int g, int b) {
+            if (size == lid.length) {
+                lid = Arrays.copyOf(lid, size * 2);
+                start = Arrays.copyOf(start, size * 2);
+                grade = Arrays.copyOf(grade, size * 2);
+                bias = Arrays.copyOf(bias, size * 2);
+            }
+            lid[size] = l;
+            start[size] = s;
+            grade[size] = g;
+            bias[size++] = b;
+        }
+    }
+
+    /** Reads whitespace separated ints of a line straight from the bytes. */
+    private static final class Cursor {
+        private final ByteBuffer buf;
+        private final int limit;
+        int pos;
+        String error;
+
+        Cursor(ByteBuffer buf, int pos, int limit) {
+            this.buf = buf;
+            this.pos = pos;
+            this.limit = limit;
+        }
+
+        boolean hasMoreLines() {
+            return pos < limit;
+        }
+
+        private static boolean isBlank(byte b) {
+            return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+        }
+
+        boolean endOfLine() {
+            while (pos < limit && isBlank(buf.get(pos)))
+                pos++;
+            return pos == limit || buf.get(pos) == '\n';
+        }
+
+        int nextInt() {
+            if (error != null)
+                return 0;
+            if (endOfLine()) {
+                error = "too few fields";
+                return 0;
+            }
+            boolean negative = false;
+            byte b = buf.get(pos);
+            if (b == '-' || b == '+') {
+                negative = b == '-';
+                pos++;
+            }
+            long value = 0;
+            int digits = 0;
+            while (pos < limit) {
+                b = buf.get(pos);
+                if (b < '0' || b > '9')
+                    break;
+                value = value * 10 + (b - '0');
+                if (value > Integer.MAX_VALUE + 1L) {
+                    error = "number out of range";
+                    return 0;
+                }
+                digits++;
+                pos++;
+            }
+            if (digits == 0 || (pos < limit && !isBlank(buf.get(pos)) && buf.get(pos) != '\n')) {
+                error = "not a number";
+                return 0;
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                error = "number out of range";
+                return 0;
+            }
+            return (int) value;
+        }
+
+        void skipLine() {
+            while (pos < limit && buf.get(pos) != '\n')
+                pos++;
+            if (pos < limit)
+                pos++;
+        }
+    }
+}
@@ -0,0 +1,806 @@
+package org.kedar.pra;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ *     An append-only binary journal of what happens in a run: submissions entering review, submissions handed to
+ *     reviewers, reviews, grades and the state changes of learners. A {@linkplain Writer} runs the tick-stepping loop
+ *     and appends the events in the order they happen; a {@linkplain Reader} answers queries by tick range or by
+ *     learner while decoding only the blocks that may hold an answer.
+ * </p>
+ * <p>
+ *     Events are packed into blocks of about {@value #BLOCK_BYTES} bytes, which are written as they fill up. Within a
+ *     block every number is an unsigned LEB128 varint, ticks are deltas from the previous event's, and scores are
+ *     zigzag-encoded, so a typical event takes four to six bytes. Once the run is over, a sparse index follows the
+ *     blocks: the offset and tick range of every block, and for every learner the blocks that mention it, with
+ *     delta-encoded block numbers. A trailer points at the index:
+ * </p>
+ * <pre>
+ *     header   magic, version (ints)
+ *     block    payload length, first tick, events (varints), per event: type (byte), tick delta, then by type
+ *              STATE      lid, old state, new state
+ *              SUBMITTED  owner lid, sequence number
+ *              ASSIGNED   reviewer lid, owner lid, sequence number
+ *              REVIEWED   reviewer lid, owner lid, sequence number
+ *              GRADED     owner lid, sequence number, score (zigzag)
+ *     index    blocks, per block: offset delta, first tick, last tick delta;
+ *              learners, per learner in order of lid: lid delta, blocks, block number deltas
+ *     trailer  index offset (long), magic (int)
+ * </pre>
+ * <p>
+ *     Only {@linkplain Writer#finish()} writes the index and the trailer, so a journal whose run threw has no trailer
+ *     and cannot be read.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class Journal {
+
+    private static final int MAGIC = 0x5052414a; // "PRAJ"
+    private static final int VERSION = 1;
+    private static final int BLOCK_BYTES = 1 << 16;
+    private static final int MAX_EVENT_BYTES = 1 + 5 * 10;
+    private static final int TRAILER_BYTES = 8 + 4;
+    private static final LearnerState[] LEARNER_STATES = LearnerState.values();
+    private static final Type[] TYPES = Type.values();
+
+    private Journal() {
+    }
+
+    /**
+     * The kinds of events.
+     */
+    public enum Type {
+        /** a learner's state changed; {@linkplain Event#other} is the old state's ordinal, the value the new one's */
+        STATE,
+        /** a submission entered review */
+        SUBMITTED,
+        /** the pool handed a submission to a reviewer, the event's learner */
+        ASSIGNED,
+        /** the event's learner reviewed a submission */
+        REVIEWED,
+        /** a review completed the grade of a submission, whose score is the value */
+        GRADED
+    }
+
+    /**
+     * One journaled event. Every event is about a learner; those about a submission also tell its owner and number.
+     */
+    public static final class Event {
+        public final Type type;
+        public final long tick;
+        /** the learner that changed state, submitted, or reviews */
+        public final int lid;
+        /** the owner of the submission, or for {@linkplain Type#STATE} the ordinal of the old state */
+        public final int other;
+        /** the sequence number of the submission, or -1 */
+        public final int sequenceNumber;
+        /** the score of a {@linkplain Type#GRADED} submission, or the ordinal of the new state */
+        public final int value;
+
+        Event(Type type, long tick, int lid, int other, int sequenceNumber, int value) {
+            this.type = type;
+            this.tick = tick;
+            this.lid = lid;
+            this.other = other;
+            this.sequenceNumber = sequenceNumber;
+            this.value = value;
+        }
+
+        /** @return true if the event is about the given learner, or about one of its submissions */
+        public boolean involves(int learner) {
+            return lid == learner || type != Type.STATE && other == learner;
+        }
+
+        @Override
+        public String toString() {
+            switch (type) {
+                case STATE:
+                    return tick + " " + type + " " + lid + " " + LEARNER_STATES[other] + " -> " + LEARNER_STATES[value];
+                case SUBMITTED:
+                    return tick + " " + type + " " + lid + " " + sequenceNumber;
+                case GRADED:
+                    return tick + " " + type + " " + lid + " " + sequenceNumber + " " + value;
+                default:
+                    return tick + " " + type + " " + lid + " " + other + " " + sequenceNumber;
+            }
+        }
+    }
+
+    /**
+     * Runs the tick-stepping loop and journals it. Like the other loops, a writer may run consecutive stretches of
+     * ticks; the journal is complete once the writer is finished.
+     * <p>
+     *     The writer holds one block, the offset and tick range of every block, a bit for every lid and at most
+     *     {@code postingsPerRun} of the (learner, block) postings the index is made of. Beyond that, the postings are
+     *     sorted and spilled to a temporary file in runs, which {@linkplain #finish()} merges into the index.
+     * </p>
+     */
+    public static final class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final int blockBytes;
+        private final ByteBuffer block;
+        private final ByteBuffer length = ByteBuffer.allocate(5);
+        private final JournaledPool pool;
+        private long offset; // of the next block
+        private long blockFirstTick = -1;
+        private long previousTick;
+        private int[] blockLids = new int[256]; // the learners mentioned in the current block, with repeats
+        private int nBlockLids;
+        private long[] blockIndex = new long[3 * 64]; // offset, first tick and last tick of every block
+        private int blocks;
+        private final Path path;
+        private final int postingsPerRun;
+        private long[] postings = new long[1024]; // lid and block number of the learners mentioned in recent blocks
+        private int nPostings;
+        private final BitSet lids = new BitSet(); // of the learners mentioned in any block
+        private FileChannel spill; // the sorted runs of older postings
+        private long[] runEnds = new long[16];
+        private int runs;
+        private ByteBuffer index;
+        private boolean finished;
+        private Learner[] order;
+        private LearnerState[] states;
+        private long at;
+
+        private Writer(Path path, FileChannel channel, SubmissionPool pool, int blockBytes, int postingsPerRun) {
+            this.path = path;
+            this.channel = channel;
+            this.blockBytes = blockBytes;
+            this.postingsPerRun = postingsPerRun;
+            this.block = ByteBuffer.allocate(blockBytes + MAX_EVENT_BYTES);
+            this.pool = new JournaledPool(pool, this);
+        }
+
+        /**
+         * Creates a journal at the given path, replacing any file there.
+         *
+         * @param pool the pool the journaled learners use, initially empty
+         */
+        public static Writer create(Path path, SubmissionPool pool) {
+            return create(path, pool, BLOCK_BYTES);
+        }
+
+        /**
+         * Same as {@linkplain #create(Path, SubmissionPool)}, with blocks of about the given size.
+         */
+        static Writer create(Path path, SubmissionPool pool, int blockBytes) {
+            return create(path, pool, blockBytes, 1 << 20);
+        }
+
+        /**
+         * Same as {@linkplain #create(Path, SubmissionPool, int)}, spilling the postings in runs of the given size.
+         */
+        static Writer create(Path path, SubmissionPool pool, int blockBytes, int postingsPerRun) {
+            if (blockBytes < 1)
+                throw new IllegalArgumentException("invalid block size: " + blockBytes);
+            if (postingsPerRun < 1)
+                throw new IllegalArgumentException("invalid run size: " + postingsPerRun);
+            try {
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                Writer writer = new Writer(path, channel, pool, blockBytes, postingsPerRun);
+                ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                writer.write(header);
+                return writer;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Runs the given learners through the ticks {@code [fromInc, toExc)} like
+         * {@linkplain Simulator#mainLoop(int, int, java.util.Set, SubmissionPool, Consumer)}, journaling what they do.
+         * A writer journals one population, so later stretches must be given the same learners.
+         *
+         * @param consumer the consumer of the submissions, never given a {@code null}
+         */
+        public void run(int fromInc, int toExc, Collection<Learner> learners, Consumer<Submission> consumer) {
+            if (finished)
+                throw new IllegalStateException("the journal is finished");
+            if (order == null) {
+                order = learners.toArray(new Learner[learners.size()]);
+                states = new LearnerState[order.length];
+                for (int i = 0; i < order.length; i++)
+                    states[i] = order[i].state;
+            } else if (order.length != learners.size()) {
+                throw new IllegalArgumentException("a journal follows a single population");
+            }
+            for (int i = fromInc; i < toExc; i++) {
+                at = i;
+                for (int k = 0; k < order.length; k++) {
+                    Learner learner = order[k];
+                    Submission returned = learner.respondTo(at, pool);
+                    if (learner.state != states[k]) {
+                        append(Type.STATE, learner.lid, states[k].ordinal(), -1, learner.state.ordinal());
+                        states[k] = learner.state;
+                    }
+                    if (returned != null)
+                        consumer.accept(returned);
+                }
+            }
+        }
+
+        void append(Type type, int lid, int other, int sequenceNumber, int value) {
+            if (blockFirstTick < 0) {
+                blockFirstTick = at;
+                previousTick = at;
+            }
+            block.put((byte) type.ordinal());
+            putVarint(block, at - previousTick);
+            previousTick = at;
+            putVarint(block, lid);
+            mention(lid);
+            switch (type) {
+                case STATE:
+                    putVarint(block, other);
+                    putVarint(block, value);
+                    break;
+                case SUBMITTED:
+                    putVarint(block, sequenceNumber);
+                    break;
+                case GRADED:
+                    putVarint(block, sequenceNumber);
+                    putVarint(block, value << 1 ^ value >> 31);
+                    break;
+                default:
+                    putVarint(block, other);
+                    putVarint(block, sequenceNumber);
+                    mention(other);
+            }
+            if (block.position() >= blockBytes)
+                flushBlock();
+        }
+
+        private void mention(int lid) {
+            if (nBlockLids == blockLids.length)
+                blockLids = Arrays.copyOf(blockLids, nBlockLids * 2);
+            blockLids[nBlockLids++] = lid;
+        }
+
+        private void flushBlock() {
+            if (blockFirstTick < 0)
+                return;
+            ByteBuffer first = ByteBuffer.allocate(10);
+            putVarint(first, blockFirstTick);
+            first.flip();
+            block.flip();
+            length.clear();
+            putVarint(length, first.remaining() + block.remaining());
+            length.flip();
+            if (3 * blocks == blockIndex.length)
+                blockIndex = Arrays.copyOf(blockIndex, blockIndex.length * 2);
+            blockIndex[3 * blocks] = offset;
+            blockIndex[3 * blocks + 1] = blockFirstTick;
+            blockIndex[3 * blocks + 2] = previousTick;
+            write(length);
+            write(first);
+            write(block);
+            block.clear();
+            Arrays.sort(blockLids, 0, nBlockLids);
+            for (int i = 0; i < nBlockLids; i++) {
+                if (i > 0 && blockLids[i] == blockLids[i - 1])
+                    continue;
+                if (nPostings == postings.length)
+                    postings = Arrays.copyOf(postings, nPostings * 2);
+                postings[nPostings++] = (long) blockLids[i] << 32 | blocks;
+                lids.set(blockLids[i]);
+            }
+            nBlockLids = 0;
+            blocks++;
+            blockFirstTick = -1;
+            if (nPostings >= postingsPerRun)
+                spillPostings();
+        }
+
+        private void spillPostings() {
+            // lids are not negative, so sorting the postings sorts them by lid, then by block
+            Arrays.sort(postings, 0, nPostings);
+            try {
+                if (spill == null) {
+                    Path dir = path.toAbsolutePath().getParent();
+                    spill = FileChannel.open(Files.createTempFile(dir, path.getFileName().toString(), ".postings"),
+                            StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+                }
+                long end = runs == 0 ? 0 : runEnds[runs - 1];
+                ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+                for (int i = 0; i < nPostings; ) {
+                    buffer.clear();
+                    while (i < nPostings && buffer.hasRemaining())
+                        buffer.putLong(postings[i++]);
+                    buffer.flip();
+                    while (buffer.hasRemaining())
+                        end += spill.write(buffer, end);
+                }
+                if (runs == runEnds.length)
+                    runEnds = Arrays.copyOf(runEnds, runs * 2);
+                runEnds[runs++] = end;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            nPostings = 0;
+        }
+
+        private void write(ByteBuffer buffer) {
+            try {
+                while (buffer.hasRemaining())
+                    offset += channel.write(buffer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Writes the last block, the index and the trailer, after which the journal is complete and can be read. A run
+         * calls it once all its ticks are journaled; the writer must still be closed.
+         */
+        public void finish() {
+            if (finished)
+                throw new IllegalStateException("the journal is finished");
+            flushBlock();
+            long indexOffset = offset;
+            index = ByteBuffer.allocate(1 << 16);
+            putIndex(blocks);
+            long previousOffset = 0;
+            for (int b = 0; b < blocks; b++) {
+                putIndex(blockIndex[3 * b] - previousOffset);
+                putIndex(blockIndex[3 * b + 1]);
+                putIndex(blockIndex[3 * b + 2] - blockIndex[3 * b + 1]);
+                previousOffset = blockIndex[3 * b];
+            }
+            putIndex(lids.cardinality());
+            PriorityQueue<PostingRun> merged = postingRuns();
+            int[] learnerBlocks = new int[blocks];
+            long previousLid = 0;
+            long posting = nextPosting(merged);
+            while (posting >= 0) {
+                long lid = posting >>> 32;
+                int n = 0;
+                for (; posting >= 0 && posting >>> 32 == lid; posting = nextPosting(merged))
+                    learnerBlocks[n++] = (int) posting;
+                putIndex(lid - previousLid);
+                putIndex(n);
+                int previousBlock = 0;
+                for (int k = 0; k < n; k++) {
+                    putIndex(learnerBlocks[k] - previousBlock);
+                    previousBlock = learnerBlocks[k];
+                }
+                previousLid = lid;
+            }
+            index.flip();
+            write(index);
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES).putLong(indexOffset).putInt(MAGIC);
+            trailer.flip();
+            write(trailer);
+            finished = true;
+        }
+
+        private void putIndex(long value) {
+            if (index.remaining() < 10) {
+                index.flip();
+                write(index);
+                index.clear();
+            }
+            putVarint(index, value);
+        }
+
+        private PriorityQueue<PostingRun> postingRuns() {
+            PriorityQueue<PostingRun> merged = new PriorityQueue<>(Math.max(1, runs),
+                    (a, b) -> Long.compare(a.head, b.head));
+            if (spill == null) {
+                Arrays.sort(postings, 0, nPostings);
+                PostingRun run = new PostingRun(postings, nPostings);
+                if (run.advance())
+                    merged.add(run);
+                return merged;
+            }
+            if (nPostings > 0)
+                spillPostings();
+            for (int r = 0; r < runs; r++) {
+                PostingRun run = new PostingRun(spill, r == 0 ? 0 : runEnds[r - 1], runEnds[r]);
+                if (run.advance())
+                    merged.add(run);
+            }
+            return merged;
+        }
+
+        private static long nextPosting(PriorityQueue<PostingRun> merged) {
+            PostingRun run = merged.poll();
+            if (run == null)
+                return -1;
+            long posting = run.head;
+            if (run.advance())
+                merged.add(run);
+            return posting;
+        }
+
+        /**
+         * Closes the file, and removes the spilled postings. A journal that was not finished has no trailer.
+         */
+        @Override
+        public void close() {
+            try {
+                if (spill != null)
+                    spill.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A sorted run of postings, in memory or in the spill file, with the one it is at.
+     */
+    private static final class PostingRun {
+        private final long[] postings;
+        private final FileChannel file;
+        private final ByteBuffer buffer;
+        private long next;
+        private final long end;
+        long head;
+
+        PostingRun(long[] postings, int n) {
+            this.postings = postings;
+            this.file = null;
+            this.buffer = null;
+            this.end = n;
+        }
+
+        PostingRun(FileChannel file, long from, long to) {
+            this.postings = null;
+            this.file = file;
+            this.buffer = ByteBuffer.allocate(8 * 1024);
+            this.buffer.flip();
+            this.next = from;
+            this.end = to;
+        }
+
+        boolean advance() {
+            if (file == null) {
+                if (next == end)
+                    return false;
+                head = postings[(int) next++];
+                return true;
+            }
+            if (!buffer.hasRemaining()) {
+                if (next == end)
+                    return false;
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - next));
+                try {
+                    while (buffer.hasRemaining())
+                        if (file.read(buffer, next + buffer.position()) < 0)
+                            throw new IllegalStateException("the spilled postings are truncated");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                next += buffer.position();
+                buffer.flip();
+            }
+            head = buffer.getLong();
+            return true;
+        }
+    }
+
+    /**
+     * Delegates to the journaled pool and journals what is done to it. {@linkplain SubmissionPool#resubmit(Submission)}
+     * and {@linkplain SubmissionPool#graded(Submission)} directly follow a review, so they journal it.
+     */
+    private static final class JournaledPool extends ForwardingSubmissionPool {
+        private final Writer writer;
+
+        JournaledPool(SubmissionPool base, Writer writer) {
+            super(base);
+            this.writer = writer;
+        }
+
+        @Override
+        public Submission retrieve(Learner me) {
+            Submission retrieved = super.retrieve(me);
+            if (retrieved != null)
+                writer.append(Type.ASSIGNED, me.lid, retrieved.owner.lid, retrieved.sequenceNumber, 0);
+            return retrieved;
+        }
+
+        @Override
+        public void submit(Submission submission) {
+            super.submit(submission);
+            writer.append(Type.SUBMITTED, submission.owner.lid, -1, submission.sequenceNumber, 0);
+        }
+
+        @Override
+        public void resubmit(Submission reviewable) {
+            super.resubmit(reviewable);
+            reviewed(reviewable);
+        }
+
+        @Override
+        void graded(Submission graded) {
+            super.graded(graded);
+            reviewed(graded);
+            writer.append(Type.GRADED, graded.owner.lid, -1, graded.sequenceNumber, graded.currentScore());
+        }
+
+        private void reviewed(Submission reviewed) {
+            writer.append(Type.REVIEWED, reviewed.reviewers.peekLast().lid, reviewed.owner.lid,
+                    reviewed.sequenceNumber, 0);
+        }
+    }
+
+    /**
+     * Reads a complete journal, see {@linkplain Writer#finish()}. The blocks are mapped in windows of whole blocks, so
+     * a journal may be larger than a single mapping can be.
+     */
+    public static final class Reader {
+        private final MappedByteBuffer[] windows;
+        private final long[] windowStart;
+        private final int[] blockWindow; // the window that maps each block
+        private final long[] blockOffset;
+        private final long[] firstTick;
+        private final long[] lastTick;
+        private final int[] lids; // sorted
+        private final int[] postingsFrom; // lids[i] is in blockNumbers[postingsFrom[i], postingsFrom[i + 1])
+        private final int[] blockNumbers;
+        /** the blocks decoded by the last query */
+        int blocksRead;
+
+        private Reader(MappedByteBuffer[] windows, long[] windowStart, int[] blockWindow, long[] blockOffset,
+                       long[] firstTick, long[] lastTick, int[] lids, int[] postingsFrom, int[] blockNumbers) {
+            this.windows = windows;
+            this.windowStart = windowStart;
+            this.blockWindow = blockWindow;
+            this.blockOffset = blockOffset;
+            this.firstTick = firstTick;
+            this.lastTick = lastTick;
+            this.lids = lids;
+            this.postingsFrom = postingsFrom;
+            this.blockNumbers = blockNumbers;
+        }
+
+        /**
+         * Reads the index of the journal at the given path and maps its blocks.
+         *
+         * @throws IllegalArgumentException if the file is not a complete journal
+         */
+        public static Reader open(Path path) {
+            return open(path, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Same as {@linkplain #open(Path)}, with windows of at most the given size unless a single block is larger.
+         */
+        static Reader open(Path path, int windowBytes) {
+            if (windowBytes < 1)
+                throw new IllegalArgumentException("invalid window size: " + windowBytes);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < 8 + TRAILER_BYTES)
+                    throw new IllegalArgumentException("not a complete journal: " + path);
+                ByteBuffer header = readFully(channel, 0, 8);
+                ByteBuffer trailer = readFully(channel, size - TRAILER_BYTES, TRAILER_BYTES);
+                if (header.getInt(0) != MAGIC || trailer.getInt(8) != MAGIC)
+                    throw new IllegalArgumentException("not a complete journal: " + path);
+                if (header.getInt(4) != VERSION)
+                    throw new IllegalArgumentException("unsupported journal version: " + header.getInt(4));
+                long indexOffset = trailer.getLong(0);
+                IndexInput index = new IndexInput(channel, indexOffset, size - TRAILER_BYTES);
+                int blocks = (int) index.varint();
+                long[] blockOffset = new long[blocks], firstTick = new long[blocks], lastTick = new long[blocks];
+                long previousOffset = 0;
+                for (int b = 0; b < blocks; b++) {
+                    blockOffset[b] = previousOffset += index.varint();
+                    firstTick[b] = index.varint();
+                    lastTick[b] = firstTick[b] + index.varint();
+                }
+                int learners = (int) index.varint();
+                int[] lids = new int[learners], postingsFrom = new int[learners + 1];
+                int[] blockNumbers = new int[16];
+                int n = 0, lid = 0;
+                for (int i = 0; i < learners; i++) {
+                    lids[i] = lid += (int) index.varint();
+                    postingsFrom[i] = n;
+                    int count = (int) index.varint();
+                    if (n + count > blockNumbers.length)
+                        blockNumbers = Arrays.copyOf(blockNumbers, Math.max(n + count, blockNumbers.length * 2));
+                    int block = 0;
+                    for (int k = 0; k < count; k++)
+                        blockNumbers[n++] = block += (int) index.varint();
+                }
+                postingsFrom[learners] = n;
+                // a window starts at a block and takes the blocks that end within it; the mappings outlive the channel
+                List<MappedByteBuffer> windows = new ArrayList<>();
+                List<Long> windowStart = new ArrayList<>();
+                int[] blockWindow = new int[blocks];
+                for (int b = 0; b < blocks; ) {
+                    long start = blockOffset[b];
+                    int e = b + 1;
+                    while (e < blocks && (e + 1 < blocks ? blockOffset[e + 1] : indexOffset) - start <= windowBytes)
+                        e++;
+                    long end = e < blocks ? blockOffset[e] : indexOffset;
+                    if (end - start > Integer.MAX_VALUE)
+                        throw new IllegalArgumentException("block too large to map: " + (end - start));
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                    for (; b < e; b++)
+                        blockWindow[b] = windows.size();
+                    windows.add(window);
+                    windowStart.add(start);
+                }
+                long[] starts = new long[windowStart.size()];
+                for (int w = 0; w < starts.length; w++)
+                    starts[w] = windowStart.get(w);
+                return new Reader(windows.toArray(new MappedByteBuffer[windows.size()]), starts, blockWindow,
+                        blockOffset, firstTick, lastTick, lids, postingsFrom, blockNumbers);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining())
+                if (channel.read(buffer, position + buffer.position()) < 0)
+                    throw new IllegalArgumentException("truncated journal");
+            buffer.flip();
+            return buffer;
+        }
+
+        /** @return the number of blocks in the journal */
+        public int blocks() {
+            return blockOffset.length;
+        }
+
+        /**
+         * @return the events at the ticks {@code [fromInc, toExc)}, in the order they happened
+         */
+        public List<Event> between(long fromInc, long toExc) {
+            blocksRead = 0;
+            List<Event> events = new ArrayList<>();
+            // block tick ranges are sorted and touch at most at their ends
+            int lo = 0, hi = lastTick.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (lastTick[mid] < fromInc)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            for (int b = lo; b < firstTick.length && firstTick[b] < toExc; b++)
+                decode(b, e -> {
+                    if (e.tick >= fromInc && e.tick < toExc)
+                        events.add(e);
+                });
+            return events;
+        }
+
+        /**
+         * @return the events about the given learner or its submissions, in the order they happened
+         */
+        public List<Event> about(int lid) {
+            blocksRead = 0;
+            List<Event> events = new ArrayList<>();
+            int i = Arrays.binarySearch(lids, lid);
+            if (i < 0)
+                return events;
+            for (int k = postingsFrom[i]; k < postingsFrom[i + 1]; k++)
+                decode(blockNumbers[k], e -> {
+                    if (e.involves(lid))
+                        events.add(e);
+                });
+            return events;
+        }
+
+        /**
+         * Hands every event to the given consumer, in the order they happened.
+         */
+        public void forEach(Consumer<Event> consumer) {
+            blocksRead = 0;
+            for (int b = 0; b < blockOffset.length; b++)
+                decode(b, consumer);
+        }
+
+        private void decode(int b, Consumer<Event> consumer) {
+            blocksRead++;
+            int w = blockWindow[b];
+            ByteBuffer in = windows[w].duplicate();
+            in.position((int) (blockOffset[b] - windowStart[w]));
+            int length = (int) getVarint(in);
+            int end = in.position() + length;
+            long tick = getVarint(in);
+            while (in.position() < end) {
+                Type type = TYPES[in.get()];
+                tick += getVarint(in);
+                int lid = (int) getVarint(in);
+                switch (type) {
+                    case STATE:
+                        int from = (int) getVarint(in);
+                        consumer.accept(new Event(type, tick, lid, from, -1, (int) getVarint(in)));
+                        break;
+                    case SUBMITTED:
+                        consumer.accept(new Event(type, tick, lid, -1, (int) getVarint(in), 0));
+                        break;
+                    case GRADED:
+                        int sequenceNumber = (int) getVarint(in);
+                        int zigzag = (int) getVarint(in);
+                        consumer.accept(new Event(type, tick, lid, -1, sequenceNumber, zigzag >>> 1 ^ -(zigzag & 1)));
+                        break;
+                    default:
+                        int owner = (int) getVarint(in);
+                        consumer.accept(new Event(type, tick, lid, owner, (int) getVarint(in), 0));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the varints of the index through a small buffer, so the index need not be mapped.
+     */
+    private static final class IndexInput {
+        private final FileChannel channel;
+        private final long end;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private long position;
+
+        IndexInput(FileChannel channel, long from, long end) {
+            if (from < 8 || from > end)
+                throw new IllegalArgumentException("not a journal index: " + from);
+            this.channel = channel;
+            this.position = from;
+            this.end = end;
+            buffer.flip();
+        }
+
+        long varint() throws IOException {
+            if (buffer.remaining() < 10 && position < end) {
+                buffer.compact();
+                buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + end - position));
+                while (buffer.hasRemaining()) {
+                    int read = channel.read(buffer, position);
+                    if (read < 0)
+                        throw new IllegalArgumentException("truncated journal");
+                    position += read;
+                }
+                buffer.flip();
+            }
+            return getVarint(buffer);
+        }
+    }
+
+    static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+}
@@ -2,12 +2,11 @@ package org.kedar.pra;
 
 import java.util.*;
 
-import static org.kedar.pra.Config.*;
-import static org.kedar.pra.Config.REVIEWS_REQUIRED_PER_LEARNER;
-import static org.kedar.pra.Config.WORK_TICKS;
 import static org.kedar.pra.LearnerState.*;
 import static org.kedar.pra.SubmissionState.COMPLETE;
+import static org.kedar.pra.SubmissionState.FAILING;
 import static org.kedar.pra.SubmissionState.IN_FLIGHT;
+import static org.kedar.pra.SubmissionState.PASSING;
 import static org.kedar.pra.SubmissionState.SUBMITTED_TO_REVIEW;
 
 /**
@@ -15,24 +14,60 @@ import static org.kedar.pra.SubmissionState.SUBMITTED_TO_REVIEW;
  * Models a Learner with an emphasis on its state management.
  * In a way, a learner is a finite state machine.
  * </p>
+ * <p>
+ * Its transitions are a table by the state of the learner, that of its latest submission and what the learner finds
+ * on a tick, so a response works the event out once and makes a single lookup. The transition that fires also works
+ * out the next tick the learner needs to respond to, which the {@linkplain EventLoop} looks up right after.
+ * </p>
  * Created by kedar on 10/15/16.
  *
  * @see LearnerState
  */
 public final class Learner {
 
+    /** Returned by {@link #nextWakeTick(long)} when no tick is due on this learner's own account. */
+    static final long NEVER = Long.MAX_VALUE;
+
+    private static final SubmissionState[] SUBMISSION_STATES = SubmissionState.values();
+    private static final Event[] EVENTS = Event.values();
+    /** the column of the {@linkplain #TRANSITIONS} of a learner without a submission */
+    static final int NO_SUBMISSION = SUBMISSION_STATES.length;
+    /**
+     * the transition a learner makes, by its state, that of its latest submission and the {@linkplain Event}; null
+     * where there is none
+     */
+    private static final Transition[] TRANSITIONS =
+            new Transition[LearnerState.values().length * (NO_SUBMISSION + 1) * EVENTS.length];
+
     /* final fields are package-private for easier access from within the package,
     alternatively we could use Lombok */
     final int lid;
     final TimeTick firstSubmissionStartTick;
     LearnerState state = INACTIVE;
-    Deque<Submission> reviewsDone;
+    final Deque<Submission> reviewsDone;
     final Deque<Submission> submissions; // the head of the queue is current submission
     final int trueGrade;
     final int reviewBias;
+    /** the {@linkplain Assignment} this learner works on, see {@linkplain #on(Assignment, int, TimeTick, int, int)} */
+    final int aid;
+    /** the parameters this learner follows; a {@linkplain ParameterSweep} variant forks copies that follow its own */
+    final Config config;
+    /**
+     * this learner's position in the last {@linkplain Checkpoint} taken or {@linkplain ParameterSweep} fork, which
+     * avoids hashing learners to find it
+     */
+    int checkpointPosition = -1;
+    /** the checkpoints that save this learner, if any, see {@linkplain #saveForCheckpoint()} */
+    Checkpoint.Series checkpoints;
+    /** the number of the latest of those checkpoints that has saved this learner */
+    volatile int checkpointSaved;
+    /** the tick this learner last responded to, and the tick it needs to respond to next as of then */
+    private long respondedAt = -1;
+    private long wakeTick;
 
 
-    private Learner(int lid, TimeTick firstSubmissionStartTick, LearnerState state, int trueGrade, int reviewBias) {
+    private Learner(int lid, TimeTick firstSubmissionStartTick, LearnerState state, int trueGrade, int reviewBias,
+                    Config config, int aid) {
         this.lid = lid;
         this.firstSubmissionStartTick = firstSubmissionStartTick;
         this.state = state;
@@ -40,6 +75,8 @@ public final class Learner {
         this.submissions = new LinkedList<>();
         this.trueGrade = trueGrade;
         this.reviewBias = reviewBias;
+        this.config = config;
+        this.aid = aid;
     }
 
     public static Learner worker(int lid, TimeTick tick, int trueGrade, int reviewBias) {
@@ -47,110 +84,383 @@ public final class Learner {
             throw new IllegalArgumentException("null time firstSubmissionStartTick");
         if (lid < 0)
             throw new IllegalArgumentException("invalid learner ID: " + lid);
-        return new Learner(lid, tick, WORKING, trueGrade, reviewBias);
+        return new Learner(lid, tick, WORKING, trueGrade, reviewBias, Config.DEFAULT, Assignment.getId());
+    }
+
+    /**
+     * Creates a learner that has not started yet, like {@link #fromInputLine(String)} does.
+     */
+    public static Learner inactive(int lid, TimeTick tick, int trueGrade, int reviewBias) {
+        return inactive(lid, tick, trueGrade, reviewBias, Config.DEFAULT);
+    }
+
+    /**
+     * Same as {@linkplain #inactive(int, TimeTick, int, int)}, for a learner that follows the given parameters.
+     */
+    public static Learner inactive(int lid, TimeTick tick, int trueGrade, int reviewBias, Config config) {
+        if (config == null)
+            throw new IllegalArgumentException("null config");
+        if (tick == null)
+            throw new IllegalArgumentException("null time firstSubmissionStartTick");
+        if (lid < 0)
+            throw new IllegalArgumentException("invalid learner ID: " + lid);
+        return new Learner(lid, tick, INACTIVE, trueGrade, reviewBias, config, Assignment.getId());
     }
 
     /**
-     * A cumbersome implementation of the Learner state machine.
-     * <p>
-     * &lt;rant> mutable state! &lt;/rant>
-     * </p>
+     * Creates a learner's progress on the given assignment of a {@linkplain Course}: a learner that has not started yet,
+     * starts at the given tick, works on the assignment only, and follows its parameters. A learner taking several
+     * assignments is modeled by one instance per assignment, all with the same id, true grade and review bias.
+     */
+    static Learner on(Assignment assignment, int lid, TimeTick tick, int trueGrade, int reviewBias) {
+        return new Learner(lid, tick, INACTIVE, trueGrade, reviewBias, assignment.config, assignment.aid);
+    }
+
+    /**
+     * Recreates a learner from a {@linkplain Checkpoint}, without any submissions or reviews yet.
+     */
+    static Learner restore(int lid, TimeTick tick, LearnerState state, int trueGrade, int reviewBias, Config config,
+                           int aid) {
+        return new Learner(lid, tick, state, trueGrade, reviewBias, config, aid);
+    }
+
+    /**
+     * Responds to the given tick: works out the {@linkplain Event} from the timing of the latest submission and the
+     * reviews, and fires the {@linkplain Transition} the table has for it, the state of this learner and that of its
+     * latest submission.
      *
      * @param at   the current tick coming in from Simulator
      * @param pool the pool of submissions that is manipulated in response to state changes
-     * @return
+     * @return the submission that entered the pool, if any
      */
     public Submission respondTo(TimeTick at, SubmissionPool pool) {
-        if (at.happensBefore(this.firstSubmissionStartTick)) { // it's not time to start working yet
+        return respondTo(at.getValue(), pool);
+    }
+
+    /**
+     * Same as {@linkplain #respondTo(TimeTick, SubmissionPool)}, but does not need a {@linkplain TimeTick} per tick.
+     * Responding to a tick at which nothing happens allocates nothing.
+     */
+    public Submission respondTo(long at, SubmissionPool pool) {
+        saveForCheckpoint();
+        respondedAt = at;
+        if (this.firstSubmissionStartTick.happensAfter(at)) { // it's not time to start working yet
+            wakeTick = firstSubmissionStartTick.getValue();
             return null;
         }
         Submission latestSubmission = submissions.peekLast();
-        if (latestSubmission == null) { // first submission task
-            LinkedList<Learner> reviewers = new LinkedList<>();
-            latestSubmission = new Submission(this, Assignment.getId(), at, IN_FLIGHT, reviewers, 0);
-            submissions.addLast(latestSubmission);
-            this.state = WORKING;
-            return null;
-        } else if (latestSubmission.isComplete(at)) {
-            if (! latestSubmission.isSubmittedToReview(at)) {
+        Event event = eventAt(at, latestSubmission);
+        Transition transition = transition(state,
+                latestSubmission == null ? NO_SUBMISSION : latestSubmission.state.ordinal(), event);
+        if (transition == null)
+            throw new IllegalStateException("bug, this learner: " + this + " is in illegal state, no transition on " +
+                    event + " of " + latestSubmission + " at time tick: " + at);
+        return transition.fire(this, latestSubmission, at, pool);
+    }
+
+    private Event eventAt(long at, Submission latestSubmission) {
+        if (latestSubmission == null)
+            return Event.START;
+        if (!latestSubmission.isComplete(at))
+            return Event.WORK;
+        if (latestSubmission.state != SUBMITTED_TO_REVIEW)
+            return Event.WORK_DONE;
+        if (reviewsDone.size() >= config.reviewsRequiredPerLearner)
+            return Event.REVIEWS_DONE;
+        Submission reviewable = reviewsDone.peekLast();
+        return reviewable != null && at - reviewable.tick >= config.reviewTicks ? Event.REVIEW_DONE : Event.REVIEW;
+    }
+
+    /**
+     * Returns the earliest tick after {@code at} at which {@link #respondTo(long, SubmissionPool)} could be
+     * anything other than a no-op, provided that no other learner touches the pool or this learner's latest
+     * submission in the meantime. Returns {@link #NEVER} if only such an interaction can wake this learner up.
+     * The transitions work it out as they fire, so right after a response it is only looked up.
+     *
+     * @param at the tick this learner last responded to
+     * @return the next tick this learner needs to respond to, or {@link #NEVER}
+     */
+    long nextWakeTick(long at) {
+        return at == respondedAt ? wakeTick : workOutWakeTick(at);
+    }
+
+    /**
+     * Same as {@linkplain #nextWakeTick(long)}, worked out from the state of this learner rather than looked up.
+     */
+    long workOutWakeTick(long at) {
+        long now = at;
+        if (now < firstSubmissionStartTick.getValue())
+            return firstSubmissionStartTick.getValue();
+        Submission latestSubmission = submissions.peekLast();
+        if (latestSubmission == null)
+            return now + 1;
+        if (!latestSubmission.isComplete(at))
+            return latestSubmission.workDoneTick;
+        if (!latestSubmission.isSubmittedToReview(at))
+            return now + 1;
+        return reviewWakeTick(at, latestSubmission);
+    }
+
+    /**
+     * @return the next wake tick of a learner whose latest submission is under review
+     */
+    private long reviewWakeTick(long at, Submission latestSubmission) {
+        if (reviewsDone.size() >= config.reviewsRequiredPerLearner) // only a new review can change a passing grade
+            return (state != SLEEPING || latestSubmission.isFailing(at)) ? at + 1 : NEVER;
+        Submission reviewable = reviewsDone.peekLast();
+        if (reviewable == null) // waiting for the pool to hand something out
+            return NEVER;
+        return Math.max(at + 1, reviewable.tick + config.reviewTicks);
+    }
+
+    /**
+     * @return true if this learner asks the pool for a submission to review whenever it responds to a tick
+     */
+    boolean isAwaitingReviewable() {
+        Submission latestSubmission = submissions.peekLast();
+        return latestSubmission != null && latestSubmission.state == SUBMITTED_TO_REVIEW
+                && reviewsDone.size() < config.reviewsRequiredPerLearner;
+    }
+
+    /**
+     * Tells whether {@link #respondTo(long, SubmissionPool)} at the given tick neither touches the pool nor reads
+     * or writes anything another learner could change in the same tick. Such responses commute with those of all
+     * other learners, so they may run in any order, or concurrently.
+     *
+     * @param at the tick about to be responded to
+     * @return true if this learner's response only involves this learner
+     */
+    boolean respondsLocally(long at) {
+        if (this.firstSubmissionStartTick.happensAfter(at))
+            return true;
+        Submission latestSubmission = submissions.peekLast();
+        if (latestSubmission == null || !latestSubmission.isComplete(at))
+            return true;
+        if (!latestSubmission.isSubmittedToReview(at))
+            return false; // goes into the pool
+        if (reviewsDone.size() >= config.reviewsRequiredPerLearner) // the grade is final once nobody can review it
+            return latestSubmission.reviewers.size() >= config.reviewsRequiredPerSubmission;
+        return false; // reviews come from the pool
+    }
+
+    /**
+     * @return true once nothing can change this learner any more: its latest submission passed and is fully reviewed,
+     * and it has done its reviews, so every tick it responds to from now on is a no-op
+     */
+    boolean isFinished() {
+        Submission latestSubmission = submissions.peekLast();
+        return state == SLEEPING && latestSubmission != null
+                && latestSubmission.reviewers.size() >= config.reviewsRequiredPerSubmission;
+    }
+
+    /**
+     * Lets the {@linkplain Checkpoint} that is being saved, if any, save this learner before it, or one of its
+     * submissions, changes.
+     */
+    void saveForCheckpoint() {
+        if (checkpoints != null)
+            checkpoints.save(this);
+    }
+
+    /**
+     * Lets go of the submissions and reviews of a {@linkplain #isFinished() finished} learner, so that the learners it
+     * reviewed for do not keep its whole history reachable. The learner must not respond to any tick afterwards.
+     */
+    void retire() {
+        if (!isFinished())
+            throw new IllegalStateException("learner " + lid + " has not finished: " + state);
+        submissions.clear();
+        reviewsDone.clear();
+    }
+
+    /**
+     * Replaces the given submission, which this learner has reviewed, by a {@code null} among its reviews done. Once
+     * reviewed, a submission only counts towards the reviews done, so their number and the latest one, which may still
+     * be under review, stay as they are.
+     */
+    void forgetReview(Submission reviewed) {
+        if (reviewsDone.peekLast() == reviewed) {
+            reviewsDone.pollLast();
+            reviewsDone.addLast(null);
+        } else if (reviewsDone.removeFirstOccurrence(reviewed)) {
+            reviewsDone.addFirst(null);
+        }
+    }
+
+    /**
+     * @return the next submission, which is yet to be {@linkplain #started(Submission, long) started}
+     */
+    private Submission handleFailedSubmission(Submission previous, long at) {
+        LinkedList<Learner> reviewers = new LinkedList<>(); // the previous submission keeps its own reviewers
+        this.reviewsDone.clear(); // need to do reviews again
+        return new Submission(this, aid, at, IN_FLIGHT, reviewers, previous.sequenceNumber + 1);
+    }
+
+    /**
+     * What a learner that has started finds when it responds to a tick, from the timing of its latest submission and
+     * its reviews.
+     */
+    enum Event {
+        START, /* there is no submission yet */
+        WORK, /* the latest submission is not done yet */
+        WORK_DONE, /* it is done, but not under review yet */
+        REVIEW, /* it is under review, and the review this learner took on last, if any, is not done yet */
+        REVIEW_DONE, /* it is under review, and the review this learner took on last is done */
+        REVIEWS_DONE /* it is under review, and this learner has done all its reviews */
+    }
+
+    /**
+     * The work a learner does on an {@linkplain Event}, which also sets the tick it needs to respond to next, see
+     * {@linkplain #nextWakeTick(long)}. The {@linkplain LearnerStore} fires the same transitions on its columns.
+     */
+    enum Transition {
+        START {
+            @Override
+            Submission fire(Learner learner, Submission latestSubmission, long at, SubmissionPool pool) {
+                LinkedList<Learner> reviewers = new LinkedList<>();
+                learner.started(new Submission(learner, learner.aid, at, IN_FLIGHT, reviewers, 0), at);
+                return null;
+            }
+        },
+        WORK {
+            @Override
+            Submission fire(Learner learner, Submission latestSubmission, long at, SubmissionPool pool) {
+                learner.state = WORKING;
+                learner.wakeTick = latestSubmission.workDoneTick;
+                return null;
+            }
+        },
+        SLEEP {
+            @Override
+            Submission fire(Learner learner, Submission latestSubmission, long at, SubmissionPool pool) {
+                learner.state = SLEEPING;
+                learner.wakeTick = latestSubmission.workDoneTick;
+                return null;
+            }
+        },
+        /** gets back to work, on the next submission */
+        RESUBMIT {
+            @Override
+            Submission fire(Learner learner, Submission latestSubmission, long at, SubmissionPool pool) {
+                learner.started(learner.handleFailedSubmission(latestSubmission, at), at);
+                return null;
+            }
+        },
+        SUBMIT {
+            @Override
+            Submission fire(Learner learner, Submission latestSubmission, long at, SubmissionPool pool) {
                 pool.submit(latestSubmission);
                 latestSubmission.state = SUBMITTED_TO_REVIEW;
+                learner.wakeTick = learner.reviewWakeTick(at, latestSubmission);
                 return latestSubmission;
             }
-            if (this.reviewsDone.size() == REVIEWS_REQUIRED_PER_LEARNER) { // done reviewing
-                this.state = WAITING_FOR_GRADE;
-                if (latestSubmission.isFailing(at)) {
-                    handleFailedSubmission(latestSubmission, at);
-                    this.state = WORKING;
-                    return null;
+        },
+        TAKE_REVIEW {
+            @Override
+            Submission fire(Learner learner, Submission latestSubmission, long at, SubmissionPool pool) {
+                learner.state = REVIEWING;
+                Submission forReview = pool.retrieve(learner);
+                if (forReview != null)
+                    learner.reviewsDone.addLast(forReview);
+                learner.wakeTick = learner.reviewWakeTick(at, latestSubmission);
+                return null;
+            }
+        },
+        FINISH_REVIEW {
+            @Override
+            Submission fire(Learner learner, Submission latestSubmission, long at, SubmissionPool pool) {
+                final Submission reviewable = learner.reviewsDone.peekLast();
+                reviewable.provideReview(learner, at);
+                if (reviewable.reviewers.size() < learner.config.reviewsRequiredPerSubmission) {
+                    pool.resubmit(reviewable);
+                } else {
+                    pool.graded(reviewable);
                 }
-            } else {
-                if (latestReviewTimeSimulated(at)) {
-                    final Submission reviewable = reviewsDone.peekLast();
-                    reviewable.provideReview(this, at);
-                    if (reviewable.reviewers.size() < Config.REVIEWS_REQUIRED_PER_SUBMISSION) {
-                        pool.resubmit(reviewable);
-                    }
-                    if (reviewsDone.size() == REVIEWS_REQUIRED_PER_LEARNER) {
-                        this.state = WAITING_FOR_GRADE;
-                        return null;
-                    } else {
-                        Submission forReview = pool.retrieve(this);
-                        reviewsDone.addLast(forReview);
-                        this.state = REVIEWING;
-                        return null;
-                    }
+                if (learner.reviewsDone.size() >= learner.config.reviewsRequiredPerLearner) {
+                    learner.state = WAITING_FOR_GRADE;
                 } else {
-                    // simply work on reviews
-                    if (reviewsDone.isEmpty() || reviewsDone.size() < REVIEWS_REQUIRED_PER_LEARNER) {
-                        this.state = REVIEWING;
-                        Submission forReview = pool.retrieve(this);
-                        if (forReview == null) {
-                            // nothing to review!
-                        } else {
-                            reviewsDone.addLast(forReview);
-                        }
-                        return null;
-                    }
+                    learner.reviewsDone.addLast(pool.retrieve(learner)); // which may be null
+                    learner.state = REVIEWING;
                 }
+                learner.wakeTick = learner.reviewWakeTick(at, latestSubmission);
+                return null;
             }
-        } else if (latestSubmission.isFailing(at)) {
-            // get back to work; start next submission
-            handleFailedSubmission(latestSubmission, at);
-            this.state = WORKING;
-            return null;
-        } else if (latestSubmission.isPassing(at)) {
-            this.state = SLEEPING;
-            return null;
-        } else if (latestSubmission.isPending(at)) {
-            this.state = WORKING;
-            return null;
-        }
-        throw new IllegalStateException("bug, this learner: " + this + " is in illegal state, no transition " +
-                "at time tick: " + at);
+        },
+        GRADE {
+            @Override
+            Submission fire(Learner learner, Submission latestSubmission, long at, SubmissionPool pool) {
+                learner.state = WAITING_FOR_GRADE;
+                if (latestSubmission.isFailing(at))
+                    return RESUBMIT.fire(learner, latestSubmission, at, pool);
+                learner.state = SLEEPING; // graded and passing, nothing left to do
+                learner.wakeTick = NEVER;
+                return null;
+            }
+        };
+
+        abstract Submission fire(Learner learner, Submission latestSubmission, long at, SubmissionPool pool);
     }
 
-    private void handleFailedSubmission(Submission previous, TimeTick at) {
-        LinkedList<Learner> reviewers = new LinkedList<>();
-        Submission latestSubmission = new Submission(this, Assignment.getId(), at, IN_FLIGHT, reviewers, previous.sequenceNumber + 1);
-        this.submissions.addLast(latestSubmission);
-        this.reviewsDone = new LinkedList<>(); // need to do reviews again
+    private void started(Submission latestSubmission, long at) {
+        submissions.addLast(latestSubmission);
+        state = WORKING;
+        wakeTick = Math.max(at + 1, latestSubmission.workDoneTick);
     }
 
-    private boolean latestReviewTimeSimulated(TimeTick at) {
-        Submission latest = reviewsDone.peekLast();
-        if (latest == null)
-            return false;
-        return (at.getValue() - latest.tick.getValue()) >= REVIEW_TICKS;
+    /**
+     * @param submissionState the ordinal of the state of the latest submission, or {@linkplain #NO_SUBMISSION}
+     * @return the transition a learner makes on the given event, or null if there is none
+     */
+    static Transition transition(LearnerState learnerState, int submissionState, Event event) {
+        return TRANSITIONS[transitionIndex(learnerState, submissionState, event)];
+    }
+
+    private static int transitionIndex(LearnerState learnerState, int submissionState, Event event) {
+        return (learnerState.ordinal() * (NO_SUBMISSION + 1) + submissionState) * EVENTS.length + event.ordinal();
+    }
+
+    private static void on(LearnerState learnerState, int submissionState, Event event, Transition transition) {
+        TRANSITIONS[transitionIndex(learnerState, submissionState, event)] = transition;
+    }
+
+    static {
+        for (LearnerState learnerState : LearnerState.values()) {
+            if (learnerState == INACTIVE || learnerState == WORKING) // the latter if made a worker
+                on(learnerState, NO_SUBMISSION, Event.START, Transition.START);
+            if (learnerState == INACTIVE) // has no submission
+                continue;
+            for (SubmissionState submissionState : SUBMISSION_STATES) {
+                int s = submissionState.ordinal();
+                if (submissionState == SUBMITTED_TO_REVIEW) {
+                    on(learnerState, s, Event.REVIEW, Transition.TAKE_REVIEW);
+                    on(learnerState, s, Event.REVIEW_DONE, Transition.FINISH_REVIEW);
+                    on(learnerState, s, Event.REVIEWS_DONE, Transition.GRADE);
+                } else {
+                    on(learnerState, s, Event.WORK_DONE, Transition.SUBMIT);
+                }
+                if (submissionState != COMPLETE) // which is always done
+                    on(learnerState, s, Event.WORK, submissionState == FAILING ? Transition.RESUBMIT
+                            : submissionState == PASSING ? Transition.SLEEP : Transition.WORK);
+            }
+        }
     }
 
     public static Learner fromInputLine(String line) {
+        return fromInputLine(line, Config.DEFAULT);
+    }
+
+    /**
+     * Same as {@linkplain #fromInputLine(String)}, for a learner that follows the given parameters.
+     */
+    public static Learner fromInputLine(String line, Config config) {
         String[] parts = line.split("\\s+");
         return new Learner(Integer.valueOf(parts[0]),
                 new TimeTick(Integer.valueOf(parts[1])),
                 LearnerState.INACTIVE,
                 Integer.valueOf(parts[2]),
-                Integer.valueOf(parts[3]));
+                Integer.valueOf(parts[3]),
+                config,
+                Assignment.getId());
     }
 
     @Override
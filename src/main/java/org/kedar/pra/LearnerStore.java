@@ -0,0 +1,430 @@
+package org.kedar.pra;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.IntConsumer;
+
+/**
+ * <p>
+ *     A columnar (struct-of-arrays) backend for the {@linkplain Learner} and {@linkplain Submission} state machine,
+ *     for populations too large to be modeled with an object graph per learner. Learners and submissions are plain
+ *     {@code int} ids into primitive arrays: learner {@code i} is the {@code i}-th learner added, and its fields live
+ *     at index {@code i} of the learner columns. Reviews are kept in fixed-width slots, as many per learner and per
+ *     submission as the {@linkplain Config} of the store requires. The pool is an intrusive doubly-linked list threaded
+ *     through the submission columns.
+ * </p>
+ * <p>
+ *     Only the latest submission of a learner is ever consulted, so a learner's history is not linked up; every
+ *     submission knows its owner and sequence number. {@linkplain #respondTo(int, int)} works out the same event as
+ *     {@linkplain Learner#respondTo(TimeTick, SubmissionPool)} and fires the transition of the learners' own table on
+ *     the columns, so that running the same learners in the same order produces the same output as the object model
+ *     with a pool that hands out submissions in insertion order. A submission is freed, and its id reused, once
+ *     nothing can consult it any more: its owner has moved on to the next one, it is out of the pool, and no reviewer
+ *     is still to review it. A learner takes about 34 bytes and a submission about 41 bytes.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class LearnerStore {
+
+    private static final int NONE = -1;
+    private static final LearnerState[] LEARNER_STATES = LearnerState.values();
+    private static final byte WORKING = (byte) LearnerState.WORKING.ordinal();
+    private static final byte REVIEWING = (byte) LearnerState.REVIEWING.ordinal();
+    private static final byte WAITING_FOR_GRADE = (byte) LearnerState.WAITING_FOR_GRADE.ordinal();
+    private static final byte SLEEPING = (byte) LearnerState.SLEEPING.ordinal();
+    private static final byte IN_FLIGHT = (byte) SubmissionState.IN_FLIGHT.ordinal();
+    private static final byte SUBMITTED_TO_REVIEW = (byte) SubmissionState.SUBMITTED_TO_REVIEW.ordinal();
+    private static final Learner.Event[] EVENTS = Learner.Event.values();
+    /** the transitions of the learners' table, by the state of a learner, that of its latest submission and event */
+    private static final Learner.Transition[] TRANSITIONS =
+            new Learner.Transition[LEARNER_STATES.length * (Learner.NO_SUBMISSION + 1) * EVENTS.length];
+
+    static {
+        int k = 0;
+        for (LearnerState learnerState : LEARNER_STATES)
+            for (int submissionState = 0; submissionState <= Learner.NO_SUBMISSION; submissionState++)
+                for (Learner.Event event : EVENTS)
+                    TRANSITIONS[k++] = Learner.transition(learnerState, submissionState, event);
+    }
+
+    private final Config config;
+    private final int rpl; // reviews required per learner
+    private final int rps; // reviews required per submission
+
+    // learner columns
+    private int nLearners;
+    private int[] lid;
+    private int[] firstSubmissionStartTick;
+    private int[] trueGrade;
+    private int[] reviewBias;
+    private byte[] state;
+    private int[] latest; // the latest submission, NONE if there is none yet
+    private int[] reviewsDone; // rpl slots per learner, NONE for a review that came back empty from the pool
+    private byte[] reviewsDoneCount;
+
+    // submission columns
+    private int nSubmissions;
+    private int[] owner;
+    private int[] tick;
+    private int[] sequenceNumber;
+    private byte[] submissionState;
+    private int[] reviewers; // rps slots per submission
+    private byte[] reviewerCount;
+    private int[] gradeTick; // the tick of the latest review
+    private int[] poolNext;
+    private int[] poolPrev; // the next freed submission, for one that is freed
+    private boolean[] pooled;
+    private byte[] holders; // the owner while it is the latest, the pool, and a reviewer that is still to review it
+
+    // the pool, oldest first
+    private int poolHead = NONE;
+    private int poolTail = NONE;
+    private int poolSize;
+    private int freed = NONE; // the latest submission freed
+
+    public LearnerStore(int learnerCapacity) {
+        this(learnerCapacity, Config.DEFAULT);
+    }
+
+    /**
+     * @param learnerCapacity the learners to make room for
+     * @param config          the parameters all the learners follow
+     */
+    public LearnerStore(int learnerCapacity, Config config) {
+        if (learnerCapacity < 1)
+            throw new IllegalArgumentException("invalid capacity: " + learnerCapacity);
+        this.config = config;
+        this.rpl = config.reviewsRequiredPerLearner;
+        this.rps = config.reviewsRequiredPerSubmission;
+        this.lid = new int[learnerCapacity];
+        this.firstSubmissionStartTick = new int[learnerCapacity];
+        this.trueGrade = new int[learnerCapacity];
+        this.reviewBias = new int[learnerCapacity];
+        this.state = new byte[learnerCapacity];
+        this.latest = new int[learnerCapacity];
+        this.reviewsDone = new int[learnerCapacity * rpl];
+        this.reviewsDoneCount = new byte[learnerCapacity];
+        growSubmissions(learnerCapacity * 2);
+    }
+
+    /**
+     * Copies the given, not yet started, learners into a new store, in iteration order.
+     *
+     * @throws IllegalArgumentException if the learners do not all follow the same parameters
+     */
+    public static LearnerStore of(Collection<Learner> learners) {
+        Config config = learners.isEmpty() ? Config.DEFAULT : learners.iterator().next().config;
+        LearnerStore store = new LearnerStore(Math.max(1, learners.size()), config);
+        for (Learner l : learners) {
+            if (!l.config.equals(config))
+                throw new IllegalArgumentException("learner " + l.lid + " follows other parameters: " + l.config);
+            store.add(l.lid, (int) l.firstSubmissionStartTick.getValue(), l.trueGrade, l.reviewBias);
+        }
+        return store;
+    }
+
+    /**
+     * Adds an {@linkplain LearnerState#INACTIVE} learner.
+     *
+     * @return the index of the learner in this store
+     */
+    public int add(int lid, int firstSubmissionStartTick, int trueGrade, int reviewBias) {
+        if (lid < 0)
+            throw new IllegalArgumentException("invalid learner ID: " + lid);
+        if (firstSubmissionStartTick < 0)
+            throw new IllegalArgumentException("negative value not allowed: " + firstSubmissionStartTick);
+        if (nLearners == this.lid.length)
+            growLearners(nLearners * 2);
+        int i = nLearners++;
+        this.lid[i] = lid;
+        this.firstSubmissionStartTick[i] = firstSubmissionStartTick;
+        this.trueGrade[i] = trueGrade;
+        this.reviewBias[i] = reviewBias;
+        this.state[i] = (byte) LearnerState.INACTIVE.ordinal();
+        this.latest[i] = NONE;
+        return i;
+    }
+
+    public int size() {
+        return nLearners;
+    }
+
+    public int poolSize() {
+        return poolSize;
+    }
+
+    /** @return the submission ids in use or freed for reuse, which bounds the memory the submissions take */
+    int submissionIds() {
+        return nSubmissions;
+    }
+
+    public LearnerState state(int learner) {
+        return LEARNER_STATES[state[learner]];
+    }
+
+    /**
+     * The columnar counterpart of the tick-stepping main loop of the {@linkplain Simulator}: every learner, in the
+     * order they were added, responds to every tick in {@code [fromInc, toExc)}.
+     *
+     * @param consumer receives the id of every submission that enters review, see {@linkplain #toOutput(int)}
+     */
+    public void run(int fromInc, int toExc, IntConsumer consumer) {
+        for (int t = fromInc; t < toExc; t++) {
+            for (int i = 0; i < nLearners; i++) {
+                int returned = respondTo(i, t);
+                if (returned != NONE)
+                    consumer.accept(returned);
+            }
+        }
+    }
+
+    /**
+     * Same as {@linkplain Learner#respondTo(TimeTick, SubmissionPool)}, for the learner at the given index.
+     *
+     * @return the submission that entered review, or {@code -1}
+     */
+    public int respondTo(int i, int at) {
+        if (at < firstSubmissionStartTick[i]) // it's not time to start working yet
+            return NONE;
+        int s = latest[i];
+        Learner.Event event = eventAt(i, s, at);
+        Learner.Transition transition = TRANSITIONS[(state[i] * (Learner.NO_SUBMISSION + 1)
+                + (s == NONE ? Learner.NO_SUBMISSION : submissionState[s])) * EVENTS.length + event.ordinal()];
+        if (transition == null)
+            throw new IllegalStateException("bug, learner " + lid[i] + " is in illegal state " + state(i)
+                    + ", no transition on " + event + " at time tick: " + at);
+        switch (transition) {
+            case START:
+                latest[i] = newSubmission(i, at, 0);
+                state[i] = WORKING;
+                return NONE;
+            case WORK:
+                state[i] = WORKING;
+                return NONE;
+            case SLEEP:
+                state[i] = SLEEPING;
+                return NONE;
+            case RESUBMIT:
+                startOver(i, s, at);
+                return NONE;
+            case SUBMIT:
+                poolAdd(s);
+                submissionState[s] = SUBMITTED_TO_REVIEW;
+                return s;
+            case TAKE_REVIEW:
+                state[i] = REVIEWING;
+                int forReview = retrieve(i);
+                if (forReview != NONE)
+                    takeReview(i, forReview);
+                return NONE;
+            case FINISH_REVIEW:
+                int reviewable = reviewsDone[i * rpl + reviewsDoneCount[i] - 1];
+                provideReview(reviewable, i, at);
+                if (reviewerCount[reviewable] < rps)
+                    poolAdd(reviewable);
+                if (reviewsDoneCount[i] >= rpl) {
+                    state[i] = WAITING_FOR_GRADE;
+                } else {
+                    takeReview(i, retrieve(i)); // which may be NONE
+                    state[i] = REVIEWING;
+                }
+                return NONE;
+            case GRADE:
+                if (currentScore(s) < config.passingPoints)
+                    startOver(i, s, at);
+                else
+                    state[i] = SLEEPING; // graded and passing, nothing left to do
+                return NONE;
+            default:
+                throw new IllegalStateException("unknown transition: " + transition);
+        }
+    }
+
+    /**
+     * Same as the event {@linkplain Learner#respondTo(long, SubmissionPool)} works out, for a learner that has started.
+     */
+    private Learner.Event eventAt(int i, int s, int at) {
+        if (s == NONE)
+            return Learner.Event.START;
+        if (at - tick[s] < config.workTicks)
+            return Learner.Event.WORK;
+        if (submissionState[s] != SUBMITTED_TO_REVIEW)
+            return Learner.Event.WORK_DONE;
+        int done = reviewsDoneCount[i];
+        if (done >= rpl)
+            return Learner.Event.REVIEWS_DONE;
+        int reviewable = done == 0 ? NONE : reviewsDone[i * rpl + done - 1];
+        return reviewable != NONE && at - tick[reviewable] >= config.reviewTicks ? Learner.Event.REVIEW_DONE
+                : Learner.Event.REVIEW;
+    }
+
+    public int currentScore(int s) {
+        int rs = reviewerCount[s];
+        int score = trueGrade[owner[s]] * rs;
+        for (int k = 0; k < rs; k++)
+            score += reviewBias[reviewers[s * rps + k]];
+        return score;
+    }
+
+    /**
+     * Same as {@linkplain Submission#toOutput()}.
+     */
+    public String toOutput(int s) {
+        return toOutput(s, new StringBuilder(32)).toString();
+    }
+
+    StringBuilder toOutput(int s, StringBuilder buf) {
+        return buf.append(lid[owner[s]])
+                .append(" ")
+                .append(sequenceNumber[s])
+                .append(" ")
+                .append(tick[s])
+                .append(" ")
+                .append(currentScore(s))
+                .append(" ")
+                .append(reviewerCount[s] < rps ? -1 : gradeTick[s]);
+    }
+
+    /**
+     * Same as {@linkplain ResultSink#accept(Submission)}, without a String.
+     */
+    public void writeTo(int s, ResultSink sink) {
+        sink.write(lid[owner[s]], sequenceNumber[s], tick[s], currentScore(s),
+                reviewerCount[s] < rps ? -1 : gradeTick[s]);
+    }
+
+    private int newSubmission(int i, int at, int seq) {
+        int s = freed;
+        if (s != NONE) {
+            freed = poolPrev[s];
+        } else {
+            if (nSubmissions == owner.length)
+                growSubmissions(nSubmissions * 2);
+            s = nSubmissions++;
+        }
+        owner[s] = i;
+        tick[s] = at;
+        sequenceNumber[s] = seq;
+        submissionState[s] = IN_FLIGHT;
+        reviewerCount[s] = 0;
+        gradeTick[s] = 0;
+        holders[s] = 1; // the owner
+        return s;
+    }
+
+    /**
+     * Gets the learner back to work, on the submission after the given one.
+     */
+    private void startOver(int i, int previous, int at) {
+        latest[i] = newSubmission(i, at, sequenceNumber[previous] + 1);
+        releaseLastReview(i);
+        reviewsDoneCount[i] = 0; // need to do reviews again
+        release(previous);
+        state[i] = WORKING;
+    }
+
+    /**
+     * Takes on a review the pool handed out, or {@code NONE} if it had none. The learner reviews its latest review
+     * only, and only while it has reviews left to do, see {@linkplain #eventAt(int, int, int)}.
+     */
+    private void takeReview(int i, int s) {
+        releaseLastReview(i);
+        int done = reviewsDoneCount[i]++;
+        reviewsDone[i * rpl + done] = s;
+        if (s != NONE && done + 1 == rpl) // it will never be reviewed
+            release(s);
+    }
+
+    private void releaseLastReview(int i) {
+        int done = reviewsDoneCount[i];
+        if (done > 0 && done < rpl && reviewsDone[i * rpl + done - 1] != NONE)
+            release(reviewsDone[i * rpl + done - 1]);
+    }
+
+    private void release(int s) {
+        if (--holders[s] == 0) {
+            poolPrev[s] = freed;
+            freed = s;
+        }
+    }
+
+    private void provideReview(int s, int reviewer, int at) {
+        reviewers[s * rps + reviewerCount[s]++] = reviewer;
+        gradeTick[s] = at;
+    }
+
+    /**
+     * Takes the first submission the given learner may review out of the pool, passing the pool's hold on to it to
+     * the learner.
+     */
+    private int retrieve(int me) {
+        for (int s = poolHead; s != NONE; s = poolNext[s]) {
+            if (owner[s] != me && !reviewedBy(s, me)) {
+                poolRemove(s);
+                return s;
+            }
+        }
+        return NONE;
+    }
+
+    private boolean reviewedBy(int s, int learner) {
+        for (int k = s * rps, end = k + reviewerCount[s]; k < end; k++)
+            if (reviewers[k] == learner)
+                return true;
+        return false;
+    }
+
+    private void poolAdd(int s) {
+        if (pooled[s])
+            return;
+        pooled[s] = true;
+        holders[s]++;
+        poolPrev[s] = poolTail;
+        poolNext[s] = NONE;
+        if (poolTail == NONE)
+            poolHead = s;
+        else
+            poolNext[poolTail] = s;
+        poolTail = s;
+        poolSize++;
+    }
+
+    private void poolRemove(int s) {
+        int prev = poolPrev[s], next = poolNext[s];
+        if (prev == NONE)
+            poolHead = next;
+        else
+            poolNext[prev] = next;
+        if (next == NONE)
+            poolTail = prev;
+        else
+            poolPrev[next] = prev;
+        pooled[s] = false;
+        poolSize--;
+    }
+
+    private void growLearners(int capacity) {
+        lid = Arrays.copyOf(lid, capacity);
+        firstSubmissionStartTick = Arrays.copyOf(firstSubmissionStartTick, capacity);
+        trueGrade = Arrays.copyOf(trueGrade, capacity);
+        reviewBias = Arrays.copyOf(reviewBias, capacity);
+        state = Arrays.copyOf(state, capacity);
+        latest = Arrays.copyOf(latest, capacity);
+        reviewsDone = Arrays.copyOf(reviewsDone, capacity * rpl);
+        reviewsDoneCount = Arrays.copyOf(reviewsDoneCount, capacity);
+    }
+
+    private void growSubmissions(int capacity) {
+        owner = owner == null ? new int[capacity] : Arrays.copyOf(owner, capacity);
+        tick = tick == null ? new int[capacity] : Arrays.copyOf(tick, capacity);
+        sequenceNumber = sequenceNumber == null ? new int[capacity] : Arrays.copyOf(sequenceNumber, capacity);
+        submissionState = submissionState == null ? new byte[capacity] : Arrays.copyOf(submissionState, capacity);
+        reviewers = reviewers == null ? new int[capacity * rps] : Arrays.copyOf(reviewers, capacity * rps);
+        reviewerCount = reviewerCount == null ? new byte[capacity] : Arrays.copyOf(reviewerCount, capacity);
+        gradeTick = gradeTick == null ? new int[capacity] : Arrays.copyOf(gradeTick, capacity);
+        poolNext = poolNext == null ? new int[capacity] : Arrays.copyOf(poolNext, capacity);
+        poolPrev = poolPrev == null ? new int[capacity] : Arrays.copyOf(poolPrev, capacity);
+        pooled = pooled == null ? new boolean[capacity] : Arrays.copyOf(pooled, capacity);
+        holders = holders == null ? new byte[capacity] : Arrays.copyOf(holders, capacity);
+    }
+}
@@ -0,0 +1,325 @@
+package org.kedar.pra;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ *     Runtime metrics of a simulation: the depth of the pool, the number of learners in each
+ *     {@linkplain LearnerState}, how many {@linkplain SubmissionPool#retrieve(Learner)} calls found something to
+ *     review, and the distribution of the grading latency, i.e. {@linkplain Submission#gradeTick()} minus the tick the
+ *     submission was started at.
+ * </p>
+ * <p>
+ *     The counters are updated by the pool returned by {@linkplain #meter(SubmissionPool)}, with plain fields on the
+ *     thread that runs the simulation, which adds a delegating call and an increment to every pool operation and
+ *     nothing to the learners' own work. Counting the learners' states takes a pass over all of them, so it is only
+ *     done by {@linkplain #snapshot(long, Collection)}, which is meant to be called every so many ticks, between two runs
+ *     of a main loop. A snapshot is immutable and published through a volatile field, which is all that
+ *     {@linkplain MetricsMXBean JMX} and other threads ever read.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class Metrics implements MetricsMXBean {
+
+    public static final String OBJECT_NAME = "org.kedar.pra:type=Metrics";
+
+    private static final LearnerState[] LEARNER_STATES = LearnerState.values();
+
+    // written by the simulation thread only
+    private long submissions;
+    private long retrieveHits;
+    private long retrieveMisses;
+    private int maxPoolDepth;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private SubmissionPool metered;
+
+    private volatile Snapshot latest = new Snapshot(this, 0, 0, new int[LEARNER_STATES.length]);
+
+    /**
+     * The metrics as of the end of a tick.
+     */
+    public static final class Snapshot {
+        public final long tick;
+        public final int poolDepth;
+        public final int maxPoolDepth;
+        private final int[] learnerStates; // by ordinal
+        public final long submissions;
+        public final long retrieveHits;
+        public final long retrieveMisses;
+        public final long graded;
+        public final double gradingLatencyMean;
+        public final int gradingLatencyP50;
+        public final int gradingLatencyP90;
+        public final int gradingLatencyP99;
+        public final int gradingLatencyMax;
+
+        private Snapshot(Metrics m, long tick, int poolDepth, int[] learnerStates) {
+            this.tick = tick;
+            this.poolDepth = poolDepth;
+            this.maxPoolDepth = m.maxPoolDepth;
+            this.learnerStates = learnerStates;
+            this.submissions = m.submissions;
+            this.retrieveHits = m.retrieveHits;
+            this.retrieveMisses = m.retrieveMisses;
+            this.graded = m.latency.count;
+            this.gradingLatencyMean = m.latency.mean();
+            this.gradingLatencyP50 = m.latency.percentile(0.5);
+            this.gradingLatencyP90 = m.latency.percentile(0.9);
+            this.gradingLatencyP99 = m.latency.percentile(0.99);
+            this.gradingLatencyMax = m.latency.max;
+        }
+
+        public int learners(LearnerState state) {
+            return learnerStates[state.ordinal()];
+        }
+
+        public double retrieveHitRate() {
+            long retrieves = retrieveHits + retrieveMisses;
+            return retrieves == 0 ? 0 : (double) retrieveHits / retrieves;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder buf = new StringBuilder(200).append("tick: ").append(tick)
+                    .append(", pool: ").append(poolDepth).append(" (max ").append(maxPoolDepth).append(")");
+            for (LearnerState state : LEARNER_STATES)
+                buf.append(", ").append(state).append(": ").append(learners(state));
+            return buf.append(String.format(", submissions: %d, retrieve hits: %d (%.3f), graded: %d, "
+                            + "latency mean/p50/p90/p99/max: %.1f/%d/%d/%d/%d", submissions, retrieveHits,
+                    retrieveHitRate(), graded, gradingLatencyMean, gradingLatencyP50, gradingLatencyP90,
+                    gradingLatencyP99, gradingLatencyMax)).toString();
+        }
+    }
+
+    /**
+     * @param pool the pool the simulation would use
+     * @return a pool to use instead, which keeps these metrics up to date
+     * @throws IllegalStateException if a pool is metered already
+     */
+    public SubmissionPool meter(SubmissionPool pool) {
+        if (metered != null)
+            throw new IllegalStateException("already metering a pool");
+        metered = new MeteredPool(pool);
+        return metered;
+    }
+
+    /**
+     * Takes a snapshot, makes it the latest one and returns it. Must be called by the thread running the simulation,
+     * while no main loop is running.
+     *
+     * @param tick     the tick up to which the simulation ran, exclusive
+     * @param learners all the learners
+     */
+    public Snapshot snapshot(long tick, Collection<Learner> learners) {
+        int[] states = new int[LEARNER_STATES.length];
+        for (Learner learner : learners)
+            states[learner.state.ordinal()]++;
+        Snapshot snapshot = new Snapshot(this, tick, metered == null ? 0 : metered.size(), states);
+        latest = snapshot;
+        return snapshot;
+    }
+
+    public Snapshot latest() {
+        return latest;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, under {@linkplain #OBJECT_NAME}.
+     *
+     * @throws IllegalStateException if that fails, e.g. because other metrics are registered already
+     */
+    public Metrics register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            throw new IllegalStateException("could not register the metrics", e);
+        }
+        return this;
+    }
+
+    public void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch (JMException e) {
+            throw new IllegalStateException("could not unregister the metrics", e);
+        }
+    }
+
+    @Override
+    public long getTick() {
+        return latest.tick;
+    }
+
+    @Override
+    public int getPoolDepth() {
+        return latest.poolDepth;
+    }
+
+    @Override
+    public int getMaxPoolDepth() {
+        return latest.maxPoolDepth;
+    }
+
+    @Override
+    public Map<String, Integer> getLearnerStates() {
+        Snapshot snapshot = latest;
+        Map<String, Integer> states = new LinkedHashMap<>();
+        for (LearnerState state : LEARNER_STATES)
+            states.put(state.name(), snapshot.learners(state));
+        return states;
+    }
+
+    @Override
+    public long getSubmissions() {
+        return latest.submissions;
+    }
+
+    @Override
+    public long getRetrieveHits() {
+        return latest.retrieveHits;
+    }
+
+    @Override
+    public long getRetrieveMisses() {
+        return latest.retrieveMisses;
+    }
+
+    @Override
+    public double getRetrieveHitRate() {
+        return latest.retrieveHitRate();
+    }
+
+    @Override
+    public long getGraded() {
+        return latest.graded;
+    }
+
+    @Override
+    public double getGradingLatencyMean() {
+        return latest.gradingLatencyMean;
+    }
+
+    @Override
+    public int getGradingLatencyP50() {
+        return latest.gradingLatencyP50;
+    }
+
+    @Override
+    public int getGradingLatencyP90() {
+        return latest.gradingLatencyP90;
+    }
+
+    @Override
+    public int getGradingLatencyP99() {
+        return latest.gradingLatencyP99;
+    }
+
+    @Override
+    public int getGradingLatencyMax() {
+        return latest.gradingLatencyMax;
+    }
+
+    /**
+     * Counts non-negative ints in log-linear buckets: values below 16 exactly, larger ones in 8 buckets per power of
+     * two, so a percentile is at most 1/8 above the true one.
+     */
+    static final class LatencyHistogram {
+        private static final int EXACT = 16;
+        private static final int SUB_BITS = 3;
+
+        private final long[] buckets = new long[EXACT + (31 - 4) * (1 << SUB_BITS)];
+        long count;
+        long sum;
+        int max;
+
+        void record(int value) {
+            if (value < 0)
+                throw new IllegalArgumentException("negative latency: " + value);
+            buckets[index(value)]++;
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @return the upper bound of the bucket of the value of the given rank, but no more than the largest value,
+         * or 0 if nothing was recorded
+         */
+        int percentile(double q) {
+            long rank = Math.max(1, (long) Math.ceil(q * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank)
+                    return Math.min(upperBound(i), max);
+            }
+            return 0;
+        }
+
+        static int index(int value) {
+            if (value < EXACT)
+                return value;
+            int exp = 31 - Integer.numberOfLeadingZeros(value); // at least 4
+            int sub = (value >>> (exp - SUB_BITS)) - (1 << SUB_BITS);
+            return EXACT + (exp - 4) * (1 << SUB_BITS) + sub;
+        }
+
+        static int upperBound(int index) {
+            if (index < EXACT)
+                return index;
+            int exp = 4 + (index - EXACT) / (1 << SUB_BITS);
+            int sub = (index - EXACT) % (1 << SUB_BITS);
+            long lower = (long) ((1 << SUB_BITS) + sub) << (exp - SUB_BITS);
+            return (int) Math.min(Integer.MAX_VALUE, lower + (1L << (exp - SUB_BITS)) - 1);
+        }
+    }
+
+    private final class MeteredPool extends ForwardingSubmissionPool {
+
+        MeteredPool(SubmissionPool delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public Submission retrieve(Learner me) {
+            Submission submission = super.retrieve(me);
+            if (submission == null)
+                retrieveMisses++;
+            else
+                retrieveHits++;
+            return submission;
+        }
+
+        @Override
+        public void submit(Submission submission) {
+            super.submit(submission);
+            submissions++;
+            maxPoolDepth = Math.max(maxPoolDepth, delegate.size());
+        }
+
+        @Override
+        public void resubmit(Submission reviewable) {
+            super.resubmit(reviewable);
+            maxPoolDepth = Math.max(maxPoolDepth, delegate.size());
+        }
+
+        @Override
+        void graded(Submission graded) {
+            super.graded(graded);
+            latency.record(graded.gradeTick() - (int) graded.tick);
+        }
+    }
+}
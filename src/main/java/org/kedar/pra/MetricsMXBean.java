@@ -0,0 +1,41 @@
+package org.kedar.pra;
+
+import java.util.Map;
+
+/**
+ * <p>
+ *     The JMX view of {@linkplain Metrics}: every attribute is read from the latest snapshot, so the attributes read
+ *     at the same time are consistent with each other, and reading them never touches the running simulation.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public interface MetricsMXBean {
+
+    long getTick();
+
+    int getPoolDepth();
+
+    int getMaxPoolDepth();
+
+    Map<String, Integer> getLearnerStates();
+
+    long getSubmissions();
+
+    long getRetrieveHits();
+
+    long getRetrieveMisses();
+
+    double getRetrieveHitRate();
+
+    long getGraded();
+
+    double getGradingLatencyMean();
+
+    int getGradingLatencyP50();
+
+    int getGradingLatencyP90();
+
+    int getGradingLatencyP99();
+
+    int getGradingLatencyMax();
+}
@@ -0,0 +1,140 @@
+package org.kedar.pra;
+
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ *     A multi-core variant of the tick-stepping main loop of the {@linkplain Simulator}. Every tick runs in two phases.
+ *     First, the learners are split into contiguous partitions that are processed on a {@linkplain ForkJoinPool}: a
+ *     learner whose response only involves itself (see {@linkplain Learner#respondsLocally(long)}) responds right
+ *     away, every other learner is queued in its partition. Then the queued learners respond one by one, partition by
+ *     partition, which is the order the serial loop visits them in.
+ * </p>
+ * <p>
+ *     Local responses commute with all the others, so the pool hands out the same submissions in the same order and
+ *     the output is the same as the serial loop's. The serial phase is the price of that: the speedup is bounded by
+ *     the share of learners touching the pool in a tick, i.e. submitting or reviewing, rather than working on their own
+ *     submission or waiting for it to start.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class ParallelLoop {
+
+    /** Partitions per thread, so that uneven partitions even out. */
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    private final Learner[] learners;
+    private final int[] bounds; // partition p is [bounds[p], bounds[p + 1])
+    private final int[] queued; // the learners queued for the serial phase, in the slots of their partition
+    private final int[] nQueued;
+    private final ForkJoinPool forkJoinPool;
+    private long at;
+
+    private ParallelLoop(Collection<Learner> learners, ForkJoinPool forkJoinPool) {
+        int n = learners.size();
+        this.learners = learners.toArray(new Learner[n]);
+        int partitions = Math.max(1, Math.min(n, forkJoinPool.getParallelism() * PARTITIONS_PER_THREAD));
+        this.bounds = new int[partitions + 1];
+        for (int p = 0; p <= partitions; p++)
+            bounds[p] = (int) ((long) n * p / partitions);
+        this.queued = new int[n];
+        this.nQueued = new int[partitions];
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    /**
+     * Runs the learners through the ticks {@code [fromInc, toExc)} using the given number of threads, handing each
+     * submission that enters review to the given consumer, on the calling thread. Unlike the serial loop, the consumer
+     * is never given a {@code null}.
+     *
+     * @param fromInc  the first tick, inclusive
+     * @param toExc    the last tick, exclusive
+     * @param learners the learners, in the order they respond within a tick
+     * @param pool     the initially empty pool
+     * @param threads  the number of threads
+     * @param consumer the consumer of the submissions
+     */
+    public static void run(int fromInc, int toExc, Collection<Learner> learners, SubmissionPool pool, int threads,
+                           Consumer<Submission> consumer) {
+        run(fromInc, toExc, learners, pool, threads, Query.ALL, consumer);
+    }
+
+    /**
+     * Same as {@linkplain #run(int, int, Collection, SubmissionPool, int, Consumer)}, but only hands the submissions
+     * the given query selects to the consumer; the local phase never reports anything, so it is left as it is.
+     */
+    public static void run(int fromInc, int toExc, Collection<Learner> learners, SubmissionPool pool, int threads,
+                           Query query, Consumer<Submission> consumer) {
+        if (threads < 1)
+            throw new IllegalArgumentException("invalid number of threads: " + threads);
+        ForkJoinPool forkJoinPool = new ForkJoinPool(threads);
+        try {
+            run(fromInc, toExc, learners, pool, forkJoinPool, query, consumer);
+        } finally {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    /**
+     * Same as {@linkplain #run(int, int, Collection, SubmissionPool, int, Query, Consumer)}, on the threads of the
+     * given fork/join pool, which the caller keeps, e.g. over the consecutive stretches of a run.
+     */
+    public static void run(int fromInc, int toExc, Collection<Learner> learners, SubmissionPool pool,
+                           ForkJoinPool forkJoinPool, Query query, Consumer<Submission> consumer) {
+        new ParallelLoop(learners, forkJoinPool).loop(fromInc, toExc, query.reportingGrades(pool, consumer), query,
+                consumer);
+    }
+
+    private void loop(int fromInc, int toExc, SubmissionPool pool, Query query, Consumer<Submission> consumer) {
+        int partitions = nQueued.length;
+        boolean[] covered = query.covered(learners);
+        for (int i = fromInc; i < toExc; i++) {
+            at = i;
+            forkJoinPool.invoke(new LocalPhase(0, partitions));
+            for (int p = 0; p < partitions; p++) {
+                for (int k = bounds[p], end = bounds[p] + nQueued[p]; k < end; k++) {
+                    final Submission returned = learners[queued[k]].respondTo(at, pool);
+                    if (returned != null && covered[queued[k]] && query.reportsEntry(returned))
+                        consumer.accept(returned);
+                }
+            }
+        }
+    }
+
+    private void respondLocally(int p) {
+        int n = 0;
+        for (int i = bounds[p]; i < bounds[p + 1]; i++) {
+            Learner learner = learners[i];
+            if (learner.respondsLocally(at))
+                learner.respondTo(at, null); // the pool is not touched
+            else
+                queued[bounds[p] + n++] = i;
+        }
+        nQueued[p] = n;
+    }
+
+    private final class LocalPhase extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int fromPartition;
+        private final int toPartition;
+
+        LocalPhase(int fromPartition, int toPartition) {
+            this.fromPartition = fromPartition;
+            this.toPartition = toPartition;
+        }
+
+        @Override
+        protected void compute() {
+            if (toPartition - fromPartition == 1) {
+                respondLocally(fromPartition);
+                return;
+            }
+            int mid = (fromPartition + toPartition) >>> 1;
+            invokeAll(new LocalPhase(fromPartition, mid), new LocalPhase(mid, toPartition));
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.kedar.pra;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * <p>
+ *     Runs variants of a {@linkplain Scenario} that follow the scenario's {@linkplain Config} up to some tick, and other
+ *     parameters from then on, without running the ticks they share more than once. The scenario's population is run
+ *     on the {@linkplain EventLoop} up to the earliest tick a variant diverges at; there the state of the run is
+ *     forked for every variant that diverges at that tick, and the run goes on to the next such tick. Every fork
+ *     switches its learners to its variant's parameters and runs the remaining ticks in a work-stealing pool, while
+ *     the shared run goes on, so {@code n} variants cost one run plus {@code n} suffixes rather than {@code n} runs.
+ * </p>
+ * <p>
+ *     A fork is a copy of the learners, their submissions and reviews, and the pool, made in a single pass over them,
+ *     so it costs about as much as a few ticks of a busy run. Every variant gives the same result as a run of the same
+ *     population in which the learners are switched to its parameters at its tick.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class ParameterSweep {
+
+    private ParameterSweep() {
+    }
+
+    /**
+     * Parameters that apply from a given tick on.
+     */
+    public static final class Variant {
+        public final String name;
+        /** the first tick that follows the variant's parameters */
+        public final int fromTick;
+        public final Config config;
+
+        private Variant(String name, int fromTick, Config config) {
+            this.name = name;
+            this.fromTick = fromTick;
+            this.config = config;
+        }
+
+        public static Variant of(String name, int fromTick, Config config) {
+            if (fromTick < 0)
+                throw new IllegalArgumentException("invalid divergence tick: " + fromTick);
+            if (config == null)
+                throw new IllegalArgumentException("null config");
+            return new Variant(name, fromTick, config);
+        }
+
+        /**
+         * Parses {@code tick:pairs}, where the pairs are those of {@linkplain Config#parse(String)}, applied to the
+         * defaults.
+         */
+        public static Variant parse(String spec) {
+            int colon = spec.indexOf(':');
+            if (colon < 0)
+                throw new IllegalArgumentException("expected tick:name=value,...: " + spec);
+            int tick;
+            try {
+                tick = Integer.parseInt(spec.substring(0, colon).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a tick: " + spec);
+            }
+            return of(spec, tick, Config.parse(spec.substring(colon + 1)));
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Runs the given variants of the population of the scenario with the given seed.
+     *
+     * @param scenario the population, and the parameters every variant starts with
+     * @param seed     the seed of the population, see {@linkplain Scenario#population(long)}
+     * @param variants the variants
+     * @param threads  the parallelism of the pool the variants run their remaining ticks in
+     * @return the result of every variant, in the order of the variants, numbered by their position
+     */
+    public static List<ReplicaRunner.Result> run(Scenario scenario, long seed, List<Variant> variants, int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("invalid number of threads: " + threads);
+        List<Integer> order = new ArrayList<>(variants.size());
+        for (int v = 0; v < variants.size(); v++)
+            order.add(v);
+        order.sort(Comparator.comparingInt(v -> variants.get(v).fromTick));
+        List<Learner> learners = scenario.population(seed);
+        SubmissionPool pool = new SubmissionPool();
+        int[] submissions = new int[1];
+        List<Future<ReplicaRunner.Result>> results = new ArrayList<>(variants.size());
+        for (int v = 0; v < variants.size(); v++)
+            results.add(null);
+        ExecutorService executor = Executors.newWorkStealingPool(threads);
+        try {
+            int at = 0;
+            for (int v : order) {
+                Variant variant = variants.get(v);
+                int to = Math.min(scenario.ticks, variant.fromTick);
+                if (at < to) {
+                    EventLoop.run(at, to, learners, pool, s -> submissions[0]++);
+                    at = to;
+                }
+                SubmissionPool forkedPool = new SubmissionPool();
+                List<Learner> forked = fork(learners, pool, forkedPool, variant.config);
+                int from = at, before = submissions[0];
+                results.set(v, executor.submit(() -> {
+                    int[] after = {before};
+                    EventLoop.run(from, scenario.ticks, forked, forkedPool, s -> after[0]++);
+                    return ReplicaRunner.result(v, forked, after[0]);
+                }));
+            }
+            List<ReplicaRunner.Result> done = new ArrayList<>(variants.size());
+            for (Future<ReplicaRunner.Result> result : results)
+                done.add(result.get());
+            return done;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while sweeping", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("variant failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Copies the learners, with all their submissions and reviews, and puts copies of the pooled submissions into the
+     * given pool, in their order. The copies follow the given parameters and share nothing mutable with the originals.
+     *
+     * @param learners the learners, in the order they respond within a tick
+     * @param pool     the pool the learners use
+     * @param into     an empty pool
+     * @param config   the parameters the copies follow
+     * @return the copies, in the same order
+     */
+    static List<Learner> fork(Collection<Learner> learners, SubmissionPool pool, SubmissionPool into,
+                              Config config) {
+        return fork(learners, pool, into, learner -> Learner.restore(learner.lid, learner.firstSubmissionStartTick,
+                learner.state, learner.trueGrade, learner.reviewBias, config, learner.aid));
+    }
+
+    /**
+     * Same as {@linkplain #fork(Collection, SubmissionPool, SubmissionPool, Config)}, with every copy made by the given
+     * function, which returns a learner in the state of the given one, without submissions or reviews.
+     */
+    static List<Learner> fork(Collection<Learner> learners, SubmissionPool pool, SubmissionPool into,
+                              Function<Learner, Learner> blank) {
+        if (into.size() != 0)
+            throw new IllegalArgumentException("the pool is not empty: " + into.size());
+        Map<Learner, Integer> positions = new IdentityHashMap<>();
+        for (Learner learner : learners)
+            if (positions.put(learner, positions.size()) != null)
+                throw new IllegalArgumentException("learner " + learner.lid + " is given twice");
+        int n = positions.size();
+        Learner[] copies = new Learner[n];
+        Submission[][] bySequence = new Submission[n][];
+        int[] first = new int[n]; // older submissions may have gone to a SubmissionArchive
+        int i = 0;
+        for (Learner learner : learners)
+            copies[i++] = blank.apply(learner);
+        i = 0;
+        for (Learner learner : learners) {
+            Learner copy = copies[i];
+            int base = first[i] = Checkpoint.firstSequenceNumber(learner);
+            Submission[] seq = bySequence[i++] = new Submission[learner.submissions.size()];
+            for (Submission s : learner.submissions) {
+                if (s.sequenceNumber - base >= seq.length || seq[s.sequenceNumber - base] != null)
+                    throw new IllegalStateException("learner " + learner.lid + ": unexpected sequence number "
+                            + s.sequenceNumber);
+                LinkedList<Learner> reviewers = new LinkedList<>();
+                for (Learner reviewer : s.reviewers)
+                    reviewers.addLast(copies[position(positions, reviewer)]);
+                Submission c = new Submission(copy, s.aid, s.tick, s.state, reviewers, s.sequenceNumber);
+                c.lastReviewTick = s.lastReviewTick;
+                copy.submissions.addLast(c);
+                seq[s.sequenceNumber - base] = c;
+            }
+        }
+        i = 0;
+        for (Learner learner : learners) {
+            Learner copy = copies[i++];
+            for (Submission s : learner.reviewsDone)
+                copy.reviewsDone.addLast(s == null ? null : copyOf(s, positions, bySequence, first));
+        }
+        pool.forEachInOrder(s -> into.resubmit(copyOf(s, positions, bySequence, first)));
+        List<Learner> forked = new ArrayList<>(n);
+        for (Learner copy : copies)
+            forked.add(copy);
+        return forked;
+    }
+
+    private static Submission copyOf(Submission s, Map<Learner, Integer> positions, Submission[][] bySequence,
+                                     int[] first) {
+        int i = position(positions, s.owner);
+        return bySequence[i][s.sequenceNumber - first[i]];
+    }
+
+    private static int position(Map<Learner, Integer> positions, Learner learner) {
+        Integer i = positions.get(learner);
+        if (i == null)
+            throw new IllegalArgumentException("learner " + learner.lid + " is not among the forked learners");
+        return i;
+    }
+}
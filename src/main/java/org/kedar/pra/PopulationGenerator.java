@@ -0,0 +1,421 @@
+package org.kedar.pra;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ *     Generates a population of learners, so that a run at scale does not have to write and parse a text input first.
+ *     Every learner's first submission start tick, true grade and review bias are drawn from a
+ *     {@linkplain Distribution} each, e.g. arrivals in bursty waves and a skewed mix of grades; the learners get the
+ *     lids {@code 0, 1, ...}.
+ * </p>
+ * <p>
+ *     Learners are generated in blocks of {@value #BLOCK} on several threads. Every block draws from a random generator
+ *     of its own, seeded from the seed of the population and the number of the block, so a population only depends on
+ *     its seed, not on the number of threads. {@linkplain #generate(int)} fills the columns the engines load learners
+ *     from, as {@linkplain InputLoader} does, and {@linkplain #write(Path, int)} writes the text input instead, block
+ *     by block, without holding the population in memory.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class PopulationGenerator {
+
+    static final int BLOCK = 1 << 16;
+
+    final int ticks;
+    final int size;
+    private final Distribution arrivals;
+    private final Distribution grades;
+    private final Distribution biases;
+    private final long seed;
+
+    private PopulationGenerator(int ticks, int size, Distribution arrivals, Distribution grades, Distribution biases,
+                                long seed) {
+        if (ticks < 1)
+            throw new IllegalArgumentException("invalid number of ticks: " + ticks);
+        if (size < 0)
+            throw new IllegalArgumentException("invalid number of learners: " + size);
+        if (arrivals.min < 0)
+            throw new IllegalArgumentException("arrivals before tick 0: " + arrivals);
+        this.ticks = ticks;
+        this.size = size;
+        this.arrivals = arrivals;
+        this.grades = grades;
+        this.biases = biases;
+        this.seed = seed;
+    }
+
+    /**
+     * Creates a generator of the given number of learners, arriving uniformly over the given number of ticks, with
+     * true grades uniform in {@code [60, 100]} and review biases uniform in {@code [-5, 5]}.
+     */
+    public static PopulationGenerator of(int ticks, int size) {
+        return new PopulationGenerator(ticks, size, Distribution.uniform(0, Math.max(0, ticks - 1)),
+                Distribution.uniform(60, 100), Distribution.uniform(-5, 5), 0);
+    }
+
+    public PopulationGenerator withArrivals(Distribution arrivals) {
+        return new PopulationGenerator(ticks, size, arrivals, grades, biases, seed);
+    }
+
+    public PopulationGenerator withGrades(Distribution grades) {
+        return new PopulationGenerator(ticks, size, arrivals, grades, biases, seed);
+    }
+
+    public PopulationGenerator withBiases(Distribution biases) {
+        return new PopulationGenerator(ticks, size, arrivals, grades, biases, seed);
+    }
+
+    public PopulationGenerator withSeed(long seed) {
+        return new PopulationGenerator(ticks, size, arrivals, grades, biases, seed);
+    }
+
+    /**
+     * Generates the learners into columns, ready to be turned into learners or a {@linkplain LearnerStore}.
+     *
+     * @param threads the number of threads
+     * @return the population, as if loaded from its text input
+     */
+    public InputLoader.Input generate(int threads) {
+        int[] lid = new int[size], start = new int[size], grade = new int[size], bias = new int[size];
+        int blocks = (size + BLOCK - 1) / BLOCK;
+        inParallel(threads, blocks, block -> {
+            SplittableRandom random = random(block);
+            for (int i = block * BLOCK, end = Math.min(size, i + BLOCK); i < end; i++) {
+                lid[i] = i;
+                start[i] = arrivals.sample(random);
+                grade[i] = grades.sample(random);
+                bias[i] = biases.sample(random);
+            }
+            return null;
+        });
+        return new InputLoader.Input(ticks, size, lid, start, grade, bias);
+    }
+
+    /**
+     * Writes the text input of the population, the same as {@linkplain #generate(int)} gives, to the given file,
+     * encoding batches of blocks in parallel.
+     */
+    public void write(Path path, int threads) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.wrap((ticks + "\n" + size + "\n").getBytes(StandardCharsets.US_ASCII)));
+            int blocks = (size + BLOCK - 1) / BLOCK;
+            int batch = Math.max(1, threads * 4); // bounds the encoded blocks held at once
+            for (int from = 0; from < blocks; from += batch) {
+                int first = from;
+                for (ByteBuffer encoded : inParallel(threads, Math.min(batch, blocks - from),
+                        b -> encode(first + b)))
+                    writeFully(channel, encoded);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer encode(int block) {
+        SplittableRandom random = random(block);
+        int from = block * BLOCK, end = Math.min(size, from + BLOCK);
+        byte[] buf = new byte[(end - from) * (4 * 12)];
+        int at = 0;
+        for (int i = from; i < end; i++) {
+            at = putDecimal(buf, at, i);
+            buf[at++] = ' ';
+            at = putDecimal(buf, at, arrivals.sample(random));
+            buf[at++] = ' ';
+            at = putDecimal(buf, at, grades.sample(random));
+            buf[at++] = ' ';
+            at = putDecimal(buf, at, biases.sample(random));
+            buf[at++] = '\n';
+        }
+        return ByteBuffer.wrap(buf, 0, at);
+    }
+
+    /** @return the position after the given value, written in decimal at the given position */
+    private static int putDecimal(byte[] buf, int at, int value) {
+        long v = value;
+        if (v < 0) {
+            buf[at++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long p = 10; p <= v; p *= 10)
+            digits++;
+        int end = at + digits;
+        do {
+            buf[--end] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        return at + digits;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining())
+            channel.write(buf);
+    }
+
+    /** @return the random generator of the given block, a function of the seed and the block only */
+    private SplittableRandom random(int block) {
+        long z = seed + (block + 1) * 0x9E3779B97F4A7C15L; // SplitMix64
+        z = (z ^ z >>> 30) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ z >>> 27) * 0x94D049BB133111EBL;
+        return new SplittableRandom(z ^ z >>> 31);
+    }
+
+    private interface BlockTask<T> {
+        T run(int block);
+    }
+
+    /** @return the results of the given task for the blocks {@code [0, blocks)}, in order */
+    private static <T> List<T> inParallel(int threads, int blocks, BlockTask<T> task) {
+        if (threads < 1)
+            throw new IllegalArgumentException("invalid number of threads: " + threads);
+        List<T> results = new ArrayList<>(blocks);
+        if (threads == 1 || blocks < 2) {
+            for (int b = 0; b < blocks; b++)
+                results.add(task.run(b));
+            return results;
+        }
+        ForkJoinPool forkJoinPool = new ForkJoinPool(threads);
+        try {
+            List<Future<T>> futures = new ArrayList<>(blocks);
+            for (int b = 0; b < blocks; b++) {
+                int block = b;
+                futures.add(forkJoinPool.submit(() -> task.run(block)));
+            }
+            for (Future<T> future : futures)
+                results.add(future.get());
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while generating", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("failed to generate", e.getCause());
+        } finally {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    /**
+     * <p>
+     *     A distribution over the integers of {@code [min, min + weights)}, given by a weight per integer, e.g. a tick
+     *     or a grade, and sampled in constant time with Vose's alias method. The factories cover uniform and clamped
+     *     normal distributions, arrivals in waves, and weighted mixtures of those, which {@linkplain #parse(String)}
+     *     also reads.
+     * </p>
+     */
+    public static final class Distribution {
+        final int min;
+        private final String spec;
+        private final double[] weights; // normalized to a sum of 1
+        private final int[] alias;
+        private final long[] threshold; // of the low 32 bits of a sample, below which a column is kept
+
+        private Distribution(int min, double[] weights, String spec) {
+            double sum = 0;
+            for (double w : weights) {
+                if (!(w >= 0) || Double.isInfinite(w))
+                    throw new IllegalArgumentException("invalid weight: " + w + " in " + spec);
+                sum += w;
+            }
+            if (weights.length == 0 || !(sum > 0))
+                throw new IllegalArgumentException("empty distribution: " + spec);
+            if ((long) min + weights.length - 1 > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("range too large: " + spec);
+            int n = weights.length;
+            this.min = min;
+            this.spec = spec;
+            this.weights = new double[n];
+            this.alias = new int[n];
+            this.threshold = new long[n];
+            double[] scaled = new double[n];
+            int[] small = new int[n], large = new int[n];
+            int nSmall = 0, nLarge = 0;
+            for (int i = 0; i < n; i++) {
+                this.weights[i] = weights[i] / sum;
+                scaled[i] = this.weights[i] * n;
+                if (scaled[i] < 1)
+                    small[nSmall++] = i;
+                else
+                    large[nLarge++] = i;
+            }
+            while (nSmall > 0 && nLarge > 0) {
+                int s = small[--nSmall], l = large[--nLarge];
+                threshold[s] = (long) (scaled[s] * (1L << 32));
+                alias[s] = l;
+                scaled[l] -= 1 - scaled[s];
+                if (scaled[l] < 1)
+                    small[nSmall++] = l;
+                else
+                    large[nLarge++] = l;
+            }
+            while (nLarge > 0)
+                threshold[large[--nLarge]] = 1L << 32;
+            while (nSmall > 0) // only off by rounding
+                threshold[small[--nSmall]] = 1L << 32;
+        }
+
+        /**
+         * @return the given weights of the integers from {@code min} on
+         */
+        public static Distribution weighted(int min, double... weights) {
+            return new Distribution(min, weights.clone(), "weighted:" + min + ":" + weights.length);
+        }
+
+        /** @return every integer of {@code [min, max]} equally likely */
+        public static Distribution uniform(int min, int max) {
+            if (max < min)
+                throw new IllegalArgumentException("empty range: [" + min + ", " + max + "]");
+            double[] weights = new double[checkedRange(min, max)];
+            Arrays.fill(weights, 1);
+            return new Distribution(min, weights, "uniform:" + min + ":" + max);
+        }
+
+        /** @return a normal distribution rounded to integers and cut off outside {@code [min, max]} */
+        public static Distribution normal(double mean, double sd, int min, int max) {
+            if (!(sd > 0))
+                throw new IllegalArgumentException("invalid standard deviation: " + sd);
+            double[] weights = new double[checkedRange(min, max)];
+            for (int i = 0; i < weights.length; i++) {
+                double z = (min + i - mean) / sd;
+                weights[i] = Math.exp(-z * z / 2);
+            }
+            return new Distribution(min, weights, "normal:" + mean + ":" + sd + ":" + min + ":" + max);
+        }
+
+        /**
+         * Arrivals over the ticks {@code [0, ticks)} in the given number of evenly spaced waves, each a normal
+         * distribution with the given share of the spacing as its standard deviation, on top of a uniform trickle
+         * that takes the given share of the learners.
+         */
+        public static Distribution waves(int ticks, int waves, double spread, double trickle) {
+            if (waves < 1 || !(spread > 0) || !(trickle >= 0 && trickle < 1))
+                throw new IllegalArgumentException("invalid waves: " + waves + ", " + spread + ", " + trickle);
+            double spacing = (double) ticks / waves, sd = spread * spacing;
+            double[] weights = new double[checkedRange(0, ticks - 1)];
+            double waveSum = 0;
+            for (int t = 0; t < ticks; t++) {
+                for (int w = 0; w < waves; w++) {
+                    double z = (t - (w + 0.5) * spacing) / sd;
+                    if (Math.abs(z) < 8)
+                        weights[t] += Math.exp(-z * z / 2);
+                }
+                waveSum += weights[t];
+            }
+            for (int t = 0; t < ticks; t++) // weights[t] / waveSum of the rest, plus an even share of the trickle
+                weights[t] = (1 - trickle) * (waveSum > 0 ? weights[t] / waveSum : 1.0 / ticks) + trickle / ticks;
+            return new Distribution(0, weights, "waves:" + ticks + ":" + waves + ":" + spread + ":" + trickle);
+        }
+
+        /**
+         * @return the given distributions, each chosen with its share of the given weights
+         */
+        public static Distribution mixture(double[] shares, Distribution... parts) {
+            if (shares.length != parts.length || parts.length == 0)
+                throw new IllegalArgumentException("expected a share per part: " + shares.length + ", "
+                        + parts.length);
+            int min = Integer.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (Distribution part : parts) {
+                min = Math.min(min, part.min);
+                max = Math.max(max, part.min + part.weights.length - 1L);
+            }
+            double[] weights = new double[checkedRange(min, (int) max)];
+            StringBuilder spec = new StringBuilder();
+            for (int p = 0; p < parts.length; p++) {
+                for (int i = 0; i < parts[p].weights.length; i++)
+                    weights[parts[p].min - min + i] += shares[p] * parts[p].weights[i];
+                spec.append(p == 0 ? "" : "+").append(parts[p].spec).append('@').append(shares[p]);
+            }
+            return new Distribution(min, weights, spec.toString());
+        }
+
+        /**
+         * Parses a distribution: {@code uniform:min:max}, {@code normal:mean:sd:min:max}, a constant, or, for
+         * arrivals over the given number of ticks, {@code waves:count:spread[:trickle]}. A mixture joins parts with
+         * {@code +}, each followed by {@code @share}, e.g. {@code normal:85:5:0:100@0.8+normal:50:10:0:100@0.2}.
+         *
+         * @throws IllegalArgumentException for a malformed distribution
+         */
+        public static Distribution parse(String spec, int ticks) {
+            try {
+                if (spec.contains("+") || spec.contains("@")) {
+                    String[] terms = spec.split("\\+", -1);
+                    double[] shares = new double[terms.length];
+                    Distribution[] parts = new Distribution[terms.length];
+                    for (int p = 0; p < terms.length; p++) {
+                        int at = terms[p].lastIndexOf('@');
+                        if (at < 0)
+                            throw new IllegalArgumentException("expected part@share: " + terms[p]);
+                        shares[p] = Double.parseDouble(terms[p].substring(at + 1).trim());
+                        parts[p] = parse(terms[p].substring(0, at), ticks);
+                    }
+                    return mixture(shares, parts);
+                }
+                String[] f = spec.trim().split(":");
+                switch (f[0]) {
+                    case "uniform":
+                        expect(spec, f, 3);
+                        return uniform(Integer.parseInt(f[1]), Integer.parseInt(f[2]));
+                    case "normal":
+                        expect(spec, f, 5);
+                        return normal(Double.parseDouble(f[1]), Double.parseDouble(f[2]), Integer.parseInt(f[3]),
+                                Integer.parseInt(f[4]));
+                    case "waves":
+                        if (f.length != 3 && f.length != 4)
+                            throw new IllegalArgumentException("expected waves:count:spread[:trickle]: " + spec);
+                        return waves(ticks, Integer.parseInt(f[1]), Double.parseDouble(f[2]),
+                                f.length == 4 ? Double.parseDouble(f[3]) : 0);
+                    default:
+                        expect(spec, f, 1);
+                        int value = Integer.parseInt(f[0]);
+                        return uniform(value, value);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number in: " + spec);
+            }
+        }
+
+        private static void expect(String spec, String[] fields, int n) {
+            if (fields.length != n)
+                throw new IllegalArgumentException("expected " + n + " fields: " + spec);
+        }
+
+        private static int checkedRange(int min, int max) {
+            long n = (long) max - min + 1;
+            if (n < 1 || n > 1 << 28)
+                throw new IllegalArgumentException("invalid range: [" + min + ", " + max + "]");
+            return (int) n;
+        }
+
+        /** @return the probability of the given integer */
+        double probability(int value) {
+            long i = (long) value - min;
+            return i < 0 || i >= weights.length ? 0 : weights[(int) i];
+        }
+
+        int sample(SplittableRandom random) {
+            long r = random.nextLong();
+            int column = (int) ((r >>> 32) * weights.length >>> 32);
+            return min + ((r & 0xFFFFFFFFL) < threshold[column] ? column : alias[column]);
+        }
+
+        @Override
+        public String toString() {
+            return spec;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.kedar.pra;
+
+/**
+ * <p>
+ *     Counts ints in log-linear buckets, like the {@linkplain Metrics} latency histogram but finer and signed: values
+ *     of magnitude below {@value #EXACT} are counted exactly, larger ones in {@value #SUB_BUCKETS} buckets per power of
+ *     two, so a quantile is within 1/{@value #SUB_BUCKETS} of the true one. The buckets are fixed, so a sketch takes
+ *     the same memory however many values it has seen.
+ * </p>
+ * <p>
+ *     Two sketches {@linkplain #merge(QuantileSketch) merge} by adding up their buckets, which gives the sketch of all
+ *     their values, whatever the order of the merges, so the sketches of parallel runs add up to the same one.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+final class QuantileSketch {
+
+    private static final int SUB_BITS = 7;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    static final int EXACT = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = EXACT + (31 - (SUB_BITS + 1)) * SUB_BUCKETS;
+
+    private final long[] positive = new long[BUCKETS]; // of v >= 0
+    private final long[] negative = new long[BUCKETS]; // of ~v, i.e. -v - 1, for v < 0
+    private long count;
+    private long sum;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+
+    void record(int value) {
+        if (value >= 0)
+            positive[index(value)]++;
+        else
+            negative[index(~value)]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    void merge(QuantileSketch other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            positive[i] += other.positive[i];
+            negative[i] += other.negative[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    long count() {
+        return count;
+    }
+
+    double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /** @return the smallest value, or 0 if nothing was recorded */
+    int min() {
+        return count == 0 ? 0 : min;
+    }
+
+    /** @return the largest value, or 0 if nothing was recorded */
+    int max() {
+        return count == 0 ? 0 : max;
+    }
+
+    /**
+     * @return the upper bound of the bucket of the value of the given rank, kept within the smallest and the largest
+     * value, or 0 if nothing was recorded
+     */
+    int quantile(double q) {
+        if (q < 0 || q > 1)
+            throw new IllegalArgumentException("invalid quantile: " + q);
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (int i = BUCKETS - 1; i >= 0; i--) { // the most negative first
+            seen += negative[i];
+            if (seen >= rank)
+                return clamp(~lowerBound(i));
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += positive[i];
+            if (seen >= rank)
+                return clamp(upperBound(i));
+        }
+        return max;
+    }
+
+    private int clamp(int value) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    static int index(int value) {
+        if (value < EXACT)
+            return value;
+        int exp = 31 - Integer.numberOfLeadingZeros(value); // at least SUB_BITS + 1
+        int sub = (value >>> (exp - SUB_BITS)) - SUB_BUCKETS;
+        return EXACT + (exp - (SUB_BITS + 1)) * SUB_BUCKETS + sub;
+    }
+
+    static int lowerBound(int index) {
+        if (index < EXACT)
+            return index;
+        int exp = SUB_BITS + 1 + (index - EXACT) / SUB_BUCKETS;
+        int sub = (index - EXACT) % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exp - SUB_BITS);
+    }
+
+    static int upperBound(int index) {
+        if (index < EXACT)
+            return index;
+        int exp = SUB_BITS + 1 + (index - EXACT) / SUB_BUCKETS;
+        return (int) Math.min(Integer.MAX_VALUE, lowerBound(index) + (1L << (exp - SUB_BITS)) - 1);
+    }
+}
@@ -0,0 +1,214 @@
+package org.kedar.pra;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ *     Selects the submissions a run reports, on the fields of {@linkplain Submission#toOutput()}: the owner's lid, the
+ *     sequence number, the tick the submission was started at and, once it is graded, whether it passed. The main
+ *     loops apply a query before they hand anything to their consumer, see e.g.
+ *     {@linkplain Simulator#mainLoop(int, int, java.util.Set, SubmissionPool, Query, Consumer)}, so the submissions
+ *     it leaves out are never formatted or written, and the learners it leaves out are not even looked at for output.
+ * </p>
+ * <p>
+ *     A submission is reported as it enters review, when it has neither a score nor a grade yet, unless the query
+ *     asks for an {@linkplain Outcome}: then it is reported as it gets the last review it needs, with its final score
+ *     and grade tick, and only if that passes or fails as asked. A submission that never gets all its reviews has no
+ *     outcome and is not reported then.
+ * </p>
+ * <p>
+ *     A query is immutable; {@linkplain #ALL} selects everything, and the {@code with} methods narrow a query down.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class Query {
+
+    /**
+     * Whether a graded submission passed.
+     */
+    public enum Outcome {
+        /** any submission, reported as it enters review */
+        ANY,
+        /** the graded submissions that scored at least the passing points of their owner */
+        PASSING,
+        /** the graded submissions that did not */
+        FAILING
+    }
+
+    public static final Query ALL = new Query(null, 0, Integer.MAX_VALUE, 0, Long.MAX_VALUE, Outcome.ANY);
+
+    private final int[] lids; // sorted, or null for all
+    private final int fromSequenceNumber;
+    private final int toSequenceNumber;
+    private final long fromTick;
+    private final long toTick;
+    final Outcome outcome;
+
+    private Query(int[] lids, int fromSequenceNumber, int toSequenceNumber, long fromTick, long toTick,
+                  Outcome outcome) {
+        if (fromSequenceNumber < 0 || toSequenceNumber < fromSequenceNumber)
+            throw new IllegalArgumentException("invalid sequence numbers: [" + fromSequenceNumber + ", "
+                    + toSequenceNumber + ")");
+        if (fromTick < 0 || toTick < fromTick)
+            throw new IllegalArgumentException("invalid ticks: [" + fromTick + ", " + toTick + ")");
+        if (outcome == null)
+            throw new IllegalArgumentException("null outcome");
+        this.lids = lids;
+        this.fromSequenceNumber = fromSequenceNumber;
+        this.toSequenceNumber = toSequenceNumber;
+        this.fromTick = fromTick;
+        this.toTick = toTick;
+        this.outcome = outcome;
+    }
+
+    /**
+     * @return the submissions of the given learners only
+     */
+    public Query withLids(int... lids) {
+        int[] sorted = lids.clone();
+        Arrays.sort(sorted);
+        return new Query(sorted, fromSequenceNumber, toSequenceNumber, fromTick, toTick, outcome);
+    }
+
+    /**
+     * @return the submissions with a sequence number in {@code [fromInc, toExc)} only
+     */
+    public Query withSequenceNumbers(int fromInc, int toExc) {
+        return new Query(lids, fromInc, toExc, fromTick, toTick, outcome);
+    }
+
+    /**
+     * @return the submissions started at a tick in {@code [fromInc, toExc)} only
+     */
+    public Query withTicks(long fromInc, long toExc) {
+        return new Query(lids, fromSequenceNumber, toSequenceNumber, fromInc, toExc, outcome);
+    }
+
+    /**
+     * @return the submissions with the given outcome only, reported once graded
+     */
+    public Query withOutcome(Outcome outcome) {
+        return new Query(lids, fromSequenceNumber, toSequenceNumber, fromTick, toTick, outcome);
+    }
+
+    /**
+     * Parses comma-separated {@code name=value} filters, like {@linkplain Config#parse(String)}: {@code lids=1;5;9},
+     * {@code sequenceNumbers=from:to}, {@code ticks=from:to}, both ranges exclusive of {@code to}, and
+     * {@code outcome=passing} or {@code outcome=failing}. An empty string is {@linkplain #ALL}.
+     *
+     * @throws IllegalArgumentException for an unknown name or a malformed filter
+     */
+    public static Query parse(String filters) {
+        Query query = ALL;
+        for (String filter : filters.split(",")) {
+            if (filter.trim().isEmpty())
+                continue;
+            String[] nameValue = filter.split("=", 2);
+            if (nameValue.length != 2)
+                throw new IllegalArgumentException("expected name=value: " + filter);
+            String name = nameValue[0].trim(), value = nameValue[1].trim();
+            try {
+                switch (name) {
+                    case "lids":
+                        query = query.withLids(Arrays.stream(value.split(";")).map(String::trim)
+                                .mapToInt(Integer::parseInt).toArray());
+                        break;
+                    case "sequenceNumbers": {
+                        long[] range = range(filter, value);
+                        query = query.withSequenceNumbers(Math.toIntExact(range[0]), Math.toIntExact(range[1]));
+                        break;
+                    }
+                    case "ticks": {
+                        long[] range = range(filter, value);
+                        query = query.withTicks(range[0], range[1]);
+                        break;
+                    }
+                    case "outcome":
+                        query = query.withOutcome(Outcome.valueOf(value.toUpperCase(Locale.ROOT)));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown filter: " + name);
+                }
+            } catch (NumberFormatException | ArithmeticException e) {
+                throw new IllegalArgumentException("not a number: " + filter);
+            }
+        }
+        return query;
+    }
+
+    private static long[] range(String filter, String value) {
+        String[] fromTo = value.split(":", 2);
+        if (fromTo.length != 2)
+            throw new IllegalArgumentException("expected from:to: " + filter);
+        return new long[]{Long.parseLong(fromTo[0].trim()), Long.parseLong(fromTo[1].trim())};
+    }
+
+    /**
+     * @return true if the query may report submissions of the given learner; the main loops ask once per learner
+     */
+    boolean covers(Learner learner) {
+        return lids == null || Arrays.binarySearch(lids, learner.lid) >= 0;
+    }
+
+    /**
+     * @return for every learner in the given order, whether the query may report its submissions
+     */
+    boolean[] covered(Learner[] order) {
+        boolean[] covered = new boolean[order.length];
+        for (int i = 0; i < order.length; i++)
+            covered[i] = covers(order[i]);
+        return covered;
+    }
+
+    /**
+     * @return true if a submission that has just entered review is reported; its owner is known to be covered
+     */
+    boolean reportsEntry(Submission entered) {
+        return outcome == Outcome.ANY && inRange(entered);
+    }
+
+    private boolean inRange(Submission s) {
+        return s.sequenceNumber >= fromSequenceNumber && s.sequenceNumber < toSequenceNumber
+                && s.tick >= fromTick && s.tick < toTick;
+    }
+
+    /**
+     * Wraps the pool a main loop runs with, so that the graded submissions with the outcome asked for are handed to
+     * the given consumer as they get their last review.
+     *
+     * @return the given pool if the query asks for no outcome
+     */
+    SubmissionPool reportingGrades(SubmissionPool pool, Consumer<Submission> consumer) {
+        return outcome == Outcome.ANY ? pool : new GradingPool(pool, consumer);
+    }
+
+    @Override
+    public String toString() {
+        return "lids=" + (lids == null ? "*" : Arrays.toString(lids)) + ",sequenceNumbers=" + fromSequenceNumber + ":"
+                + toSequenceNumber + ",ticks=" + fromTick + ":" + toTick + ",outcome=" + outcome;
+    }
+
+    /**
+     * Hands the graded submissions the query selects to the consumer, after the pool it wraps has let go of them.
+     */
+    private final class GradingPool extends ForwardingSubmissionPool {
+        private final Consumer<Submission> consumer;
+
+        GradingPool(SubmissionPool delegate, Consumer<Submission> consumer) {
+            super(delegate);
+            this.consumer = consumer;
+        }
+
+        @Override
+        void graded(Submission graded) {
+            super.graded(graded);
+            if (!inRange(graded) || !covers(graded.owner))
+                return;
+            boolean passed = graded.currentScore() >= graded.owner.config.passingPoints;
+            if (passed == (outcome == Outcome.PASSING))
+                consumer.accept(graded);
+        }
+    }
+}
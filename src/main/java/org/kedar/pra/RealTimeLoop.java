@@ -0,0 +1,127 @@
+package org.kedar.pra;
+
+import java.util.Collection;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ *     Runs the {@linkplain EventLoop} in real time: tick {@code t} of the run does not start before
+ *     {@code t - fromInc} tick durations have passed since the run started, so the submissions enter review at the
+ *     pace the learners would make them, e.g. to drive a grading service with them. Ticks count like
+ *     {@linkplain TimeTick#since(long)} with the duration of a tick as its unit, but on the monotonic clock of
+ *     {@linkplain System#nanoTime()}, so that setting the wall clock does not move them.
+ * </p>
+ * <p>
+ *     The learners' wake ups are timers on a {@linkplain TimingWheel}, and the loop only waits for the ticks at which
+ *     some learner wakes up; the ticks in between pass while it waits. Every tick has its deadline computed from the
+ *     start of the run rather than from the end of the previous tick, so a loop that falls behind under load, which
+ *     {@linkplain Pacing} reports, catches up by not waiting rather than drifting from then on.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class RealTimeLoop {
+
+    /**
+     * What the loop waits on; the system's monotonic clock by default.
+     */
+    interface Clock {
+        long nanoTime();
+
+        /** Returns once {@linkplain #nanoTime()} has reached the given value, or earlier if interrupted. */
+        void parkUntil(long nanoTime);
+    }
+
+    static final Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void parkUntil(long nanoTime) {
+            LockSupport.parkNanos(nanoTime - System.nanoTime());
+        }
+    };
+
+    /**
+     * How well a run kept up with the clock.
+     */
+    public static final class Pacing {
+        /** the ticks waited for: those at which some learner woke up, and the end of the run */
+        public final long ticks;
+        /** the ticks the loop started more than a tick duration after their deadline */
+        public final long lateTicks;
+        /** the most the loop started a tick after its deadline */
+        public final long maxLagNanos;
+
+        Pacing(long ticks, long lateTicks, long maxLagNanos) {
+            this.ticks = ticks;
+            this.lateTicks = lateTicks;
+            this.maxLagNanos = maxLagNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "ticks: " + ticks + ", late: " + lateTicks + ", max lag: " + maxLagNanos / 1_000 + "us";
+        }
+    }
+
+    private final Clock clock;
+    private final long nanosPerTick;
+    private final long fromInc;
+    private long start;
+    private long ticks;
+    private long lateTicks;
+    private long maxLagNanos;
+
+    private RealTimeLoop(Clock clock, long nanosPerTick, long fromInc) {
+        this.clock = clock;
+        this.nanosPerTick = nanosPerTick;
+        this.fromInc = fromInc;
+    }
+
+    /**
+     * Runs the learners through the ticks {@code [fromInc, toExc)} in real time, handing each submission the query
+     * selects to the consumer as it enters review, like {@linkplain EventLoop}, which produces the same submissions.
+     * Returns once the end of the last tick has come.
+     *
+     * @param nanosPerTick the duration of a tick, 0 to run as fast as possible
+     * @throws IllegalStateException if interrupted while waiting for a tick
+     */
+    public static Pacing run(int fromInc, int toExc, Collection<Learner> learners, SubmissionPool pool,
+                             long nanosPerTick, Query query, Consumer<Submission> consumer) {
+        return run(fromInc, toExc, learners, pool, nanosPerTick, query, consumer, SYSTEM);
+    }
+
+    static Pacing run(int fromInc, int toExc, Collection<Learner> learners, SubmissionPool pool, long nanosPerTick,
+                      Query query, Consumer<Submission> consumer, Clock clock) {
+        if (nanosPerTick < 0)
+            throw new IllegalArgumentException("invalid tick duration: " + nanosPerTick + "ns");
+        RealTimeLoop loop = new RealTimeLoop(clock, nanosPerTick, fromInc);
+        loop.start = clock.nanoTime();
+        EventLoop.run(fromInc, toExc, learners, pool, query, consumer, new TimingWheel(fromInc), loop::await);
+        return new Pacing(loop.ticks, loop.lateTicks, loop.maxLagNanos);
+    }
+
+    private void await(long tick) {
+        ticks++;
+        if (nanosPerTick == 0)
+            return;
+        long deadline = start + (tick - fromInc) * nanosPerTick;
+        long now = clock.nanoTime();
+        if (now - deadline >= 0) {
+            maxLagNanos = Math.max(maxLagNanos, now - deadline);
+            if (now - deadline > nanosPerTick)
+                lateTicks++;
+        }
+        while (now - deadline < 0) {
+            clock.parkUntil(deadline);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for tick " + tick);
+            }
+            now = clock.nanoTime();
+        }
+    }
+}
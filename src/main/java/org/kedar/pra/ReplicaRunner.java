@@ -0,0 +1,217 @@
+package org.kedar.pra;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ *     Runs many independent replicas of a {@linkplain Scenario} in one JVM, instead of one JVM per run. Every replica
+ *     gets its own population, perturbed with the seed {@code seed + replica}, and its own {@linkplain SubmissionPool},
+ *     and runs on the {@linkplain EventLoop} in a work-stealing pool. Results are handed to the consumer on the calling
+ *     thread as replicas complete, and are aggregated into a {@linkplain Summary}.
+ * </p>
+ * <p>
+ *     The summary only adds up integers, so it does not depend on the order in which replicas complete.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class ReplicaRunner {
+
+    private ReplicaRunner() {
+    }
+
+    /**
+     * The outcome of a single replica.
+     */
+    public static final class Result {
+        public final int replica;
+        public final int learners;
+        /** learners whose latest submission passed */
+        public final int passed;
+        /** submissions that entered review */
+        public final int submissions;
+        /** the sum, over the passed learners with a full set of reviews, of grade tick minus start tick */
+        public final long ticksToGrade;
+        public final int graded;
+        /** the statistics of the replica, if gathered */
+        final RunStatistics statistics;
+
+        Result(int replica, int learners, int passed, int submissions, long ticksToGrade, int graded,
+               RunStatistics statistics) {
+            this.replica = replica;
+            this.learners = learners;
+            this.passed = passed;
+            this.submissions = submissions;
+            this.ticksToGrade = ticksToGrade;
+            this.graded = graded;
+            this.statistics = statistics;
+        }
+
+        public double passRate() {
+            return learners == 0 ? 0 : (double) passed / learners;
+        }
+
+        @Override
+        public String toString() {
+            return replica + " " + passed + " " + learners + " " + submissions + " " + graded + " " + ticksToGrade;
+        }
+    }
+
+    /**
+     * The aggregate of all the replicas that completed so far.
+     */
+    public static final class Summary {
+        private int replicas;
+        private long learners;
+        private long passed;
+        private long passedSquares; // for the variance of the pass count
+        private long submissions;
+        private long ticksToGrade;
+        private long graded;
+        private long elapsedNanos;
+
+        void add(Result r) {
+            replicas++;
+            learners += r.learners;
+            passed += r.passed;
+            passedSquares += (long) r.passed * r.passed;
+            submissions += r.submissions;
+            ticksToGrade += r.ticksToGrade;
+            graded += r.graded;
+        }
+
+        public int replicas() {
+            return replicas;
+        }
+
+        public double meanPassRate() {
+            return learners == 0 ? 0 : (double) passed / learners;
+        }
+
+        /**
+         * @return the standard deviation of the pass rate across replicas, which all have the same population size
+         */
+        public double passRateStdDev() {
+            if (replicas < 2)
+                return 0;
+            double n = (double) learners / replicas;
+            double mean = (double) passed / replicas;
+            double variance = ((double) passedSquares - replicas * mean * mean) / (replicas - 1);
+            return Math.sqrt(Math.max(0, variance)) / n;
+        }
+
+        public double meanTicksToGrade() {
+            return graded == 0 ? 0 : (double) ticksToGrade / graded;
+        }
+
+        public double meanSubmissions() {
+            return replicas == 0 ? 0 : (double) submissions / replicas;
+        }
+
+        public double replicasPerSecond() {
+            return elapsedNanos == 0 ? 0 : replicas * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("replicas: %d, pass rate: %.4f (sd %.4f), ticks to grade: %.1f, submissions: %.1f, "
+                            + "replicas/s: %.1f", replicas, meanPassRate(), passRateStdDev(), meanTicksToGrade(),
+                    meanSubmissions(), replicasPerSecond());
+        }
+    }
+
+    /**
+     * Runs the replicas {@code 0} to {@code replicas - 1} of the given scenario.
+     *
+     * @param scenario the template of every replica
+     * @param replicas the number of replicas
+     * @param seed     the seed of replica 0
+     * @param threads  the parallelism of the work-stealing pool
+     * @param consumer receives every result on the calling thread, in completion order
+     * @return the summary of all the replicas
+     */
+    public static Summary run(Scenario scenario, int replicas, long seed, int threads, Consumer<Result> consumer) {
+        return run(scenario, replicas, seed, threads, consumer, null);
+    }
+
+    /**
+     * Same as {@linkplain #run(Scenario, int, long, int, Consumer)}, but also gathers the {@linkplain RunStatistics}
+     * of every replica and merges them into the given ones, on the calling thread.
+     */
+    public static Summary run(Scenario scenario, int replicas, long seed, int threads, Consumer<Result> consumer,
+                              RunStatistics statistics) {
+        if (replicas < 0)
+            throw new IllegalArgumentException("invalid number of replicas: " + replicas);
+        if (threads < 1)
+            throw new IllegalArgumentException("invalid number of threads: " + threads);
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newWorkStealingPool(threads);
+        Summary summary = new Summary();
+        try {
+            CompletionService<Result> completed = new ExecutorCompletionService<>(executor);
+            for (int r = 0; r < replicas; r++) {
+                final int replica = r;
+                completed.submit(() -> runReplica(scenario, replica, seed + replica,
+                        statistics != null ? new RunStatistics() : null));
+            }
+            for (int r = 0; r < replicas; r++) {
+                Result result = completed.take().get();
+                summary.add(result);
+                if (statistics != null)
+                    statistics.merge(result.statistics);
+                consumer.accept(result);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted after " + summary.replicas + " replicas", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("replica failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        summary.elapsedNanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    static Result runReplica(Scenario scenario, int replica, long seed) {
+        return runReplica(scenario, replica, seed, null);
+    }
+
+    private static Result runReplica(Scenario scenario, int replica, long seed, RunStatistics statistics) {
+        List<Learner> learners = scenario.population(seed);
+        int[] submissions = new int[1];
+        SubmissionPool pool = statistics != null ? statistics.observe(new SubmissionPool()) : new SubmissionPool();
+        EventLoop.run(0, scenario.ticks, learners, pool, s -> submissions[0]++);
+        return result(replica, learners, submissions[0], statistics);
+    }
+
+    /**
+     * @param submissions the number of submissions that entered review in the run of the given learners
+     */
+    static Result result(int replica, Collection<Learner> learners, int submissions) {
+        return result(replica, learners, submissions, null);
+    }
+
+    private static Result result(int replica, Collection<Learner> learners, int submissions,
+                                 RunStatistics statistics) {
+        int passed = 0, graded = 0;
+        long ticksToGrade = 0;
+        for (Learner learner : learners) {
+            if (learner.state != LearnerState.SLEEPING)
+                continue;
+            passed++;
+            int gradeTick = learner.submissions.peekLast().gradeTick();
+            if (gradeTick >= 0) {
+                graded++;
+                ticksToGrade += gradeTick - learner.firstSubmissionStartTick.getValue();
+            }
+        }
+        return new Result(replica, learners.size(), passed, submissions, ticksToGrade, graded, statistics);
+    }
+}
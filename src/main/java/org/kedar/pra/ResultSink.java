@@ -0,0 +1,209 @@
+package org.kedar.pra;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ *     A {@linkplain Consumer} of {@linkplain Submission}s that writes every non-null one to a channel without blocking
+ *     the simulation on I/O. Records are encoded straight into one of a fixed number of reusable byte buffers. A full
+ *     buffer is handed to a background writer thread, which returns it once written. The simulation only waits when
+ *     all buffers are waiting to be written, which bounds memory and pushes back on a slow channel.
+ * </p>
+ * <p>
+ *     {@linkplain Format#TEXT} is byte for byte what printing {@linkplain Submission#toOutput()} gives.
+ *     {@linkplain Format#BINARY} is five big-endian ints per record: lid, sequence number, tick, score and grade tick.
+ *     Any failure of the writer is rethrown by the next call on the simulation thread, at the latest by
+ *     {@linkplain #close()}.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class ResultSink implements Consumer<Submission>, AutoCloseable {
+
+    public enum Format {
+        TEXT(11 * 5 + 4 + 2), // five ints, four spaces and a line separator
+        BINARY(4 * 5);
+
+        /** The most bytes a record takes. */
+        final int maxRecordBytes;
+
+        Format(int maxRecordBytes) {
+            this.maxRecordBytes = maxRecordBytes;
+        }
+
+        /**
+         * @param name {@code text} or {@code binary}, as given on the command line
+         */
+        public static Format forName(String name) {
+            switch (name) {
+                case "text":
+                    return TEXT;
+                case "binary":
+                    return BINARY;
+                default:
+                    throw new IllegalArgumentException("unknown format: " + name + ", expected text or binary");
+            }
+        }
+    }
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final WritableByteChannel channel;
+    private final Format format;
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> filled;
+    private final Thread writer;
+    private final byte[] digits = new byte[11];
+    private ByteBuffer current;
+    private volatile Throwable failure;
+    private boolean closed;
+
+    /**
+     * @param channel     where to write, closed by {@linkplain #close()}
+     * @param format      the format of the records
+     * @param buffers     the number of buffers, at least 2
+     * @param bufferBytes the size of a buffer
+     */
+    public ResultSink(WritableByteChannel channel, Format format, int buffers, int bufferBytes) {
+        if (buffers < 2)
+            throw new IllegalArgumentException("at least two buffers are needed: " + buffers);
+        if (bufferBytes < format.maxRecordBytes)
+            throw new IllegalArgumentException("buffer too small for a record: " + bufferBytes);
+        this.channel = channel;
+        this.format = format;
+        this.free = new ArrayBlockingQueue<>(buffers);
+        this.filled = new ArrayBlockingQueue<>(buffers + 1); // one more for END
+        for (int i = 1; i < buffers; i++)
+            free.add(ByteBuffer.allocateDirect(bufferBytes));
+        this.current = ByteBuffer.allocateDirect(bufferBytes);
+        this.writer = new Thread(this::drain, "result-sink-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public ResultSink(WritableByteChannel channel, Format format) {
+        this(channel, format, 8, 1 << 16);
+    }
+
+    @Override
+    public void accept(Submission submission) {
+        if (submission == null)
+            return;
+        write(submission.owner.lid, submission.sequenceNumber, (int) submission.tick,
+                submission.currentScore(), submission.gradeTick());
+    }
+
+    /**
+     * Writes a single record; the fields are those of {@linkplain Submission#toOutput()}.
+     */
+    public void write(int lid, int sequenceNumber, int tick, int score, int gradeTick) {
+        if (closed)
+            throw new IllegalStateException("closed");
+        rethrow();
+        if (current.remaining() < format.maxRecordBytes)
+            handOff();
+        if (format == Format.BINARY) {
+            current.putInt(lid).putInt(sequenceNumber).putInt(tick).putInt(score).putInt(gradeTick);
+            return;
+        }
+        putDecimal(lid);
+        current.put((byte) ' ');
+        putDecimal(sequenceNumber);
+        current.put((byte) ' ');
+        putDecimal(tick);
+        current.put((byte) ' ');
+        putDecimal(score);
+        current.put((byte) ' ');
+        putDecimal(gradeTick);
+        current.put(LINE_SEPARATOR);
+    }
+
+    private void putDecimal(int value) {
+        long v = value;
+        if (v < 0) {
+            current.put((byte) '-');
+            v = -v;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        current.put(digits, i, digits.length - i);
+    }
+
+    /**
+     * Writes what has been accepted so far, waits for the writer to finish, and closes the channel.
+     *
+     * @throws UncheckedIOException if writing failed
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            if (current.position() > 0)
+                filled.put(current);
+            filled.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while closing", e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        rethrow();
+    }
+
+    private void handOff() {
+        try {
+            filled.put(current);
+            current = free.take(); // back-pressure: wait for the writer if all the buffers are in flight
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while handing off results", e);
+        }
+        rethrow();
+    }
+
+    private void rethrow() {
+        Throwable t = failure;
+        if (t instanceof IOException)
+            throw new UncheckedIOException((IOException) t);
+        if (t != null)
+            throw new IllegalStateException("writer failed", t);
+    }
+
+    private void drain() {
+        try {
+            for (ByteBuffer buf = filled.take(); buf != END; buf = filled.take()) {
+                if (failure == null) {
+                    buf.flip();
+                    try {
+                        while (buf.hasRemaining())
+                            channel.write(buf);
+                    } catch (IOException | RuntimeException e) {
+                        failure = e;
+                    }
+                }
+                buf.clear();
+                free.put(buf); // even after a failure, so that the simulation never waits forever
+            }
+        } catch (InterruptedException e) {
+            failure = e;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package org.kedar.pra;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import static org.kedar.pra.ReviewAssignmentPolicy.mayReview;
+
+/**
+ * <p>
+ *     The built-in {@linkplain ReviewAssignmentPolicy}s. Each one keeps its submissions in an index ordered the way it
+ *     hands them out, so that an assignment costs {@code O(log n)} in the number of submissions held, times one plus
+ *     the number of those the learner may not review that come first, which in typical runs are a handful of its own
+ *     and of the ones it has reviewed already:
+ * </p>
+ * <ul>
+ *     <li>{@linkplain #insertionOrder()}, the default, hands out the submission that has been waiting the longest since
+ *     it was last added, in constant time per submission skipped;</li>
+ *     <li>{@linkplain #fewestReviewsFirst()} the one with the fewest reviews, from one bucket per number of reviews,
+ *     which are first in, first out;</li>
+ *     <li>{@linkplain #oldestFirst()} the one started at the earliest tick, from a binary heap;</li>
+ *     <li>{@linkplain #closestReviewBias()} the one whose owner's review bias is the closest to the reviewer's, from a
+ *     tree of buckets keyed by review bias, so that learners review the work of those who review like they do.</li>
+ * </ul>
+ * Created by kedar on 10/15/16.
+ */
+public final class ReviewAssignmentPolicies {
+
+    private ReviewAssignmentPolicies() {
+    }
+
+    /**
+     * @return the policy of the plain {@linkplain SubmissionPool}: the oldest submission in the order they were added
+     */
+    public static ReviewAssignmentPolicy insertionOrder() {
+        return new InsertionOrder();
+    }
+
+    /**
+     * @return a policy that hands out a submission with the fewest reviews, the oldest one added among those
+     */
+    public static ReviewAssignmentPolicy fewestReviewsFirst() {
+        return new FewestReviewsFirst();
+    }
+
+    /**
+     * @return a policy that hands out the submission started at the earliest tick, the oldest one added among those
+     */
+    public static ReviewAssignmentPolicy oldestFirst() {
+        return new OldestFirst();
+    }
+
+    /**
+     * @return a policy that hands out a submission whose owner's review bias is the closest to the reviewer's, the
+     * lower bias of two as close ones, and the oldest one added among those
+     */
+    public static ReviewAssignmentPolicy closestReviewBias() {
+        return new ClosestReviewBias();
+    }
+
+    /**
+     * @param name {@code insertion-order}, {@code fewest-reviews}, {@code oldest} or {@code closest-bias}
+     * @return a new instance of the policy of the given name
+     * @throws IllegalArgumentException for an unknown name
+     */
+    public static ReviewAssignmentPolicy forName(String name) {
+        switch (name) {
+            case "insertion-order":
+                return insertionOrder();
+            case "fewest-reviews":
+                return fewestReviewsFirst();
+            case "oldest":
+                return oldestFirst();
+            case "closest-bias":
+                return closestReviewBias();
+            default:
+                throw new IllegalArgumentException("unknown review assignment policy: " + name);
+        }
+    }
+
+    /**
+     * A pooled submission, with the order it was added in.
+     */
+    private static final class Entry {
+        final Submission submission;
+        final long order;
+
+        Entry(Submission submission, long order) {
+            this.submission = submission;
+            this.order = order;
+        }
+    }
+
+    private static final Comparator<Entry> IN_ORDER = Comparator.comparingLong(e -> e.order);
+
+    private static final class InsertionOrder implements ReviewAssignmentPolicy {
+        private final LinkedHashSet<Submission> pool = new LinkedHashSet<>();
+
+        @Override
+        public void add(Submission submission) {
+            pool.add(submission);
+        }
+
+        @Override
+        public Submission take(Learner reviewer) {
+            Iterator<Submission> iter = pool.iterator();
+            while (iter.hasNext()) {
+                Submission next = iter.next();
+                if (mayReview(reviewer, next)) {
+                    iter.remove();
+                    return next;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public int size() {
+            return pool.size();
+        }
+
+        @Override
+        public void forEachInOrder(Consumer<Submission> consumer) {
+            pool.forEach(consumer);
+        }
+    }
+
+    /**
+     * A policy that keeps its entries in buckets, each first in, first out.
+     */
+    private abstract static class Bucketed implements ReviewAssignmentPolicy {
+        private long added;
+        private int size;
+
+        abstract LinkedHashSet<Entry> bucketOf(Submission submission);
+
+        @Override
+        public final void add(Submission submission) {
+            bucketOf(submission).add(new Entry(submission, added++));
+            size++;
+        }
+
+        /**
+         * @return the oldest submission of the given bucket the given learner may review, removed, or null
+         */
+        final Submission take(LinkedHashSet<Entry> bucket, Learner reviewer) {
+            Iterator<Entry> iter = bucket.iterator();
+            while (iter.hasNext()) {
+                Entry next = iter.next();
+                if (mayReview(reviewer, next.submission)) {
+                    iter.remove();
+                    size--;
+                    return next.submission;
+                }
+            }
+            return null;
+        }
+
+        abstract Iterable<LinkedHashSet<Entry>> buckets();
+
+        @Override
+        public final int size() {
+            return size;
+        }
+
+        @Override
+        public final void forEachInOrder(Consumer<Submission> consumer) {
+            List<Entry> all = new ArrayList<>(size);
+            for (LinkedHashSet<Entry> bucket : buckets())
+                all.addAll(bucket);
+            all.sort(IN_ORDER);
+            for (Entry e : all)
+                consumer.accept(e.submission);
+        }
+    }
+
+    private static final class FewestReviewsFirst extends Bucketed {
+        private final List<LinkedHashSet<Entry>> byReviews = new ArrayList<>(); // reviews only change out of the pool
+
+        @Override
+        LinkedHashSet<Entry> bucketOf(Submission submission) {
+            int reviews = submission.reviewers.size();
+            while (byReviews.size() <= reviews)
+                byReviews.add(new LinkedHashSet<>());
+            return byReviews.get(reviews);
+        }
+
+        @Override
+        public Submission take(Learner reviewer) {
+            for (LinkedHashSet<Entry> bucket : byReviews) {
+                Submission taken = take(bucket, reviewer);
+                if (taken != null)
+                    return taken;
+            }
+            return null;
+        }
+
+        @Override
+        Iterable<LinkedHashSet<Entry>> buckets() {
+            return byReviews;
+        }
+    }
+
+    private static final class ClosestReviewBias extends Bucketed {
+        private final TreeMap<Integer, LinkedHashSet<Entry>> byBias = new TreeMap<>();
+
+        @Override
+        LinkedHashSet<Entry> bucketOf(Submission submission) {
+            return byBias.computeIfAbsent(submission.owner.reviewBias, bias -> new LinkedHashSet<>());
+        }
+
+        @Override
+        public Submission take(Learner reviewer) {
+            long bias = reviewer.reviewBias;
+            Integer lower = byBias.floorKey(reviewer.reviewBias), higher = byBias.higherKey(reviewer.reviewBias);
+            while (lower != null || higher != null) {
+                boolean below = higher == null || lower != null && bias - lower <= higher - bias;
+                Integer key = below ? lower : higher;
+                LinkedHashSet<Entry> bucket = byBias.get(key);
+                Submission taken = take(bucket, reviewer);
+                if (taken != null) {
+                    if (bucket.isEmpty())
+                        byBias.remove(key);
+                    return taken;
+                }
+                if (below)
+                    lower = byBias.lowerKey(lower);
+                else
+                    higher = byBias.higherKey(higher);
+            }
+            return null;
+        }
+
+        @Override
+        Iterable<LinkedHashSet<Entry>> buckets() {
+            return byBias.values();
+        }
+    }
+
+    private static final class OldestFirst implements ReviewAssignmentPolicy {
+        private final PriorityQueue<Entry> heap = new PriorityQueue<>(
+                Comparator.<Entry>comparingLong(e -> e.submission.tick).thenComparingLong(e -> e.order));
+        private final List<Entry> skipped = new ArrayList<>();
+        private long added;
+
+        @Override
+        public void add(Submission submission) {
+            heap.add(new Entry(submission, added++));
+        }
+
+        @Override
+        public Submission take(Learner reviewer) {
+            Entry taken;
+            while ((taken = heap.poll()) != null && !mayReview(reviewer, taken.submission))
+                skipped.add(taken);
+            heap.addAll(skipped); // they keep their order
+            skipped.clear();
+            return taken == null ? null : taken.submission;
+        }
+
+        @Override
+        public int size() {
+            return heap.size();
+        }
+
+        @Override
+        public void forEachInOrder(Consumer<Submission> consumer) {
+            Entry[] all = heap.toArray(new Entry[heap.size()]);
+            Arrays.sort(all, IN_ORDER);
+            for (Entry e : all)
+                consumer.accept(e.submission);
+        }
+    }
+}
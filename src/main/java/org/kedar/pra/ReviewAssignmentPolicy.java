@@ -0,0 +1,48 @@
+package org.kedar.pra;
+
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ *     Decides which pooled submission a learner who asks for one gets to review. A {@linkplain SubmissionPool} keeps its
+ *     submissions in the policy it is created with, so a policy instance holds the submissions of a single pool and is
+ *     not shared. The built-in policies are in {@linkplain ReviewAssignmentPolicies}.
+ * </p>
+ * <p>
+ *     A learner may never review its own submission or one it has reviewed already, see
+ *     {@linkplain #mayReview(Learner, Submission)}, whatever the policy. A submission is added at most once at a time:
+ *     it is only added again, for another review, after it was taken out. A policy that orders submissions by anything
+ *     else than the order they were added in breaks ties by that order, and hands them to
+ *     {@linkplain #forEachInOrder(Consumer)} in it, so that adding them to a new instance in that order, as a
+ *     {@linkplain Checkpoint} does, gives the same assignments from then on.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public interface ReviewAssignmentPolicy {
+
+    /**
+     * Adds a submission that enters review, or returns to it for another review.
+     */
+    void add(Submission submission);
+
+    /**
+     * Removes and returns the submission the given learner is to review, or returns {@code null} if there is none it
+     * may review.
+     */
+    Submission take(Learner reviewer);
+
+    /** @return the number of submissions held */
+    int size();
+
+    /**
+     * Hands the submissions held to the given consumer in the order they were added.
+     */
+    void forEachInOrder(Consumer<Submission> consumer);
+
+    /**
+     * @return true if the given learner may review the given submission under any policy
+     */
+    static boolean mayReview(Learner reviewer, Submission submission) {
+        return submission.owner.lid != reviewer.lid && !submission.reviewers.contains(reviewer);
+    }
+}
@@ -0,0 +1,178 @@
+package org.kedar.pra;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     Aggregate statistics of a run, kept up to date as it goes, so that they need neither the output nor the
+ *     submissions once they are done with: per attempt, i.e. {@linkplain Submission#sequenceNumber}, how many
+ *     submissions entered review, were graded and passed; the distribution of the final
+ *     {@linkplain Submission#currentScore()} of the graded submissions and of their grading latency, i.e.
+ *     {@linkplain Submission#gradeTick()} minus the tick the submission was started at; and how many times the
+ *     learners resubmitted.
+ * </p>
+ * <p>
+ *     The counters are updated by the pool returned by {@linkplain #observe(SubmissionPool)}, on the thread that
+ *     makes the pool calls, the same as {@linkplain Metrics}. The distributions are {@linkplain QuantileSketch}es and
+ *     there is a counter per attempt, so the statistics take the same memory however long the run. A learner makes
+ *     attempt {@code k} only after attempt {@code k - 1} failed, so the learners that resubmitted exactly {@code k}
+ *     times are those that entered attempt {@code k} less those that entered attempt {@code k + 1}, and need no
+ *     counter per learner.
+ * </p>
+ * <p>
+ *     Statistics {@linkplain #merge(RunStatistics) merge} by adding up, so those of replicas that ran in parallel add
+ *     up to the same ones whatever the order they complete in.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class RunStatistics {
+
+    // by sequence number
+    private long[] entered = new long[4];
+    private long[] graded = new long[4];
+    private long[] passed = new long[4];
+    private int attempts; // one more than the largest sequence number seen
+    private final QuantileSketch scores = new QuantileSketch();
+    private final QuantileSketch latency = new QuantileSketch();
+    private SubmissionPool observed;
+
+    /**
+     * @param pool the pool the run would use
+     * @return a pool to use instead, which keeps these statistics up to date
+     * @throws IllegalStateException if a pool is observed already
+     */
+    public SubmissionPool observe(SubmissionPool pool) {
+        if (observed != null)
+            throw new IllegalStateException("already observing a pool");
+        observed = new ObservedPool(pool);
+        return observed;
+    }
+
+    /**
+     * Adds the given statistics to these.
+     *
+     * @return these statistics
+     */
+    public RunStatistics merge(RunStatistics other) {
+        ensureAttempts(other.attempts);
+        for (int seq = 0; seq < other.attempts; seq++) {
+            entered[seq] += other.entered[seq];
+            graded[seq] += other.graded[seq];
+            passed[seq] += other.passed[seq];
+        }
+        scores.merge(other.scores);
+        latency.merge(other.latency);
+        return this;
+    }
+
+    private void ensureAttempts(int n) {
+        if (n > entered.length) {
+            int length = Math.max(n, entered.length << 1);
+            entered = Arrays.copyOf(entered, length);
+            graded = Arrays.copyOf(graded, length);
+            passed = Arrays.copyOf(passed, length);
+        }
+        attempts = Math.max(attempts, n);
+    }
+
+    /** @return one more than the largest sequence number of a submission that entered review */
+    public int attempts() {
+        return attempts;
+    }
+
+    public long entered(int sequenceNumber) {
+        return sequenceNumber < attempts ? entered[sequenceNumber] : 0;
+    }
+
+    public long graded(int sequenceNumber) {
+        return sequenceNumber < attempts ? graded[sequenceNumber] : 0;
+    }
+
+    public long passed(int sequenceNumber) {
+        return sequenceNumber < attempts ? passed[sequenceNumber] : 0;
+    }
+
+    /** @return the share of the graded submissions of the given attempt that passed */
+    public double passRate(int sequenceNumber) {
+        long g = graded(sequenceNumber);
+        return g == 0 ? 0 : (double) passed(sequenceNumber) / g;
+    }
+
+    /** @return the number of learners that entered review and then resubmitted exactly the given number of times */
+    public long resubmittedTimes(int times) {
+        return entered(times) - entered(times + 1);
+    }
+
+    /** @return the mean number of resubmissions of the learners that entered review */
+    public double meanResubmissions() {
+        long learners = entered(0), resubmissions = 0;
+        for (int seq = 1; seq < attempts; seq++)
+            resubmissions += entered[seq];
+        return learners == 0 ? 0 : (double) resubmissions / learners;
+    }
+
+    public long gradedTotal() {
+        return scores.count();
+    }
+
+    public double scoreMean() {
+        return scores.mean();
+    }
+
+    /** @return the given quantile of the final scores, within 1/128 of it */
+    public int scoreQuantile(double q) {
+        return scores.quantile(q);
+    }
+
+    public double gradingLatencyMean() {
+        return latency.mean();
+    }
+
+    /** @return the given quantile of the grading latencies, within 1/128 of it */
+    public int gradingLatencyQuantile(double q) {
+        return latency.quantile(q);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder(400);
+        for (int seq = 0; seq < attempts; seq++)
+            buf.append(String.format("attempt %d: entered: %d, graded: %d, passed: %d (%.4f), resubmitted %d times: "
+                            + "%d%n", seq, entered[seq], graded[seq], passed[seq], passRate(seq), seq,
+                    resubmittedTimes(seq)));
+        return buf.append(String.format("graded: %d, score mean/min/p10/p50/p90/max: %.1f/%d/%d/%d/%d/%d, "
+                        + "latency mean/p50/p90/p99/max: %.1f/%d/%d/%d/%d, resubmissions mean: %.3f", gradedTotal(),
+                scores.mean(), scores.min(), scores.quantile(0.1), scores.quantile(0.5), scores.quantile(0.9),
+                scores.max(), latency.mean(), latency.quantile(0.5), latency.quantile(0.9), latency.quantile(0.99),
+                latency.max(), meanResubmissions())).toString();
+    }
+
+    private final class ObservedPool extends ForwardingSubmissionPool {
+
+        ObservedPool(SubmissionPool delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void submit(Submission submission) {
+            super.submit(submission);
+            int seq = submission.sequenceNumber;
+            if (seq >= attempts)
+                ensureAttempts(seq + 1);
+            entered[seq]++;
+        }
+
+        @Override
+        void graded(Submission graded) {
+            super.graded(graded);
+            int seq = graded.sequenceNumber, score = graded.currentScore();
+            if (seq >= attempts)
+                ensureAttempts(seq + 1);
+            RunStatistics.this.graded[seq]++;
+            if (score >= graded.owner.config.passingPoints)
+                passed[seq]++;
+            scores.record(score);
+            latency.record(graded.gradeTick() - (int) graded.tick);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.kedar.pra;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>
+ *     An immutable template of a simulation: the number of ticks and the parameters of every learner. Every call to
+ *     {@linkplain #population(long)} creates a fresh population of learners from it, perturbed by a seeded random
+ *     jitter of each learner's first submission start tick and review bias, so that independent replicas of the same
+ *     scenario never share state and are reproducible from their seed. All the learners follow the same
+ *     {@linkplain Config}.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class Scenario {
+
+    final int ticks;
+    private final int[] lid;
+    private final int[] firstSubmissionStartTick;
+    private final int[] trueGrade;
+    private final int[] reviewBias;
+    private final int startJitter;
+    private final int biasJitter;
+    final Config config;
+
+    private Scenario(int ticks, int[] lid, int[] firstSubmissionStartTick, int[] trueGrade, int[] reviewBias,
+                     int startJitter, int biasJitter, Config config) {
+        if (startJitter < 0 || biasJitter < 0)
+            throw new IllegalArgumentException("negative jitter: " + startJitter + ", " + biasJitter);
+        this.ticks = ticks;
+        this.lid = lid;
+        this.firstSubmissionStartTick = firstSubmissionStartTick;
+        this.trueGrade = trueGrade;
+        this.reviewBias = reviewBias;
+        this.startJitter = startJitter;
+        this.biasJitter = biasJitter;
+        this.config = config;
+    }
+
+    /**
+     * Creates a scenario without jitter from the parameters of the given, not yet started, learners, which follow the
+     * parameters of the first of them.
+     */
+    public static Scenario of(int ticks, Collection<Learner> learners) {
+        int n = learners.size();
+        int[] lid = new int[n], start = new int[n], grade = new int[n], bias = new int[n];
+        int i = 0;
+        for (Learner l : learners) {
+            lid[i] = l.lid;
+            start[i] = (int) l.firstSubmissionStartTick.getValue();
+            grade[i] = l.trueGrade;
+            bias[i++] = l.reviewBias;
+        }
+        return new Scenario(ticks, lid, start, grade, bias, 0, 0,
+                learners.isEmpty() ? Config.DEFAULT : learners.iterator().next().config);
+    }
+
+    /**
+     * @param startJitter the most ticks a first submission start tick moves either way
+     * @param biasJitter  the most points a review bias moves either way
+     * @return a copy of this scenario with the given jitter
+     */
+    public Scenario withJitter(int startJitter, int biasJitter) {
+        return new Scenario(ticks, lid, firstSubmissionStartTick, trueGrade, reviewBias, startJitter, biasJitter,
+                config);
+    }
+
+    /**
+     * @return a copy of this scenario whose learners follow the given parameters
+     */
+    public Scenario withConfig(Config config) {
+        return new Scenario(ticks, lid, firstSubmissionStartTick, trueGrade, reviewBias, startJitter, biasJitter,
+                config);
+    }
+
+    public int size() {
+        return lid.length;
+    }
+
+    /**
+     * @param seed the seed of the jitter
+     * @return new learners, in the order of the template
+     */
+    public List<Learner> population(long seed) {
+        Random random = new Random(seed);
+        List<Learner> learners = new ArrayList<>(lid.length);
+        for (int i = 0; i < lid.length; i++) {
+            int start = firstSubmissionStartTick[i] + jitter(random, startJitter);
+            int bias = reviewBias[i] + jitter(random, biasJitter);
+            learners.add(Learner.inactive(lid[i], new TimeTick(Math.max(0, start)), trueGrade[i], bias, config));
+        }
+        return learners;
+    }
+
+    private static int jitter(Random random, int most) {
+        return most == 0 ? 0 : random.nextInt(2 * most + 1) - most;
+    }
+}
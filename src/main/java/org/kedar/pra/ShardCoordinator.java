@@ -0,0 +1,275 @@
+package org.kedar.pra;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *     Runs the tick-stepping main loop with the learners spread over several {@linkplain ShardWorker}s, each in a JVM
+ *     of its own by default, that talk to this coordinator over local TCP sockets. The learners are split into
+ *     contiguous blocks of the order they respond in within a tick, one per shard, so every shard holds the learners,
+ *     submissions and reviews of its block only, plus a replica of the pool.
+ * </p>
+ * <p>
+ *     Within a tick, a token passes from shard to shard in order, see {@linkplain ShardWorker}: the shard that holds it
+ *     lets its learners that need the pool respond, and hands back the submissions they returned and what they did to
+ *     the pool, which the coordinator passes on to every other shard with its next token. So the pool hands out the
+ *     same submissions in the same order as in a single JVM, and the output, merged in the order of the tokens, is the
+ *     same as {@linkplain Simulator#mainLoop(int, int, java.util.Set, SubmissionPool, java.util.function.Consumer)}'s.
+ *     The learners that only involve themselves respond while the other shards hold the token, which is where the
+ *     shards run in parallel; what they exchange grows with the pool operations, not with the learners.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class ShardCoordinator {
+
+    /** How long to wait for the shards to connect and, at the end, to exit. */
+    private static final int TIMEOUT_SECONDS = 60;
+
+    /**
+     * Where the shards run.
+     */
+    public enum Launch {
+        /** every shard in a JVM of its own, started with the class path of this one */
+        PROCESSES,
+        /** every shard on a thread of this JVM, still over sockets; mostly for testing */
+        THREADS
+    }
+
+    /**
+     * Takes the submissions in the order they enter review.
+     */
+    @FunctionalInterface
+    public interface Output {
+        void write(int lid, int sequenceNumber, int tick, int score, int gradeTick);
+    }
+
+    private ShardCoordinator() {
+    }
+
+    /**
+     * Runs the learners through the ticks {@code [0, toExc)} over the given number of shards.
+     *
+     * @param toExc      the last tick, exclusive
+     * @param learners   the learners, not yet started, in the order they respond within a tick; they all follow the
+     *                   same parameters and work on the same assignment
+     * @param shards     the number of shards
+     * @param indexed    whether the shards use an {@linkplain IndexedSubmissionPool}
+     * @param launch     where the shards run
+     * @param jvmOptions the options of the shards' JVMs, e.g. {@code -Xmx}, if they run in processes of their own
+     * @param output     takes the submissions as they enter review, on the calling thread, like a
+     *                   {@linkplain ResultSink}
+     * @return the number of submissions left in the pool
+     * @throws IllegalStateException if a shard fails
+     */
+    public static int run(int toExc, Collection<Learner> learners, int shards, boolean indexed, Launch launch,
+                          List<String> jvmOptions, Output output) {
+        if (shards < 1)
+            throw new IllegalArgumentException("invalid number of shards: " + shards);
+        if (learners.isEmpty())
+            throw new IllegalArgumentException("no learners");
+        Learner first = learners.iterator().next();
+        for (Learner learner : learners)
+            if (!learner.config.equals(first.config) || learner.aid != first.aid)
+                throw new IllegalArgumentException("learner " + learner.lid + " follows other parameters");
+        List<Process> processes = new ArrayList<>();
+        Socket[] sockets = new Socket[shards];
+        try (ServerSocket server = new ServerSocket(0, shards, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(TIMEOUT_SECONDS * 1000);
+            for (int s = 0; s < shards; s++)
+                processes.add(launch(launch, server.getLocalPort(), s, jvmOptions));
+            for (int s = 0; s < shards; s++) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                int shard = new DataInputStream(socket.getInputStream()).readInt();
+                if (shard < 0 || shard >= shards || sockets[shard] != null)
+                    throw new IllegalStateException("unexpected shard: " + shard);
+                sockets[shard] = socket;
+            }
+            int poolSize = drive(toExc, learners, sockets, indexed, output);
+            for (Process process : processes)
+                if (process != null
+                        && (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS) || process.exitValue() != 0))
+                    throw new IllegalStateException("a shard did not exit cleanly");
+            return poolSize;
+        } catch (SocketTimeoutException e) {
+            throw new IllegalStateException("the shards did not connect within " + TIMEOUT_SECONDS + "s", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for the shards", e);
+        } finally {
+            for (Socket socket : sockets)
+                close(socket);
+            for (Process process : processes)
+                if (process != null)
+                    process.destroy();
+        }
+    }
+
+    private static Process launch(Launch launch, int port, int shard, List<String> jvmOptions) throws IOException {
+        InetAddress host = InetAddress.getLoopbackAddress();
+        if (launch == Launch.THREADS) {
+            Thread worker = new Thread(() -> {
+                try {
+                    ShardWorker.serve(host, port, shard);
+                } catch (IOException | RuntimeException e) {
+                    // reported to the coordinator, or seen by it as a closed connection
+                }
+            }, "shard-" + shard);
+            worker.setDaemon(true);
+            worker.start();
+            return null;
+        }
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ShardWorker.class.getName());
+        command.add(host.getHostAddress());
+        command.add(String.valueOf(port));
+        command.add(String.valueOf(shard));
+        return new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(new File("/dev/null"))) // stdout carries the output
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    private static int drive(int toExc, Collection<Learner> learners, Socket[] sockets, boolean indexed, Output output)
+            throws IOException {
+        int shards = sockets.length;
+        DataInputStream[] in = new DataInputStream[shards];
+        DataOutputStream[] out = new DataOutputStream[shards];
+        for (int s = 0; s < shards; s++) {
+            in[s] = new DataInputStream(new BufferedInputStream(sockets[s].getInputStream(), 1 << 16));
+            out[s] = new DataOutputStream(new BufferedOutputStream(sockets[s].getOutputStream(), 1 << 16));
+        }
+        Learner[] order = learners.toArray(new Learner[learners.size()]);
+        Config config = order[0].config;
+        for (int s = 0; s < shards; s++) {
+            int from = (int) ((long) order.length * s / shards), to = (int) ((long) order.length * (s + 1) / shards);
+            out[s].writeByte(ShardWorker.INIT);
+            out[s].writeInt(toExc);
+            out[s].writeInt(config.reviewsRequiredPerSubmission);
+            out[s].writeInt(config.reviewsRequiredPerLearner);
+            out[s].writeInt(config.passingPoints);
+            out[s].writeInt(config.workTicks);
+            out[s].writeInt(config.reviewTicks);
+            out[s].writeInt(order[0].aid);
+            out[s].writeBoolean(indexed);
+            out[s].writeInt(to - from);
+            for (int i = from; i < to; i++) {
+                Learner learner = order[i];
+                if (learner.state != LearnerState.INACTIVE || !learner.submissions.isEmpty())
+                    throw new IllegalArgumentException("learner " + learner.lid + " has started already");
+                out[s].writeInt(learner.lid);
+                out[s].writeLong(learner.firstSubmissionStartTick.getValue());
+                out[s].writeInt(learner.trueGrade);
+                out[s].writeInt(learner.reviewBias);
+            }
+            out[s].flush();
+        }
+        // the chunks of operations some shard has not seen yet; chunk c of the run is at c - firstChunk
+        ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+        long firstChunk = 0;
+        long[] seen = new long[shards]; // the chunks every shard has seen
+        for (int at = 0; at < toExc; at++) {
+            for (int s = 0; s < shards; s++) {
+                out[s].writeByte(ShardWorker.TOKEN);
+                out[s].writeLong(at);
+                int unseen = 0;
+                long c = firstChunk;
+                for (Chunk chunk : chunks)
+                    if (c++ >= seen[s] && chunk.shard != s)
+                        unseen++;
+                out[s].writeInt(unseen);
+                c = firstChunk;
+                for (Chunk chunk : chunks) {
+                    if (c++ >= seen[s] && chunk.shard != s) {
+                        out[s].writeInt(chunk.ops);
+                        out[s].writeInt(chunk.bytes.length);
+                        out[s].write(chunk.bytes);
+                    }
+                }
+                out[s].flush();
+                expect(in[s], ShardWorker.TOKEN, s);
+                for (int records = in[s].readInt(); records > 0; records--)
+                    output.write(in[s].readInt(), in[s].readInt(), in[s].readInt(), in[s].readInt(),
+                            in[s].readInt());
+                int ops = in[s].readInt();
+                byte[] bytes = new byte[in[s].readInt()];
+                in[s].readFully(bytes);
+                if (ops > 0)
+                    chunks.addLast(new Chunk(s, ops, bytes));
+                seen[s] = firstChunk + chunks.size();
+                long oldest = Long.MAX_VALUE;
+                for (long n : seen)
+                    oldest = Math.min(oldest, n);
+                for (; firstChunk < oldest; firstChunk++)
+                    chunks.removeFirst();
+            }
+        }
+        int poolSize = -1;
+        for (int s = 0; s < shards; s++) {
+            out[s].writeByte(ShardWorker.END);
+            out[s].flush();
+            expect(in[s], ShardWorker.DONE, s);
+            int size = in[s].readInt();
+            if (poolSize >= 0 && size != poolSize)
+                throw new IllegalStateException("the shards diverged: shard " + s + " has " + size
+                        + " pooled submissions, shard 0 has " + poolSize);
+            poolSize = size;
+        }
+        return poolSize;
+    }
+
+    private static void expect(DataInputStream in, byte message, int shard) throws IOException {
+        byte got = in.readByte();
+        if (got == ShardWorker.FAILED)
+            throw new IllegalStateException("shard " + shard + " failed: " + in.readUTF());
+        if (got != message)
+            throw new IllegalStateException("unexpected message from shard " + shard + ": " + got);
+    }
+
+    private static void close(Socket socket) {
+        if (socket == null)
+            return;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing left to tell the shard
+        }
+    }
+
+    /**
+     * The operations one shard recorded while it held the token once.
+     */
+    private static final class Chunk {
+        final int shard;
+        final int ops;
+        final byte[] bytes;
+
+        Chunk(int shard, int ops, byte[] bytes) {
+            this.shard = shard;
+            this.ops = ops;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package org.kedar.pra;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import static org.kedar.pra.SubmissionState.SUBMITTED_TO_REVIEW;
+
+/**
+ * <p>
+ *     One shard of a run driven by a {@linkplain ShardCoordinator}, usually in a JVM of its own. A shard owns a block of
+ *     the learners and keeps a replica of the whole {@linkplain SubmissionPool}, in which the submissions of the other
+ *     shards' learners are stand-ins owned by stand-in learners that carry nothing but an id, a true grade and a
+ *     review bias.
+ * </p>
+ * <p>
+ *     As in the {@linkplain ParallelLoop}, a tick runs in two phases. First, the learners whose response only involves
+ *     themselves (see {@linkplain Learner#respondsLocally(long)}) respond, while the other shards still work on the
+ *     previous tick. Then, once the coordinator hands over the token for the tick along with the changes the other
+ *     shards have made since this one last had it, the shard applies those changes to its replica and the remaining
+ *     learners respond in order. Whatever they do to the pool, and every review they provide, is recorded as an
+ *     operation and sent back with the submissions they returned, for the coordinator to pass on to the other shards.
+ * </p>
+ * <p>
+ *     Applying a retrieval replays it for the stand-in of the retrieving learner, which has to hand out the same
+ *     submission the other shard got; if it does not, the replicas have diverged and the run fails.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class ShardWorker {
+
+    static final byte INIT = 1;
+    static final byte TOKEN = 2;
+    static final byte END = 3;
+    static final byte DONE = 4;
+    static final byte FAILED = 5;
+
+    private static final byte SUBMIT = 1;
+    private static final byte RETRIEVE = 2;
+    private static final byte REVIEW = 3;
+
+    private final Learner[] learners; // in the order they respond within a tick
+    private final int[] queued; // the learners left for the token, in order
+    private int nQueued;
+    private final RecordingPool pool;
+    private final Config config;
+    private final int aid;
+    private final Map<Integer, Learner> standIns = new HashMap<>(); // the other shards' learners, by id
+    private final Map<Long, Submission> known = new HashMap<>(); // the submissions in review, by owner and number
+    private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+    private final DataOutputStream recordsOut = new DataOutputStream(records);
+    private int nRecords;
+
+    private ShardWorker(Learner[] learners, SubmissionPool pool, Config config, int aid) {
+        this.learners = learners;
+        this.queued = new int[learners.length];
+        this.pool = new RecordingPool(pool, this);
+        this.config = config;
+        this.aid = aid;
+    }
+
+    /**
+     * Connects to a coordinator and serves a shard until the run ends.
+     *
+     * @param args the host and port of the coordinator, and the shard's index
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3)
+            throw new IllegalArgumentException("expected: host port shard");
+        serve(InetAddress.getByName(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+    }
+
+    /**
+     * Connects to the coordinator listening at the given address and serves the given shard until the run ends.
+     */
+    static void serve(InetAddress host, int port, int shard) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            out.writeInt(shard);
+            out.flush();
+            if (in.readByte() != INIT)
+                throw new IllegalStateException("expected the shard's learners first");
+            int ticks = in.readInt();
+            Config config = Config.DEFAULT.withReviewsRequired(in.readInt(), in.readInt())
+                    .withPassingPoints(in.readInt()).withWorkTicks(in.readInt()).withReviewTicks(in.readInt());
+            int aid = in.readInt();
+            SubmissionPool pool = in.readBoolean() ? new IndexedSubmissionPool() : new SubmissionPool();
+            Learner[] learners = new Learner[in.readInt()];
+            for (int i = 0; i < learners.length; i++)
+                learners[i] = Learner.restore(in.readInt(), new TimeTick(in.readLong()), LearnerState.INACTIVE,
+                        in.readInt(), in.readInt(), config, aid);
+            new ShardWorker(learners, pool, config, aid).loop(ticks, in, out);
+        }
+    }
+
+    private void loop(int ticks, DataInputStream in, DataOutputStream out) throws IOException {
+        long at = 0;
+        try {
+            if (at < ticks)
+                respondLocally(at);
+            for (byte message; (message = in.readByte()) != END; ) {
+                if (message != TOKEN)
+                    throw new IllegalStateException("unexpected message: " + message);
+                long tick = in.readLong();
+                if (tick != at)
+                    throw new IllegalStateException("expected the token for tick " + at + ", got " + tick);
+                for (int chunks = in.readInt(); chunks > 0; chunks--)
+                    apply(in);
+                respondInTurn(at, out);
+                if (++at < ticks)
+                    respondLocally(at);
+            }
+        } catch (RuntimeException e) {
+            out.writeByte(FAILED);
+            out.writeUTF(String.valueOf(e));
+            out.flush();
+            throw e;
+        }
+        out.writeByte(DONE);
+        out.writeInt(pool.size());
+        out.flush();
+    }
+
+    private void respondLocally(long at) {
+        nQueued = 0;
+        for (int i = 0; i < learners.length; i++) {
+            if (learners[i].respondsLocally(at))
+                learners[i].respondTo(at, pool);
+            else
+                queued[nQueued++] = i;
+        }
+    }
+
+    private void respondInTurn(long at, DataOutputStream out) throws IOException {
+        pool.recording = true;
+        for (int k = 0; k < nQueued; k++) {
+            Submission returned = learners[queued[k]].respondTo(at, pool);
+            if (returned != null)
+                record(returned);
+        }
+        pool.recording = false;
+        out.writeByte(TOKEN);
+        out.writeInt(nRecords);
+        records.writeTo(out);
+        out.writeInt(pool.nOps);
+        out.writeInt(pool.ops.size());
+        pool.ops.writeTo(out);
+        out.flush();
+        records.reset();
+        nRecords = 0;
+        pool.ops.reset();
+        pool.nOps = 0;
+    }
+
+    private void record(Submission submission) throws IOException {
+        recordsOut.writeInt(submission.owner.lid);
+        recordsOut.writeInt(submission.sequenceNumber);
+        recordsOut.writeInt((int) submission.tick);
+        recordsOut.writeInt(submission.currentScore());
+        recordsOut.writeInt(submission.gradeTick());
+        nRecords++;
+    }
+
+    /**
+     * Applies a chunk of operations recorded by another shard to this shard's replica.
+     */
+    private void apply(DataInputStream in) throws IOException {
+        int ops = in.readInt();
+        in.readInt(); // the length, for those who only pass the chunk on
+        for (int k = 0; k < ops; k++) {
+            byte op = in.readByte();
+            if (op == SUBMIT) {
+                Learner owner = standIn(in.readInt(), in.readInt(), in.readInt());
+                int sequenceNumber = in.readInt();
+                Submission submission = new Submission(owner, aid, in.readLong(), SUBMITTED_TO_REVIEW,
+                        new LinkedList<>(), sequenceNumber);
+                pool.delegate.submit(submission);
+                known.put(key(owner.lid, sequenceNumber), submission);
+            } else if (op == RETRIEVE) {
+                Learner reviewer = standIn(in.readInt(), in.readInt(), in.readInt());
+                int lid = in.readInt(), sequenceNumber = in.readInt();
+                Submission retrieved = pool.delegate.retrieve(reviewer);
+                if (retrieved == null || retrieved.owner.lid != lid || retrieved.sequenceNumber != sequenceNumber)
+                    throw new IllegalStateException("the shards diverged: learner " + reviewer.lid + " retrieved "
+                            + lid + "/" + sequenceNumber + " elsewhere, but " + retrieved + " here");
+            } else if (op == REVIEW) {
+                Learner reviewer = standIn(in.readInt(), in.readInt(), in.readInt());
+                long key = key(in.readInt(), in.readInt());
+                long at = in.readLong();
+                boolean graded = in.readBoolean();
+                Submission reviewed = known.get(key);
+                if (reviewed == null)
+                    throw new IllegalStateException("the shards diverged: no submission " + (key >>> 32) + "/"
+                            + (int) key + " in review");
+                reviewed.provideReview(reviewer, at);
+                if (graded) {
+                    pool.delegate.graded(reviewed);
+                    known.remove(key);
+                } else {
+                    pool.delegate.resubmit(reviewed);
+                }
+            } else {
+                throw new IllegalStateException("unknown operation: " + op);
+            }
+        }
+    }
+
+    private Learner standIn(int lid, int trueGrade, int reviewBias) {
+        Learner standIn = standIns.get(lid);
+        if (standIn == null) {
+            standIn = Learner.restore(lid, new TimeTick(0), LearnerState.INACTIVE, trueGrade, reviewBias, config, aid);
+            standIns.put(lid, standIn);
+        }
+        return standIn;
+    }
+
+    private static long key(int lid, int sequenceNumber) {
+        return (long) lid << 32 | sequenceNumber & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Delegates to the replica and records what this shard's learners do to it, while they respond in turn.
+     * {@linkplain SubmissionPool#resubmit(Submission)} and {@linkplain SubmissionPool#graded(Submission)} directly
+     * follow a review, so they record it.
+     */
+    private static final class RecordingPool extends ForwardingSubmissionPool {
+        final ShardWorker worker;
+        final ByteArrayOutputStream ops = new ByteArrayOutputStream();
+        final DataOutputStream opsOut = new DataOutputStream(ops);
+        int nOps;
+        boolean recording;
+
+        RecordingPool(SubmissionPool base, ShardWorker worker) {
+            super(base);
+            this.worker = worker;
+        }
+
+        @Override
+        public Submission retrieve(Learner me) {
+            ensureRecording();
+            Submission retrieved = super.retrieve(me);
+            if (retrieved != null) {
+                write(RETRIEVE, me);
+                writeInt(retrieved.owner.lid);
+                writeInt(retrieved.sequenceNumber);
+            }
+            return retrieved;
+        }
+
+        @Override
+        public void submit(Submission submission) {
+            ensureRecording();
+            super.submit(submission);
+            worker.known.put(key(submission.owner.lid, submission.sequenceNumber), submission);
+            write(SUBMIT, submission.owner);
+            writeInt(submission.sequenceNumber);
+            writeLong(submission.tick);
+        }
+
+        @Override
+        public void resubmit(Submission reviewable) {
+            ensureRecording();
+            super.resubmit(reviewable);
+            writeReview(reviewable, false);
+        }
+
+        @Override
+        void graded(Submission graded) {
+            ensureRecording();
+            super.graded(graded);
+            worker.known.remove(key(graded.owner.lid, graded.sequenceNumber));
+            writeReview(graded, true);
+        }
+
+        private void ensureRecording() {
+            if (!recording)
+                throw new IllegalStateException("a local response touched the pool");
+        }
+
+        private void writeReview(Submission reviewed, boolean graded) {
+            write(REVIEW, reviewed.reviewers.peekLast());
+            writeInt(reviewed.owner.lid);
+            writeInt(reviewed.sequenceNumber);
+            writeLong(reviewed.lastReviewTick);
+            try {
+                opsOut.writeBoolean(graded);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void write(byte op, Learner learner) {
+            try {
+                opsOut.writeByte(op);
+                opsOut.writeInt(learner.lid);
+                opsOut.writeInt(learner.trueGrade);
+                opsOut.writeInt(learner.reviewBias);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            nOps++;
+        }
+
+        private void writeInt(int value) {
+            try {
+                opsOut.writeInt(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeLong(long value) {
+            try {
+                opsOut.writeLong(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -1,9 +1,24 @@
 package org.kedar.pra;
 
+import org.apache.commons.cli.*;
+
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
-import java.util.stream.IntStream;
 
 /**
  * <p>
@@ -11,39 +26,526 @@ import java.util.stream.IntStream;
  *     data and runs a main loop through all the time ticks and learners. The output can be gathered on each time
  *     firstSubmissionStartTick, or filtered on a {@linkplain Submission}.
  * </p>
+ * <p>
+ *     With {@code --where} only the submissions a {@linkplain Query} selects are printed; the main loop applies it, so
+ *     nothing else is formatted.
+ * </p>
+ * <p>
+ *     By default every learner responds to every tick. With {@code --engine event} the {@linkplain EventLoop} is used
+ *     instead, which skips the ticks at which nothing happens and produces the same output. With
+ *     {@code --engine parallel} the {@linkplain ParallelLoop} spreads every tick over several threads. With
+ *     {@code --engine stream} the {@linkplain StreamingLoop} starts running while the learners are still being read,
+ *     and retires those that have finished. With {@code --realtime} the {@linkplain RealTimeLoop} runs the ticks at
+ *     the pace of the clock instead.
+ * </p>
+ * <p>
+ *     With {@code --generate} the learners are drawn from distributions by a {@linkplain PopulationGenerator} rather
+ *     than read, and {@code --generate-to} writes them out as an input instead of running them.
+ * </p>
+ * <p>
+ *     With {@code --policy} the pool hands out submissions for review following another
+ *     {@linkplain ReviewAssignmentPolicy} than the order they entered it in, see {@linkplain ReviewAssignmentPolicies}.
+ *     With {@code --hand-off} it hands them to the learners waiting for one instead of being polled, see
+ *     {@linkplain SubmissionPool#handingOff(ReviewAssignmentPolicy)}.
+ * </p>
+ * <p>
+ *     Submissions are written by a {@linkplain ResultSink}, so the main loop does not wait on the output, as text by
+ *     default or, with {@code --format binary}, as fixed-width records.
+ * </p>
+ * <p>
+ *     With {@code --stats} the run keeps {@linkplain RunStatistics} as it goes, merged over the replicas of
+ *     {@code --replicas}, and prints them to stderr at the end.
+ * </p>
+ * <p>
+ *     With {@code --checkpoint} the state of the run is saved every so many ticks, see {@linkplain Checkpoint}, and
+ *     {@code --resume} continues a saved run, printing the submissions from the tick it was saved at on. With
+ *     {@code --archive} the submissions that are final are moved out of the heap every so many ticks, see
+ *     {@linkplain SubmissionArchive}.
+ * </p>
+ * <p>
+ *     The grading policy is {@linkplain Config#DEFAULT} unless {@code --config} gives other parameters, and
+ *     {@code --sweep} runs variants that switch to other parameters at some tick, see {@linkplain ParameterSweep}.
+ *     {@code --what-if} reruns the input with some learners edited, reusing a recorded run where it can, see
+ *     {@linkplain WhatIf}.
+ * </p>
+ * <p>
+ *     With {@code --shards} the tick loop runs over several worker JVMs, so that a population too large for one heap
+ *     can still be run; the output is the same, see {@linkplain ShardCoordinator}.
+ * </p>
+ * <p>
+ *     With {@code --journal} a run of the tick loop also records its reviews, grades and state changes, see
+ *     {@linkplain Journal}, and {@code --query-journal} prints them back, by learner or by tick range.
+ * </p>
  * Created by kedar on 10/15/16.
  */
 public class Simulator {
 
     public static void main(String[] args) {
-        Object[] input = processInput(System.in);
-        int ticks = (Integer)input[0];
-        Set<Learner> learners = (Set<Learner>)input[1];
-        mainLoop(0, ticks, learners, submission -> {
-            if (submission != null)
-                System.out.println(submission.toOutput());
-        });
+        Options options = new Options();
+        options.addOption(Option.builder("e").longOpt("engine").hasArg().argName("tick|event|parallel|stream")
+                .desc("the main loop to run: tick (default), event, parallel or stream, which reads the learners while "
+                        + "running").build());
+        options.addOption(Option.builder().longOpt("realtime").hasArg().argName("ms")
+                .desc("run the ticks in real time, the given milliseconds each, e.g. 0.5, to generate load; reports "
+                        + "how well the run kept up to stderr, see RealTimeLoop").build());
+        options.addOption(Option.builder("t").longOpt("threads").hasArg().argName("n")
+                .desc("the number of threads of the parallel main loop, defaults to the number of cores").build());
+        options.addOption(Option.builder("p").longOpt("pool").hasArg().argName("scan|indexed")
+                .desc("the submission pool: scan (default) or indexed").build());
+        options.addOption(Option.builder().longOpt("policy")
+                .hasArg().argName("insertion-order|fewest-reviews|oldest|closest-bias")
+                .desc("which submission of the pool a learner gets to review: the oldest one added (default), one "
+                        + "with the fewest reviews, the one started first, or one whose owner reviews the closest to "
+                        + "the learner").build());
+        options.addOption(Option.builder().longOpt("hand-off")
+                .desc("park the learners the scan pool has nothing for, and hand every submission added to the one "
+                        + "that has waited the longest and may review it, rather than have them poll the pool every "
+                        + "tick; the assignments differ from those of the polled pool").build());
+        options.addOption(Option.builder("s").longOpt("store").hasArg().argName("objects|columnar")
+                .desc("how learners are stored: objects (default) or columnar, which runs the tick loop").build());
+        options.addOption(Option.builder("i").longOpt("input").hasArg().argName("file")
+                .desc("read the input from the given file, memory-mapped and parsed in parallel, instead of stdin")
+                .build());
+        options.addOption(Option.builder().longOpt("generate").hasArg().argName("ticks:learners")
+                .desc("generate the given number of learners over the given number of ticks instead of reading the "
+                        + "input, from the seed of --seed and the distributions of --arrivals, --grades and --biases; "
+                        + "see PopulationGenerator").build());
+        options.addOption(Option.builder().longOpt("arrivals").hasArg().argName("distribution")
+                .desc("the first submission start ticks of --generate, e.g. waves:4:0.1, defaults to uniform over "
+                        + "the ticks").build());
+        options.addOption(Option.builder().longOpt("grades").hasArg().argName("distribution")
+                .desc("the true grades of --generate, e.g. normal:85:5:0:100@0.8+normal:50:10:0:100@0.2, defaults "
+                        + "to uniform:60:100").build());
+        options.addOption(Option.builder().longOpt("biases").hasArg().argName("distribution")
+                .desc("the review biases of --generate, defaults to uniform:-5:5").build());
+        options.addOption(Option.builder().longOpt("generate-to").hasArg().argName("file")
+                .desc("write the input --generate generates to the given file instead of running it").build());
+        options.addOption(Option.builder("o").longOpt("output").hasArg().argName("file")
+                .desc("write the submissions to the given file instead of stdout").build());
+        options.addOption(Option.builder("f").longOpt("format").hasArg().argName("text|binary")
+                .desc("the format of the submissions: text (default) or binary, five big-endian ints each").build());
+        options.addOption(Option.builder("m").longOpt("metrics").hasArg().argName("ticks")
+                .desc("every so many ticks, print a snapshot of the runtime metrics to stderr; they are also exposed "
+                        + "through JMX as " + Metrics.OBJECT_NAME).build());
+        options.addOption(Option.builder().longOpt("stats")
+                .desc("at the end of the run, print the pass rate per attempt, the distributions of the final scores "
+                        + "and the grading latency, and the resubmissions per learner to stderr, see RunStatistics")
+                .build());
+        options.addOption(Option.builder().longOpt("checkpoint").hasArg().argName("file")
+                .desc("save the state of the run to the given file every so many ticks, see --checkpoint-every")
+                .build());
+        options.addOption(Option.builder().longOpt("checkpoint-every").hasArg().argName("ticks")
+                .desc("the ticks between two checkpoints, defaults to 100000").build());
+        options.addOption(Option.builder().longOpt("resume").hasArg().argName("file")
+                .desc("continue the run saved in the given checkpoint instead of reading an input").build());
+        options.addOption(Option.builder().longOpt("archive").hasArg().argName("file")
+                .desc("every so many ticks, move the submissions that are final to fixed-size records in the given "
+                        + "file, see --archive-every, so that the heap only holds those still in progress").build());
+        options.addOption(Option.builder().longOpt("archive-every").hasArg().argName("ticks")
+                .desc("the ticks between two compactions into the archive, defaults to 10000").build());
+        options.addOption(Option.builder("w").longOpt("where").hasArg().argName("name=value,...")
+                .desc("only print the submissions selected by the given filters, e.g. lids=1;5,ticks=0:1000,"
+                        + "sequenceNumbers=0:2,outcome=passing, which prints graded submissions as they are graded; "
+                        + "see Query").build());
+        options.addOption(Option.builder("c").longOpt("config").hasArg().argName("name=value,...")
+                .desc("the parameters of the grading policy, e.g. passingPoints=250,reviewTicks=30; the names are "
+                        + "those of " + Config.DEFAULT).build());
+        options.addOption(Option.builder().longOpt("sweep").hasArg().argName("tick:name=value,...")
+                .desc("run a variant that switches to the given parameters at the given tick, forked from a shared "
+                        + "run of the ticks before it, and print its result; may be given more than once").build());
+        options.addOption(Option.builder().longOpt("what-if").hasArg().argName("lid:name=value,...;...")
+                .desc("rerun the input with the given learners edited, e.g. 7:start=1200,bias=-3;9:grade=70, from a "
+                        + "recorded run of it, and print what the rerun took; the names are start, bias and grade; "
+                        + "may be given more than once").build());
+        options.addOption(Option.builder().longOpt("what-if-every").hasArg().argName("ticks")
+                .desc("the ticks between two forks of the recorded run that reruns resume from, defaults to 1000")
+                .build());
+        options.addOption(Option.builder().longOpt("shards").hasArg().argName("n")
+                .desc("run the tick loop over n worker JVMs that share the pool over local sockets, see "
+                        + "ShardCoordinator").build());
+        options.addOption(Option.builder().longOpt("shard-jvm-options").hasArg().argName("options")
+                .desc("the space-separated options of the worker JVMs, e.g. -Xmx8g").build());
+        options.addOption(Option.builder().longOpt("journal").hasArg().argName("file")
+                .desc("journal the submissions, reviews, grades and state changes of a run of the tick loop to the "
+                        + "given file").build());
+        options.addOption(Option.builder().longOpt("query-journal").hasArg().argName("file")
+                .desc("print the events of the given journal instead of running, all of them or those selected by "
+                        + "--lid or --ticks").build());
+        options.addOption(Option.builder().longOpt("lid").hasArg().argName("lid")
+                .desc("with --query-journal, the events about the given learner").build());
+        options.addOption(Option.builder().longOpt("ticks").hasArg().argName("from:to")
+                .desc("with --query-journal, the events at the ticks [from, to)").build());
+        options.addOption(Option.builder("r").longOpt("replicas").hasArg().argName("n")
+                .desc("run n perturbed replicas of the input in parallel and print their results").build());
+        options.addOption(Option.builder().longOpt("seed").hasArg().argName("seed")
+                .desc("the seed of the first replica, or of the generated learners, defaults to 0").build());
+        options.addOption(Option.builder().longOpt("start-jitter").hasArg().argName("ticks")
+                .desc("the most ticks a replica moves a first submission start tick, defaults to 0").build());
+        options.addOption(Option.builder().longOpt("bias-jitter").hasArg().argName("points")
+                .desc("the most points a replica moves a review bias, defaults to 0").build());
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("pra", options);
+            return;
+        }
+        if (cmd.hasOption("query-journal")) {
+            queryJournal(Paths.get(cmd.getOptionValue("query-journal")), cmd.getOptionValue("lid"),
+                    cmd.getOptionValue("ticks"));
+            return;
+        }
+        int threads = Integer.parseInt(cmd.getOptionValue("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        PopulationGenerator generator = cmd.hasOption("generate") ? generator(cmd) : null;
+        if (cmd.hasOption("generate-to")) {
+            if (generator == null)
+                throw new IllegalArgumentException("--generate-to writes the learners of --generate");
+            generator.write(Paths.get(cmd.getOptionValue("generate-to")), threads);
+            return;
+        }
+        if (generator != null && (cmd.hasOption("input") || cmd.hasOption("resume")))
+            throw new IllegalArgumentException("generated learners replace the input");
+        String engine = cmd.getOptionValue("engine", "tick");
+        String poolType = cmd.getOptionValue("pool", "scan");
+        String store = cmd.getOptionValue("store", "objects");
+        if (!"objects".equals(store) && !"columnar".equals(store))
+            throw new IllegalArgumentException("unknown store: " + store);
+        ResultSink.Format format = ResultSink.Format.forName(cmd.getOptionValue("format", "text"));
+        SubmissionPool pool;
+        if (cmd.hasOption("policy") && !"scan".equals(poolType))
+            throw new IllegalArgumentException("the indexed pool only hands out submissions in insertion order");
+        if (cmd.hasOption("policy") && ("columnar".equals(store) || cmd.hasOption("replicas")
+                || cmd.hasOption("sweep")))
+            throw new IllegalArgumentException("only a single run over the object store follows a review assignment "
+                    + "policy");
+        if (cmd.hasOption("hand-off") && (!"scan".equals(poolType) || cmd.hasOption("shards")
+                || cmd.hasOption("checkpoint") || cmd.hasOption("resume") || "columnar".equals(store)
+                || cmd.hasOption("replicas") || cmd.hasOption("sweep")))
+            throw new IllegalArgumentException("only the scan pool of a single run over the object store that is "
+                    + "neither sharded nor checkpointed hands off");
+        if ("scan".equals(poolType) && cmd.hasOption("hand-off"))
+            pool = SubmissionPool.handingOff(ReviewAssignmentPolicies.forName(cmd.getOptionValue("policy",
+                    "insertion-order")));
+        else if ("scan".equals(poolType))
+            pool = new SubmissionPool(ReviewAssignmentPolicies.forName(cmd.getOptionValue("policy",
+                    "insertion-order")));
+        else if ("indexed".equals(poolType))
+            pool = new IndexedSubmissionPool();
+        else
+            throw new IllegalArgumentException("unknown pool: " + poolType);
+        boolean stretched = cmd.hasOption("metrics") || cmd.hasOption("checkpoint") || cmd.hasOption("resume")
+                || cmd.hasOption("archive");
+        if (stretched && ("columnar".equals(store) || cmd.hasOption("replicas") || cmd.hasOption("sweep")
+                || cmd.hasOption("what-if")))
+            throw new IllegalArgumentException("metrics, checkpoints and archives are only kept for a single run of "
+                    + "the object store");
+        if (cmd.hasOption("stats") && ("stream".equals(engine) || "columnar".equals(store) || cmd.hasOption("sweep")
+                || cmd.hasOption("what-if") || cmd.hasOption("shards")))
+            throw new IllegalArgumentException("statistics are only gathered over the object store, by a single run or "
+                    + "replicas");
+        RunStatistics statistics = cmd.hasOption("stats") ? new RunStatistics() : null;
+        Config config = Config.parse(cmd.getOptionValue("config", ""));
+        Query query = Query.parse(cmd.getOptionValue("where", ""));
+        if (cmd.hasOption("where") && ("stream".equals(engine) || "columnar".equals(store) || cmd.hasOption("replicas")
+                || cmd.hasOption("sweep") || cmd.hasOption("what-if") || cmd.hasOption("shards")
+                || cmd.hasOption("journal")))
+            throw new IllegalArgumentException("only a single run of the tick, event or parallel loop over the object "
+                    + "store is filtered");
+        if (cmd.hasOption("resume") && cmd.hasOption("config"))
+            throw new IllegalArgumentException("a resumed run follows the parameters of its checkpoint");
+        if (cmd.hasOption("what-if") && !"tick".equals(engine) && !"event".equals(engine))
+            throw new IllegalArgumentException("a what-if records its run on the event loop, which gives the tick "
+                    + "loop's output, not on the " + engine + " engine");
+        if (cmd.hasOption("what-if") && (cmd.hasOption("resume") || cmd.hasOption("replicas") || cmd.hasOption("sweep")
+                || !"scan".equals(poolType) || cmd.hasOption("policy") || cmd.hasOption("hand-off")
+                || "columnar".equals(store)))
+            throw new IllegalArgumentException("a what-if records a single run of the input over the object store in "
+                    + "insertion order");
+        if (cmd.hasOption("shards") && (stretched || cmd.hasOption("replicas") || cmd.hasOption("sweep")
+                || cmd.hasOption("what-if") || cmd.hasOption("policy") || "columnar".equals(store)
+                || !"tick".equals(engine)))
+            throw new IllegalArgumentException("shards only run a single run of the tick loop over the object store");
+        if (cmd.hasOption("realtime") && (stretched || cmd.hasOption("engine") || cmd.hasOption("shards")
+                || cmd.hasOption("journal") || cmd.hasOption("replicas") || cmd.hasOption("sweep")
+                || cmd.hasOption("what-if") || "columnar".equals(store)))
+            throw new IllegalArgumentException("the real-time loop only runs a single run of the object store");
+        if (cmd.hasOption("journal") && (stretched || cmd.hasOption("shards") || cmd.hasOption("replicas")
+                || cmd.hasOption("sweep") || cmd.hasOption("what-if") || "columnar".equals(store)
+                || !"tick".equals(engine)))
+            throw new IllegalArgumentException("only a single run of the tick loop over the object store is journaled");
+        if ("stream".equals(engine)) {
+            if (stretched || "columnar".equals(store) || cmd.hasOption("replicas") || cmd.hasOption("what-if"))
+                throw new IllegalArgumentException("the stream engine only runs a single run of the object store");
+            if (generator != null)
+                throw new IllegalArgumentException("the stream engine reads its learners");
+            stream(cmd.getOptionValue("input"), pool, config, cmd.getOptionValue("output"),
+                    format);
+            return;
+        }
+        Checkpoint resumed = cmd.hasOption("resume") ? Checkpoint.read(Paths.get(cmd.getOptionValue("resume")), pool)
+                : null;
+        InputLoader.Input input = resumed != null ? null : generator != null ? generator.generate(threads)
+                : cmd.hasOption("input")
+                ? InputLoader.load(Paths.get(cmd.getOptionValue("input")), threads)
+                : InputLoader.load(System.in, threads);
+        int ticks = resumed != null ? resumed.ticks : input.ticks;
+        if (cmd.hasOption("sweep")) {
+            if (resumed != null)
+                throw new IllegalArgumentException("a sweep starts from the input");
+            List<ParameterSweep.Variant> variants = new ArrayList<>();
+            for (String spec : cmd.getOptionValues("sweep"))
+                variants.add(ParameterSweep.Variant.parse(spec));
+            Scenario scenario = Scenario.of(ticks, input.learners(config)).withJitter(
+                    Integer.parseInt(cmd.getOptionValue("start-jitter", "0")),
+                    Integer.parseInt(cmd.getOptionValue("bias-jitter", "0")));
+            List<ReplicaRunner.Result> results = ParameterSweep.run(scenario,
+                    Long.parseLong(cmd.getOptionValue("seed", "0")), variants, threads);
+            for (ReplicaRunner.Result result : results)
+                System.out.println(variants.get(result.replica) + " " + result);
+            return;
+        }
+        if (cmd.hasOption("what-if")) {
+            WhatIf whatIf = WhatIf.record(ticks, input.learners(config),
+                    Integer.parseInt(cmd.getOptionValue("what-if-every", "1000")));
+            for (String spec : cmd.getOptionValues("what-if")) {
+                List<WhatIf.Edit> edits = new ArrayList<>();
+                for (String edit : spec.split(";"))
+                    edits.add(WhatIf.Edit.parse(edit));
+                System.out.println(edits + " " + whatIf.rerun(edits));
+            }
+            return;
+        }
+        if (cmd.hasOption("replicas")) {
+            Set<Learner> learners = input.learners(config);
+            Scenario scenario = Scenario.of(ticks, learners).withJitter(
+                    Integer.parseInt(cmd.getOptionValue("start-jitter", "0")),
+                    Integer.parseInt(cmd.getOptionValue("bias-jitter", "0")));
+            ReplicaRunner.Summary summary = ReplicaRunner.run(scenario, Integer.parseInt(cmd.getOptionValue("replicas")),
+                    Long.parseLong(cmd.getOptionValue("seed", "0")), threads, System.out::println, statistics);
+            System.out.println(summary);
+            report(statistics);
+            return;
+        }
+        try (ResultSink sink = new ResultSink(outputChannel(cmd.getOptionValue("output")),
+                format)) {
+            if (cmd.hasOption("shards")) {
+                String jvmOptions = cmd.getOptionValue("shard-jvm-options", "").trim();
+                ShardCoordinator.run(ticks, input.learners(config), Integer.parseInt(cmd.getOptionValue("shards")),
+                        !"scan".equals(poolType), ShardCoordinator.Launch.PROCESSES,
+                        jvmOptions.isEmpty() ? Collections.emptyList() : Arrays.asList(jvmOptions.split("\\s+")),
+                        sink::write);
+                return;
+            }
+            if ("columnar".equals(store)) {
+                LearnerStore columns = input.store(config);
+                columns.run(0, ticks, s -> columns.writeTo(s, sink));
+                return;
+            }
+            Set<Learner> learners = resumed != null ? resumed.learners() : input.learners(config);
+            int start = resumed != null ? resumed.tick : 0;
+            SubmissionPool observed = statistics != null ? statistics.observe(pool) : pool;
+            if (cmd.hasOption("realtime")) {
+                double millisPerTick = Double.parseDouble(cmd.getOptionValue("realtime"));
+                if (!(millisPerTick >= 0))
+                    throw new IllegalArgumentException("invalid tick duration: " + millisPerTick + "ms");
+                RealTimeLoop.Pacing pacing = RealTimeLoop.run(start, ticks, learners, observed,
+                        Math.round(millisPerTick * 1_000_000), query, sink);
+                System.err.println(pacing);
+                report(statistics);
+                return;
+            }
+            if (cmd.hasOption("journal")) {
+                try (Journal.Writer journal = Journal.Writer.create(Paths.get(cmd.getOptionValue("journal")),
+                        observed)) {
+                    journal.run(start, ticks, learners, sink);
+                    journal.finish();
+                }
+                report(statistics);
+                return;
+            }
+            // the parallel loop runs every stretch on the same threads
+            ForkJoinPool forkJoinPool = "parallel".equals(engine) ? new ForkJoinPool(threads) : null;
+            try {
+                if (!stretched) {
+                    run(engine, start, ticks, learners, observed, forkJoinPool, query, sink);
+                    report(statistics);
+                    return;
+                }
+                int metricsEvery = positive("metrics interval", cmd.getOptionValue("metrics", "0"), ticks);
+                int checkpointEvery = positive("checkpoint interval", cmd.getOptionValue("checkpoint-every", "100000"),
+                        ticks);
+                int archiveEvery = positive("archive interval", cmd.getOptionValue("archive-every", "10000"), ticks);
+                Metrics metrics = cmd.hasOption("metrics") ? new Metrics().register() : null;
+                SubmissionPool sPool = metrics != null ? metrics.meter(observed) : observed;
+                // numbers the learners up front, so that a checkpoint is saved while the next stretch runs
+                Checkpoint.Series checkpoints = cmd.hasOption("checkpoint") ? Checkpoint.Series.of(learners) : null;
+                try (SubmissionArchive archive = cmd.hasOption("archive")
+                        ? SubmissionArchive.file(Paths.get(cmd.getOptionValue("archive"))) : null) {
+                    // every engine produces the same output when run in consecutive stretches of ticks
+                    for (int from = start; from < ticks; ) {
+                        int to = Math.min(ticks, Math.min(nextMultiple(from, metricsEvery),
+                                Math.min(nextMultiple(from, checkpointEvery), nextMultiple(from, archiveEvery))));
+                        run(engine, from, to, learners, sPool, forkJoinPool, query, sink);
+                        if (archive != null && to % archiveEvery == 0 && to < ticks) {
+                            if (checkpoints != null)
+                                checkpoints.await(); // compacting does not save the learners it changes
+                            archive.compact(learners, pool);
+                        }
+                        if (metrics != null && (to % metricsEvery == 0 || to == ticks))
+                            System.err.println(metrics.snapshot(to, learners));
+                        if (checkpoints != null && to % checkpointEvery == 0 && to < ticks)
+                            checkpoints.start(Paths.get(cmd.getOptionValue("checkpoint")), to, ticks, pool);
+                        from = to;
+                    }
+                } finally {
+                    if (checkpoints != null)
+                        checkpoints.await();
+                }
+                report(statistics);
+            } finally {
+                if (forkJoinPool != null)
+                    forkJoinPool.shutdown();
+            }
+        }
+    }
+
+    private static void report(RunStatistics statistics) {
+        if (statistics != null)
+            System.err.println(statistics);
+    }
+
+    private static PopulationGenerator generator(CommandLine cmd) {
+        String[] spec = cmd.getOptionValue("generate").split(":");
+        if (spec.length != 2)
+            throw new IllegalArgumentException("expected ticks:learners: " + cmd.getOptionValue("generate"));
+        int ticks = Integer.parseInt(spec[0]);
+        PopulationGenerator generator = PopulationGenerator.of(ticks, Integer.parseInt(spec[1]))
+                .withSeed(Long.parseLong(cmd.getOptionValue("seed", "0")));
+        if (cmd.hasOption("arrivals"))
+            generator = generator.withArrivals(PopulationGenerator.Distribution.parse(cmd.getOptionValue("arrivals"),
+                    ticks));
+        if (cmd.hasOption("grades"))
+            generator = generator.withGrades(PopulationGenerator.Distribution.parse(cmd.getOptionValue("grades"),
+                    ticks));
+        if (cmd.hasOption("biases"))
+            generator = generator.withBiases(PopulationGenerator.Distribution.parse(cmd.getOptionValue("biases"),
+                    ticks));
+        return generator;
+    }
+
+    private static void stream(String file, SubmissionPool pool, Config config, String output,
+                               ResultSink.Format format) {
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(
+                file == null ? System.in : Files.newInputStream(Paths.get(file)), StandardCharsets.US_ASCII));
+             ResultSink sink = new ResultSink(outputChannel(output), format)) {
+            String ticksLine = lines.readLine(), countLine = lines.readLine();
+            if (countLine == null)
+                throw new IllegalArgumentException("expected the number of ticks and of learners");
+            int ticks = Integer.parseInt(ticksLine.trim());
+            int count = Integer.parseInt(countLine.trim());
+            StreamingLoop loop = new StreamingLoop(pool, 1 << 12);
+            loop.enrollInBackground(lines, count, config);
+            loop.run(ticks, sink);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void queryJournal(Path file, String lid, String ticks) {
+        Journal.Reader journal = Journal.Reader.open(file);
+        Consumer<Journal.Event> print = System.out::println;
+        if (lid != null) {
+            journal.about(Integer.parseInt(lid)).forEach(print);
+        } else if (ticks != null) {
+            String[] range = ticks.split(":", 2);
+            if (range.length != 2)
+                throw new IllegalArgumentException("expected from:to: " + ticks);
+            journal.between(Long.parseLong(range[0].trim()), Long.parseLong(range[1].trim())).forEach(print);
+        } else {
+            journal.forEach(print);
+        }
+    }
+
+    /** @return the given interval, or {@code otherwise} for 0 */
+    private static int positive(String what, String value, int otherwise) {
+        int interval = Integer.parseInt(value);
+        if (interval < 0)
+            throw new IllegalArgumentException("invalid " + what + ": " + interval);
+        return interval == 0 ? Math.max(1, otherwise) : interval;
+    }
+
+    private static int nextMultiple(int from, int interval) {
+        return (int) Math.min(Integer.MAX_VALUE, ((long) from / interval + 1) * interval);
+    }
+
+    private static void run(String engine, int fromInc, int toExc, Set<Learner> learners, SubmissionPool pool,
+                            ForkJoinPool forkJoinPool, Query query, Consumer<Submission> consumer) {
+        if ("event".equals(engine))
+            EventLoop.run(fromInc, toExc, learners, pool, query, consumer);
+        else if ("tick".equals(engine))
+            mainLoop(fromInc, toExc, learners, pool, query, consumer);
+        else if ("parallel".equals(engine))
+            ParallelLoop.run(fromInc, toExc, learners, pool, forkJoinPool, query, consumer);
+        else
+            throw new IllegalArgumentException("unknown engine: " + engine);
+    }
+
+    private static WritableByteChannel outputChannel(String file) {
+        if (file == null)
+            return new FileOutputStream(FileDescriptor.out).getChannel();
+        try {
+            return FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     static Object[] processInput(InputStream is) {
-        Scanner scanner = new Scanner(is);
-        Integer ticks = Integer.parseInt(scanner.nextLine().trim());
-        int nLearners = Integer.parseInt(scanner.nextLine().trim());
-        Set<Learner> learners = new HashSet<>(nLearners);
-        IntStream.range(0, nLearners).forEach(lid -> learners.add(Learner.fromInputLine(scanner.nextLine().trim())));
-        return new Object[] {ticks, learners};
+        InputLoader.Input input = InputLoader.load(is, 1);
+        return new Object[] {input.ticks, input.learners()};
+    }
+
+    /**
+     * Same as {@linkplain #processInput(InputStream)}, but reads the learners straight into a {@linkplain LearnerStore}.
+     */
+    static Object[] processColumnarInput(InputStream is) {
+        InputLoader.Input input = InputLoader.load(is, 1);
+        return new Object[] {input.ticks, input.store()};
+    }
+
+    static void mainLoop(int fromInc, int toExc, Set<Learner> learners, Consumer<Submission> consumer) {
+        mainLoop(fromInc, toExc, learners, new SubmissionPool(), consumer);
+    }
+
+    /**
+     * Same as {@linkplain #mainLoop(int, int, Set, SubmissionPool, Consumer)}, but only hands the submissions the given
+     * query selects to the consumer, which is never given a {@code null}.
+     */
+    static void mainLoop(int fromInc, int toExc, Set<Learner> learners, SubmissionPool sPool, Query query,
+                         Consumer<Submission> consumer) {
+        Learner[] order = learners.toArray(new Learner[learners.size()]);
+        boolean[] covered = query.covered(order);
+        SubmissionPool pool = query.reportingGrades(sPool, consumer);
+        for (int i = fromInc; i < toExc; i++) {
+            for (int k = 0; k < order.length; k++) {
+                final Submission returned = order[k].respondTo(i, pool);
+                if (returned != null && covered[k] && query.reportsEntry(returned))
+                    consumer.accept(returned);
+            }
+        }
     }
 
-    private static void mainLoop(int fromInc, int toExc, Set<Learner> learners, Consumer<Submission> consumer) {
-        SubmissionPool sPool = new SubmissionPool();
+    static void mainLoop(int fromInc, int toExc, Set<Learner> learners, SubmissionPool sPool,
+                         Consumer<Submission> consumer) {
+        Learner[] order = learners.toArray(new Learner[learners.size()]); // iterated without an iterator per tick
         for (int i = fromInc; i < toExc; i++) {
             // i is the "current" firstSubmissionStartTick
-            TimeTick curr = new TimeTick(i);
-//            System.out.println("curr tick: " + curr);
-            Iterator<Learner> iter = learners.iterator();
-            while (iter.hasNext()) {
-                Learner learner = iter.next();
-                final Submission returned = learner.respondTo(curr, sPool);
+//            System.out.println("curr tick: " + i);
+            for (Learner learner : order) {
+                final Submission returned = learner.respondTo(i, sPool);
                 consumer.accept(returned);
             }
         }
@@ -0,0 +1,258 @@
+package org.kedar.pra;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ *     A tick-stepping main loop that accepts new {@linkplain Learner}s while it runs, for when enrollment comes in
+ *     continuously rather than as a whole population up front. Learners are {@linkplain #enroll(Learner) enrolled}
+ *     from any thread through a bounded queue, which pushes back on the producer when the loop falls behind, and take
+ *     part from their first submission start tick on. Submissions are handed to the consumer as they enter review.
+ * </p>
+ * <p>
+ *     Before running a tick, the loop waits until it has been given a learner that starts after that tick, or until
+ *     enrollment is {@linkplain #close() closed}; so learners are best enrolled in the order of their start ticks. A
+ *     learner that arrives after the loop has passed its start tick joins at the next tick. Within a tick, learners
+ *     respond in the order they were enrolled in, so a population enrolled in the order of its start ticks gives the
+ *     same submissions as {@linkplain Simulator#mainLoop(int, int, java.util.Set, SubmissionPool, Consumer)} given
+ *     the same learners in the same order.
+ * </p>
+ * <p>
+ *     A learner that has {@linkplain Learner#isFinished() finished} is {@linkplain Learner#retire() retired} and no
+ *     longer visited, so memory and the cost of a tick are bounded by the active learners rather than by all those
+ *     ever enrolled.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class StreamingLoop {
+
+    private static final Arrival END = new Arrival(null, Long.MAX_VALUE, Long.MAX_VALUE);
+    private static final Comparator<Arrival> BY_START = (a, b) -> a.start != b.start
+            ? Long.compare(a.start, b.start) : Long.compare(a.seq, b.seq);
+
+    private final SubmissionPool pool;
+    private final BlockingQueue<Arrival> arrivals;
+    private final int capacity;
+    private final PriorityQueue<Arrival> pending = new PriorityQueue<>(BY_START); // taken, but not started yet
+    private final List<Arrival> joining = new ArrayList<>();
+    private Arrival[] active = new Arrival[16]; // in the order of enrollment
+    private Arrival[] next = new Arrival[16];
+    private int activeCount;
+    private long enrolled; // on the producer side
+    private long taken;
+    private long retired;
+    private long horizon = -1; // the latest start tick taken so far
+    private long tick;
+    private boolean ended;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    /**
+     * @param pool     the pool the learners use, initially empty
+     * @param capacity how many learners may be enrolled ahead of the loop
+     */
+    public StreamingLoop(SubmissionPool pool, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        this.pool = pool;
+        this.capacity = capacity;
+        this.arrivals = new ArrayBlockingQueue<>(capacity + 1); // one more for END
+    }
+
+    /**
+     * Hands a new learner to the loop, waiting while the queue is full.
+     *
+     * @throws IllegalStateException if enrollment is closed
+     */
+    public synchronized void enroll(Learner learner) {
+        if (learner == null)
+            throw new IllegalArgumentException("null learner");
+        if (closed)
+            throw new IllegalStateException("enrollment is closed");
+        put(new Arrival(learner, learner.firstSubmissionStartTick.getValue(), enrolled++));
+    }
+
+    /**
+     * Tells the loop that no more learners will be enrolled, so that it can run ticks no one else starts at.
+     */
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        put(END);
+    }
+
+    /**
+     * Closes enrollment because the producer failed; the loop rethrows the failure once it gets to it.
+     */
+    public synchronized void fail(Throwable cause) {
+        failure = cause;
+        close();
+    }
+
+    private void put(Arrival arrival) {
+        try {
+            arrivals.put(arrival);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while enrolling", e);
+        }
+    }
+
+    /**
+     * Enrolls the learner lines of the input read by {@linkplain Simulator#processInput(java.io.InputStream)} on a
+     * background thread, then closes enrollment.
+     *
+     * @param lines  the input, past the line with the number of learners
+     * @param count  the number of learner lines to read
+     * @param config the parameters the learners follow
+     */
+    public void enrollInBackground(BufferedReader lines, int count, Config config) {
+        Thread producer = new Thread(() -> {
+            try {
+                String line;
+                for (int i = 0; i < count && (line = lines.readLine()) != null; ) {
+                    line = line.trim();
+                    if (line.isEmpty())
+                        continue;
+                    enroll(Learner.fromInputLine(line, config));
+                    i++;
+                }
+                close();
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }, "streaming-enrollment");
+        producer.setDaemon(true); // may still be waiting on a full queue when the run ends
+        producer.start();
+    }
+
+    /**
+     * Runs the ticks from where the last run stopped, or from 0, up to the given one, handing each submission that
+     * enters review to the given consumer. Unlike the tick-stepping loop, the consumer is never given a {@code null}.
+     *
+     * @param toExc    the last tick, exclusive
+     * @param consumer the consumer of the submissions
+     * @throws IllegalStateException if the producer failed, or if interrupted while waiting for learners
+     */
+    public void run(int toExc, Consumer<Submission> consumer) {
+        for (; tick < toExc; tick++) {
+            admit(tick);
+            step(tick, consumer);
+        }
+    }
+
+    /**
+     * Takes arrivals until one starts after the given tick, and whatever else has already arrived as long as that
+     * does not hold more than {@code capacity} learners back; then merges those that start by the tick into the
+     * active ones.
+     */
+    private void admit(long at) {
+        try {
+            while (!ended && horizon <= at)
+                take(arrivals.take());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for learners at tick " + at, e);
+        }
+        Arrival arrival;
+        while (!ended && pending.size() < capacity && (arrival = arrivals.poll()) != null)
+            take(arrival);
+        while (!pending.isEmpty() && pending.peek().start <= at)
+            joining.add(pending.poll());
+        if (joining.isEmpty())
+            return;
+        joining.sort(Comparator.comparingLong(a -> a.seq));
+        int n = activeCount + joining.size();
+        if (next.length < n)
+            next = new Arrival[Math.max(n, next.length * 2)];
+        int i = 0, j = 0, k = 0;
+        while (i < activeCount || j < joining.size()) {
+            if (j == joining.size() || i < activeCount && active[i].seq < joining.get(j).seq)
+                next[k++] = active[i++];
+            else
+                next[k++] = joining.get(j++);
+        }
+        joining.clear();
+        swap(k);
+    }
+
+    private void take(Arrival arrival) {
+        if (arrival == END) {
+            ended = true;
+            if (failure != null)
+                throw new IllegalStateException("enrollment failed", failure);
+            return;
+        }
+        pending.add(arrival);
+        taken++;
+        horizon = Math.max(horizon, arrival.start);
+    }
+
+    private void step(long at, Consumer<Submission> consumer) {
+        if (next.length < activeCount)
+            next = new Arrival[active.length];
+        int k = 0;
+        for (int i = 0; i < activeCount; i++) {
+            Learner learner = active[i].learner;
+            Submission returned = learner.respondTo(at, pool);
+            if (returned != null)
+                consumer.accept(returned);
+            if (learner.isFinished()) {
+                learner.retire();
+                retired++;
+            } else
+                next[k++] = active[i];
+        }
+        swap(k);
+    }
+
+    private void swap(int count) {
+        Arrival[] previous = active;
+        active = next;
+        next = previous;
+        Arrays.fill(next, 0, activeCount, null); // no longer reachable through the spare array
+        activeCount = count;
+    }
+
+    /** @return the next tick to run */
+    public long tick() {
+        return tick;
+    }
+
+    /** @return the learners taking part, or enrolled and yet to start */
+    public long active() {
+        return activeCount + pending.size();
+    }
+
+    /** @return the learners the loop has taken in so far */
+    public long enrolled() {
+        return taken;
+    }
+
+    /** @return the learners that have finished and are no longer visited */
+    public long retired() {
+        return retired;
+    }
+
+    private static final class Arrival {
+        final Learner learner;
+        final long start;
+        final long seq; // the order of enrollment
+
+        Arrival(Learner learner, long start, long seq) {
+            this.learner = learner;
+            this.start = start;
+            this.seq = seq;
+        }
+    }
+}
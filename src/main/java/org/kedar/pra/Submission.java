@@ -1,10 +1,7 @@
 package org.kedar.pra;
 
-import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.Map;
 
-import static org.kedar.pra.Config.*;
 import static org.kedar.pra.SubmissionState.*;
 
 /**
@@ -22,11 +19,20 @@ public final class Submission {
      * Assignment ID, modeled an int, could be a String
      */
     final int aid;
-    final TimeTick tick;
+    /** the tick this submission was started at */
+    final long tick;
     SubmissionState state;
     final LinkedList<Learner> reviewers;
     final int sequenceNumber;
-    private final Map<Learner, TimeTick> reviewerTicks;
+    long lastReviewTick = -1; // the tick of the latest review
+    /** the tick the work on this submission is done at, see {@linkplain Config#workTicks} */
+    final long workDoneTick;
+    /**
+     * the sum of the review biases of the first {@code summedReviews} reviewers, kept up to date by
+     * {@linkplain #provideReview(Learner, long)}
+     */
+    private int reviewBiasSum;
+    private int summedReviews;
 
     /**
      * Constructs an instance of this class. Uses the telescoping constructor pattern which could be retrofitted to
@@ -39,7 +45,16 @@ public final class Submission {
      */
     Submission(Learner owner, int aid, TimeTick tick,
                SubmissionState state, LinkedList<Learner> reviewers, int sequenceNumber) {
-        if (owner == null || tick == null || state == null)
+        this(owner, aid, tick == null ? -1 : tick.getValue(), state, reviewers, sequenceNumber);
+    }
+
+    /**
+     * Same as {@linkplain #Submission(Learner, int, TimeTick, SubmissionState, LinkedList, int)}, with the tick as a
+     * plain value.
+     */
+    Submission(Learner owner, int aid, long tick,
+               SubmissionState state, LinkedList<Learner> reviewers, int sequenceNumber) {
+        if (owner == null || tick < 0 || state == null)
             throw new IllegalArgumentException("invalid owner, tick, or state: " + owner + ", " + tick + ", " + state);
         this.owner = owner;
         this.aid = aid;
@@ -47,7 +62,10 @@ public final class Submission {
         this.state = state;
         this.reviewers = reviewers;
         this.sequenceNumber = sequenceNumber;
-        this.reviewerTicks = new HashMap<>();
+        this.workDoneTick = tick + owner.config.workTicks;
+        for (Learner reviewer : reviewers)
+            reviewBiasSum += reviewer.reviewBias;
+        summedReviews = reviewers.size();
     }
 
     /**
@@ -69,48 +87,81 @@ public final class Submission {
         return "lid: " + owner.lid + ", aid: " + aid + ", time firstSubmissionStartTick: " + tick + ", number of reviews: " + reviewers.size() + ", " + ", state: " + state;
     }
 
+    /**
+     * @return the tick this submission was started at
+     */
+    public TimeTick getTick() {
+        return new TimeTick(tick);
+    }
+
     public boolean isComplete(TimeTick at) {
+        return isComplete(at.getValue());
+    }
+
+    /**
+     * Same as {@linkplain #isComplete(TimeTick)}; the primitive overloads of this class let the main loops run
+     * without a {@linkplain TimeTick} per tick.
+     */
+    public boolean isComplete(long at) {
         if (this.state == COMPLETE)
             return true;
-        if (at.getValue() - this.tick.getValue() >= Config.WORK_TICKS) {
+        if (at >= workDoneTick) {
             return true;
         }
         return false;
     }
 
     public boolean isReviewable() {
-        return this.reviewers.size() < REVIEWS_REQUIRED_PER_SUBMISSION; // TODO >=0?
+        return this.reviewers.size() < owner.config.reviewsRequiredPerSubmission; // TODO >=0?
     }
 
+    /**
+     * @return the true grade of the owner per review plus the review biases of the reviewers, which are summed up as
+     * the reviews come in
+     */
     public int currentScore() {
         int rs = reviewers.size();
-        int score = owner.trueGrade * rs;
+        if (rs == summedReviews)
+            return owner.trueGrade * rs + reviewBiasSum;
+        int score = owner.trueGrade * rs; // the reviewers were added to directly
         for (Learner reviewer : reviewers) {
             score += reviewer.reviewBias;
         }
         return score;
     }
     public boolean isFailing(TimeTick at) {
-        return state == FAILING || isComplete(at) && currentScore() < PASSING_POINTS;
+        return isFailing(at.getValue());
+    }
+
+    public boolean isFailing(long at) {
+        return state == FAILING || isComplete(at) && currentScore() < owner.config.passingPoints;
     }
 
     public boolean isSubmittedToReview(TimeTick at) {
+        return isSubmittedToReview(at.getValue());
+    }
+
+    public boolean isSubmittedToReview(long at) {
         return this.state == SUBMITTED_TO_REVIEW;
     }
 
     public boolean isPassing(TimeTick at) {
-        return state == PASSING || isComplete(at) && currentScore() >= PASSING_POINTS;
+        return isPassing(at.getValue());
+    }
+
+    public boolean isPassing(long at) {
+        return state == PASSING || isComplete(at) && currentScore() >= owner.config.passingPoints;
     }
 
     // Private business
     private void ensureComplete(TimeTick at) {
         if (!isComplete(at))
-            throw new IllegalStateException("provideReview number mismatch, expected: " + REVIEWS_REQUIRED_PER_SUBMISSION + ", found: " + reviewers.size());
+            throw new IllegalStateException("provideReview number mismatch, expected: " + owner.config.reviewsRequiredPerSubmission + ", found: " + reviewers.size());
     }
 
     private void ensureReviewable() {
         if (!isReviewable())
-            throw new IllegalStateException("number of reviews: " + this.reviewers.size() + " is not smaller than required: " + REVIEWS_REQUIRED_PER_SUBMISSION);
+            throw new IllegalStateException("number of reviews: " + this.reviewers.size() + " is not smaller than required: " + owner.config.reviewsRequiredPerSubmission);
 
     }
 
@@ -132,18 +183,34 @@ public final class Submission {
         return buf.toString();
     }
 
-    private int gradeTick() {
-        if (this.reviewers.size() < REVIEWS_REQUIRED_PER_SUBMISSION)
+    /**
+     * @return the tick of the review that completed the grade, or -1 if the submission is not fully reviewed yet
+     */
+    int gradeTick() {
+        if (this.reviewers.size() < owner.config.reviewsRequiredPerSubmission)
             return -1;
-        return (int) this.reviewerTicks.get(this.reviewers.peekLast()).getValue();
+        return (int) this.lastReviewTick;
     }
 
     public void provideReview(Learner learner, TimeTick at) {
+        provideReview(learner, at.getValue());
+    }
+
+    public void provideReview(Learner learner, long at) {
+        owner.saveForCheckpoint();
+        if (summedReviews == reviewers.size()) {
+            reviewBiasSum += learner.reviewBias;
+            summedReviews++;
+        }
         this.reviewers.addLast(learner);
-        this.reviewerTicks.put(learner, at);
+        this.lastReviewTick = at;
     }
 
     public boolean isPending(TimeTick at) {
-        return at.getValue() - this.tick.getValue() < WORK_TICKS;
+        return isPending(at.getValue());
+    }
+
+    public boolean isPending(long at) {
+        return at < workDoneTick;
     }
 }
@@ -0,0 +1,247 @@
+package org.kedar.pra;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>
+ *     Keeps the history of a run out of the heap. A learner keeps all its submissions, but only ever consults its
+ *     latest one, so in a long run with many failing learners the heap grows with the submissions ever made.
+ *     {@linkplain #compact(Collection, SubmissionPool)} moves a learner's oldest submissions, as long as they are
+ *     final, into fixed-size records, which are kept in direct buffers or written to a file; the learner keeps its
+ *     latest submission and any that are still in review.
+ * </p>
+ * <p>
+ *     A submission is final once it is not its owner's latest, it is not in the pool, and no learner holds it for a
+ *     review yet to be provided. That is the case once it has all the reviews it needs, but also for the many
+ *     submissions whose reviewer started over on its own submission before reviewing them, which are never seen
+ *     again. The reviewers of a final submission may still hold it among the reviews they have done, but only count
+ *     it, so compacting it replaces it there by a {@code null}, see {@linkplain Learner#forgetReview(Submission)}.
+ *     Nothing in the simulation refers to it any more, so compacting changes nothing about the run, as long as the
+ *     reviews required per learner are not raised afterwards. A learner's submissions still have consecutive sequence
+ *     numbers, from that of its oldest one left. A record is {@value #RECORD_BYTES} big-endian bytes:
+ * </p>
+ * <pre>
+ *     lid, sequence number, tick, score, grade tick, latest review tick, reviewers (byte), state (byte), 6 spare
+ * </pre>
+ * <p>
+ *     Records are appended in the order they are compacted, and an archive may be iterated over at any time.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class SubmissionArchive implements Iterable<SubmissionArchive.Record>, AutoCloseable {
+
+    static final int RECORD_BYTES = 32;
+    private static final int CHUNK_RECORDS = 1 << 15;
+    private static final SubmissionState[] SUBMISSION_STATES = SubmissionState.values();
+
+    private final FileChannel file; // null if the records stay in memory
+    private final List<ByteBuffer> full = new ArrayList<>(); // the filled chunks, if the records stay in memory
+    private ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_BYTES);
+    private long size;
+
+    private SubmissionArchive(FileChannel file) {
+        this.file = file;
+    }
+
+    /**
+     * @return an archive that keeps its records in direct buffers, outside the heap
+     */
+    public static SubmissionArchive offHeap() {
+        return new SubmissionArchive(null);
+    }
+
+    /**
+     * @return an archive that writes its records to the given file, replacing any file there, and only keeps the
+     * latest chunk of them in memory
+     */
+    public static SubmissionArchive file(Path path) {
+        try {
+            return new SubmissionArchive(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A compacted submission.
+     */
+    public static final class Record {
+        public final int lid;
+        public final int sequenceNumber;
+        public final int tick;
+        public final int score;
+        /** the tick of the review that completed the grade, or -1 if the submission did not get all its reviews */
+        public final int gradeTick;
+        public final int lastReviewTick;
+        public final int reviewers;
+        public final SubmissionState state;
+
+        Record(int lid, int sequenceNumber, int tick, int score, int gradeTick, int lastReviewTick, int reviewers,
+               SubmissionState state) {
+            this.lid = lid;
+            this.sequenceNumber = sequenceNumber;
+            this.tick = tick;
+            this.score = score;
+            this.gradeTick = gradeTick;
+            this.lastReviewTick = lastReviewTick;
+            this.reviewers = reviewers;
+            this.state = state;
+        }
+
+        /**
+         * @return the same as {@linkplain Submission#toOutput()} of the submission
+         */
+        public String toOutput() {
+            return lid + " " + sequenceNumber + " " + tick + " " + score + " " + gradeTick;
+        }
+    }
+
+    /**
+     * Moves the final submissions at the front of every learner's submissions into this archive. Costs a pass over
+     * the pool, the learners and the reviews they have done.
+     *
+     * @param learners all the learners, between two ticks
+     * @param pool     the pool they use
+     * @return the number of submissions compacted
+     */
+    public long compact(Collection<Learner> learners, SubmissionPool pool) {
+        Set<Submission> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        pool.forEachInOrder(live::add);
+        for (Learner learner : learners) {
+            for (Submission s : learner.reviewsDone)
+                if (s != null && !s.reviewers.contains(learner))
+                    live.add(s); // yet to be reviewed
+            Submission latest = learner.reviewsDone.peekLast();
+            if (latest != null && learner.reviewsDone.size() < learner.config.reviewsRequiredPerLearner)
+                live.add(latest); // would be reviewed again, if the reviews required per learner were raised
+        }
+        long compacted = 0;
+        for (Learner learner : learners) {
+            Deque<Submission> submissions = learner.submissions;
+            while (submissions.size() > 1 && !live.contains(submissions.peekFirst())) {
+                Submission s = submissions.pollFirst();
+                append(s);
+                for (Learner reviewer : s.reviewers)
+                    reviewer.forgetReview(s);
+                compacted++;
+            }
+        }
+        return compacted;
+    }
+
+    private void append(Submission s) {
+        if (!chunk.hasRemaining())
+            flush();
+        chunk.putInt(s.owner.lid).putInt(s.sequenceNumber).putInt((int) s.tick).putInt(s.currentScore())
+                .putInt(s.gradeTick()).putInt((int) s.lastReviewTick).put((byte) s.reviewers.size())
+                .put((byte) s.state.ordinal()).putShort((short) 0).putInt(0);
+        size++;
+    }
+
+    private void flush() {
+        chunk.flip();
+        if (file == null) {
+            full.add(chunk);
+            chunk = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_BYTES);
+            return;
+        }
+        try {
+            while (chunk.hasRemaining())
+                file.write(chunk);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        chunk.clear();
+    }
+
+    /** @return the number of records */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the records compacted so far, in the order they were compacted; records compacted while iterating are
+     * not seen
+     */
+    @Override
+    public Iterator<Record> iterator() {
+        long n = size;
+        long inChunks = n - chunk.position() / RECORD_BYTES; // in the file or in the full chunks
+        ByteBuffer filled = chunk.duplicate();
+        filled.flip();
+        ByteBuffer latest = ByteBuffer.allocate(filled.remaining()).put(filled); // the chunk is reused once written
+        latest.flip();
+        return new Iterator<Record>() {
+            long next;
+            ByteBuffer buf = ByteBuffer.allocate(0);
+            int fullChunk;
+
+            @Override
+            public boolean hasNext() {
+                return next < n;
+            }
+
+            @Override
+            public Record next() {
+                if (next >= n)
+                    throw new NoSuchElementException();
+                if (!buf.hasRemaining())
+                    buf = next < inChunks ? chunk(next) : latest;
+                next++;
+                int lid = buf.getInt(), sequenceNumber = buf.getInt(), tick = buf.getInt(), score = buf.getInt();
+                int gradeTick = buf.getInt(), lastReviewTick = buf.getInt(), reviewers = buf.get();
+                SubmissionState state = SUBMISSION_STATES[buf.get()];
+                buf.position(buf.position() + 6); // spare
+                return new Record(lid, sequenceNumber, tick, score, gradeTick, lastReviewTick, reviewers, state);
+            }
+
+            private ByteBuffer chunk(long from) {
+                if (file == null)
+                    return full.get(fullChunk++).duplicate();
+                ByteBuffer read = ByteBuffer.allocate((int) Math.min(CHUNK_RECORDS, inChunks - from) * RECORD_BYTES);
+                try {
+                    for (long position = from * RECORD_BYTES; read.hasRemaining(); ) {
+                        int bytes = file.read(read, position);
+                        if (bytes < 0)
+                            throw new IllegalStateException("archive truncated at record " + from);
+                        position += bytes;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                read.flip();
+                return read;
+            }
+        };
+    }
+
+    /**
+     * Writes out the records still in memory, if the archive is a file, and closes it.
+     */
+    @Override
+    public void close() {
+        if (file == null)
+            return;
+        try {
+            flush();
+            file.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
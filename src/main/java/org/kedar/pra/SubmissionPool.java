@@ -3,7 +3,8 @@ package org.kedar.pra;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * <p>
@@ -11,47 +12,102 @@ import java.util.ListIterator;
  *     Provides API to submit and retrieve a submission.
  *     Note that all the Submissions in this pool must be in {@linkplain SubmissionState#IN_FLIGHT} state.
  * </p>
+ * <p>
+ *     Which submission a learner gets to review is up to the {@linkplain ReviewAssignmentPolicy} the pool is created
+ *     with, by default the oldest one it may review in the order they were added, see
+ *     {@linkplain ReviewAssignmentPolicies}.
+ * </p>
+ * <p>
+ *     A pool created {@linkplain #handingOff(ReviewAssignmentPolicy) handing off} parks a learner it has nothing for
+ *     in a queue of waiters, and answers it without looking at the submissions until something is handed to it: a
+ *     submission that is added goes straight to the learner that has waited the longest of those that may review it,
+ *     and only into the policy if there is none. The learner gets it at its next {@linkplain #retrieve(Learner)}, so a
+ *     starved pool costs a constant per waiter and tick, and a hand-off costs a constant too, as only the owner and
+ *     the reviewers of a submission are passed over. Waiters are served in the order they parked in, so the
+ *     assignments are deterministic, but they differ from those of a pool that is polled.
+ * </p>
  * Created by kedar on 10/15/16.
  */
 public class SubmissionPool {
 
-    /** Used for better iteration efficiency, since to be fair, the Submission that has been here the
-     * longest should be removed first.
-     */
-    private final LinkedHashSet<Submission> pool;
+    /** Holds the submissions, and decides which one is removed for a learner. */
+    private final ReviewAssignmentPolicy pool;
+    /** the learners the pool had nothing for, longest waiting first, or null if the pool does not hand off */
+    private final LinkedHashSet<Learner> waiters;
+    /** the submissions handed off and not retrieved yet, by learner, in the order they were handed off */
+    private final Map<Learner, Submission> handedOff;
+    private Submission lastHandedOff;
+    private Learner lastRecipient;
 
     public SubmissionPool() {
-        this.pool = new LinkedHashSet<>();
+        this(ReviewAssignmentPolicies.insertionOrder());
+    }
+
+    /**
+     * @param policy a policy that holds no submissions yet and is not used by any other pool
+     */
+    public SubmissionPool(ReviewAssignmentPolicy policy) {
+        this(policy, false);
+    }
+
+    private SubmissionPool(ReviewAssignmentPolicy policy, boolean handOff) {
+        if (policy == null)
+            throw new IllegalArgumentException("null policy");
+        if (policy.size() != 0)
+            throw new IllegalArgumentException("the policy holds submissions already: " + policy.size());
+        this.pool = policy;
+        this.waiters = handOff ? new LinkedHashSet<>() : null;
+        this.handedOff = handOff ? new LinkedHashMap<>() : null;
+    }
+
+    /**
+     * Only for a {@linkplain ForwardingSubmissionPool}, which checks the given pool and overrides every call to forward
+     * it there. This pool holds no policy, waiters or hand-offs, so no other subclass may use this constructor.
+     */
+    SubmissionPool(SubmissionPool delegate) {
+        this.pool = null;
+        this.waiters = null;
+        this.handedOff = null;
+    }
+
+    /**
+     * Creates a pool that hands the submissions added to it off to the learners waiting for one, and only keeps those
+     * that no waiter may review in the given policy.
+     *
+     * @param policy a policy that holds no submissions yet and is not used by any other pool
+     */
+    public static SubmissionPool handingOff(ReviewAssignmentPolicy policy) {
+        return new SubmissionPool(policy, true);
     }
+
     /**
      * Retrieves the Submissions that the given Learner should provideReview.
      * @param me
      * @return
      */
     public Submission retrieve(Learner me) {
-        //return pool.stream().filter(submission -> submission.lid != me.lid).findFirst().orElse(null);  // TODO more rules are required, so maybe we'll need to collect
-        Iterator<Submission> iter = pool.iterator();
-        while (iter.hasNext()) {
-            Submission next = iter.next();
-            if (next.owner.lid != me.lid && ! next.reviewers.contains(me)) {
-                iter.remove();
-                return next;
-            }
-        }
-        return null;
+        if (waiters == null)
+            return pool.take(me);
+        Submission submission = handedOff.remove(me);
+        if (submission != null || waiters.contains(me)) // nothing it may review has been added since it parked
+            return submission;
+        submission = pool.take(me);
+        if (submission == null)
+            waiters.add(me);
+        return submission;
     }
 
     public void submit(Submission submission) {
         if (! submission.isReviewable())
             throw new IllegalStateException("The given submission is not reviewable, since it has enough reviews" +
                     " already: " + submission.reviewers.size());
-        boolean added = pool.add(submission);
-        assert added : "Strange, serious bug, the submission: " + submission + " could not be added to the pool because it already exists there!";
+        if (!handOff(submission))
+            pool.add(submission);
     }
 
 
     public int size() {
-        return pool.size();
+        return waiters == null ? pool.size() : pool.size() + handedOff.size();
     }
 
     /** Same as {@linkplain #submit(Submission)}, but clarifies the purpose that this is the same
@@ -60,6 +116,59 @@ public class SubmissionPool {
      * @param reviewable
      */
     public void resubmit(Submission reviewable) {
-        pool.add(reviewable); // ignores return value TODO
+        if (!handOff(reviewable))
+            pool.add(reviewable);
+    }
+
+    /**
+     * Hands the given submission off to the longest waiting learner that still waits and may review it, if any.
+     * Learners that stopped waiting without retrieving anything, e.g. because their own submission failed, are
+     * dropped on the way; they find everything they may review in the policy when they ask again.
+     */
+    private boolean handOff(Submission submission) {
+        if (waiters == null)
+            return false;
+        lastHandedOff = null;
+        Iterator<Learner> iter = waiters.iterator();
+        while (iter.hasNext()) {
+            Learner waiter = iter.next();
+            if (!waiter.isAwaitingReviewable()) {
+                iter.remove();
+            } else if (ReviewAssignmentPolicy.mayReview(waiter, submission)) {
+                iter.remove();
+                handedOff.put(waiter, submission);
+                lastHandedOff = submission;
+                lastRecipient = waiter;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param added a submission just submitted or resubmitted
+     * @return the learner the given submission was handed off to, or {@code null} if it was not
+     */
+    Learner handedOffTo(Submission added) {
+        return added == lastHandedOff ? lastRecipient : null;
+    }
+
+    /**
+     * Called instead of {@linkplain #resubmit(Submission)} when the review just provided completed the grade of the
+     * given submission, which leaves the pool for good. Does nothing by default.
+     *
+     * @param graded the submission with all the reviews it needs
+     */
+    void graded(Submission graded) {
+    }
+
+    /**
+     * Hands the pooled submissions to the given consumer, oldest first, i.e. in the order they would be retrieved by a
+     * learner who may review all of them.
+     */
+    void forEachInOrder(Consumer<Submission> consumer) {
+        if (handedOff != null)
+            handedOff.values().forEach(consumer);
+        pool.forEachInOrder(consumer);
     }
 }
@@ -28,12 +28,21 @@ public final class TimeTick implements Comparable<TimeTick> {
     public boolean happensBefore(TimeTick that) {
         return this.compareTo(that) < 0;
     }
+    /**
+     * Same as {@linkplain #happensBefore(TimeTick)}, for a tick that is not wrapped.
+     */
+    public boolean happensBefore(long that) {
+        return this.value < that;
+    }
     public boolean isConcurrentWith(TimeTick that) {
         return this == that || this.compareTo(that) == 0;
     }
     public boolean happensAfter(TimeTick that) {
         return this.compareTo(that) > 0;
     }
+    public boolean happensAfter(long that) {
+        return this.value > that;
+    }
 
     public boolean elapsedSinceTo(int n, TimeTick newer) {
         // "this" was in the past, which means newer > this
@@ -0,0 +1,136 @@
+package org.kedar.pra;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ *     A hierarchical timing wheel of the wake ups of an {@linkplain EventLoop}, keyed like an {@linkplain EventQueue}:
+ *     the tick in the upper and the position of a learner in the lower 32 bits. There are {@value #LEVELS} levels of
+ *     {@value #SLOTS} slots each. A timer goes to the lowest level at which it falls within the current turn of the
+ *     level above, into the slot of its tick's digit at that level. As the wheel advances past a multiple of
+ *     {@code 256^L}, the slot of level {@code L} the new tick falls in is moved down a level or more, so a timer moves
+ *     at most {@value #LEVELS} times before it expires, and adding one costs the same however many are pending.
+ * </p>
+ * <p>
+ *     The timers of a slot form a linked list threaded through primitive arrays, so a million pending timers cost a
+ *     few arrays rather than a million objects. The timers due at the current tick are kept apart in a small heap, so
+ *     that they are polled in the order of the learners' positions, as the loop needs, and a timer added for the
+ *     current tick, for a learner further down the order, is still polled within it.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class TimingWheel implements EventLoop.Wakeups {
+
+    static final int LEVELS = 4;
+    static final int SLOTS = 256;
+    private static final int SLOT_BITS = 8;
+    private static final int NONE = -1;
+
+    private final int[] heads = new int[LEVELS * SLOTS];
+    private long[] keys = new long[SLOTS];
+    private int[] next = new int[SLOTS];
+    private int free = NONE; // the list of nodes to reuse
+    private int used; // the nodes ever used
+    private final EventQueue due = new EventQueue(SLOTS); // the keys of the current tick
+    private long now;
+    private int size;
+
+    /**
+     * @param now the first tick, which no timer may precede
+     */
+    public TimingWheel(long now) {
+        if (now < 0 || now >>> 32 != 0)
+            throw new IllegalArgumentException("invalid tick: " + now);
+        Arrays.fill(heads, NONE);
+        this.now = now;
+    }
+
+    /**
+     * Adds a timer, due at a tick no earlier than the current one, i.e. than the tick of the key last polled.
+     */
+    @Override
+    public void add(long key) {
+        long tick = key >>> 32;
+        if (tick < now)
+            throw new IllegalArgumentException("tick " + tick + " has passed already, the wheel is at " + now);
+        place(key);
+        size++;
+    }
+
+    private void place(long key) {
+        long tick = key >>> 32;
+        if (tick == now) {
+            due.add(key);
+            return;
+        }
+        int level = 0;
+        while ((tick >>> SLOT_BITS * (level + 1)) != (now >>> SLOT_BITS * (level + 1)))
+            level++; // ticks are below 2^32, so the top level always holds
+        int slot = level * SLOTS + (int) (tick >>> SLOT_BITS * level & SLOTS - 1);
+        int node = free;
+        if (node != NONE) {
+            free = next[node];
+        } else {
+            if (used == keys.length) {
+                keys = Arrays.copyOf(keys, used << 1);
+                next = Arrays.copyOf(next, used << 1);
+            }
+            node = used++;
+        }
+        keys[node] = key;
+        next[node] = heads[slot];
+        heads[slot] = node;
+    }
+
+    /**
+     * Removes and returns the earliest timer, advancing the wheel up to its tick.
+     */
+    @Override
+    public long poll() {
+        if (size == 0)
+            throw new NoSuchElementException("empty wheel");
+        while (due.isEmpty())
+            advance();
+        size--;
+        return due.poll();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** @return the current tick, that of the timer last polled or a later one */
+    public long now() {
+        return now;
+    }
+
+    private void advance() {
+        now++;
+        int top = 0; // the highest level that starts a new turn
+        while (top + 1 < LEVELS && (now & (1L << SLOT_BITS * (top + 1)) - 1) == 0)
+            top++;
+        for (int level = top; level >= 1; level--)
+            cascade(level * SLOTS + (int) (now >>> SLOT_BITS * level & SLOTS - 1));
+        cascade((int) (now & SLOTS - 1)); // every timer there is due now
+    }
+
+    /** Places the timers of the given slot anew, relative to the current tick. */
+    private void cascade(int slot) {
+        int node = heads[slot];
+        heads[slot] = NONE;
+        while (node != NONE) {
+            int following = next[node];
+            long key = keys[node];
+            next[node] = free;
+            free = node;
+            place(key);
+            node = following;
+        }
+    }
+}
@@ -0,0 +1,1284 @@
+package org.kedar.pra;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import static org.kedar.pra.SubmissionState.IN_FLIGHT;
+import static org.kedar.pra.SubmissionState.SUBMITTED_TO_REVIEW;
+
+/**
+ * <p>
+ *     Answers "what if" questions about a recorded run, e.g. what if learner 7 had started 100 ticks later, or had
+ *     another review bias, without running the whole population again. {@linkplain #record} runs the population once
+ *     on the {@linkplain EventLoop} and logs what the learners do with the pool: which submission entered it, which one
+ *     every learner was handed out and which one it reviewed, at which tick. The log is all that is kept of the run,
+ *     together with a fork every so many ticks that only holds the ids of the pooled submissions and the learners
+ *     waiting for one. The state of a learner at any point of the run is worked out from its attributes and the log, by
+ *     running that learner alone from the start of its latest submission, with the pool answering as logged.
+ * </p>
+ * <p>
+ *     {@linkplain #rerun(List)} works out the earliest tick an {@linkplain Edit} can make a difference at: a start
+ *     tick from the earlier of the two on, a review bias once the learner reviews, a true grade once it is reviewed.
+ *     The output up to there is the recorded one. From the last fork before it, the log is replayed onto a pool of its
+ *     own, and only the learners in the cone of the edits are run: an edited learner from the tick its edit makes a
+ *     difference at, any other one from the point the pool would hand it something else than it was handed, or its
+ *     latest submission is reviewed otherwise than logged. The others only have their pool operations replayed from the
+ *     log.
+ * </p>
+ * <p>
+ *     At every later fork the learners that are run are compared with their recorded state, and the pool with the one
+ *     of the fork. Once they are the same, and the edits can no longer make a difference, e.g. a learner with another
+ *     review bias has finished, the rest of the output is the recorded one too. An edit thus costs the learners it
+ *     reaches over the ticks it takes to die out, and a replay of the log over those ticks.
+ * </p>
+ * Created by kedar on 10/15/16.
+ */
+public final class WhatIf {
+
+    private static final int UNCHANGED = Integer.MIN_VALUE;
+    /*
+     * The kinds of the logged pool operations. A retrieve right after a review is told apart, as its learner counts
+     * it among the reviews it took on even if it is handed nothing.
+     */
+    private static final byte SUBMIT = 0;
+    private static final byte RESUBMIT = 1;
+    private static final byte GRADED = 2;
+    private static final byte RETRIEVE = 3;
+    private static final byte RETRIEVE_AFTER_REVIEW = 4;
+    /** the submission of a retrieve that was handed nothing, or of a submission that never entered review */
+    private static final int NONE = -1;
+    /** the id of a submission of a rerun that is not in the recording */
+    private static final int UNRECORDED = -2;
+    private static final long NOT_SCHEDULED = Long.MAX_VALUE;
+
+    /**
+     * Other attributes of a learner, from the start of the run.
+     */
+    public static final class Edit {
+        public final int lid;
+        private final int startTick;
+        private final int reviewBias;
+        private final int trueGrade;
+
+        private Edit(int lid, int startTick, int reviewBias, int trueGrade) {
+            this.lid = lid;
+            this.startTick = startTick;
+            this.reviewBias = reviewBias;
+            this.trueGrade = trueGrade;
+        }
+
+        /** @return an edit of the given learner that changes nothing yet */
+        public static Edit of(int lid) {
+            return new Edit(lid, UNCHANGED, UNCHANGED, UNCHANGED);
+        }
+
+        public Edit withStartTick(int startTick) {
+            if (startTick < 0)
+                throw new IllegalArgumentException("invalid start tick: " + startTick);
+            return new Edit(lid, startTick, reviewBias, trueGrade);
+        }
+
+        public Edit withReviewBias(int reviewBias) {
+            return new Edit(lid, startTick, reviewBias, trueGrade);
+        }
+
+        public Edit withTrueGrade(int trueGrade) {
+            return new Edit(lid, startTick, reviewBias, trueGrade);
+        }
+
+        /**
+         * Parses {@code lid:name=value,...}, where the names are {@code start}, {@code bias} and {@code grade}, e.g.
+         * {@code 7:start=1200,bias=-3}.
+         *
+         * @throws IllegalArgumentException for a malformed edit
+         */
+        public static Edit parse(String spec) {
+            int colon = spec.indexOf(':');
+            if (colon < 0)
+                throw new IllegalArgumentException("expected lid:name=value,...: " + spec);
+            try {
+                Edit edit = of(Integer.parseInt(spec.substring(0, colon).trim()));
+                for (String pair : spec.substring(colon + 1).split(",")) {
+                    String[] nv = pair.split("=", 2);
+                    if (nv.length != 2)
+                        throw new IllegalArgumentException("expected name=value: " + pair);
+                    int value = Integer.parseInt(nv[1].trim());
+                    switch (nv[0].trim()) {
+                        case "start":
+                            edit = edit.withStartTick(value);
+                            break;
+                        case "bias":
+                            edit = edit.withReviewBias(value);
+                            break;
+                        case "grade":
+                            edit = edit.withTrueGrade(value);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("unknown attribute: " + nv[0] + " in " + spec);
+                    }
+                }
+                return edit;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number in: " + spec);
+            }
+        }
+
+        Learner apply(Learner learner) {
+            return Learner.restore(learner.lid,
+                    startTick == UNCHANGED ? learner.firstSubmissionStartTick : new TimeTick(startTick),
+                    learner.state, trueGrade == UNCHANGED ? learner.trueGrade : trueGrade,
+                    reviewBias == UNCHANGED ? learner.reviewBias : reviewBias, learner.config, learner.aid);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder buf = new StringBuilder().append(lid).append(':');
+            if (startTick != UNCHANGED)
+                buf.append("start=").append(startTick).append(',');
+            if (reviewBias != UNCHANGED)
+                buf.append("bias=").append(reviewBias).append(',');
+            if (trueGrade != UNCHANGED)
+                buf.append("grade=").append(trueGrade).append(',');
+            buf.setLength(buf.length() - 1);
+            return buf.toString();
+        }
+    }
+
+    /**
+     * The run with some learners edited.
+     */
+    public static final class Outcome {
+        /** the submissions that entered review, as {@linkplain Submission#toOutput()} lines */
+        public final List<String> output;
+        /** the earliest tick the edits can make a difference at, or the number of ticks if they make none */
+        public final int divergedAt;
+        /** the tick of the fork the run resumed from */
+        public final int resumedFrom;
+        /** the tick from which on the recorded run was reused again, or the number of ticks */
+        public final int reconvergedAt;
+        /** the learners that were run rather than replayed: those edited, and those the edits reached */
+        public final SortedSet<Integer> affected;
+        public final int ticks;
+
+        Outcome(List<String> output, int divergedAt, int resumedFrom, int reconvergedAt, SortedSet<Integer> affected,
+                int ticks) {
+            this.output = Collections.unmodifiableList(output);
+            this.divergedAt = divergedAt;
+            this.resumedFrom = resumedFrom;
+            this.reconvergedAt = reconvergedAt;
+            this.affected = Collections.unmodifiableSortedSet(affected);
+            this.ticks = ticks;
+        }
+
+        public int simulatedTicks() {
+            return reconvergedAt - resumedFrom;
+        }
+
+        @Override
+        public String toString() {
+            return "diverged at: " + divergedAt + ", resumed from: " + resumedFrom + ", reconverged at: "
+                    + reconvergedAt + ", simulated " + simulatedTicks() + " of " + ticks + " ticks, affected "
+                    + "learners: " + affected.size() + ", submissions: " + output.size();
+        }
+    }
+
+    /** The pool of the recorded run at the start of a tick, as positions in the log. */
+    private static final class Fork {
+        final int tick;
+        final int ops; // the operations logged before the tick
+        final int outputs; // the submissions that entered review before the tick
+        final int[] pool; // the ids of the pooled submissions, in order
+        final int[] waiting; // the learners asking the pool for a submission whenever they respond
+        final int[] taken; // the reviews each of them has taken on since it submitted
+
+        Fork(int tick, int ops, int outputs, int[] pool, int[] waiting, int[] taken) {
+            this.tick = tick;
+            this.ops = ops;
+            this.outputs = outputs;
+            this.pool = pool;
+            this.waiting = waiting;
+            this.taken = taken;
+        }
+    }
+
+    private final int ticks;
+    private final List<Fork> forks;
+    private final List<String> output;
+    private final Map<Integer, Integer> positions; // by lid
+    /* the attributes of the learners, by position */
+    private final int[] lid;
+    private final TimeTick[] startTick;
+    private final LearnerState[] initialState;
+    private final int[] trueGrade;
+    private final int[] reviewBias;
+    private final Config[] config;
+    private final int[] aid;
+    /* the log: the operations on the pool in the order they were made, each by the learner at a position */
+    private final int nOps;
+    private final int[] opTick;
+    private final int[] opPosition;
+    private final byte[] opKind;
+    private final int[] opSubmission; // the id of the submission, or NONE
+    /* the submissions that entered review, by id */
+    private final int[] owner; // the position of the owner
+    private final int[] sequenceNumber;
+    private final int[] submissionTick;
+    /* the submissions every learner started, by sequence number from firstSubmission[position] on */
+    private final int[] firstSubmission;
+    private final int[] startedAt;
+    private final int[] startedId; // or NONE if the run ended before it entered review
+    /* the retrieves of every learner from firstRetrieve[position] on, and the reviews of every submission */
+    private final int[] firstRetrieve;
+    private final int[] retrieves;
+    private final int[] firstReview; // by id
+    private final int[] reviews;
+    private final int[] firstReviewGiven; // by position
+    private final int[] firstReviewGot;
+
+    private WhatIf(int ticks, Collection<Learner> learners, Recorder recorder, List<String> output) {
+        this.ticks = ticks;
+        this.forks = recorder.forks;
+        this.output = output;
+        int n = learners.size();
+        positions = new HashMap<>();
+        lid = new int[n];
+        startTick = new TimeTick[n];
+        initialState = new LearnerState[n];
+        trueGrade = new int[n];
+        reviewBias = new int[n];
+        config = new Config[n];
+        aid = new int[n];
+        int p = 0;
+        for (Learner learner : learners) {
+            positions.put(learner.lid, p);
+            lid[p] = learner.lid;
+            startTick[p] = learner.firstSubmissionStartTick;
+            initialState[p] = learner.state;
+            trueGrade[p] = learner.trueGrade;
+            reviewBias[p] = learner.reviewBias;
+            config[p] = learner.config;
+            aid[p] = learner.aid;
+            p++;
+        }
+        nOps = recorder.nOps;
+        opTick = Arrays.copyOf(recorder.opTick, nOps);
+        opPosition = Arrays.copyOf(recorder.opPosition, nOps);
+        opKind = Arrays.copyOf(recorder.opKind, nOps);
+        opSubmission = Arrays.copyOf(recorder.opSubmission, nOps);
+        int nIds = recorder.nIds;
+        owner = Arrays.copyOf(recorder.owner, nIds);
+        sequenceNumber = Arrays.copyOf(recorder.sequenceNumber, nIds);
+        submissionTick = Arrays.copyOf(recorder.submissionTick, nIds);
+
+        int[] started = new int[n];
+        for (int id = 0; id < nIds; id++)
+            started[owner[id]] = Math.max(started[owner[id]], sequenceNumber[id] + 1);
+        Submission[] unsubmitted = new Submission[n];
+        for (p = 0; p < n; p++) {
+            Submission latest = recorder.run.get(p).submissions.peekLast();
+            if (latest != null && latest.state != SUBMITTED_TO_REVIEW) {
+                unsubmitted[p] = latest;
+                started[p] = Math.max(started[p], latest.sequenceNumber + 1);
+            }
+        }
+        firstSubmission = offsets(started);
+        startedAt = new int[firstSubmission[n]];
+        startedId = new int[firstSubmission[n]];
+        Arrays.fill(startedId, NONE);
+        for (int id = 0; id < nIds; id++) {
+            int k = firstSubmission[owner[id]] + sequenceNumber[id];
+            startedAt[k] = submissionTick[id];
+            startedId[k] = id;
+        }
+        for (p = 0; p < n; p++)
+            if (unsubmitted[p] != null)
+                startedAt[firstSubmission[p] + unsubmitted[p].sequenceNumber] = (int) unsubmitted[p].tick;
+
+        int[] retrieved = new int[n], reviewed = new int[nIds];
+        for (int o = 0; o < nOps; o++) {
+            if (opKind[o] >= RETRIEVE)
+                retrieved[opPosition[o]]++;
+            else if (isReview(opKind[o]))
+                reviewed[opSubmission[o]]++;
+        }
+        firstRetrieve = offsets(retrieved);
+        firstReview = offsets(reviewed);
+        retrieves = new int[firstRetrieve[n]];
+        reviews = new int[firstReview[nIds]];
+        firstReviewGiven = new int[n];
+        firstReviewGot = new int[n];
+        Arrays.fill(firstReviewGiven, Integer.MAX_VALUE);
+        Arrays.fill(firstReviewGot, Integer.MAX_VALUE);
+        int[] nextRetrieve = firstRetrieve.clone(), nextReview = firstReview.clone();
+        for (int o = 0; o < nOps; o++) {
+            if (opKind[o] >= RETRIEVE) {
+                retrieves[nextRetrieve[opPosition[o]]++] = o;
+            } else if (isReview(opKind[o])) {
+                int id = opSubmission[o];
+                reviews[nextReview[id]++] = o;
+                firstReviewGiven[opPosition[o]] = Math.min(firstReviewGiven[opPosition[o]], opTick[o]);
+                firstReviewGot[owner[id]] = Math.min(firstReviewGot[owner[id]], opTick[o]);
+            }
+        }
+    }
+
+    /**
+     * Runs the given learners, which are left as they are, through the ticks {@code [0, ticks)} and records the run.
+     *
+     * @param learners  learners that have not responded to any tick yet, in the order they respond within a tick
+     * @param forkEvery the ticks between two forks of the pool of the run, which a rerun resumes from
+     */
+    public static WhatIf record(int ticks, Collection<Learner> learners, int forkEvery) {
+        if (ticks < 0)
+            throw new IllegalArgumentException("invalid number of ticks: " + ticks);
+        if (forkEvery < 1)
+            throw new IllegalArgumentException("invalid fork interval: " + forkEvery);
+        List<Learner> run = new ArrayList<>(learners.size());
+        Set<Integer> lids = new HashSet<>();
+        for (Learner learner : learners) {
+            if (!lids.add(learner.lid))
+                throw new IllegalArgumentException("duplicate lid: " + learner.lid);
+            run.add(copy(learner));
+        }
+        Recorder recorder = new Recorder(new SubmissionPool(), run, ticks, forkEvery);
+        List<String> output = new ArrayList<>();
+        EventLoop.run(0, ticks, run, recorder, Query.ALL, s -> output.add(s.toOutput()),
+                new EventQueue(Math.max(1, run.size())), recorder::pace);
+        return new WhatIf(ticks, learners, recorder, output);
+    }
+
+    /** @return the output of the recorded run */
+    public List<String> output() {
+        return Collections.unmodifiableList(output);
+    }
+
+    public Outcome rerun(Edit... edits) {
+        List<Edit> list = new ArrayList<>();
+        Collections.addAll(list, edits);
+        return rerun(list);
+    }
+
+    /**
+     * Reruns the recorded run with the given learners edited, resuming it from the last fork before the edits can make
+     * a difference, running only the learners they reach, and reusing the recorded output once they no longer do.
+     *
+     * @throws IllegalArgumentException if an edit names a learner that is not in the run, or the same one as another
+     */
+    public Outcome rerun(List<Edit> edits) {
+        Map<Integer, Edit> byPosition = new HashMap<>();
+        Map<Integer, Integer> divergences = new HashMap<>();
+        int divergedAt = ticks;
+        for (Edit edit : edits) {
+            Integer p = positions.get(edit.lid);
+            if (p == null)
+                throw new IllegalArgumentException("no learner " + edit.lid + " in the run");
+            if (byPosition.put(p, edit) != null)
+                throw new IllegalArgumentException("learner " + edit.lid + " is edited twice");
+            divergences.put(p, divergence(edit, p));
+            divergedAt = Math.min(divergedAt, divergences.get(p));
+        }
+        if (divergedAt >= ticks) // no edit makes a difference
+            return new Outcome(new ArrayList<>(output), ticks, ticks, ticks, new TreeSet<>(), ticks);
+        return new Rerun(byPosition, divergences).run(divergedAt);
+    }
+
+    /** @return the earliest tick the edit of the learner at the given position can make a difference at */
+    private int divergence(Edit edit, int p) {
+        int tick = ticks;
+        if (changesStart(edit, p))
+            tick = (int) Math.min(edit.startTick, startTick[p].getValue());
+        if (changesBias(edit, p))
+            tick = Math.min(tick, firstReviewGiven[p]);
+        if (changesGrade(edit, p))
+            tick = Math.min(tick, firstReviewGot[p]);
+        return tick;
+    }
+
+    private boolean changesStart(Edit edit, int p) {
+        return edit.startTick != UNCHANGED && edit.startTick != startTick[p].getValue();
+    }
+
+    private boolean changesBias(Edit edit, int p) {
+        return edit.reviewBias != UNCHANGED && edit.reviewBias != reviewBias[p];
+    }
+
+    private boolean changesGrade(Edit edit, int p) {
+        return edit.trueGrade != UNCHANGED && edit.trueGrade != trueGrade[p];
+    }
+
+    /** A learner as it was at some point of the recorded run, see {@linkplain #recorded(int, long)}. */
+    private static final class Recorded {
+        final Learner learner;
+        final Map<Submission, Integer> ids; // of the submissions of others it holds
+
+        Recorded(Learner learner, Map<Submission, Integer> ids) {
+            this.learner = learner;
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * Works out the state of the learner at the given position right before the given point of the recorded run:
+     * restores it as it started its latest submission before that point, and runs it alone from there, with the pool
+     * handing out what it handed out and the others reviewing that submission as they did. The submissions of others
+     * it holds only have their owner and timing, not their reviews.
+     *
+     * @param before the point, see {@linkplain #key(long, int)}
+     * @throws IllegalStateException if the learner does not do what the log says it did
+     */
+    private Recorded recorded(int p, long before) {
+        Map<Submission, Integer> ids = new IdentityHashMap<>();
+        int k = latest(p, before);
+        Learner learner = Learner.restore(lid[p], startTick[p], k < 0 ? initialState[p] : LearnerState.WORKING,
+                trueGrade[p], reviewBias[p], config[p], aid[p]);
+        if (k < 0)
+            return new Recorded(learner, ids);
+        long tick = startedAt[k];
+        Submission latest = new Submission(learner, aid[p], tick, IN_FLIGHT, new LinkedList<>(),
+                k - firstSubmission[p]);
+        learner.submissions.addLast(latest);
+        int id = startedId[k];
+        int r = after(retrieves, firstRetrieve[p], firstRetrieve[p + 1], key(tick, p)), rEnd = firstRetrieve[p + 1];
+        int v = id == NONE ? 0 : firstReview[id], vEnd = id == NONE ? 0 : firstReview[id + 1];
+        Map<Integer, Learner> others = new HashMap<>();
+        ScriptedPool pool = new ScriptedPool();
+        while (true) {
+            long next = learner.nextWakeTick(tick);
+            if (r < rEnd)
+                next = Math.min(next, opTick[retrieves[r]]);
+            if (v < vEnd) // the owner of a reviewed submission is woken up
+                next = Math.min(next, opPosition[reviews[v]] < p ? opTick[reviews[v]] : opTick[reviews[v]] + 1);
+            if (next == Learner.NEVER || key(next, p) >= before)
+                break;
+            for (; v < vEnd && opKey(reviews[v]) < key(next, p); v++)
+                latest.provideReview(other(opPosition[reviews[v]], others), opTick[reviews[v]]);
+            if (r < rEnd && opTick[retrieves[r]] == next) {
+                int x = opSubmission[retrieves[r++]];
+                Submission handedOut = null;
+                if (x != NONE) {
+                    handedOut = new Submission(other(owner[x], others), aid[owner[x]], submissionTick[x],
+                            SUBMITTED_TO_REVIEW, new LinkedList<>(), sequenceNumber[x]);
+                    ids.put(handedOut, x);
+                }
+                pool.expect(handedOut);
+            }
+            learner.respondTo(next, pool);
+            if (pool.expecting || learner.submissions.size() != 1)
+                throw new IllegalStateException("learner " + lid[p] + " does not respond to tick " + next
+                        + " as recorded");
+            tick = next;
+        }
+        for (; v < vEnd && opKey(reviews[v]) < before; v++)
+            latest.provideReview(other(opPosition[reviews[v]], others), opTick[reviews[v]]);
+        return new Recorded(learner, ids);
+    }
+
+    /** @return a learner with the attributes of the one at the given position, to stand in for it */
+    private Learner other(int p, Map<Integer, Learner> others) {
+        return others.computeIfAbsent(p, q -> Learner.restore(lid[q], startTick[q], initialState[q], trueGrade[q],
+                reviewBias[q], config[q], aid[q]));
+    }
+
+    /**
+     * @return the index of the latest submission the learner at the given position started before the given point of
+     * the recorded run, or -1 if it had not started any
+     */
+    private int latest(int p, long before) {
+        int k = firstSubmission[p + 1] - 1;
+        while (k >= firstSubmission[p] && key(startedAt[k], p) >= before)
+            k--;
+        return k < firstSubmission[p] ? -1 : k;
+    }
+
+    /** @return the index of the first of the given operations in {@code [from, to)} after the given point */
+    private int after(int[] ops, int from, int to, long point) {
+        int lo = from, hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (opKey(ops[mid]) <= point)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the point of the run at which the learner at the given position responds to the given tick */
+    private static long key(long tick, int position) {
+        return tick << 32 | position;
+    }
+
+    private long opKey(int o) {
+        return key(opTick[o], opPosition[o]);
+    }
+
+    private static boolean isReview(byte kind) {
+        return kind == RESUBMIT || kind == GRADED;
+    }
+
+    /** @return true if the learner counts the given retrieve among the reviews it took on */
+    private static boolean takesOn(byte kind, int submission) {
+        return kind == RETRIEVE_AFTER_REVIEW || submission != NONE;
+    }
+
+    private static int[] offsets(int[] counts) {
+        int[] offsets = new int[counts.length + 1];
+        for (int i = 0; i < counts.length; i++)
+            offsets[i + 1] = offsets[i] + counts[i];
+        return offsets;
+    }
+
+    private static Learner copy(Learner learner) {
+        return Learner.restore(learner.lid, learner.firstSubmissionStartTick, learner.state, learner.trueGrade,
+                learner.reviewBias, learner.config, learner.aid);
+    }
+
+    /**
+     * A rerun in progress: the pool the log is replayed onto, the learners of the rerun as far as it needs them, and
+     * which of them are run.
+     */
+    private final class Rerun {
+        final Map<Integer, Edit> edits; // by position
+        final Map<Integer, Integer> divergences;
+        final int[] goLive; // the edited learners in the order their edits make a difference
+        final ReplayPolicy policy = new ReplayPolicy();
+        final SubmissionPool pool = new SubmissionPool(policy);
+        final SubmissionPool livePool = new LivePool(pool);
+        final Learner[] learners = new Learner[lid.length]; // by position, as far as needed
+        final Submission[] submissions = new Submission[owner.length]; // by id, as far as needed
+        final Map<Submission, Integer> ids = new IdentityHashMap<>();
+        final BitSet live = new BitSet(); // the positions of the learners that are run
+        final BitSet waiting = new BitSet(); // the others asking the pool for a submission whenever they respond
+        final int[] taken = new int[lid.length]; // the reviews those took on since they submitted
+        final Set<Learner> waiters = new LinkedHashSet<>(); // the learners that are run and ask the pool
+        final long[] scheduled = new long[lid.length];
+        final EventQueue wakeups = new EventQueue(16);
+        final EventQueue checks = new EventQueue(16); // the others the pool may hand something else than logged
+        final long[] checked; // the point of the latest check of each
+        final List<String> out = new ArrayList<>();
+        final SortedSet<Integer> affected = new TreeSet<>();
+        int nextEdit;
+        int cursor; // the next operation of the log
+        int entered; // the logged submissions that entered review so far
+        boolean poolInSync = true; // whether the pool holds what the recorded one did
+        int tick;
+        int position;
+        Learner starved;
+        /* what the learner that responds did with the pool */
+        int nDone;
+        byte[] doneKind = new byte[4];
+        Submission[] done = new Submission[4];
+
+        Rerun(Map<Integer, Edit> edits, Map<Integer, Integer> divergences) {
+            this.edits = edits;
+            this.divergences = divergences;
+            Arrays.fill(scheduled, NOT_SCHEDULED);
+            this.checked = new long[lid.length];
+            Arrays.fill(checked, -1);
+            this.goLive = divergences.keySet().stream().filter(p -> divergences.get(p) < ticks)
+                    .sorted((p, q) -> Integer.compare(divergences.get(p), divergences.get(q)))
+                    .mapToInt(Integer::intValue).toArray();
+        }
+
+        Outcome run(int divergedAt) {
+            int f = 0;
+            while (f + 1 < forks.size() && forks.get(f + 1).tick <= divergedAt)
+                f++;
+            Fork from = forks.get(f);
+            long start = key(from.tick, 0);
+            for (int id : from.pool)
+                pool.resubmit(submission(id, start));
+            for (int i = 0; i < from.waiting.length; i++) {
+                waiting.set(from.waiting[i]);
+                taken[from.waiting[i]] = from.taken[i];
+            }
+            cursor = from.ops;
+            entered = from.outputs;
+            out.addAll(output.subList(0, from.outputs));
+            for (Edit edit : edits.values())
+                affected.add(edit.lid);
+            while (true) {
+                long edit = nextEdit < goLive.length ? key(divergences.get(goLive[nextEdit]), 0) : Long.MAX_VALUE;
+                long at = Math.min(Math.min(cursor < nOps ? opKey(cursor) : Long.MAX_VALUE, nextWakeup()),
+                        Math.min(checks.isEmpty() ? Long.MAX_VALUE : checks.peek(), edit));
+                if (at == Long.MAX_VALUE || at >>> 32 >= ticks)
+                    break;
+                tick = (int) (at >>> 32);
+                position = (int) at;
+                for (; f + 1 < forks.size() && forks.get(f + 1).tick <= tick; f++) {
+                    Fork fork = forks.get(f + 1);
+                    if (converged(fork)) {
+                        out.addAll(output.subList(fork.outputs, output.size()));
+                        return new Outcome(out, divergedAt, from.tick, fork.tick, affected, ticks);
+                    }
+                }
+                if (at == edit)
+                    goLive(goLive[nextEdit++], tick, 0);
+                else
+                    step();
+            }
+            return new Outcome(out, divergedAt, from.tick, ticks, affected, ticks);
+        }
+
+        /**
+         * Lets the learner at the current point respond, if it is run, or replays its pool operations from the log.
+         */
+        private void step() {
+            int p = position;
+            long at = key(tick, p);
+            boolean check = false;
+            while (!checks.isEmpty() && checks.peek() == at) {
+                checks.poll();
+                check = true;
+            }
+            int from = cursor;
+            while (cursor < nOps && opKey(cursor) == at)
+                cursor++;
+            if (!live.get(p) && !poolInSync)
+                verify(p, from, cursor, check);
+            if (!live.get(p)) {
+                replay(p, from, cursor);
+                return;
+            }
+            nDone = 0;
+            if (nextWakeup() == at) {
+                wakeups.poll();
+                scheduled[p] = NOT_SCHEDULED;
+                respond(p);
+            }
+            compare(p, from, cursor);
+        }
+
+        /**
+         * Makes the learner at the given position run from now on if the pool would hand it something else than the
+         * log says.
+         */
+        private void verify(int p, int from, int to, boolean check) {
+            boolean asks = check && waiting.get(p);
+            int expected = NONE;
+            for (int o = from; o < to; o++) {
+                if (opKind[o] >= RETRIEVE) {
+                    asks = true;
+                    expected = opSubmission[o];
+                }
+            }
+            if (!asks)
+                return;
+            Submission next = policy.peek(learner(p));
+            if ((next == null ? NONE : idOf(next)) != expected)
+                goLive(p, tick, p);
+        }
+
+        private void replay(int p, int from, int to) {
+            long at = key(tick, p);
+            for (int o = from; o < to; o++) {
+                int id = opSubmission[o];
+                if (opKind[o] == SUBMIT) {
+                    Submission submission = new Submission(learner(p), aid[p], submissionTick[id], IN_FLIGHT,
+                            new LinkedList<>(), sequenceNumber[id]);
+                    register(submission, id);
+                    pool.submit(submission);
+                    submission.state = SUBMITTED_TO_REVIEW;
+                    out.add(output.get(entered++));
+                    waiting.set(p);
+                    taken[p] = 0;
+                    added(submission);
+                } else if (isReview(opKind[o])) {
+                    Submission reviewed = submission(id, at);
+                    reviewed.provideReview(learner(p), tick);
+                    // the learners that are run may have reviewed it otherwise
+                    boolean resubmits = reviewed.reviewers.size() < config[p].reviewsRequiredPerSubmission;
+                    if (resubmits) {
+                        pool.resubmit(reviewed);
+                        added(reviewed);
+                    }
+                    if (resubmits != (opKind[o] == RESUBMIT)) {
+                        poolInSync = false;
+                        if (resubmits)
+                            pooledOtherwise(reviewed);
+                    }
+                    if (live.get(owner[id]))
+                        wake(reviewed.owner);
+                } else {
+                    if (id != NONE && submissions[id] != null)
+                        policy.remove(submissions[id]);
+                    if (waiting.get(p) && takesOn(opKind[o], id)
+                            && ++taken[p] >= config[p].reviewsRequiredPerLearner)
+                        waiting.clear(p);
+                }
+            }
+        }
+
+        /** Lets the learner at the given position respond, and schedules it the way the {@linkplain EventLoop} does. */
+        private void respond(int p) {
+            Learner learner = learner(p);
+            Submission reviewable = learner.reviewsDone.peekLast();
+            int reviews = reviewable == null ? 0 : reviewable.reviewers.size();
+            starved = null;
+            Submission returned = learner.respondTo(tick, livePool);
+            if (returned != null)
+                out.add(returned.toOutput());
+            if (reviewable != null && reviewable.reviewers.size() != reviews
+                    && live.get(positions.get(reviewable.owner.lid)))
+                wake(reviewable.owner);
+            long next = learner.nextWakeTick(tick);
+            if (next != Learner.NEVER)
+                schedule(p, next);
+            if (learner.isAwaitingReviewable()) {
+                waiters.add(learner);
+                if (starved != learner)
+                    schedule(p, tick + 1);
+            } else
+                waiters.remove(learner);
+        }
+
+        /**
+         * Compares what the learner at the given position did with the pool with the log, and follows up on what it
+         * did otherwise: a submission that is pooled, or not, otherwise may be handed to others otherwise, and a review
+         * otherwise may change what the owner of the submission does.
+         */
+        private void compare(int p, int from, int to) {
+            Edit edit = edits.get(p);
+            boolean biased = edit != null && changesBias(edit, p);
+            for (int i = 0; from + i < to || i < nDone; i++) {
+                int o = from + i;
+                boolean logged = o < to, matched = false;
+                if (logged && i < nDone)
+                    matched = opKind[o] == doneKind[i]
+                            && opSubmission[o] == (done[i] == null ? NONE : idOf(done[i]));
+                if (logged && opKind[o] == SUBMIT)
+                    entered++;
+                if (matched) {
+                    if (biased && isReview(opKind[o]))
+                        reviewedOtherwise(done[i]);
+                    continue;
+                }
+                if (logged)
+                    notDone(o);
+                if (i < nDone)
+                    doneOtherwise(doneKind[i], done[i]);
+            }
+        }
+
+        private void notDone(int o) {
+            int id = opSubmission[o];
+            if (opKind[o] == SUBMIT || opKind[o] == RESUBMIT)
+                poolInSync = false;
+            if (isReview(opKind[o])) {
+                reviewedOtherwise(owner[id], sequenceNumber[id], submissionTick[id]);
+            } else if (opKind[o] >= RETRIEVE && id != NONE) {
+                poolInSync = false;
+                Submission lingering = submissions[id];
+                if (lingering != null && policy.contains(lingering))
+                    pooledOtherwise(lingering);
+            }
+        }
+
+        private void doneOtherwise(byte kind, Submission submission) {
+            if (kind == SUBMIT || kind == RESUBMIT) {
+                poolInSync = false;
+                pooledOtherwise(submission);
+            }
+            if (isReview(kind))
+                reviewedOtherwise(submission);
+            if (kind >= RETRIEVE && submission != null)
+                poolInSync = false;
+        }
+
+        /**
+         * Has every other learner that asks the pool, and may review the given submission, checked at the point the
+         * pool would wake it up.
+         */
+        private void pooledOtherwise(Submission submission) {
+            for (int q = waiting.nextSetBit(0); q >= 0; q = waiting.nextSetBit(q + 1)) {
+                if (ReviewAssignmentPolicy.mayReview(learner(q), submission)) {
+                    long at = key(q > position ? tick : tick + 1, q);
+                    if (at >>> 32 < ticks && checked[q] != at) {
+                        checked[q] = at;
+                        checks.add(at);
+                    }
+                }
+            }
+        }
+
+        private void reviewedOtherwise(Submission submission) {
+            reviewedOtherwise(positions.get(submission.owner.lid), submission.sequenceNumber, submission.tick);
+        }
+
+        /**
+         * Makes the owner of the given submission run from now on if it is the latest one, whose reviews it goes by.
+         */
+        private void reviewedOtherwise(int o, int sequenceNumber, long startedTick) {
+            if (live.get(o))
+                return;
+            int k = latest(o, key(tick, position));
+            if (k >= 0 && k - firstSubmission[o] == sequenceNumber && startedAt[k] == startedTick)
+                goLive(o, tick, position);
+        }
+
+        /**
+         * Makes the learner at the given position run from the given point on, in the state it was in at that point of
+         * the recorded run, with the submissions of the rerun.
+         */
+        private void goLive(int p, int at, int before) {
+            if (live.get(p))
+                return;
+            live.set(p);
+            affected.add(lid[p]);
+            waiting.clear(p);
+            long point = key(at, before);
+            Recorded recorded = recorded(p, point);
+            Learner learner = learner(p);
+            learner.state = recorded.learner.state;
+            learner.submissions.clear();
+            learner.reviewsDone.clear();
+            Submission latest = recorded.learner.submissions.peekLast();
+            if (latest != null) {
+                int id = startedId[latest(p, point)];
+                Submission submission;
+                if (latest.state == SUBMITTED_TO_REVIEW) {
+                    submission = submission(id, point);
+                } else {
+                    submission = new Submission(learner, aid[p], latest.tick, latest.state, new LinkedList<>(),
+                            latest.sequenceNumber);
+                    if (id != NONE)
+                        register(submission, id);
+                }
+                learner.submissions.addLast(submission);
+            }
+            for (Submission held : recorded.learner.reviewsDone)
+                learner.reviewsDone.addLast(held == null ? null : submission(recorded.ids.get(held), point));
+            schedule(p, p >= before ? at : at + 1);
+        }
+
+        /**
+         * @return true if the learners that are run are as recorded at the given fork, and so is the pool, and the
+         * edits can no longer make a difference
+         */
+        private boolean converged(Fork fork) {
+            for (Map.Entry<Integer, Edit> e : edits.entrySet())
+                if (!spent(e.getKey(), e.getValue(), fork.tick))
+                    return false;
+            for (int p = live.nextSetBit(0); p >= 0; p = live.nextSetBit(p + 1))
+                if (!same(p, fork.tick))
+                    return false;
+            return samePool(fork);
+        }
+
+        /**
+         * @return true if the edit of the learner at the given position can no longer make a difference from the given
+         * tick on: both start ticks have passed, and a learner with another true grade, or review bias, has finished
+         */
+        private boolean spent(int p, Edit edit, int at) {
+            if (!live.get(p))
+                return divergences.get(p) >= ticks;
+            if (changesStart(edit, p) && Math.max(edit.startTick, startTick[p].getValue()) >= at)
+                return false;
+            return !changesGrade(edit, p) && !changesBias(edit, p) || learner(p).isFinished();
+        }
+
+        /** @return true if the learner at the given position is as recorded at the start of the given tick */
+        private boolean same(int p, int at) {
+            Recorded recorded = recorded(p, key(at, 0));
+            Learner a = learner(p), b = recorded.learner;
+            if (a.state != b.state || a.reviewsDone.size() != b.reviewsDone.size())
+                return false;
+            Submission s = a.submissions.peekLast(), t = b.submissions.peekLast();
+            if (s == null || t == null) {
+                if (s != t)
+                    return false;
+            } else {
+                if (s.sequenceNumber != t.sequenceNumber || s.tick != t.tick || s.state != t.state
+                        || s.lastReviewTick != t.lastReviewTick || s.reviewers.size() != t.reviewers.size())
+                    return false;
+                boolean finished = a.isFinished();
+                Iterator<Learner> reviewers = t.reviewers.iterator();
+                for (Learner reviewer : s.reviewers) {
+                    Learner other = reviewers.next();
+                    if (reviewer.lid != other.lid || !finished && reviewer.reviewBias != other.reviewBias)
+                        return false;
+                }
+            }
+            Iterator<Submission> held = b.reviewsDone.iterator();
+            for (Submission h : a.reviewsDone) {
+                Submission g = held.next();
+                if (h == null ? g != null : g == null || idOf(h) != recorded.ids.get(g))
+                    return false;
+            }
+            return true;
+        }
+
+        /** @return true if the pool holds the submissions of the fork in the same order, with the same reviewers */
+        private boolean samePool(Fork fork) {
+            if (policy.size() != fork.pool.length)
+                return false;
+            long before = key(fork.tick, 0);
+            int i = 0;
+            for (Submission s : policy.pooled) {
+                int id = fork.pool[i++];
+                if (idOf(s) != id)
+                    return false;
+                int v = firstReview[id], end = firstReview[id + 1];
+                for (Learner reviewer : s.reviewers) {
+                    if (v == end || opKey(reviews[v]) >= before || reviewer.lid != lid[opPosition[reviews[v]]])
+                        return false;
+                    v++;
+                }
+                if (v < end && opKey(reviews[v]) < before)
+                    return false;
+            }
+            return true;
+        }
+
+        /** @return the learner of the rerun at the given position, with its edit if any */
+        private Learner learner(int p) {
+            Learner learner = learners[p];
+            if (learner == null) {
+                learner = Learner.restore(lid[p], startTick[p], initialState[p], trueGrade[p], reviewBias[p],
+                        config[p], aid[p]);
+                Edit edit = edits.get(p);
+                if (edit != null)
+                    learner = edit.apply(learner);
+                learners[p] = learner;
+            }
+            return learner;
+        }
+
+        /**
+         * @return the submission of the rerun with the given id, which has the reviews logged before the given point if
+         * the rerun has not come across it yet
+         */
+        private Submission submission(int id, long before) {
+            Submission submission = submissions[id];
+            if (submission == null) {
+                LinkedList<Learner> reviewers = new LinkedList<>();
+                long lastReviewTick = -1;
+                for (int v = firstReview[id]; v < firstReview[id + 1] && opKey(reviews[v]) < before; v++) {
+                    reviewers.addLast(learner(opPosition[reviews[v]]));
+                    lastReviewTick = opTick[reviews[v]];
+                }
+                submission = new Submission(learner(owner[id]), aid[owner[id]], submissionTick[id],
+                        SUBMITTED_TO_REVIEW, reviewers, sequenceNumber[id]);
+                submission.lastReviewTick = lastReviewTick;
+                register(submission, id);
+            }
+            return submission;
+        }
+
+        private void register(Submission submission, int id) {
+            submissions[id] = submission;
+            ids.put(submission, id);
+        }
+
+        private int idOf(Submission submission) {
+            Integer id = ids.get(submission);
+            return id == null ? UNRECORDED : id;
+        }
+
+        /** @return the id the given submission of a learner that is run has in the log, or {@linkplain #NONE} */
+        private int recordedId(Submission submission) {
+            int p = positions.get(submission.owner.lid), k = firstSubmission[p] + submission.sequenceNumber;
+            return k < firstSubmission[p + 1] && startedAt[k] == submission.tick ? startedId[k] : NONE;
+        }
+
+        /** Wakes up the learners that are run and ask the pool for a submission they may review. */
+        private void added(Submission submission) {
+            Iterator<Learner> iter = waiters.iterator();
+            while (iter.hasNext()) {
+                Learner waiter = iter.next();
+                if (ReviewAssignmentPolicy.mayReview(waiter, submission)) {
+                    iter.remove();
+                    wake(waiter);
+                }
+            }
+        }
+
+        private void wake(Learner learner) {
+            int q = positions.get(learner.lid);
+            schedule(q, q > position ? tick : tick + 1);
+        }
+
+        private void schedule(int p, long at) {
+            if (at >= ticks || at >= scheduled[p])
+                return;
+            scheduled[p] = at;
+            wakeups.add(key(at, p));
+        }
+
+        /** @return the point of the next wake-up that is not superseded by an earlier one */
+        private long nextWakeup() {
+            while (!wakeups.isEmpty()) {
+                long key = wakeups.peek();
+                if (scheduled[(int) key] == key >>> 32)
+                    return key;
+                wakeups.poll();
+            }
+            return Long.MAX_VALUE;
+        }
+
+        private void did(byte kind, Submission submission) {
+            if (nDone == done.length) {
+                doneKind = Arrays.copyOf(doneKind, nDone * 2);
+                done = Arrays.copyOf(done, nDone * 2);
+            }
+            doneKind[nDone] = kind;
+            done[nDone++] = submission;
+        }
+
+        /**
+         * The pool the learners that are run respond with: notes what they do with it, and wakes up the others that
+         * are run as the {@linkplain EventLoop} does.
+         */
+        private final class LivePool extends ForwardingSubmissionPool {
+
+            LivePool(SubmissionPool delegate) {
+                super(delegate);
+            }
+
+            @Override
+            public Submission retrieve(Learner me) {
+                Submission submission = super.retrieve(me);
+                if (submission == null)
+                    starved = me;
+                did(nDone > 0 && isReview(doneKind[nDone - 1]) ? RETRIEVE_AFTER_REVIEW : RETRIEVE, submission);
+                return submission;
+            }
+
+            @Override
+            public void submit(Submission submission) {
+                super.submit(submission);
+                int id = recordedId(submission);
+                if (id != NONE && submissions[id] == null)
+                    register(submission, id);
+                did(SUBMIT, submission);
+                added(submission);
+            }
+
+            @Override
+            public void resubmit(Submission reviewable) {
+                super.resubmit(reviewable);
+                did(RESUBMIT, reviewable);
+                added(reviewable);
+            }
+
+            @Override
+            void graded(Submission graded) {
+                super.graded(graded);
+                did(GRADED, graded);
+            }
+        }
+    }
+
+    /**
+     * The policy of the plain {@linkplain SubmissionPool}, which can also tell what it would hand out without handing
+     * it out, and let go of a given submission.
+     */
+    private static final class ReplayPolicy implements ReviewAssignmentPolicy {
+        final LinkedHashSet<Submission> pooled = new LinkedHashSet<>();
+
+        @Override
+        public void add(Submission submission) {
+            pooled.add(submission);
+        }
+
+        @Override
+        public Submission take(Learner reviewer) {
+            Submission submission = peek(reviewer);
+            if (submission != null)
+                pooled.remove(submission);
+            return submission;
+        }
+
+        Submission peek(Learner reviewer) {
+            for (Submission submission : pooled)
+                if (ReviewAssignmentPolicy.mayReview(reviewer, submission))
+                    return submission;
+            return null;
+        }
+
+        void remove(Submission submission) {
+            pooled.remove(submission);
+        }
+
+        boolean contains(Submission submission) {
+            return pooled.contains(submission);
+        }
+
+        @Override
+        public int size() {
+            return pooled.size();
+        }
+
+        @Override
+        public void forEachInOrder(Consumer<Submission> consumer) {
+            pooled.forEach(consumer);
+        }
+    }
+
+    /**
+     * The pool a learner worked out from the log responds with: hands out what the log says it was handed, and takes
+     * nothing.
+     */
+    private static final class ScriptedPool extends SubmissionPool {
+        Submission next;
+        boolean expecting; // whether the learner is to retrieve next in the log
+
+        ScriptedPool() {
+            super(ReviewAssignmentPolicies.insertionOrder());
+        }
+
+        void expect(Submission handedOut) {
+            next = handedOut;
+            expecting = true;
+        }
+
+        @Override
+        public Submission retrieve(Learner me) {
+            Submission handedOut = next;
+            next = null;
+            expecting = false;
+            return handedOut;
+        }
+
+        @Override
+        public void submit(Submission submission) {
+        }
+
+        @Override
+        public void resubmit(Submission reviewable) {
+        }
+
+        @Override
+        void graded(Submission graded) {
+        }
+    }
+
+    /**
+     * Logs what the learners of the recorded run do with its pool, and forks the pool every so many ticks.
+     */
+    private static final class Recorder extends ForwardingSubmissionPool {
+        final List<Learner> run;
+        final Map<Learner, Integer> positions = new IdentityHashMap<>();
+        final Map<Submission, Integer> ids = new IdentityHashMap<>(); // of the submissions that entered review
+        final List<Fork> forks = new ArrayList<>();
+        final BitSet awaiting = new BitSet(); // the learners asking the pool for a submission whenever they respond
+        final int[] taken; // the reviews every learner has taken on since it last submitted
+        final int ticks;
+        final int forkEvery;
+        int nextFork; // or -1 once forked at the end of the run
+        int tick;
+        int entered;
+        int nOps;
+        int[] opTick = new int[64];
+        int[] opPosition = new int[64];
+        byte[] opKind = new byte[64];
+        int[] opSubmission = new int[64];
+        int nIds;
+        int[] owner = new int[64];
+        int[] sequenceNumber = new int[64];
+        int[] submissionTick = new int[64];
+
+        Recorder(SubmissionPool delegate, List<Learner> run, int ticks, int forkEvery) {
+            super(delegate);
+            this.run = run;
+            for (Learner learner : run)
+                positions.put(learner, positions.size());
+            this.taken = new int[run.size()];
+            this.ticks = ticks;
+            this.forkEvery = forkEvery;
+        }
+
+        /** Called before the first response of every tick that has some, and at the end of the run. */
+        void pace(long at) {
+            while (nextFork >= 0 && nextFork <= at) {
+                forks.add(fork(nextFork));
+                nextFork = nextFork == ticks ? -1 : Math.min(ticks, nextFork + forkEvery);
+            }
+            tick = (int) at;
+        }
+
+        private Fork fork(int at) {
+            int[] pool = new int[delegate.size()];
+            int[] i = {0};
+            delegate.forEachInOrder(s -> pool[i[0]++] = ids.get(s));
+            int[] waiting = new int[awaiting.cardinality()], reviews = new int[waiting.length];
+            for (int p = awaiting.nextSetBit(0), j = 0; p >= 0; p = awaiting.nextSetBit(p + 1), j++) {
+                waiting[j] = p;
+                reviews[j] = taken[p];
+            }
+            return new Fork(at, nOps, entered, pool, waiting, reviews);
+        }
+
+        private void log(byte kind, int position, int submission) {
+            if (nOps == opTick.length) {
+                opTick = Arrays.copyOf(opTick, nOps * 2);
+                opPosition = Arrays.copyOf(opPosition, nOps * 2);
+                opKind = Arrays.copyOf(opKind, nOps * 2);
+                opSubmission = Arrays.copyOf(opSubmission, nOps * 2);
+            }
+            opTick[nOps] = tick;
+            opPosition[nOps] = position;
+            opKind[nOps] = kind;
+            opSubmission[nOps++] = submission;
+        }
+
+        @Override
+        public Submission retrieve(Learner me) {
+            Submission submission = super.retrieve(me);
+            int p = positions.get(me), id = submission == null ? NONE : ids.get(submission);
+            boolean afterReview = nOps > 0 && opPosition[nOps - 1] == p && opTick[nOps - 1] == tick
+                    && isReview(opKind[nOps - 1]);
+            byte kind = afterReview ? RETRIEVE_AFTER_REVIEW : RETRIEVE;
+            log(kind, p, id);
+            if (awaiting.get(p) && takesOn(kind, id) && ++taken[p] >= me.config.reviewsRequiredPerLearner)
+                awaiting.clear(p);
+            return submission;
+        }
+
+        @Override
+        public void submit(Submission submission) {
+            super.submit(submission);
+            if (nIds == owner.length) {
+                owner = Arrays.copyOf(owner, nIds * 2);
+                sequenceNumber = Arrays.copyOf(sequenceNumber, nIds * 2);
+                submissionTick = Arrays.copyOf(submissionTick, nIds * 2);
+            }
+            int p = positions.get(submission.owner), id = nIds++;
+            owner[id] = p;
+            sequenceNumber[id] = submission.sequenceNumber;
+            submissionTick[id] = (int) submission.tick;
+            ids.put(submission, id);
+            log(SUBMIT, p, id);
+            entered++;
+            awaiting.set(p);
+            taken[p] = 0;
+        }
+
+        @Override
+        public void resubmit(Submission reviewable) {
+            super.resubmit(reviewable);
+            log(RESUBMIT, positions.get(reviewable.reviewers.peekLast()), ids.get(reviewable));
+        }
+
+        @Override
+        void graded(Submission graded) {
+            super.graded(graded);
+            log(GRADED, positions.get(graded.reviewers.peekLast()), ids.get(graded));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.kedar.pra;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+import static org.kedar.pra.EventLoopTest.tickOutput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class CheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resumedRunsProduceTheRemainingOutput() throws IOException {
+        int ticks = 3000;
+        String input = randomInput(7, ticks, 250);
+        List<String> expected = tickOutput(input, ticks);
+        Path file = folder.newFile().toPath();
+        for (int at : new int[]{0, 40, 777, 1500, 2999}) {
+            for (boolean indexed : new boolean[]{false, true}) {
+                Set<Learner> learners = learners(input);
+                SubmissionPool pool = indexed ? new IndexedSubmissionPool() : new SubmissionPool();
+                List<String> actual = new ArrayList<>();
+                Simulator.mainLoop(0, at, learners, pool, s -> {
+                    if (s != null)
+                        actual.add(s.toOutput());
+                });
+                Checkpoint.write(file, at, ticks, learners, pool);
+
+                SubmissionPool restoredPool = indexed ? new IndexedSubmissionPool() : new SubmissionPool();
+                Checkpoint checkpoint = Checkpoint.read(file, restoredPool);
+                assertEquals(at, checkpoint.tick);
+                assertEquals(ticks, checkpoint.ticks);
+                assertEquals(pool.size(), restoredPool.size());
+                EventLoop.run(checkpoint.tick, checkpoint.ticks, checkpoint.learners(), restoredPool,
+                        s -> actual.add(s.toOutput()));
+                assertEquals("at " + at + ", indexed: " + indexed, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void checkpointOfACheckpointIsTheSame() throws IOException {
+        String input = randomInput(3, 1000, 100);
+        Set<Learner> learners = learners(input);
+        SubmissionPool pool = new SubmissionPool();
+        Simulator.mainLoop(0, 600, learners, pool, s -> {});
+        Path first = folder.newFile().toPath();
+        Path second = folder.newFile().toPath();
+        Checkpoint.write(first, 600, 1000, learners, pool);
+        SubmissionPool restoredPool = new SubmissionPool();
+        Checkpoint restored = Checkpoint.read(first, restoredPool);
+        Checkpoint.write(second, restored.tick, restored.ticks, restored.learners(), restoredPool);
+        assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+    }
+
+    @Test
+    public void checkpointsHoldTheirTickWhileTheRunGoesOn() throws IOException {
+        String input = randomInput(5, 2000, 300);
+        Set<Learner> learners = learners(input);
+        SubmissionPool pool = new SubmissionPool();
+        Path[] expected = {folder.newFile().toPath(), folder.newFile().toPath()};
+        Simulator.mainLoop(0, 900, learners, pool, s -> {});
+        Checkpoint.write(expected[0], 900, 2000, learners, pool);
+        Simulator.mainLoop(900, 1400, learners, pool, s -> {});
+        Checkpoint.write(expected[1], 1400, 2000, learners, pool);
+
+        learners = learners(input);
+        pool = new SubmissionPool();
+        Checkpoint.Series series = Checkpoint.Series.of(learners);
+        Path[] files = {folder.newFile().toPath(), folder.newFile().toPath()};
+        List<Runnable> writer = new ArrayList<>();
+        Simulator.mainLoop(0, 900, learners, pool, s -> {});
+        series.start(files[0], 900, 2000, pool, writer::add, 1 << 10);
+        Simulator.mainLoop(900, 1400, learners, pool, s -> {}); // saves the learners it changes first
+        writer.forEach(Runnable::run);
+        writer.clear();
+        series.start(files[1], 1400, 2000, pool, writer::add, 1 << 10);
+        Simulator.mainLoop(1400, 2000, learners, pool, s -> {});
+        writer.forEach(Runnable::run);
+        series.await();
+        for (int k = 0; k < 2; k++)
+            assertArrayEquals("checkpoint " + k, Files.readAllBytes(expected[k]), Files.readAllBytes(files[k]));
+        for (Learner learner : learners)
+            assertEquals(2, learner.checkpointSaved);
+    }
+
+    @Test
+    public void smallRegionsAndWindowsReadTheSameState() throws IOException {
+        int ticks = 2000;
+        String input = randomInput(9, ticks, 200);
+        List<String> expected = tickOutput(input, ticks);
+        Set<Learner> learners = learners(input);
+        SubmissionPool pool = new SubmissionPool();
+        List<String> actual = new ArrayList<>();
+        Simulator.mainLoop(0, 1200, learners, pool, s -> {
+            if (s != null)
+                actual.add(s.toOutput());
+        });
+        Path file = folder.newFile().toPath();
+        Checkpoint.Series series = Checkpoint.Series.of(learners);
+        series.start(file, 1200, ticks, pool, Runnable::run, 100);
+        series.await();
+        for (int windowBytes : new int[]{8, 100, 1 << 12}) {
+            SubmissionPool restoredPool = new SubmissionPool();
+            Checkpoint checkpoint = Checkpoint.read(file, restoredPool, windowBytes);
+            List<String> resumed = new ArrayList<>(actual);
+            EventLoop.run(checkpoint.tick, checkpoint.ticks, checkpoint.learners(), restoredPool,
+                    s -> resumed.add(s.toOutput()));
+            assertEquals("window: " + windowBytes, expected, resumed);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherFiles() throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, new byte[64]);
+        Checkpoint.read(file, new SubmissionPool());
+    }
+}
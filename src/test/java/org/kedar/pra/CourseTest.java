@@ -0,0 +1,77 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class CourseTest {
+
+    @Test
+    public void everyAssignmentRunsOnItsOwn() {
+        int ticks = 4000;
+        Set<Learner> learners = learners(randomInput(19, 2000, 200));
+        List<Assignment> assignments = Arrays.asList(
+                Assignment.of(1, 0, Config.DEFAULT),
+                Assignment.of(7, 300, Config.DEFAULT.withPassingPoints(250)),
+                Assignment.of(3, 300, Config.DEFAULT.withWorkTicks(80).withReviewsRequired(2, 4)),
+                Assignment.of(4, 3900, Config.DEFAULT));
+        for (boolean indexed : new boolean[]{false, true}) {
+            Course course = Course.of(learners, assignments,
+                    indexed ? IndexedSubmissionPool::new : SubmissionPool::new);
+            Map<Integer, List<String>> actual = new HashMap<>();
+            for (int from = 0; from < ticks; from += 1000)
+                course.run(from + 1000, s -> actual.computeIfAbsent(s.aid, aid -> new ArrayList<>()).add(s.toOutput()));
+            assertEquals(ticks, course.tick());
+            for (Assignment assignment : assignments) {
+                List<Learner> alone = new ArrayList<>();
+                for (Learner l : learners)
+                    alone.add(Learner.inactive(l.lid, new TimeTick(l.firstSubmissionStartTick.getValue()
+                            + assignment.releaseTick), l.trueGrade, l.reviewBias, assignment.config));
+                SubmissionPool pool = new SubmissionPool();
+                List<String> expected = new ArrayList<>();
+                EventLoop.run(0, ticks, alone, pool, s -> expected.add(s.toOutput()));
+                assertEquals(assignment.toString(), expected,
+                        actual.getOrDefault(assignment.aid, new ArrayList<>()));
+                assertEquals(pool.size(), course.pool(assignment.aid).size());
+            }
+        }
+    }
+
+    @Test
+    public void onlyActiveLearnersAreVisited() {
+        Set<Learner> learners = learners(randomInput(23, 400, 100));
+        List<Assignment> assignments = new ArrayList<>();
+        for (int a = 0; a < 20; a++)
+            assignments.add(Assignment.of(a, a * 1500, Config.DEFAULT));
+        Course course = Course.of(learners, assignments, SubmissionPool::new);
+        int[] mostActive = new int[1];
+        for (int from = 0; from < 32000; from += 100) {
+            course.run(from + 100, s -> {});
+            mostActive[0] = Math.max(mostActive[0], course.active());
+        }
+        // everyone has started on every assignment; those still active are waiting for reviews that never come
+        assertEquals(20 * learners.size(), course.active() + course.retired());
+        assertTrue(course.retired() > 0);
+        // assignments do not overlap, so at most one at a time has learners that are not stuck
+        assertTrue("at most " + mostActive[0], mostActive[0] <= course.active() + learners.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void assignmentIdsAreDistinct() {
+        Course.of(learners(randomInput(1, 100, 5)),
+                Arrays.asList(Assignment.of(2, 0, Config.DEFAULT), Assignment.of(2, 10, Config.DEFAULT)),
+                SubmissionPool::new);
+    }
+}
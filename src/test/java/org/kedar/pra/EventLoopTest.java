@@ -0,0 +1,113 @@
+package org.kedar.pra;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.Simulator.mainLoop;
+import static org.kedar.pra.Simulator.processInput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class EventLoopTest {
+
+    static String randomInput(long seed, int ticks, int nLearners) {
+        Random random = new Random(seed);
+        StringBuilder buf = new StringBuilder().append(ticks).append('\n').append(nLearners).append('\n');
+        for (int lid = 1; lid <= nLearners; lid++) {
+            buf.append(lid).append(' ')
+                    .append(random.nextInt(ticks / 4)).append(' ')
+                    .append(60 + random.nextInt(41)).append(' ')
+                    .append(random.nextInt(11) - 5).append('\n');
+        }
+        return buf.toString();
+    }
+
+    static Set<Learner> learners(String input) {
+        return (Set<Learner>) processInput(new ByteArrayInputStream(input.getBytes(Charsets.UTF_8)))[1];
+    }
+
+    static List<String> tickOutput(String input, int ticks) {
+        List<String> out = new ArrayList<>();
+        mainLoop(0, ticks, learners(input), s -> {
+            if (s != null)
+                out.add(s.toOutput());
+        });
+        return out;
+    }
+
+    @Test
+    public void sameOutputAsTickLoop() {
+        for (long seed = 0; seed < 20; seed++) {
+            int ticks = 2000;
+            String input = randomInput(seed, ticks, 5 + (int) seed * 10);
+            List<String> expected = tickOutput(input, ticks);
+            List<String> actual = new ArrayList<>();
+            EventLoop.run(0, ticks, learners(input), s -> actual.add(s.toOutput()));
+            assertFalse(expected.isEmpty());
+            assertEquals("seed: " + seed, expected, actual);
+        }
+    }
+
+    @Test
+    public void indexedPoolSameOutput() {
+        String input = randomInput(3, 3000, 200);
+        List<String> expected = tickOutput(input, 3000);
+        List<String> actual = new ArrayList<>();
+        EventLoop.run(0, 3000, learners(input), new IndexedSubmissionPool(), s -> actual.add(s.toOutput()));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void sameLearnerStatesAsTickLoop() {
+        String input = randomInput(42, 1000, 100);
+        Set<Learner> ticked = learners(input);
+        mainLoop(0, 1000, ticked, s -> {});
+        Set<Learner> evented = learners(input);
+        EventLoop.run(0, 1000, evented, s -> {});
+        assertEquals(ticked.toString(), evented.toString());
+    }
+
+    @Test
+    public void transitionsKeepTheWakeTicksAndScores() {
+        Set<Learner> learners = learners(randomInput(12, 3000, 200));
+        SubmissionPool pool = new SubmissionPool();
+        for (long at = 0; at < 3000; at++) {
+            for (Learner learner : learners) {
+                learner.respondTo(at, pool);
+                assertEquals(learner.workOutWakeTick(at), learner.nextWakeTick(at));
+            }
+        }
+        for (Learner learner : learners) {
+            for (Submission s : learner.submissions) {
+                int score = learner.trueGrade * s.reviewers.size();
+                for (Learner reviewer : s.reviewers)
+                    score += reviewer.reviewBias;
+                assertEquals(score, s.currentScore());
+            }
+        }
+    }
+
+    @Test
+    public void eventQueueOrdersKeys() {
+        EventQueue q = new EventQueue(1);
+        Random random = new Random(7);
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            long key = random.nextInt(100_000);
+            keys.add(key);
+            q.add(key);
+        }
+        keys.sort(null);
+        for (long key : keys)
+            assertEquals(key, q.poll());
+        assertTrue(q.isEmpty());
+    }
+}
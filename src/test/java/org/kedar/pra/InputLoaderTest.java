@@ -0,0 +1,101 @@
+package org.kedar.pra;
+
+import com.google.common.base.Charsets;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class InputLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static InputLoader.Input load(String input) {
+        return InputLoader.load(new ByteArrayInputStream(input.getBytes(Charsets.UTF_8)), 2);
+    }
+
+    private static String describe(InputLoader.Input input) {
+        List<String> learners = new ArrayList<>();
+        for (Learner l : input.learners())
+            learners.add(l.lid + " " + l.firstSubmissionStartTick + " " + l.trueGrade + " " + l.reviewBias);
+        return input.ticks + " " + learners;
+    }
+
+    @Test
+    public void sameAsLineByLine() {
+        String input = EventLoopTest.randomInput(9, 1000, 500);
+        List<String> expected = new ArrayList<>();
+        String[] lines = input.split("\n");
+        for (int i = 2; i < lines.length; i++) {
+            Learner l = Learner.fromInputLine(lines[i].trim());
+            expected.add(l.lid + " " + l.firstSubmissionStartTick + " " + l.trueGrade + " " + l.reviewBias);
+        }
+        assertEquals("1000 " + expected, describe(load(input)));
+    }
+
+    @Test
+    public void toleratesSpacingAndIgnoresExtras() {
+        InputLoader.Input input = load(" 7 \r\n2\n\t1   5 85 4 extra\r\n2 -0 +90 -3\n\nnot a learner");
+        assertEquals("7 [1 5 85 4, 2 0 90 -3]", describe(input));
+    }
+
+    @Test
+    public void smallChunksSameAsOne() {
+        String input = EventLoopTest.randomInput(12, 1000, 300);
+        String expected = describe(load(input));
+        for (int chunkBytes : new int[]{1, 5, 33, 4096}) {
+            InputLoader.Input chunked = InputLoader.load(new ByteArrayInputStream(input.getBytes(Charsets.UTF_8)), 4,
+                    chunkBytes);
+            assertEquals(expected, describe(chunked));
+        }
+        try {
+            InputLoader.load(new ByteArrayInputStream("10\n3\n1 2 3 4\n2 2 3 4\n3 ? 3 4\n".getBytes(Charsets.UTF_8)),
+                    2, 3);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("line 5: not a number", e.getMessage());
+        }
+    }
+
+    @Test
+    public void reportsTheLine() {
+        assertError("line 4: not a number", "10\n3\n1 2 3 4\n2 x 3 4\n3 2 3 4\n");
+        assertError("line 3: too few fields", "10\n1\n1 2 3\n");
+        assertError("line 5: expected 3 learners, found 2", "10\n3\n1 2 3 4\n2 2 3 4\n");
+        assertError("line 1: expected a single number", "10 11\n1\n1 2 3 4\n");
+        assertError("line 3: number out of range", "10\n1\n1 2 3 99999999999\n");
+        assertError("line 3: negative value not allowed: -2", "10\n1\n1 -2 3 4\n");
+    }
+
+    private static void assertError(String message, String input) {
+        try {
+            load(input);
+            fail("expected: " + message);
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    @Test
+    public void mappedFileSameAsStream() throws Exception {
+        String input = EventLoopTest.randomInput(10, 1000, 2000);
+        Path file = folder.newFile("input.txt").toPath();
+        Files.write(file, input.getBytes(Charsets.UTF_8));
+        String expected = describe(load(input));
+        assertEquals(expected, describe(InputLoader.load(file, 3)));
+        for (int chunkBytes : new int[]{1, 7, 64, 1000})
+            assertEquals(expected, describe(InputLoader.load(file, 3, chunkBytes)));
+        assertEquals(2000, InputLoader.load(file, 1).store().size());
+    }
+}
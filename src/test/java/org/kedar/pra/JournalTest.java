@@ -0,0 +1,178 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+import static org.kedar.pra.EventLoopTest.tickOutput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class JournalTest {
+
+    @Test
+    public void queriesMatchAFullScan() throws IOException {
+        int ticks = 6000;
+        String input = randomInput(3, ticks, 600);
+        Set<Learner> learners = learners(input);
+        Path file = Files.createTempFile("journal", ".bin");
+        try {
+            List<String> output = new ArrayList<>();
+            try (Journal.Writer journal = Journal.Writer.create(file, new SubmissionPool(), 1 << 10)) {
+                for (int from = 0; from < ticks; from += 1500)
+                    journal.run(from, from + 1500, learners, s -> output.add(s.toOutput()));
+                journal.finish();
+            }
+            assertEquals(tickOutput(input, ticks), output);
+
+            Journal.Reader reader = Journal.Reader.open(file);
+            List<Journal.Event> all = new ArrayList<>();
+            reader.forEach(all::add);
+            assertTrue("blocks: " + reader.blocks(), reader.blocks() > 4);
+            long submitted = all.stream().filter(e -> e.type == Journal.Type.SUBMITTED).count();
+            assertEquals(output.size(), submitted);
+            for (int i = 1; i < all.size(); i++)
+                assertTrue(all.get(i - 1).tick <= all.get(i).tick);
+
+            for (int lid : new int[]{1, 42, 600, 601}) {
+                List<String> expected = new ArrayList<>();
+                for (Journal.Event e : all)
+                    if (e.involves(lid))
+                        expected.add(e.toString());
+                List<String> actual = new ArrayList<>();
+                reader.about(lid).forEach(e -> actual.add(e.toString()));
+                assertEquals("lid: " + lid, expected, actual);
+            }
+            List<String> expected = new ArrayList<>();
+            for (Journal.Event e : all)
+                if (e.type == Journal.Type.GRADED && e.tick >= 1000 && e.tick < 1200)
+                    expected.add(e.toString());
+            List<String> actual = new ArrayList<>();
+            for (Journal.Event e : reader.between(1000, 1200))
+                if (e.type == Journal.Type.GRADED)
+                    actual.add(e.toString());
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, actual);
+            assertTrue("read " + reader.blocksRead + " of " + reader.blocks(), reader.blocksRead < reader.blocks() / 2);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void gradesMatchTheSubmissions() throws IOException {
+        int ticks = 3000;
+        Set<Learner> learners = learners(randomInput(8, ticks, 200));
+        Path file = Files.createTempFile("journal", ".bin");
+        try {
+            try (Journal.Writer journal = Journal.Writer.create(file, new SubmissionPool())) {
+                journal.run(0, ticks, learners, s -> {});
+                journal.finish();
+            }
+            for (Journal.Event e : Journal.Reader.open(file).between(0, ticks)) {
+                if (e.type != Journal.Type.GRADED)
+                    continue;
+                Learner owner = learners.stream().filter(l -> l.lid == e.lid).findFirst().get();
+                Submission graded = owner.submissions.stream()
+                        .filter(s -> s.sequenceNumber == e.sequenceNumber).findFirst().get();
+                assertEquals(graded.currentScore(), e.value);
+                assertEquals(graded.lastReviewTick, e.tick);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void smallWindowsReadTheSameEvents() throws IOException {
+        int ticks = 3000;
+        Set<Learner> learners = learners(randomInput(5, ticks, 300));
+        Path file = Files.createTempFile("journal", ".bin");
+        try {
+            try (Journal.Writer journal = Journal.Writer.create(file, new SubmissionPool(), 1 << 10)) {
+                journal.run(0, ticks, learners, s -> {});
+                journal.finish();
+            }
+            Journal.Reader whole = Journal.Reader.open(file);
+            List<String> expected = new ArrayList<>();
+            whole.forEach(e -> expected.add(e.toString()));
+            for (int windowBytes : new int[]{1, 1 << 12, 1 << 16}) {
+                Journal.Reader windowed = Journal.Reader.open(file, windowBytes);
+                List<String> actual = new ArrayList<>();
+                windowed.forEach(e -> actual.add(e.toString()));
+                assertEquals("window: " + windowBytes, expected, actual);
+                assertEquals(whole.about(7).toString(), windowed.about(7).toString());
+                assertEquals(whole.between(500, 900).toString(), windowed.between(500, 900).toString());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void spilledPostingsMakeTheSameJournal() throws IOException {
+        int ticks = 3000;
+        String input = randomInput(6, ticks, 300);
+        Path inMemory = Files.createTempFile("journal", ".bin");
+        Path spilled = Files.createTempFile("journal", ".bin");
+        try {
+            try (Journal.Writer journal = Journal.Writer.create(inMemory, new SubmissionPool(), 1 << 10)) {
+                journal.run(0, ticks, learners(input), s -> {});
+                journal.finish();
+            }
+            try (Journal.Writer journal = Journal.Writer.create(spilled, new SubmissionPool(), 1 << 10, 100)) {
+                journal.run(0, ticks, learners(input), s -> {});
+                journal.finish();
+            }
+            assertArrayEquals(Files.readAllBytes(inMemory), Files.readAllBytes(spilled));
+            try (DirectoryStream<Path> left = Files.newDirectoryStream(spilled.toAbsolutePath().getParent(),
+                    spilled.getFileName() + "*.postings")) {
+                assertFalse(left.iterator().hasNext());
+            }
+        } finally {
+            Files.delete(inMemory);
+            Files.delete(spilled);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aJournalWhoseRunThrewIsRejected() throws IOException {
+        Set<Learner> learners = learners(randomInput(9, 1000, 50));
+        Path file = Files.createTempFile("journal", ".bin");
+        try {
+            try (Journal.Writer journal = Journal.Writer.create(file, new SubmissionPool(), 1 << 10)) {
+                journal.run(0, 1000, learners, s -> {
+                    if (s.tick > 500)
+                        throw new IllegalStateException("the consumer failed");
+                });
+                journal.finish();
+            } catch (IllegalStateException expected) {
+                // the writer was closed without being finished
+            }
+            Journal.Reader.open(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void anUnfinishedJournalIsRejected() throws IOException {
+        Path file = Files.createTempFile("journal", ".bin");
+        try {
+            Files.write(file, new byte[]{0x50, 0x52, 0x41, 0x4a, 0, 0, 0, 1, 3, 0, 1, 2});
+            Journal.Reader.open(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.kedar.pra;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+import static org.kedar.pra.EventLoopTest.tickOutput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class LearnerStoreTest {
+
+    @Test
+    public void sameOutputAsObjects() {
+        for (long seed = 0; seed < 10; seed++) {
+            int ticks = 2000;
+            String input = randomInput(seed, ticks, 10 + (int) seed * 20);
+            List<String> expected = tickOutput(input, ticks);
+            LearnerStore store = LearnerStore.of(learners(input));
+            List<String> actual = new ArrayList<>();
+            store.run(0, ticks, s -> actual.add(store.toOutput(s)));
+            assertEquals("seed: " + seed, expected, actual);
+        }
+    }
+
+    @Test
+    public void sameLearnerStatesAsObjects() {
+        String input = randomInput(42, 1000, 100);
+        Set<Learner> objects = learners(input);
+        Simulator.mainLoop(0, 1000, objects, s -> {});
+        LearnerStore store = LearnerStore.of(learners(input));
+        store.run(0, 1000, s -> {});
+        int i = 0;
+        for (Learner learner : objects)
+            assertEquals("lid: " + learner.lid, learner.state, store.state(i++));
+    }
+
+    @Test
+    public void sameRunsAsObjectsUnderEachPool() {
+        Config[] configs = {Config.DEFAULT, Config.DEFAULT.withReviewsRequired(2, 4).withPassingPoints(170),
+                Config.DEFAULT.withReviewsRequired(4, 1).withWorkTicks(30).withReviewTicks(45)};
+        for (long seed = 0; seed < 4; seed++) {
+            String input = randomInput(seed, 3000, 150);
+            for (Config config : configs) {
+                for (boolean indexed : new boolean[]{false, true}) {
+                    InputLoader.Input loaded = InputLoader.load(
+                            new ByteArrayInputStream(input.getBytes(Charsets.UTF_8)), 1);
+                    Set<Learner> objects = loaded.learners(config);
+                    SubmissionPool pool = indexed ? new IndexedSubmissionPool() : new SubmissionPool();
+                    LearnerStore store = loaded.store(config);
+                    String run = "seed: " + seed + ", " + config + ", indexed: " + indexed;
+                    for (int from = 0; from < 3000; from += 500) {
+                        List<String> expected = new ArrayList<>();
+                        Simulator.mainLoop(from, from + 500, objects, pool, s -> {
+                            if (s != null)
+                                expected.add(s.toOutput());
+                        });
+                        List<String> actual = new ArrayList<>();
+                        store.run(from, from + 500, s -> actual.add(store.toOutput(s)));
+                        assertEquals(run + ", to: " + (from + 500), expected, actual);
+                        int i = 0;
+                        for (Learner learner : objects)
+                            assertEquals(run + ", lid: " + learner.lid, learner.state, store.state(i++));
+                        assertEquals(run, pool.size(), store.poolSize());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reusesTheSubmissionsNothingConsults() {
+        String input = randomInput(6, 6000, 200);
+        Config config = Config.DEFAULT.withPassingPoints(290); // most learners fail over and over
+        LearnerStore store = InputLoader.load(new ByteArrayInputStream(input.getBytes(Charsets.UTF_8)), 1)
+                .store(config);
+        int[] submitted = new int[1];
+        store.run(0, 6000, s -> submitted[0]++);
+        assertTrue("ids: " + store.submissionIds() + ", submitted: " + submitted[0],
+                store.submissionIds() < submitted[0] / 2);
+    }
+
+    @Test
+    public void growsPastCapacity() {
+        LearnerStore store = new LearnerStore(1);
+        for (int lid = 0; lid < 100; lid++)
+            assertEquals(lid, store.add(lid, lid % 7, 80, 0));
+        store.run(0, 500, s -> {});
+        assertEquals(100, store.size());
+    }
+}
@@ -0,0 +1,110 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.management.ObjectName;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+import static org.kedar.pra.EventLoopTest.tickOutput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class MetricsTest {
+
+    @Test
+    public void meteredRunsInStretchesProduceTheSameOutput() {
+        int ticks = 3000;
+        String input = randomInput(11, ticks, 300);
+        List<String> expected = tickOutput(input, ticks);
+        for (String engine : new String[]{"tick", "event", "parallel"}) {
+            Set<Learner> learners = learners(input);
+            Metrics metrics = new Metrics();
+            SubmissionPool pool = metrics.meter(new SubmissionPool());
+            List<String> actual = new ArrayList<>();
+            for (int from = 0; from < ticks; from += 700) {
+                int to = Math.min(ticks, from + 700);
+                if ("tick".equals(engine))
+                    Simulator.mainLoop(from, to, learners, pool, s -> {
+                        if (s != null)
+                            actual.add(s.toOutput());
+                    });
+                else if ("event".equals(engine))
+                    EventLoop.run(from, to, learners, pool, s -> actual.add(s.toOutput()));
+                else
+                    ParallelLoop.run(from, to, learners, pool, 3, s -> actual.add(s.toOutput()));
+                metrics.snapshot(to, learners);
+            }
+            assertEquals(engine, expected, actual);
+            assertCounts(metrics.latest(), learners, pool, ticks);
+        }
+    }
+
+    private static void assertCounts(Metrics.Snapshot snapshot, Set<Learner> learners, SubmissionPool pool,
+                                     int ticks) {
+        assertEquals(ticks, snapshot.tick);
+        assertEquals(pool.size(), snapshot.poolDepth);
+        int submissions = 0, graded = 0, maxLatency = 0;
+        for (Learner learner : learners) {
+            assertTrue(snapshot.learners(learner.state) > 0);
+            for (Submission s : learner.submissions) {
+                if (s.state == SubmissionState.SUBMITTED_TO_REVIEW)
+                    submissions++;
+                if (s.gradeTick() >= 0) {
+                    graded++;
+                    maxLatency = Math.max(maxLatency, s.gradeTick() - (int) s.tick);
+                }
+            }
+        }
+        int total = 0;
+        for (LearnerState state : LearnerState.values())
+            total += snapshot.learners(state);
+        assertEquals(learners.size(), total);
+        assertEquals(submissions, snapshot.submissions);
+        assertEquals(graded, snapshot.graded);
+        assertEquals(maxLatency, snapshot.gradingLatencyMax);
+        assertTrue(snapshot.gradingLatencyP50 <= snapshot.gradingLatencyP90);
+        assertTrue(snapshot.gradingLatencyP99 <= snapshot.gradingLatencyMax);
+        assertTrue(snapshot.retrieveHits > 0);
+    }
+
+    @Test
+    public void histogramBuckets() {
+        for (int v = 0; v < 100_000; v++) {
+            int i = Metrics.LatencyHistogram.index(v);
+            assertTrue(v + " is above " + Metrics.LatencyHistogram.upperBound(i),
+                    v <= Metrics.LatencyHistogram.upperBound(i));
+            assertTrue(i == 0 || v > Metrics.LatencyHistogram.upperBound(i - 1));
+        }
+        assertTrue(Metrics.LatencyHistogram.index(Integer.MAX_VALUE) >= 0);
+        Metrics.LatencyHistogram h = new Metrics.LatencyHistogram();
+        for (int v = 1; v <= 1000; v++)
+            h.record(v);
+        assertEquals(500.5, h.mean(), 1e-9);
+        int p50 = h.percentile(0.5);
+        assertTrue(p50 >= 500 && p50 <= 500 * 9 / 8);
+        assertEquals(1000, h.percentile(1));
+    }
+
+    @Test
+    public void exposedThroughJmx() throws Exception {
+        Metrics metrics = new Metrics().register();
+        try {
+            Set<Learner> learners = learners(randomInput(1, 500, 50));
+            Simulator.mainLoop(0, 500, learners, metrics.meter(new SubmissionPool()), s -> {});
+            metrics.snapshot(500, learners);
+            Object tick = ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute(new ObjectName(Metrics.OBJECT_NAME), "Tick");
+            assertEquals(500L, tick);
+        } finally {
+            metrics.unregister();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+import static org.kedar.pra.EventLoopTest.tickOutput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class ParallelLoopTest {
+
+    @Test
+    public void sameOutputAsSerialLoop() {
+        for (int threads : new int[]{1, 3, 8}) {
+            for (long seed = 0; seed < 5; seed++) {
+                int ticks = 2000;
+                String input = randomInput(seed, ticks, 50 + (int) seed * 40);
+                List<String> expected = tickOutput(input, ticks);
+                List<String> actual = new ArrayList<>();
+                ParallelLoop.run(0, ticks, learners(input), new SubmissionPool(), threads,
+                        s -> actual.add(s.toOutput()));
+                assertEquals("threads: " + threads + ", seed: " + seed, expected, actual);
+            }
+        }
+    }
+}
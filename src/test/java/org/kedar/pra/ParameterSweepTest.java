@@ -0,0 +1,125 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class ParameterSweepTest {
+
+    @Test
+    public void variantsMatchRunsThatSwitchParameters() {
+        int ticks = 3000;
+        Scenario scenario = Scenario.of(ticks, learners(randomInput(17, ticks, 150))).withJitter(10, 1);
+        List<ParameterSweep.Variant> variants = Arrays.asList(
+                ParameterSweep.Variant.of("stricter", 800, Config.DEFAULT.withPassingPoints(250)),
+                ParameterSweep.Variant.of("from the start", 0, Config.DEFAULT.withReviewTicks(35)),
+                ParameterSweep.Variant.parse("800:passingPoints=200"),
+                ParameterSweep.Variant.parse("2000:workTicks=30,reviewsRequiredPerLearner=2"),
+                ParameterSweep.Variant.parse("5000:passingPoints=100"));
+        List<ReplicaRunner.Result> results = ParameterSweep.run(scenario, 9, variants, 3);
+        assertEquals(variants.size(), results.size());
+        for (int v = 0; v < variants.size(); v++) {
+            ParameterSweep.Variant variant = variants.get(v);
+            int at = Math.min(ticks, variant.fromTick);
+            List<Learner> learners = new ArrayList<>();
+            for (Learner learner : scenario.population(9)) // a variant from tick 0 on follows its parameters throughout
+                learners.add(at > 0 ? learner : Learner.inactive(learner.lid, learner.firstSubmissionStartTick,
+                        learner.trueGrade, learner.reviewBias, variant.config));
+            SubmissionPool pool = new SubmissionPool();
+            int[] submissions = new int[1];
+            EventLoop.run(0, at, learners, pool, s -> submissions[0]++);
+            if (at > 0 && at < ticks) {
+                SubmissionPool switched = new SubmissionPool();
+                learners = switchTo(variant.config, learners, pool, switched);
+                pool = switched;
+            }
+            EventLoop.run(at, ticks, learners, pool, s -> submissions[0]++);
+            assertEquals(variant.name, ReplicaRunner.result(v, learners, submissions[0]).toString(),
+                    results.get(v).toString());
+        }
+        assertNotEquals(results.get(0).toString().substring(2), results.get(4).toString().substring(2));
+    }
+
+    @Test
+    public void forksAreIndependentCopies() {
+        int ticks = 2000;
+        String input = randomInput(21, ticks, 120);
+        List<String> expected = EventLoopTest.tickOutput(input, ticks);
+        List<Learner> learners = new ArrayList<>(learners(input));
+        SubmissionPool pool = new SubmissionPool();
+        List<String> prefix = new ArrayList<>();
+        EventLoop.run(0, 900, learners, pool, s -> prefix.add(s.toOutput()));
+        SubmissionPool forkedPool = new SubmissionPool();
+        List<Learner> forked = ParameterSweep.fork(learners, pool, forkedPool, Config.DEFAULT);
+        assertEquals(pool.size(), forkedPool.size());
+        for (List<Learner> run : Arrays.asList(forked, learners)) {
+            List<String> actual = new ArrayList<>(prefix);
+            EventLoop.run(900, ticks, run, run == forked ? forkedPool : pool, s -> actual.add(s.toOutput()));
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void configsAreParsed() {
+        Config config = Config.parse("passingPoints=250, reviewTicks=30");
+        assertEquals(250, config.passingPoints);
+        assertEquals(30, config.reviewTicks);
+        assertEquals(Config.WORK_TICKS, config.workTicks);
+        assertEquals(config, Config.parse(config.toString()));
+        assertEquals(Config.DEFAULT, Config.parse(""));
+        try {
+            Config.parse("passingGrade=1");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            Config.parse("workTicks=0");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Copies the learners, their submissions and reviews and the pool, the copies following the given parameters, as
+     * a reference for {@linkplain ParameterSweep#fork} that is made independently of it.
+     */
+    private static List<Learner> switchTo(Config config, List<Learner> learners, SubmissionPool pool,
+                                          SubmissionPool into) {
+        Map<Learner, Learner> copies = new IdentityHashMap<>();
+        for (Learner l : learners)
+            copies.put(l, Learner.restore(l.lid, l.firstSubmissionStartTick, l.state, l.trueGrade, l.reviewBias, config,
+                    l.aid));
+        Map<Submission, Submission> submissions = new IdentityHashMap<>();
+        for (Learner l : learners) {
+            for (Submission s : l.submissions) {
+                LinkedList<Learner> reviewers = new LinkedList<>();
+                for (Learner reviewer : s.reviewers)
+                    reviewers.addLast(copies.get(reviewer));
+                Submission c = new Submission(copies.get(l), s.aid, s.tick, s.state, reviewers, s.sequenceNumber);
+                c.lastReviewTick = s.lastReviewTick;
+                copies.get(l).submissions.addLast(c);
+                submissions.put(s, c);
+            }
+        }
+        List<Learner> switched = new ArrayList<>();
+        for (Learner l : learners) {
+            for (Submission s : l.reviewsDone)
+                copies.get(l).reviewsDone.addLast(s == null ? null : submissions.get(s));
+            switched.add(copies.get(l));
+        }
+        pool.forEachInOrder(s -> into.resubmit(submissions.get(s)));
+        return switched;
+    }
+}
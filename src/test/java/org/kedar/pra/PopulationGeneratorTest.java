@@ -0,0 +1,95 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class PopulationGeneratorTest {
+
+    private static final PopulationGenerator GENERATOR = PopulationGenerator.of(5000, 3 * PopulationGenerator.BLOCK + 7)
+            .withArrivals(PopulationGenerator.Distribution.parse("waves:3:0.05:0.1", 5000))
+            .withGrades(PopulationGenerator.Distribution.parse("normal:85:5:0:100@0.8+normal:50:10:0:100@0.2", 5000))
+            .withSeed(11);
+
+    @Test
+    public void aPopulationDependsOnItsSeedOnly() {
+        InputLoader.Input one = GENERATOR.generate(1), four = GENERATOR.generate(4);
+        assertArrayEquals(one.lid, four.lid);
+        assertArrayEquals(one.firstSubmissionStartTick, four.firstSubmissionStartTick);
+        assertArrayEquals(one.trueGrade, four.trueGrade);
+        assertArrayEquals(one.reviewBias, four.reviewBias);
+        assertFalse(Arrays.equals(one.trueGrade, GENERATOR.withSeed(12).generate(4).trueGrade));
+    }
+
+    @Test
+    public void aWrittenPopulationLoadsAsGenerated() throws IOException {
+        Path path = Files.createTempFile("population", ".txt");
+        try {
+            GENERATOR.write(path, 3);
+            InputLoader.Input generated = GENERATOR.generate(2), loaded = InputLoader.load(path, 2);
+            assertEquals(generated.ticks, loaded.ticks);
+            assertEquals(generated.size, loaded.size);
+            assertArrayEquals(generated.lid, loaded.lid);
+            assertArrayEquals(generated.firstSubmissionStartTick, loaded.firstSubmissionStartTick);
+            assertArrayEquals(generated.trueGrade, loaded.trueGrade);
+            assertArrayEquals(generated.reviewBias, loaded.reviewBias);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void samplesFollowTheirDistributions() {
+        InputLoader.Input input = GENERATOR.generate(2);
+        int[] arrivals = new int[input.ticks];
+        int failing = 0;
+        for (int i = 0; i < input.size; i++) {
+            arrivals[input.firstSubmissionStartTick[i]]++;
+            assertTrue(input.trueGrade[i] >= 0 && input.trueGrade[i] <= 100);
+            assertTrue(input.reviewBias[i] >= -5 && input.reviewBias[i] <= 5);
+            if (input.trueGrade[i] < 68)
+                failing++;
+        }
+        int crest = 0, trough = 0; // around the middle of the second wave, and halfway to the third
+        for (int t = 2450; t < 2550; t++)
+            crest += arrivals[t];
+        for (int t = 3283; t < 3383; t++)
+            trough += arrivals[t];
+        assertTrue(crest + " vs " + trough, crest > 20 * trough && trough > 0);
+        assertEquals(0.2, (double) failing / input.size, 0.01);
+    }
+
+    @Test
+    public void anAliasTableKeepsTheWeights() {
+        PopulationGenerator.Distribution d = PopulationGenerator.Distribution.weighted(-2, 1, 0, 3, 6);
+        int[] counts = new int[4];
+        SplittableRandom random = new SplittableRandom(5);
+        int n = 1_000_000;
+        for (int i = 0; i < n; i++)
+            counts[d.sample(random) + 2]++;
+        assertEquals(0, counts[1]);
+        for (int v = -2; v < 2; v++)
+            assertEquals(d.probability(v), (double) counts[v + 2] / n, 0.002);
+    }
+
+    @Test
+    public void malformedDistributionsAreRejected() {
+        for (String spec : new String[]{"uniform:5", "uniform:5:4", "normal:80:0:0:100", "waves:0:0.1", "80@x",
+                "uniform:0:1@0.5+", "gaussian:1:2"}) {
+            try {
+                PopulationGenerator.Distribution.parse(spec, 100);
+                fail(spec);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+import static org.kedar.pra.EventLoopTest.tickOutput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class QueryTest {
+
+    @Test
+    public void everyLoopReportsWhatAFilteredOutputHas() {
+        int ticks = 3000;
+        String input = randomInput(4, ticks, 300);
+        Query query = Query.parse("lids=1;7;42;150;299, sequenceNumbers=0:3, ticks=100:2500");
+        List<String> expected = new ArrayList<>();
+        for (String line : tickOutput(input, ticks)) {
+            String[] fields = line.split(" ");
+            int lid = Integer.parseInt(fields[0]), sequenceNumber = Integer.parseInt(fields[1]);
+            int tick = Integer.parseInt(fields[2]);
+            if ((lid == 1 || lid == 7 || lid == 42 || lid == 150 || lid == 299) && sequenceNumber < 3
+                    && tick >= 100 && tick < 2500)
+                expected.add(line);
+        }
+        assertFalse(expected.isEmpty());
+        for (String engine : new String[]{"tick", "event", "parallel"}) {
+            List<String> actual = new ArrayList<>();
+            run(engine, ticks, learners(input), query, actual);
+            assertEquals(engine, expected, actual);
+        }
+    }
+
+    @Test
+    public void outcomesAreReportedOnceGraded() {
+        int ticks = 4000;
+        String input = randomInput(6, ticks, 400);
+        Set<Learner> learners = learners(input);
+        Simulator.mainLoop(0, ticks, learners, new SubmissionPool(), s -> {});
+        List<String> passing = new ArrayList<>(), failing = new ArrayList<>();
+        for (Learner l : learners)
+            for (Submission s : l.submissions)
+                if (s.gradeTick() >= 0)
+                    (s.currentScore() >= Config.PASSING_POINTS ? passing : failing).add(s.toOutput());
+        assertFalse(passing.isEmpty());
+        assertFalse(failing.isEmpty());
+        Collections.sort(passing);
+        Collections.sort(failing);
+        for (String engine : new String[]{"tick", "event", "parallel"}) {
+            List<String> graded = new ArrayList<>();
+            run(engine, ticks, learners(input), Query.ALL.withOutcome(Query.Outcome.PASSING), graded);
+            Collections.sort(graded);
+            assertEquals(engine, passing, graded);
+            graded.clear();
+            run(engine, ticks, learners(input), Query.ALL.withOutcome(Query.Outcome.FAILING), graded);
+            Collections.sort(graded);
+            assertEquals(engine, failing, graded);
+        }
+    }
+
+    @Test
+    public void theConsumerOnlySeesTheLearnersAskedFor() {
+        int ticks = 2000;
+        List<String> output = new ArrayList<>();
+        Simulator.mainLoop(0, ticks, learners(randomInput(1, ticks, 100)), new SubmissionPool(),
+                Query.ALL.withLids(5), s -> {
+                    assertNotNull(s);
+                    assertEquals(5, s.owner.lid);
+                    output.add(s.toOutput());
+                });
+        assertFalse(output.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void anUnknownFilterIsRejected() {
+        Query.parse("lids=1,grade=3");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aReversedRangeIsRejected() {
+        assertNotNull(Query.parse("ticks=5:5"));
+        Query.parse("ticks=5:4");
+    }
+
+    private static void run(String engine, int ticks, Set<Learner> learners, Query query, List<String> into) {
+        SubmissionPool pool = new IndexedSubmissionPool();
+        if ("tick".equals(engine))
+            Simulator.mainLoop(0, ticks, learners, pool, query, s -> into.add(s.toOutput()));
+        else if ("event".equals(engine))
+            EventLoop.run(0, ticks, learners, pool, query, s -> into.add(s.toOutput()));
+        else
+            ParallelLoop.run(0, ticks, learners, pool, 4, query, s -> into.add(s.toOutput()));
+    }
+}
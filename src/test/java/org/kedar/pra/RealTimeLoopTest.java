@@ -0,0 +1,74 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+import static org.kedar.pra.EventLoopTest.tickOutput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class RealTimeLoopTest {
+
+    @Test
+    public void sameOutputAsTickLoop() {
+        for (long seed = 0; seed < 3; seed++) {
+            int ticks = 3000;
+            String input = randomInput(seed, ticks, 200);
+            List<String> actual = new ArrayList<>();
+            RealTimeLoop.run(0, ticks, learners(input), new SubmissionPool(), 0, Query.ALL,
+                    s -> actual.add(s.toOutput()));
+            assertEquals(tickOutput(input, ticks), actual);
+        }
+    }
+
+    @Test
+    public void aLoopThatFallsBehindCatchesUp() {
+        int ticks = 2000;
+        long nanosPerTick = 1_000_000;
+        FakeClock clock = new FakeClock();
+        List<String> actual = new ArrayList<>();
+        String input = randomInput(7, ticks, 200);
+        RealTimeLoop.Pacing pacing = RealTimeLoop.run(0, ticks, learners(input), new SubmissionPool(), nanosPerTick,
+                Query.ALL, s -> {
+                    actual.add(s.toOutput());
+                    if (actual.size() == 100)
+                        clock.now += 25 * nanosPerTick; // a stall under load
+                }, clock);
+        assertEquals(tickOutput(input, ticks), actual);
+        assertEquals("no drift", ticks * nanosPerTick, clock.now);
+        assertTrue(pacing.toString(), pacing.lateTicks > 0 && pacing.lateTicks < 25);
+        assertEquals(25 * nanosPerTick, pacing.maxLagNanos, nanosPerTick);
+    }
+
+    @Test
+    public void keepsUpWithTheSystemClock() {
+        int ticks = 300;
+        long start = System.nanoTime();
+        RealTimeLoop.Pacing pacing = RealTimeLoop.run(0, ticks, learners(randomInput(3, ticks, 50)),
+                new SubmissionPool(), 1_000_000, Query.ALL, s -> {});
+        long elapsed = System.nanoTime() - start;
+        assertTrue("elapsed: " + elapsed, elapsed >= ticks * 1_000_000L);
+        assertTrue(pacing.toString(), pacing.ticks > 0);
+    }
+
+    /** A clock that only moves when waited on, or when told to. */
+    private static final class FakeClock implements RealTimeLoop.Clock {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void parkUntil(long nanoTime) {
+            now = Math.max(now, nanoTime);
+        }
+    }
+}
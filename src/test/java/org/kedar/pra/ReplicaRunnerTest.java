@@ -0,0 +1,42 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class ReplicaRunnerTest {
+
+    @Test
+    public void replicasAreIsolatedAndReproducible() {
+        Scenario scenario = Scenario.of(1500, learners(randomInput(5, 1500, 60))).withJitter(20, 2);
+        List<ReplicaRunner.Result> results = new ArrayList<>();
+        ReplicaRunner.Summary summary = ReplicaRunner.run(scenario, 12, 100, 4, results::add);
+        assertEquals(12, summary.replicas());
+        assertEquals(12, results.size());
+        for (ReplicaRunner.Result result : results) {
+            ReplicaRunner.Result again = ReplicaRunner.runReplica(scenario, result.replica, 100 + result.replica);
+            assertEquals(again.toString(), result.toString());
+            assertEquals(60, result.learners);
+        }
+        ReplicaRunner.Summary serial = ReplicaRunner.run(scenario, 12, 100, 1, r -> {});
+        assertEquals(serial.meanPassRate(), summary.meanPassRate(), 0);
+        assertEquals(serial.meanTicksToGrade(), summary.meanTicksToGrade(), 0);
+    }
+
+    @Test
+    public void noJitterReproducesTheInput() {
+        String input = randomInput(6, 1000, 40);
+        List<String> expected = EventLoopTest.tickOutput(input, 1000);
+        List<String> actual = new ArrayList<>();
+        EventLoop.run(0, 1000, Scenario.of(1000, learners(input)).population(123), s -> actual.add(s.toOutput()));
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,119 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+import static org.kedar.pra.EventLoopTest.tickOutput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class ResultSinkTest {
+
+    @Test
+    public void textIsWhatThePrinterPrints() {
+        int ticks = 2000;
+        String input = randomInput(3, ticks, 200);
+        StringBuilder expected = new StringBuilder();
+        for (String line : tickOutput(input, ticks))
+            expected.append(line).append(System.lineSeparator());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // tiny buffers, so that the simulation keeps waiting for the writer
+        try (ResultSink sink = new ResultSink(Channels.newChannel(out), ResultSink.Format.TEXT, 2, 64)) {
+            Simulator.mainLoop(0, ticks, learners(input), sink);
+        }
+        assertEquals(expected.toString(), new String(out.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void columnarTextIsTheSame() {
+        int ticks = 1000;
+        String input = randomInput(5, ticks, 100);
+        List<String> expected = tickOutput(input, ticks);
+        LearnerStore store = LearnerStore.of(learners(input));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ResultSink sink = new ResultSink(Channels.newChannel(out), ResultSink.Format.TEXT)) {
+            store.run(0, ticks, s -> store.writeTo(s, sink));
+        }
+        String text = new String(out.toByteArray(), StandardCharsets.US_ASCII);
+        assertEquals(expected, text.isEmpty() ? Collections.emptyList()
+                : Arrays.asList(text.split(System.lineSeparator())));
+    }
+
+    @Test
+    public void binaryRecords() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ResultSink sink = new ResultSink(Channels.newChannel(out), ResultSink.Format.BINARY, 2, 20)) {
+            sink.write(7, 1, 12, -3, -1);
+            sink.write(Integer.MAX_VALUE, 2, 0, Integer.MIN_VALUE, 40);
+        }
+        ByteBuffer records = ByteBuffer.wrap(out.toByteArray());
+        assertEquals(40, records.remaining());
+        int[] expected = {7, 1, 12, -3, -1, Integer.MAX_VALUE, 2, 0, Integer.MIN_VALUE, 40};
+        for (int value : expected)
+            assertEquals(value, records.getInt());
+    }
+
+    @Test
+    public void negativeAndExtremeNumbersAsText() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ResultSink sink = new ResultSink(Channels.newChannel(out), ResultSink.Format.TEXT)) {
+            sink.write(0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, -10);
+        }
+        assertEquals("0 -1 -2147483648 2147483647 -10" + System.lineSeparator(),
+                new String(out.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void writerFailureIsRethrown() {
+        WritableByteChannel broken = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ResultSink sink = new ResultSink(broken, ResultSink.Format.TEXT, 2, 64);
+        try {
+            for (int i = 0; i < 1000; i++) // never blocks forever, even though nothing is written
+                sink.write(i, 1, i, 0, -1);
+            sink.close();
+            fail("expected the failure of the writer");
+        } catch (UncheckedIOException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void formatsAreNamedAsOnTheCommandLine() {
+        assertEquals(ResultSink.Format.TEXT, ResultSink.Format.forName("text"));
+        assertEquals(ResultSink.Format.BINARY, ResultSink.Format.forName("binary"));
+        try {
+            ResultSink.Format.forName("TEXT");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("unknown format: TEXT, expected text or binary", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class RunStatisticsTest {
+
+    @Test
+    public void statisticsMatchTheRetainedSubmissions() {
+        List<Submission> entered = new ArrayList<>(), graded = new ArrayList<>();
+        SubmissionPool retaining = new SubmissionPool() {
+            @Override
+            public void submit(Submission submission) {
+                super.submit(submission);
+                entered.add(submission);
+            }
+
+            @Override
+            void graded(Submission submission) {
+                super.graded(submission);
+                graded.add(submission);
+            }
+        };
+        RunStatistics statistics = new RunStatistics();
+        EventLoop.run(0, 6000, learners(randomInput(8, 6000, 400)), statistics.observe(retaining), s -> {});
+
+        assertTrue(statistics.attempts() > 1);
+        int[] scores = new int[graded.size()], latencies = new int[graded.size()];
+        long resubmissions = 0;
+        for (int seq = 0; seq < statistics.attempts(); seq++) {
+            long e = 0, g = 0, p = 0;
+            for (Submission s : entered)
+                if (s.sequenceNumber == seq)
+                    e++;
+            for (Submission s : graded)
+                if (s.sequenceNumber == seq) {
+                    g++;
+                    if (s.currentScore() >= s.owner.config.passingPoints)
+                        p++;
+                }
+            assertEquals(e, statistics.entered(seq));
+            assertEquals(g, statistics.graded(seq));
+            assertEquals(p, statistics.passed(seq));
+            if (seq > 0)
+                resubmissions += e;
+        }
+        assertEquals((double) resubmissions / statistics.entered(0), statistics.meanResubmissions(), 1e-12);
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = graded.get(i).currentScore();
+            latencies[i] = graded.get(i).gradeTick() - (int) graded.get(i).tick;
+        }
+        Arrays.sort(scores);
+        Arrays.sort(latencies);
+        for (double q : new double[]{0, 0.1, 0.5, 0.9, 0.99, 1}) {
+            assertEquals(exact(scores, q), statistics.scoreQuantile(q), exact(scores, q) / 128.0);
+            assertEquals(exact(latencies, q), statistics.gradingLatencyQuantile(q), exact(latencies, q) / 128.0);
+        }
+    }
+
+    @Test
+    public void replicasMergeTheSameInAnyOrder() {
+        Scenario scenario = Scenario.of(1500, learners(randomInput(5, 1500, 60))).withJitter(20, 2);
+        RunStatistics parallel = new RunStatistics(), serial = new RunStatistics();
+        ReplicaRunner.run(scenario, 8, 100, 4, r -> {}, parallel);
+        ReplicaRunner.run(scenario, 8, 100, 1, r -> {}, serial);
+        assertEquals(serial.toString(), parallel.toString());
+        assertEquals(serial.gradedTotal(), parallel.gradedTotal());
+        assertTrue(parallel.entered(0) > 0);
+    }
+
+    @Test
+    public void mergedSketchesAreTheSketchOfAllTheValues() {
+        Random random = new Random(3);
+        QuantileSketch whole = new QuantileSketch(), left = new QuantileSketch(), right = new QuantileSketch();
+        int[] values = new int[200_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(4) == 0 ? -random.nextInt(1000) : (int) Math.exp(random.nextDouble() * 20);
+            whole.record(values[i]);
+            (i % 3 == 0 ? left : right).record(values[i]);
+        }
+        left.merge(right);
+        Arrays.sort(values);
+        for (double q = 0; q <= 1; q += 0.05) {
+            int expected = exact(values, q);
+            assertEquals(whole.quantile(q), left.quantile(q));
+            assertEquals(expected, whole.quantile(q), Math.abs(expected) / 128.0 + 1);
+        }
+        assertEquals(values[0], left.min());
+        assertEquals(values[values.length - 1], left.max());
+        assertEquals(whole.mean(), left.mean(), 0);
+    }
+
+    private static int exact(int[] sorted, double q) {
+        return sorted[(int) Math.max(0, Math.ceil(q * sorted.length) - 1)];
+    }
+}
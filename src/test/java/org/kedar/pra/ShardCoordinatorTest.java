@@ -0,0 +1,78 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class ShardCoordinatorTest {
+
+    @Test
+    public void sameOutputAsTickLoop() {
+        for (int shards : new int[]{1, 2, 5}) {
+            for (long seed = 0; seed < 3; seed++) {
+                int ticks = 2000;
+                String input = randomInput(seed, ticks, 60 + (int) seed * 70);
+                for (boolean indexed : new boolean[]{false, true}) {
+                    SubmissionPool pool = indexed ? new IndexedSubmissionPool() : new SubmissionPool();
+                    List<String> expected = new ArrayList<>();
+                    Simulator.mainLoop(0, ticks, learners(input), pool, s -> {
+                        if (s != null)
+                            expected.add(s.toOutput());
+                    });
+                    List<String> actual = new ArrayList<>();
+                    int pooled = ShardCoordinator.run(ticks, learners(input), shards, indexed,
+                            ShardCoordinator.Launch.THREADS, Collections.emptyList(), collect(actual));
+                    String what = "shards: " + shards + ", seed: " + seed + ", indexed: " + indexed;
+                    assertEquals(what, expected, actual);
+                    assertEquals(what, pool.size(), pooled);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameOutputAcrossProcesses() {
+        int ticks = 3000;
+        String input = randomInput(11, ticks, 400);
+        Config config = Config.DEFAULT.withWorkTicks(40).withReviewTicks(60);
+        Set<Learner> learners = learners(input);
+        List<Learner> following = new ArrayList<>();
+        for (Learner l : learners)
+            following.add(Learner.inactive(l.lid, l.firstSubmissionStartTick, l.trueGrade, l.reviewBias, config));
+        SubmissionPool pool = new SubmissionPool();
+        List<String> expected = new ArrayList<>();
+        EventLoop.run(0, ticks, following, pool, s -> expected.add(s.toOutput()));
+        following.clear();
+        for (Learner l : learners)
+            following.add(Learner.inactive(l.lid, l.firstSubmissionStartTick, l.trueGrade, l.reviewBias, config));
+        List<String> actual = new ArrayList<>();
+        int pooled = ShardCoordinator.run(ticks, following, 3, false, ShardCoordinator.Launch.PROCESSES,
+                Collections.singletonList("-Xmx64m"), collect(actual));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+        assertEquals(pool.size(), pooled);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void learnersFollowTheSameParameters() {
+        List<Learner> learners = new ArrayList<>(learners(randomInput(2, 100, 10)));
+        learners.add(Learner.inactive(99, new TimeTick(0), 80, 0, Config.DEFAULT.withPassingPoints(200)));
+        ShardCoordinator.run(100, learners, 2, false, ShardCoordinator.Launch.THREADS, Collections.emptyList(),
+                (lid, sequenceNumber, tick, score, gradeTick) -> {});
+    }
+
+    private static ShardCoordinator.Output collect(List<String> into) {
+        return (lid, sequenceNumber, tick, score, gradeTick) ->
+                into.add(lid + " " + sequenceNumber + " " + tick + " " + score + " " + gradeTick);
+    }
+}
@@ -0,0 +1,97 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+import static org.kedar.pra.EventLoopTest.tickOutput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class StreamingLoopTest {
+
+    /**
+     * @return the given input with the learner lines in the order of their start ticks
+     */
+    static String byStartTick(String input) {
+        String[] lines = input.split("\n");
+        String[] learners = Arrays.copyOfRange(lines, 2, lines.length);
+        Arrays.sort(learners, Comparator.comparingInt(line -> Integer.parseInt(line.split(" ")[1])));
+        return lines[0] + "\n" + lines[1] + "\n" + String.join("\n", learners) + "\n";
+    }
+
+    @Test
+    public void streamedLearnersProduceTheSameOutput() throws IOException {
+        int ticks = 3000;
+        String input = byStartTick(randomInput(13, ticks, 400));
+        List<String> expected = tickOutput(input, ticks);
+        for (boolean indexed : new boolean[]{false, true}) {
+            StreamingLoop loop = new StreamingLoop(indexed ? new IndexedSubmissionPool() : new SubmissionPool(), 8);
+            BufferedReader lines = new BufferedReader(new StringReader(input));
+            lines.readLine(); // the ticks
+            lines.readLine(); // the number of learners
+            loop.enrollInBackground(lines, 400, Config.DEFAULT);
+            List<String> actual = new ArrayList<>();
+            long[] mostActive = new long[1];
+            for (int from = 0; from < ticks; from += 500) {
+                loop.run(Math.min(ticks, from + 500), s -> {
+                    actual.add(s.toOutput());
+                    mostActive[0] = Math.max(mostActive[0], loop.active());
+                });
+            }
+            assertEquals("indexed: " + indexed, expected, actual);
+            assertEquals(ticks, loop.tick());
+            assertEquals(400, loop.enrolled());
+            assertTrue(loop.retired() > 0);
+            assertEquals(400, loop.active() + loop.retired());
+            assertTrue(mostActive[0] < 400);
+        }
+    }
+
+    @Test
+    public void retiredLearnersAreFinished() {
+        String input = byStartTick(randomInput(5, 2000, 100));
+        Set<Learner> learners = learners(input);
+        StreamingLoop loop = new StreamingLoop(new SubmissionPool(), learners.size());
+        learners.forEach(loop::enroll);
+        loop.close();
+        loop.run(2000, s -> {});
+        int retired = 0;
+        for (Learner learner : learners) {
+            if (learner.submissions.isEmpty() && learner.state == LearnerState.SLEEPING)
+                retired++;
+        }
+        assertEquals(loop.retired(), retired);
+    }
+
+    @Test
+    public void lateLearnersJoinAtTheNextTick() {
+        StreamingLoop loop = new StreamingLoop(new SubmissionPool(), 4);
+        loop.enroll(Learner.inactive(1, new TimeTick(0), 90, 0));
+        loop.enroll(Learner.inactive(2, new TimeTick(200), 90, 0));
+        loop.run(100, s -> {});
+        Learner late = Learner.inactive(3, new TimeTick(10), 90, 0);
+        loop.enroll(late);
+        loop.close();
+        loop.run(101, s -> {});
+        assertEquals(100, late.submissions.peekLast().tick);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failedEnrollmentIsRethrown() {
+        StreamingLoop loop = new StreamingLoop(new SubmissionPool(), 4);
+        loop.enrollInBackground(new BufferedReader(new StringReader("1 0 90 0\nnot a learner\n")), 2, Config.DEFAULT);
+        loop.run(10, s -> {});
+    }
+}
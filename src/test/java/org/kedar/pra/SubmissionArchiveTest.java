@@ -0,0 +1,94 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+import static org.kedar.pra.EventLoopTest.tickOutput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class SubmissionArchiveTest {
+
+    @Test
+    public void compactingChangesNothingAboutTheRun() throws IOException {
+        int ticks = 6000;
+        String input = randomInput(5, ticks, 500);
+        Set<Learner> whole = learners(input);
+        EventLoop.run(0, ticks, whole, new SubmissionPool(), s -> {});
+        List<String> history = new ArrayList<>();
+        for (Learner l : whole)
+            for (Submission s : l.submissions)
+                history.add(s.toOutput());
+        Collections.sort(history);
+
+        Path file = Files.createTempFile("archive", ".bin");
+        try {
+            for (boolean offHeap : new boolean[]{true, false}) {
+                Set<Learner> learners = learners(input);
+                SubmissionPool pool = new IndexedSubmissionPool();
+                List<String> output = new ArrayList<>();
+                try (SubmissionArchive archive = offHeap ? SubmissionArchive.offHeap() : SubmissionArchive.file(file)) {
+                    for (int from = 0; from < ticks; from += 500) {
+                        EventLoop.run(from, from + 500, learners, pool, s -> output.add(s.toOutput()));
+                        archive.compact(learners, pool);
+                    }
+                    assertEquals(tickOutput(input, ticks), output);
+                    assertTrue("archived: " + archive.size(), archive.size() > history.size() / 2);
+                    List<String> actual = new ArrayList<>();
+                    for (SubmissionArchive.Record r : archive)
+                        actual.add(r.toOutput());
+                    assertEquals(archive.size(), actual.size());
+                    for (Learner l : learners) {
+                        assertFalse(l.submissions.isEmpty());
+                        for (Submission s : l.submissions)
+                            actual.add(s.toOutput());
+                    }
+                    Collections.sort(actual);
+                    assertEquals("off heap: " + offHeap, history, actual);
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void aCompactedRunResumesFromACheckpoint() throws IOException {
+        int ticks = 4000;
+        String input = randomInput(9, ticks, 300);
+        Set<Learner> learners = learners(input);
+        SubmissionPool pool = new SubmissionPool();
+        List<String> output = new ArrayList<>();
+        Simulator.mainLoop(0, 2000, learners, pool, s -> {
+            if (s != null)
+                output.add(s.toOutput());
+        });
+        try (SubmissionArchive archive = SubmissionArchive.offHeap()) {
+            assertTrue(archive.compact(learners, pool) > 0);
+        }
+        Path file = Files.createTempFile("checkpoint", ".bin");
+        try {
+            Checkpoint.write(file, 2000, ticks, learners, pool);
+            SubmissionPool restored = new SubmissionPool();
+            Checkpoint checkpoint = Checkpoint.read(file, restored);
+            Simulator.mainLoop(2000, ticks, checkpoint.learners(), restored, s -> {
+                if (s != null)
+                    output.add(s.toOutput());
+            });
+        } finally {
+            Files.delete(file);
+        }
+        assertEquals(tickOutput(input, ticks), output);
+    }
+}
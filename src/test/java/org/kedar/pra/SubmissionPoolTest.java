@@ -0,0 +1,237 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class SubmissionPoolTest {
+
+    /** The plain first-eligible scan the pool is indexed to avoid. */
+    private static Submission scan(LinkedHashSet<Submission> pool, Learner me) {
+        Iterator<Submission> iter = pool.iterator();
+        while (iter.hasNext()) {
+            Submission next = iter.next();
+            if (next.owner.lid != me.lid && !next.reviewers.contains(me)) {
+                iter.remove();
+                return next;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void retrievesOldestEligible() {
+        retrievesOldestEligible(new SubmissionPool());
+        retrievesOldestEligible(new IndexedSubmissionPool());
+    }
+
+    private void retrievesOldestEligible(SubmissionPool pool) {
+        Learner a = Learner.worker(1, new TimeTick(0), 80, 0);
+        Learner b = Learner.worker(2, new TimeTick(0), 80, 0);
+        Learner c = Learner.worker(3, new TimeTick(0), 80, 0);
+        Submission fromA = new Submission(a, 1, new TimeTick(0), SubmissionState.IN_FLIGHT, new LinkedList<>(), 0);
+        Submission fromB = new Submission(b, 1, new TimeTick(1), SubmissionState.IN_FLIGHT, new LinkedList<>(), 0);
+        pool.submit(fromA);
+        pool.submit(fromB);
+        assertSame(fromB, pool.retrieve(a));
+        assertNull(pool.retrieve(a));
+        fromB.provideReview(a, new TimeTick(2));
+        pool.resubmit(fromB);
+        assertSame(fromA, pool.retrieve(c));
+        assertNull(pool.retrieve(a));
+        assertSame(fromB, pool.retrieve(c));
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void indexedSameAsScan() {
+        for (int nLearners : new int[]{2, 5, 30})
+            sameAsScan(new IndexedSubmissionPool(), nLearners);
+    }
+
+    private void sameAsScan(SubmissionPool pool, int nLearners) {
+        Random random = new Random(nLearners);
+        List<Learner> learners = new ArrayList<>();
+        for (int lid = 0; lid < nLearners; lid++)
+            learners.add(Learner.worker(lid, new TimeTick(0), 80, 0));
+        LinkedHashSet<Submission> reference = new LinkedHashSet<>();
+        List<Submission> held = new ArrayList<>();
+        for (int step = 0; step < 20_000; step++) {
+            Learner me = learners.get(random.nextInt(learners.size()));
+            int op = random.nextInt(3);
+            if (op == 0) {
+                Submission s = new Submission(me, 1, new TimeTick(step), SubmissionState.IN_FLIGHT, new LinkedList<>(), 0);
+                pool.submit(s);
+                reference.add(s);
+            } else if (op == 1 && !held.isEmpty()) {
+                Submission s = held.remove(random.nextInt(held.size()));
+                if (s.owner != me && !s.reviewers.contains(me) && s.isReviewable())
+                    s.provideReview(me, new TimeTick(step));
+                pool.resubmit(s);
+                reference.add(s);
+            } else {
+                Submission expected = scan(reference, me);
+                assertSame(expected, pool.retrieve(me));
+                if (expected != null)
+                    held.add(expected);
+            }
+            assertEquals(reference.size(), pool.size());
+        }
+    }
+
+    @Test
+    public void policiesHandOutTheirFirstEligible() {
+        Function<Learner, Comparator<Submission>> fewestReviews = me -> Comparator.comparingInt(s -> s.reviewers.size());
+        Function<Learner, Comparator<Submission>> oldest = me -> Comparator.comparingLong(s -> s.tick);
+        Function<Learner, Comparator<Submission>> closestBias = me -> Comparator
+                .<Submission>comparingInt(s -> Math.abs(s.owner.reviewBias - me.reviewBias))
+                .thenComparingInt(s -> s.owner.reviewBias);
+        for (int nLearners : new int[]{2, 5, 30}) {
+            sameAsReference(ReviewAssignmentPolicies.fewestReviewsFirst(), fewestReviews, nLearners);
+            sameAsReference(ReviewAssignmentPolicies.oldestFirst(), oldest, nLearners);
+            sameAsReference(ReviewAssignmentPolicies.closestReviewBias(), closestBias, nLearners);
+            sameAsReference(ReviewAssignmentPolicies.insertionOrder(), me -> (s, t) -> 0, nLearners);
+        }
+    }
+
+    /**
+     * Checks the given policy against a walk over all the pooled submissions for the first eligible one in the given
+     * order, the order they were added in breaking ties.
+     */
+    private void sameAsReference(ReviewAssignmentPolicy policy, Function<Learner, Comparator<Submission>> first,
+                                 int nLearners) {
+        SubmissionPool pool = new SubmissionPool(policy);
+        Random random = new Random(nLearners);
+        List<Learner> learners = new ArrayList<>();
+        for (int lid = 0; lid < nLearners; lid++)
+            learners.add(Learner.worker(lid, new TimeTick(0), 80, random.nextInt(21) - 10));
+        Map<Submission, Integer> added = new IdentityHashMap<>(); // the pooled submissions, and when they were added
+        List<Submission> held = new ArrayList<>();
+        for (int step = 0; step < 5_000; step++) {
+            Learner me = learners.get(random.nextInt(learners.size()));
+            int op = random.nextInt(3);
+            if (op == 0) {
+                Submission s = new Submission(me, 1, new TimeTick(random.nextInt(step + 1)), SubmissionState.IN_FLIGHT,
+                        new LinkedList<>(), 0);
+                pool.submit(s);
+                added.put(s, step);
+            } else if (op == 1 && !held.isEmpty()) {
+                Submission s = held.remove(random.nextInt(held.size()));
+                if (s.owner != me && !s.reviewers.contains(me) && s.isReviewable())
+                    s.provideReview(me, new TimeTick(step));
+                pool.resubmit(s);
+                added.put(s, step);
+            } else {
+                Submission expected = added.keySet().stream()
+                        .filter(s -> ReviewAssignmentPolicy.mayReview(me, s))
+                        .min(first.apply(me).thenComparing(added::get)).orElse(null);
+                assertSame(expected, pool.retrieve(me));
+                if (expected != null) {
+                    added.remove(expected);
+                    held.add(expected);
+                }
+            }
+            assertEquals(added.size(), pool.size());
+        }
+        List<Submission> inOrder = new ArrayList<>();
+        pool.forEachInOrder(inOrder::add);
+        List<Submission> expected = new ArrayList<>(added.keySet());
+        expected.sort(Comparator.comparing(added::get));
+        assertEquals(expected, inOrder);
+    }
+
+    @Test
+    public void theLoopsAgreeUnderEveryPolicy() {
+        int ticks = 3000;
+        String input = EventLoopTest.randomInput(12, ticks, 300);
+        for (String policy : new String[]{"fewest-reviews", "oldest", "closest-bias"}) {
+            List<String> expected = new ArrayList<>();
+            Simulator.mainLoop(0, ticks, EventLoopTest.learners(input),
+                    new SubmissionPool(ReviewAssignmentPolicies.forName(policy)), s -> {
+                        if (s != null)
+                            expected.add(s.toOutput());
+                    });
+            List<String> actual = new ArrayList<>();
+            EventLoop.run(0, ticks, EventLoopTest.learners(input),
+                    new SubmissionPool(ReviewAssignmentPolicies.forName(policy)), s -> actual.add(s.toOutput()));
+            assertEquals(policy, expected, actual);
+            actual.clear();
+            ParallelLoop.run(0, ticks, EventLoopTest.learners(input),
+                    new SubmissionPool(ReviewAssignmentPolicies.forName(policy)), 3, s -> actual.add(s.toOutput()));
+            assertEquals(policy, expected, actual);
+        }
+    }
+
+    @Test
+    public void handsOffToTheLongestWaitingEligible() {
+        SubmissionPool pool = SubmissionPool.handingOff(ReviewAssignmentPolicies.insertionOrder());
+        Learner a = awaiting(1), b = awaiting(2), c = awaiting(3);
+        assertNull(pool.retrieve(a));
+        assertNull(pool.retrieve(b));
+        assertNull(pool.retrieve(c));
+        Submission fromA = a.submissions.peekLast(), fromB = b.submissions.peekLast();
+        pool.submit(fromA); // a waited the longest, but may not review its own
+        assertSame(b, pool.handedOffTo(fromA));
+        assertEquals(1, pool.size());
+        pool.submit(fromB);
+        assertSame(a, pool.handedOffTo(fromB));
+        assertNull(pool.retrieve(c));
+        assertSame(fromB, pool.retrieve(a));
+        assertSame(fromA, pool.retrieve(b));
+        fromA.provideReview(b, new TimeTick(2));
+        a.submissions.add(new Submission(a, 1, new TimeTick(2), SubmissionState.IN_FLIGHT, new LinkedList<>(), 1));
+        pool.resubmit(fromA); // c may review it, b may not, and a gave up waiting when it failed
+        assertSame(c, pool.handedOffTo(fromA));
+        pool.resubmit(fromB);
+        assertNull(pool.handedOffTo(fromB));
+        assertNull(pool.retrieve(b));
+        assertSame(fromA, pool.retrieve(c));
+        assertSame(fromB, pool.retrieve(c));
+        assertEquals(0, pool.size());
+    }
+
+    private static Learner awaiting(int lid) {
+        Learner learner = Learner.worker(lid, new TimeTick(0), 80, 0);
+        learner.submissions.add(new Submission(learner, 1, new TimeTick(lid), SubmissionState.SUBMITTED_TO_REVIEW,
+                new LinkedList<>(), 0));
+        return learner;
+    }
+
+    @Test
+    public void theLoopsAgreeWhenHandingOff() {
+        int ticks = 3000;
+        String input = EventLoopTest.randomInput(13, ticks, 300);
+        for (String policy : new String[]{"insertion-order", "fewest-reviews"}) {
+            List<String> expected = new ArrayList<>();
+            Simulator.mainLoop(0, ticks, EventLoopTest.learners(input),
+                    SubmissionPool.handingOff(ReviewAssignmentPolicies.forName(policy)), s -> {
+                        if (s != null)
+                            expected.add(s.toOutput());
+                    });
+            assertNotEquals(policy, EventLoopTest.tickOutput(input, ticks), expected);
+            List<String> actual = new ArrayList<>();
+            EventLoop.run(0, ticks, EventLoopTest.learners(input),
+                    SubmissionPool.handingOff(ReviewAssignmentPolicies.forName(policy)), s -> actual.add(s.toOutput()));
+            assertEquals(policy, expected, actual);
+            actual.clear();
+            ParallelLoop.run(0, ticks, EventLoopTest.learners(input),
+                    SubmissionPool.handingOff(ReviewAssignmentPolicies.forName(policy)), 3,
+                    s -> actual.add(s.toOutput()));
+            assertEquals(policy, expected, actual);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class TimingWheelTest {
+
+    @Test
+    public void millionsOfKeysPollInOrder() {
+        Random random = new Random(20);
+        TimingWheel wheel = new TimingWheel(5);
+        EventQueue reference = new EventQueue(1 << 20);
+        for (int n = 0; n < 1_200_000; n++) {
+            long tick = 5 + random.nextInt(1 << (random.nextInt(4) == 0 ? 28 : 16));
+            long key = tick << 32 | random.nextInt(1000);
+            wheel.add(key);
+            reference.add(key);
+        }
+        assertEquals(reference.size(), wheel.size());
+        while (!reference.isEmpty()) {
+            long expected = reference.poll();
+            assertEquals(expected, wheel.poll());
+            if (random.nextInt(8) == 0) { // a timer for later, or for a later learner now
+                long tick = wheel.now() + (random.nextBoolean() ? 0 : 1 + random.nextInt(1 << 12));
+                long key = tick << 32 | (tick == wheel.now() ? (int) expected + 1 + random.nextInt(10) : 0);
+                wheel.add(key);
+                reference.add(key);
+            }
+        }
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsThePast() {
+        TimingWheel wheel = new TimingWheel(0);
+        wheel.add(10L << 32);
+        wheel.poll();
+        wheel.add(9L << 32);
+    }
+}
@@ -0,0 +1,100 @@
+package org.kedar.pra;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.kedar.pra.EventLoopTest.learners;
+import static org.kedar.pra.EventLoopTest.randomInput;
+
+/**
+ * Created by kedar on 10/15/16.
+ */
+public class WhatIfTest {
+
+    @Test
+    public void rerunsMatchAFullRunOfTheEditedPopulation() {
+        Random random = new Random(11);
+        for (long seed = 0; seed < 6; seed++) {
+            String input = randomInput(seed, 3000, 150);
+            WhatIf whatIf = WhatIf.record(3000, learners(input), 250);
+            assertEquals(fullRun(input, 3000), whatIf.output());
+            for (int i = 0; i < 8; i++) {
+                List<WhatIf.Edit> edits = new ArrayList<>();
+                edits.add(WhatIf.Edit.of(1 + random.nextInt(75)).withStartTick(random.nextInt(2000)));
+                edits.add(WhatIf.Edit.of(76 + random.nextInt(25)).withReviewBias(random.nextInt(21) - 10));
+                edits.add(WhatIf.Edit.of(101 + random.nextInt(50)).withTrueGrade(40 + random.nextInt(61)));
+                List<WhatIf.Edit> one = edits.subList(i % 3, i % 3 + 1);
+                assertEquals(fullRun(input, 3000, one), whatIf.rerun(one).output);
+                assertEquals(fullRun(input, 3000, edits), whatIf.rerun(edits).output);
+            }
+        }
+    }
+
+    @Test
+    public void aLateEditResumesFromALateFork() {
+        String input = randomInput(4, 3000, 150);
+        WhatIf whatIf = WhatIf.record(3000, learners(input), 100);
+        Learner last = null;
+        for (Learner learner : learners(input))
+            if (last == null || learner.firstSubmissionStartTick.getValue() > last.firstSubmissionStartTick.getValue())
+                last = learner;
+        long start = last.firstSubmissionStartTick.getValue();
+        WhatIf.Edit edit = WhatIf.Edit.parse(last.lid + ":start=" + (start + 50));
+        WhatIf.Outcome outcome = whatIf.rerun(edit);
+        assertEquals(start, outcome.divergedAt);
+        assertEquals(start / 100 * 100, outcome.resumedFrom);
+        assertTrue(outcome.affected.contains(last.lid));
+        assertEquals(fullRun(input, 3000, Collections.singletonList(edit)), outcome.output);
+    }
+
+    @Test
+    public void anEditThatChangesNothingReusesTheRecording() {
+        String input = randomInput(2, 2000, 80);
+        WhatIf whatIf = WhatIf.record(2000, learners(input), 300);
+        Learner first = learners(input).iterator().next();
+        WhatIf.Outcome outcome = whatIf.rerun(WhatIf.Edit.of(first.lid).withReviewBias(first.reviewBias));
+        assertEquals(2000, outcome.divergedAt);
+        assertEquals(0, outcome.simulatedTicks());
+        assertTrue(outcome.affected.isEmpty());
+        assertEquals(whatIf.output(), outcome.output);
+    }
+
+    @Test
+    public void aBiasEditThatDiesOutRunsOnlyItsConeUntilItReconverges() {
+        String input = randomInput(5, 3000, 150);
+        WhatIf whatIf = WhatIf.record(3000, learners(input), 250);
+        WhatIf.Edit edit = WhatIf.Edit.parse("81:bias=-2");
+        WhatIf.Outcome outcome = whatIf.rerun(edit);
+        assertTrue(outcome.reconvergedAt < 3000);
+        assertTrue(outcome.affected.contains(81));
+        assertTrue(outcome.affected.size() < 150 / 10);
+        assertEquals(fullRun(input, 3000, Collections.singletonList(edit)), outcome.output);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownLearnersAreRejected() {
+        WhatIf.record(500, learners(randomInput(1, 500, 10)), 100).rerun(WhatIf.Edit.parse("11:bias=2"));
+    }
+
+    private static List<String> fullRun(String input, int ticks) {
+        return fullRun(input, ticks, new ArrayList<>());
+    }
+
+    private static List<String> fullRun(String input, int ticks, List<WhatIf.Edit> edits) {
+        List<Learner> learners = new ArrayList<>();
+        for (Learner learner : learners(input)) {
+            for (WhatIf.Edit edit : edits)
+                if (edit.lid == learner.lid)
+                    learner = edit.apply(learner);
+            learners.add(learner);
+        }
+        List<String> out = new ArrayList<>();
+        EventLoop.run(0, ticks, learners, new SubmissionPool(), s -> out.add(s.toOutput()));
+        return out;
+    }
+}